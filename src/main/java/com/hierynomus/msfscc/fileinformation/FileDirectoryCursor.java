@@ -0,0 +1,218 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.msfscc.fileinformation;
+
+import com.hierynomus.msdtyp.FileTime;
+import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.msfscc.FileInformationClass;
+import com.hierynomus.protocol.commons.Charsets;
+import com.hierynomus.protocol.commons.EnumWithValue;
+import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.Endian;
+import com.hierynomus.smbj.common.SMBRuntimeException;
+
+/**
+ * A cursor over the entries in the output buffer of a QUERY_DIRECTORY response, which reads the fields of the entry it
+ * is positioned on from the buffer when they are asked for, instead of decoding every entry into an object. The file
+ * name is a view on the buffer as well, so that entries can be filtered by name, attributes, size or time without
+ * creating any objects. Only the entries that are kept need to be decoded, with {@link #read()}.
+ * <p/>
+ * The times are returned as Windows time stamps, which can be converted with {@link FileTime#FileTime(long)}.
+ * {@link FileNamesInformation} entries only have a file index and a file name, their other fields are 0.
+ */
+public class FileDirectoryCursor<F extends FileDirectoryQueryableInformation> {
+    private static final int FILE_NAMES_NAME_LENGTH_OFFSET = 8;
+    private static final int CREATION_TIME_OFFSET = 8;
+    private static final int LAST_ACCESS_TIME_OFFSET = 16;
+    private static final int LAST_WRITE_TIME_OFFSET = 24;
+    private static final int CHANGE_TIME_OFFSET = 32;
+    private static final int END_OF_FILE_OFFSET = 40;
+    private static final int ALLOCATION_SIZE_OFFSET = 48;
+    private static final int FILE_ATTRIBUTES_OFFSET = 56;
+    private static final int FILE_NAME_LENGTH_OFFSET = 60;
+
+    private final byte[] data;
+    private final FileInformation.Decoder<F> decoder;
+    private final boolean namesOnly;
+    private final int fileNameOffset;
+    private final FileNameView fileName = new FileNameView();
+    private int entry = -1;
+    private int nextEntry = 0;
+
+    FileDirectoryCursor(byte[] data, FileInformation.Decoder<F> decoder) {
+        this.data = data;
+        this.decoder = decoder;
+        FileInformationClass informationClass = decoder.getInformationClass();
+        this.namesOnly = informationClass == FileInformationClass.FileNamesInformation;
+        this.fileNameOffset = fileNameOffset(informationClass);
+    }
+
+    private static int fileNameOffset(FileInformationClass informationClass) {
+        switch (informationClass) {
+            case FileNamesInformation:
+                return 12;
+            case FileDirectoryInformation:
+                return 64;
+            case FileFullDirectoryInformation:
+                return 68;
+            case FileIdFullDirectoryInformation:
+                return 80;
+            case FileBothDirectoryInformation:
+                return 94;
+            case FileIdBothDirectoryInformation:
+                return 104;
+            default:
+                throw new IllegalArgumentException("Not a directory information class: " + informationClass);
+        }
+    }
+
+    /**
+     * Move to the next entry.
+     *
+     * @return <code>false</code> if there are no more entries
+     */
+    public boolean next() {
+        if (nextEntry < 0 || nextEntry >= data.length) {
+            entry = -1;
+            nextEntry = -1;
+            return false;
+        }
+        entry = nextEntry;
+        if (entry + fileNameOffset > data.length) {
+            throw new SMBRuntimeException("Directory entry at offset " + entry + " exceeds the buffer of " + data.length + " bytes");
+        }
+        int fileNameLength = (int) readUInt32(namesOnly ? FILE_NAMES_NAME_LENGTH_OFFSET : FILE_NAME_LENGTH_OFFSET);
+        if (fileNameLength < 0 || (long) entry + fileNameOffset + fileNameLength > data.length) {
+            throw new SMBRuntimeException("Directory entry at offset " + entry + " exceeds the buffer of " + data.length + " bytes");
+        }
+        fileName.length = fileNameLength / 2;
+        long nextOffset = readUInt32(0);
+        nextEntry = nextOffset == 0 ? -1 : entry + (int) nextOffset;
+        return true;
+    }
+
+    public long getFileIndex() {
+        return readUInt32(4);
+    }
+
+    /**
+     * The file name of the entry, as a view on the buffer. It is only valid until the cursor is moved, use
+     * <code>toString()</code> to keep it.
+     */
+    public CharSequence getFileName() {
+        return fileName;
+    }
+
+    public long getCreationTime() {
+        return namesOnly ? 0 : readLong(CREATION_TIME_OFFSET);
+    }
+
+    public long getLastAccessTime() {
+        return namesOnly ? 0 : readLong(LAST_ACCESS_TIME_OFFSET);
+    }
+
+    public long getLastWriteTime() {
+        return namesOnly ? 0 : readLong(LAST_WRITE_TIME_OFFSET);
+    }
+
+    public long getChangeTime() {
+        return namesOnly ? 0 : readLong(CHANGE_TIME_OFFSET);
+    }
+
+    public long getEndOfFile() {
+        return namesOnly ? 0 : readLong(END_OF_FILE_OFFSET);
+    }
+
+    public long getAllocationSize() {
+        return namesOnly ? 0 : readLong(ALLOCATION_SIZE_OFFSET);
+    }
+
+    public long getFileAttributes() {
+        return namesOnly ? 0 : readUInt32(FILE_ATTRIBUTES_OFFSET);
+    }
+
+    public boolean isSet(FileAttributes attribute) {
+        return EnumWithValue.EnumUtils.isSet(getFileAttributes(), attribute);
+    }
+
+    /**
+     * Decode the entry the cursor is positioned on.
+     */
+    public F read() {
+        checkPositioned();
+        Buffer.PlainBuffer buffer = new Buffer.PlainBuffer(data, Endian.LE);
+        buffer.rpos(entry);
+        try {
+            return decoder.read(buffer);
+        } catch (Buffer.BufferException e) {
+            throw new SMBRuntimeException(e);
+        }
+    }
+
+    private void checkPositioned() {
+        if (entry < 0) {
+            throw new IllegalStateException("The cursor is not positioned on an entry");
+        }
+    }
+
+    private long readUInt32(int offset) {
+        checkPositioned();
+        int i = entry + offset;
+        return (data[i] & 0xFFL) | (data[i + 1] & 0xFFL) << 8 | (data[i + 2] & 0xFFL) << 16 | (data[i + 3] & 0xFFL) << 24;
+    }
+
+    private long readLong(int offset) {
+        return readUInt32(offset) | readUInt32(offset + 4) << 32;
+    }
+
+    /**
+     * Selects the entries of a directory that are decoded.
+     */
+    public interface Filter {
+        boolean accept(FileDirectoryCursor<?> entry);
+    }
+
+    /**
+     * The UTF-16LE file name of the current entry.
+     */
+    private class FileNameView implements CharSequence {
+        private int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+            }
+            int i = entry + fileNameOffset + 2 * index;
+            return (char) ((data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(data, entry + fileNameOffset, 2 * length, Charsets.UTF_16LE);
+        }
+    }
+}
@@ -368,6 +368,14 @@ public class FileInformationFactory {
         return new FileInfoIterator<>(data, decoder, 0);
     }
 
+    /**
+     * @return a cursor over the entries in the output buffer of a QUERY_DIRECTORY response, positioned before the
+     * first entry
+     */
+    public static <F extends FileDirectoryQueryableInformation> FileDirectoryCursor<F> createFileInformationCursor(byte[] data, FileInformation.Decoder<F> decoder) {
+        return new FileDirectoryCursor<>(data, decoder);
+    }
+
     private static class FileInfoIterator<F extends FileDirectoryQueryableInformation> implements Iterator<F> {
         private final Buffer.PlainBuffer buffer;
         private final FileInformation.Decoder<F> decoder;
@@ -16,6 +16,7 @@
 package com.hierynomus.mssmb;
 
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.protocol.transport.PacketFactory;
 
 import java.io.IOException;
@@ -26,6 +27,11 @@ public class SMB1PacketFactory implements PacketFactory<SMB1PacketData> {
         throw new SMB1NotSupportedException();
     }
 
+    @Override
+    public SMB1PacketData read(PooledArray data) throws Buffer.BufferException, IOException {
+        throw new SMB1NotSupportedException();
+    }
+
     @Override
     public boolean canHandle(byte[] data) {
         return data[0] == (byte) 0xFF && data[1] == 'S' && data[2] == 'M' && data[3] == 'B';
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.mssmb2;
+
+import com.hierynomus.protocol.commons.EnumWithValue;
+import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.smb.SMBBuffer;
+
+/**
+ * [MS-SMB2].pdf 2.2.42.2.1 SMB2_COMPRESSION_CHAINED_PAYLOAD_HEADER
+ * <p/>
+ * For the LZNT1, LZ77 and LZ77+Huffman algorithms the header is followed by the OriginalPayloadSize field, which is
+ * counted in the Length of the payload.
+ */
+public class SMB2CompressionPayloadHeader {
+    private SMB3CompressionAlgorithm compressionAlgorithm;
+    private int length;
+    private int originalPayloadSize;
+
+    public SMB2CompressionPayloadHeader() {
+    }
+
+    /**
+     * @param dataLength          the number of bytes of payload data following the header
+     * @param originalPayloadSize the size of the payload data once decompressed
+     */
+    public SMB2CompressionPayloadHeader(SMB3CompressionAlgorithm compressionAlgorithm, int dataLength, int originalPayloadSize) {
+        this.compressionAlgorithm = compressionAlgorithm;
+        this.originalPayloadSize = originalPayloadSize;
+        this.length = hasOriginalPayloadSize() ? dataLength + 4 : dataLength;
+    }
+
+    public void writeTo(SMBBuffer buffer) {
+        buffer.putUInt16((int) compressionAlgorithm.getValue()); // CompressionAlgorithm (2 bytes)
+        buffer.putUInt16(SMB2CompressionTransformHeader.SMB2_COMPRESSION_FLAG_CHAINED); // Flags (2 bytes)
+        buffer.putUInt32(length); // Length (4 bytes)
+        if (hasOriginalPayloadSize()) {
+            buffer.putUInt32(originalPayloadSize); // OriginalPayloadSize (4 bytes)
+        }
+    }
+
+    public void readFrom(Buffer<?> buffer) throws Buffer.BufferException {
+        int algorithm = buffer.readUInt16(); // CompressionAlgorithm (2 bytes)
+        this.compressionAlgorithm = EnumWithValue.EnumUtils.valueOf(algorithm, SMB3CompressionAlgorithm.class, null);
+        if (compressionAlgorithm == null) {
+            throw new Buffer.BufferException("Unknown CompressionAlgorithm " + algorithm + " in SMB2_COMPRESSION_CHAINED_PAYLOAD_HEADER");
+        }
+        buffer.skip(2); // Flags (2 bytes)
+        this.length = buffer.readUInt32AsInt(); // Length (4 bytes)
+        if (hasOriginalPayloadSize()) {
+            this.originalPayloadSize = buffer.readUInt32AsInt(); // OriginalPayloadSize (4 bytes)
+        }
+    }
+
+    private boolean hasOriginalPayloadSize() {
+        return compressionAlgorithm != SMB3CompressionAlgorithm.NONE && compressionAlgorithm != SMB3CompressionAlgorithm.PATTERN_V1;
+    }
+
+    public SMB3CompressionAlgorithm getCompressionAlgorithm() {
+        return compressionAlgorithm;
+    }
+
+    /**
+     * @return the number of bytes of payload data following the header (and its OriginalPayloadSize field)
+     */
+    public int getDataLength() {
+        return hasOriginalPayloadSize() ? length - 4 : length;
+    }
+
+    /**
+     * @return the decompressed size of the payload data, only present for the LZNT1, LZ77 and LZ77+Huffman algorithms
+     */
+    public int getOriginalPayloadSize() {
+        return originalPayloadSize;
+    }
+}
@@ -22,22 +22,52 @@ import com.hierynomus.smb.SMBHeader;
 import com.hierynomus.smbj.common.Check;
 
 /**
- * [MS-SMB2] 2.2.42 SMB2 COMPRESSION_TRANSFORM_HEADER
- * <p>
- * The SMB2 COMPRESSION_TRANSFORM_HEADER is used by the client or server when sending compressed messages.
- * This optional header is only valid for the SMB 3.1.1 dialect<73>.
+ * [MS-SMB2].pdf 2.2.42 SMB2 COMPRESSION_TRANSFORM_HEADER
+ * <p/>
+ * An unchained header describes a single compressed segment that follows an uncompressed prefix of {@link #getOffset()}
+ * bytes. A chained header is only followed by a list of payloads which each have their own
+ * {@link SMB2CompressionPayloadHeader}, after reading a chained header the buffer is positioned at the first of them.
  */
 public class SMB2CompressionTransformHeader implements SMBHeader {
     public static final byte[] COMPRESSED_PROTOCOL_ID = {(byte) 0xFC, 'S', 'M', 'B'};
+    public static final int SMB2_COMPRESSION_FLAG_NONE = 0x0000;
+    public static final int SMB2_COMPRESSION_FLAG_CHAINED = 0x0001;
     private int headerStartPosition;
     private int originalCompressedSegmentSize;
     private SMB3CompressionAlgorithm compressionAlgorithm;
+    private boolean chained;
     private int offset;
     private int messageEndPosition;
 
+    public SMB2CompressionTransformHeader() {
+    }
+
+    /**
+     * Create an unchained header, for a message that is compressed after its first <code>offset</code> bytes.
+     */
+    public SMB2CompressionTransformHeader(int originalCompressedSegmentSize, SMB3CompressionAlgorithm compressionAlgorithm, int offset) {
+        this.originalCompressedSegmentSize = originalCompressedSegmentSize;
+        this.compressionAlgorithm = compressionAlgorithm;
+        this.offset = offset;
+    }
+
+    /**
+     * Create a chained header, for a message of <code>originalSize</code> bytes.
+     */
+    public SMB2CompressionTransformHeader(int originalSize) {
+        this.originalCompressedSegmentSize = originalSize;
+        this.chained = true;
+    }
+
     @Override
     public void writeTo(SMBBuffer buffer) {
-
+        buffer.putRawBytes(COMPRESSED_PROTOCOL_ID); // ProtocolId (4 bytes)
+        buffer.putUInt32(originalCompressedSegmentSize & 0xFFFFFFFFL); // OriginalCompressedSegmentSize (4 bytes)
+        if (!chained) {
+            buffer.putUInt16((int) compressionAlgorithm.getValue()); // CompressionAlgorithm (2 bytes)
+            buffer.putUInt16(SMB2_COMPRESSION_FLAG_NONE); // Flags (2 bytes)
+            buffer.putUInt32(offset); // Offset (4 bytes)
+        }
     }
 
     @Override
@@ -46,10 +76,17 @@ public class SMB2CompressionTransformHeader implements SMBHeader {
         byte[] protocolId = buffer.readRawBytes(4); // ProtocolId (4 bytes) (already verified)
         Check.ensureEquals(protocolId, COMPRESSED_PROTOCOL_ID, "Could not find SMB2 Packet header");
         this.originalCompressedSegmentSize = buffer.readUInt32AsInt(); // OriginalCompressedSegmentSize (4 bytes)
+        int payloadStart = buffer.rpos();
         this.compressionAlgorithm = EnumWithValue.EnumUtils.valueOf(buffer.readUInt16(), SMB3CompressionAlgorithm.class, null);
-        Check.ensure(compressionAlgorithm != null && compressionAlgorithm != SMB3CompressionAlgorithm.NONE, "The CompressionAlgorithm field of the SMB2_COMPRESSION_TRANSFORM_HEADER should contain a valid value.");
-        buffer.skip(2);
-        this.offset = buffer.readUInt32AsInt(); // Offset (4 bytes)
+        this.chained = (buffer.readUInt16() & SMB2_COMPRESSION_FLAG_CHAINED) != 0; // Flags (2 bytes)
+        if (chained) {
+            // The algorithm and flags were those of the first payload header, leave them for the payload to read.
+            this.compressionAlgorithm = null;
+            buffer.rpos(payloadStart);
+        } else {
+            Check.ensure(compressionAlgorithm != null && compressionAlgorithm != SMB3CompressionAlgorithm.NONE, "The CompressionAlgorithm field of the SMB2_COMPRESSION_TRANSFORM_HEADER should contain a valid value.");
+            this.offset = buffer.readUInt32AsInt(); // Offset (4 bytes)
+        }
         this.messageEndPosition = buffer.wpos();
     }
 
@@ -63,14 +100,25 @@ public class SMB2CompressionTransformHeader implements SMBHeader {
         return messageEndPosition;
     }
 
+    /**
+     * @return the size of the data after {@link #getOffset()} once decompressed, or the size of the whole message if
+     * the header is {@link #isChained() chained}
+     */
     public int getOriginalCompressedSegmentSize() {
         return originalCompressedSegmentSize;
     }
 
+    /**
+     * @return the algorithm of an unchained header, or <code>null</code> if it is chained
+     */
     public SMB3CompressionAlgorithm getCompressionAlgorithm() {
         return compressionAlgorithm;
     }
 
+    public boolean isChained() {
+        return chained;
+    }
+
     public int getOffset() {
         return offset;
     }
@@ -16,6 +16,7 @@
 package com.hierynomus.mssmb2;
 
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.smb.SMBBuffer;
 
 /**
@@ -31,10 +32,17 @@ public class SMB2DecryptedPacketData extends SMB2PacketData {
         super(dataBuffer);
     }
 
+    /**
+     * @param pooledArray the pooled array the message was received and decrypted in, or <code>null</code>
+     */
+    public SMB2DecryptedPacketData(SMBBuffer dataBuffer, PooledArray pooledArray) throws Buffer.BufferException {
+        super(dataBuffer, pooledArray);
+    }
+
 
     public SMB2PacketData next() throws Buffer.BufferException {
         if (isCompounded()) {
-            return new SMB2DecryptedPacketData(dataBuffer);
+            return new SMB2DecryptedPacketData(nextMessageBuffer(), getPooledArray());
         } else {
             return null;
         }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.mssmb2;
+
+import com.hierynomus.protocol.commons.EnumWithValue;
+
+/**
+ * [MS-SMB2].pdf 2.2.13.2.8 SMB2_CREATE_REQUEST_LEASE - LeaseState
+ */
+public enum SMB2LeaseState implements EnumWithValue<SMB2LeaseState> {
+    SMB2_LEASE_READ_CACHING(0x01L),
+    SMB2_LEASE_HANDLE_CACHING(0x02L),
+    SMB2_LEASE_WRITE_CACHING(0x04L);
+
+    private long value;
+
+    SMB2LeaseState(long value) {
+        this.value = value;
+    }
+
+    public long getValue() {
+        return value;
+    }
+}
@@ -68,6 +68,11 @@ public class SMB2MessageConverter {
             case SMB2_LOCK:
                 return new SMB2LockResponse();
             case SMB2_OPLOCK_BREAK:
+                if (packetData.isOplockBreakNotification()) {
+                    // Only leases are requested, so this is a Lease Break Notification
+                    return new SMB2LeaseBreakNotification();
+                }
+                return new SMB2LeaseBreakAcknowledgment();
             default:
                 System.out.println("tempGT2: Unknown SMB2 Message Command type: " + command);
                 throw new SMBRuntimeException("Unknown SMB2 Message Command type: " + command);
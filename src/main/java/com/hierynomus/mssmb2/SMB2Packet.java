@@ -19,6 +19,7 @@ import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.isSet;
 
 import com.hierynomus.mserref.NtStatus;
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.smb.SMBBuffer;
 import com.hierynomus.smb.SMBPacket;
 
@@ -27,6 +28,7 @@ public class SMB2Packet extends SMBPacket<SMB2PacketData, SMB2PacketHeader> {
     public static final int SINGLE_CREDIT_PAYLOAD_SIZE = 64 * 1024;
     protected int structureSize;
     private SMB2Error error;
+    private PooledArray pooledArray;
 
     protected SMB2Packet() {
         super(new SMB2PacketHeader());
@@ -58,7 +60,8 @@ public class SMB2Packet extends SMBPacket<SMB2PacketData, SMB2PacketHeader> {
     }
 
     /**
-     * The buffer from which this packet is read if it was a received packet
+     * The buffer from which this packet is read if it was a received packet. If the packet was received in a pooled
+     * array, the buffer can only be read after the packet is handled if the packet {@link #retainsReceivedData()}.
      *
      * @return The buffer
      */
@@ -88,6 +91,7 @@ public class SMB2Packet extends SMBPacket<SMB2PacketData, SMB2PacketHeader> {
         this.header = packetData.getHeader();
         readMessage(buffer);
         buffer.rpos(this.header.getMessageEndPosition());
+        retain(packetData);
     }
 
     final void readError(SMB2PacketData packetData) throws Buffer.BufferException {
@@ -95,6 +99,34 @@ public class SMB2Packet extends SMBPacket<SMB2PacketData, SMB2PacketHeader> {
         this.header = packetData.getHeader();
         this.error = new SMB2Error().read(header, buffer);
         buffer.rpos(this.header.getMessageEndPosition());
+        retain(packetData);
+    }
+
+    private void retain(SMB2PacketData packetData) {
+        if (retainsReceivedData() && packetData.getPooledArray() != null) {
+            pooledArray = packetData.getPooledArray();
+            pooledArray.retain();
+        }
+    }
+
+    /**
+     * Whether this packet still reads the data it was received in after it is handed out. If so, a pooled array the
+     * packet was received in is only given back to the pool once the packet is {@link #release() released}.
+     */
+    protected boolean retainsReceivedData() {
+        return false;
+    }
+
+    /**
+     * Give the pooled array that this packet was received in back to the pool, if the packet retained it. The data of
+     * the packet must no longer be read. A packet that is not released only keeps the array from being reused.
+     */
+    public void release() {
+        PooledArray array = pooledArray;
+        pooledArray = null;
+        if (array != null) {
+            array.release();
+        }
     }
 
     /**
@@ -17,6 +17,7 @@ package com.hierynomus.mssmb2;
 
 import com.hierynomus.mserref.NtStatus;
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.smb.SMBBuffer;
 import com.hierynomus.smb.SMBPacketData;
 
@@ -35,10 +36,18 @@ public class SMB2PacketData extends SMBPacketData<SMB2PacketHeader> {
         super(new SMB2PacketHeader(), data);
     }
 
+    public SMB2PacketData(PooledArray data) throws Buffer.BufferException {
+        super(new SMB2PacketHeader(), data);
+    }
+
     SMB2PacketData(SMBBuffer buffer) throws Buffer.BufferException {
         super(new SMB2PacketHeader(), buffer);
     }
 
+    SMB2PacketData(SMBBuffer buffer, PooledArray pooledArray) throws Buffer.BufferException {
+        super(new SMB2PacketHeader(), buffer, pooledArray);
+    }
+
     public long getSequenceNumber() {
         return getHeader().getMessageId();
     }
@@ -77,12 +86,23 @@ public class SMB2PacketData extends SMBPacketData<SMB2PacketHeader> {
 
     public SMB2PacketData next() throws Buffer.BufferException {
         if (isCompounded()) {
-            return new SMB2PacketData(dataBuffer);
+            return new SMB2PacketData(nextMessageBuffer(), getPooledArray());
         } else {
             return null;
         }
     }
 
+    /**
+     * The next message of a compounded response is read from its own view on the received data, so that it does not
+     * matter whether (or when) the body of this message is read.
+     */
+    protected SMBBuffer nextMessageBuffer() {
+        SMBBuffer buffer = new SMBBuffer(dataBuffer.array());
+        buffer.wpos(dataBuffer.wpos());
+        buffer.rpos(getHeader().getMessageEndPosition());
+        return buffer;
+    }
+
     public boolean isDecrypted() {
         return false;
     }
@@ -16,6 +16,7 @@
 package com.hierynomus.mssmb2;
 
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.protocol.transport.PacketFactory;
 
 public class SMB2PacketFactory implements PacketFactory<SMB2PacketData> {
@@ -25,6 +26,11 @@ public class SMB2PacketFactory implements PacketFactory<SMB2PacketData> {
         return new SMB2PacketData(data);
     }
 
+    @Override
+    public SMB2PacketData read(PooledArray data) throws Buffer.BufferException {
+        return new SMB2PacketData(data);
+    }
+
     @Override
     public boolean canHandle(byte[] data) {
         return data[0] == (byte) 0xFE && data[1] == 'S' && data[2] == 'M' && data[3] == 'B';
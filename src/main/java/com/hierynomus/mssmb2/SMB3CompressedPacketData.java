@@ -16,6 +16,8 @@
 package com.hierynomus.mssmb2;
 
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
+import com.hierynomus.smb.SMBBuffer;
 import com.hierynomus.smb.SMBPacketData;
 
 public class SMB3CompressedPacketData extends SMBPacketData<SMB2CompressionTransformHeader> {
@@ -25,11 +27,20 @@ public class SMB3CompressedPacketData extends SMBPacketData<SMB2CompressionTrans
         this(data, false);
     }
 
+    public SMB3CompressedPacketData(PooledArray data) throws Buffer.BufferException {
+        super(new SMB2CompressionTransformHeader(), data);
+    }
+
     public SMB3CompressedPacketData(byte[] data, boolean decrypted) throws Buffer.BufferException {
         super(new SMB2CompressionTransformHeader(), data);
         this.decrypted = decrypted;
     }
 
+    public SMB3CompressedPacketData(SMBBuffer dataBuffer, boolean decrypted) throws Buffer.BufferException {
+        super(new SMB2CompressionTransformHeader(), dataBuffer);
+        this.decrypted = decrypted;
+    }
+
     public boolean isDecrypted() {
         return decrypted;
     }
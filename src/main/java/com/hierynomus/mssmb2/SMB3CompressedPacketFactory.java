@@ -16,6 +16,7 @@
 package com.hierynomus.mssmb2;
 
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.protocol.transport.PacketFactory;
 
 import java.io.IOException;
@@ -26,6 +27,11 @@ public class SMB3CompressedPacketFactory implements PacketFactory<SMB3Compressed
         return new SMB3CompressedPacketData(data);
     }
 
+    @Override
+    public SMB3CompressedPacketData read(PooledArray data) throws Buffer.BufferException {
+        return new SMB3CompressedPacketData(data);
+    }
+
     @Override
     public boolean canHandle(byte[] data) {
         return data[0] == (byte) 0xFC && data[1] == 'S' && data[2] == 'M' && data[3] == 'B';
@@ -21,7 +21,8 @@ public enum SMB3CompressionAlgorithm implements EnumWithValue<SMB3CompressionAlg
     NONE(0x0000),
     LZNT1(0x0001),
     LZ77(0x0002),
-    LZ77_HUFFMAN(0x0003);
+    LZ77_HUFFMAN(0x0003),
+    PATTERN_V1(0x0004);
 
     private long value;
 
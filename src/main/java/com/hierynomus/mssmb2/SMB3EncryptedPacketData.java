@@ -16,6 +16,7 @@
 package com.hierynomus.mssmb2;
 
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.smb.SMBPacketData;
 
 public class SMB3EncryptedPacketData extends SMBPacketData<SMB2TransformHeader> {
@@ -23,6 +24,10 @@ public class SMB3EncryptedPacketData extends SMBPacketData<SMB2TransformHeader>
         super(new SMB2TransformHeader(), data);
     }
 
+    public SMB3EncryptedPacketData(PooledArray data) throws Buffer.BufferException {
+        super(new SMB2TransformHeader(), data);
+    }
+
     public byte[] getCipherText() throws Buffer.BufferException {
         return getDataBuffer().readRawBytes(getHeader().getOriginalMessageSize());
     }
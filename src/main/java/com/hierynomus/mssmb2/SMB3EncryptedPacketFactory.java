@@ -16,6 +16,7 @@
 package com.hierynomus.mssmb2;
 
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.protocol.transport.PacketFactory;
 
 import java.io.IOException;
@@ -26,6 +27,11 @@ public class SMB3EncryptedPacketFactory implements PacketFactory<SMB3EncryptedPa
         return new SMB3EncryptedPacketData(data);
     }
 
+    @Override
+    public SMB3EncryptedPacketData read(PooledArray data) throws Buffer.BufferException {
+        return new SMB3EncryptedPacketData(data);
+    }
+
     @Override
     public boolean canHandle(byte[] data) {
         return data[0] == (byte) 0xFD && data[1] == 'S' && data[2] == 'M' && data[3] == 'B';
@@ -18,9 +18,11 @@ package com.hierynomus.mssmb2.messages;
 import com.hierynomus.msdtyp.AccessMask;
 import com.hierynomus.msfscc.FileAttributes;
 import com.hierynomus.mssmb2.*;
+import com.hierynomus.mssmb2.messages.submodule.SMB2Lease;
 import com.hierynomus.smb.SMBBuffer;
 import com.hierynomus.smbj.common.SmbPath;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Set;
 
 import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.ensureNotNull;
@@ -31,6 +33,8 @@ import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toLong;
  * <p>
  */
 public class SMB2CreateRequest extends SMB2Packet {
+    private static final byte SMB2_OPLOCK_LEVEL_LEASE = (byte) 0xFF;
+    private static final int CREATE_CONTEXT_HEADER_SIZE = 16;
 
     private final Set<FileAttributes> fileAttributes;
     private final Set<SMB2ShareAccess> shareAccess;
@@ -39,6 +43,8 @@ public class SMB2CreateRequest extends SMB2Packet {
     private final SmbPath path;
     private final Set<AccessMask> accessMask;
     private final SMB2ImpersonationLevel impersonationLevel;
+    private final SMB2Dialect dialect;
+    private SMB2Lease lease;
 
     @SuppressWarnings("PMD.ExcessiveParameterList")
     public SMB2CreateRequest(SMB2Dialect smbDialect,
@@ -56,13 +62,26 @@ public class SMB2CreateRequest extends SMB2Packet {
         this.createDisposition = ensureNotNull(createDisposition, SMB2CreateDisposition.FILE_SUPERSEDE);
         this.createOptions = ensureNotNull(createOptions, SMB2CreateOptions.class);
         this.path = path;
+        this.dialect = smbDialect;
+    }
+
+    /**
+     * Request a lease on the opened file, sent as an SMB2_CREATE_REQUEST_LEASE (SMB 2.1) or
+     * SMB2_CREATE_REQUEST_LEASE_V2 (SMB 3.x) create context.
+     */
+    public void setLease(SMB2Lease lease) {
+        this.lease = lease;
+    }
+
+    public SMB2Lease getLease() {
+        return lease;
     }
 
     @Override
     protected void writeTo(SMBBuffer buffer) {
         buffer.putUInt16(structureSize); // StructureSize (2 bytes)
         buffer.putByte((byte) 0); // SecurityFlags (1 byte) - Reserved
-        buffer.putByte((byte) 0);  // RequestedOpLockLevel (1 byte) - None
+        buffer.putByte(lease != null ? SMB2_OPLOCK_LEVEL_LEASE : (byte) 0);  // RequestedOpLockLevel (1 byte) - Lease or None
         buffer.putUInt32(impersonationLevel.getValue()); // ImpersonationLevel (4 bytes) - Identification
         buffer.putReserved(8); // SmbCreateFlags (8 bytes)
         buffer.putReserved(8); // Reserved (8 bytes)
@@ -90,9 +109,36 @@ public class SMB2CreateRequest extends SMB2Packet {
         }
 
         // Create Contexts
-        buffer.putUInt32(0); // CreateContextsOffset (4 bytes)
-        buffer.putUInt32(0); // CreateContextsLength (4 bytes)
+        if (lease == null) {
+            buffer.putUInt32(0); // CreateContextsOffset (4 bytes)
+            buffer.putUInt32(0); // CreateContextsLength (4 bytes)
+            buffer.putRawBytes(nameBytes);
+            return;
+        }
 
+        // The create contexts follow the name, aligned on 8 bytes
+        int padding = (8 - (offset + nameBytes.length) % 8) % 8;
+        boolean v2 = dialect.isSmb3x();
+        int dataLength = SMB2Lease.size(v2);
+        buffer.putUInt32(offset + nameBytes.length + padding); // CreateContextsOffset (4 bytes)
+        buffer.putUInt32(CREATE_CONTEXT_HEADER_SIZE + 8 + dataLength); // CreateContextsLength (4 bytes)
         buffer.putRawBytes(nameBytes);
+        buffer.putReserved(padding);
+        writeLeaseContext(buffer, v2, dataLength);
+    }
+
+    /**
+     * [MS-SMB2].pdf 2.2.13.2 SMB2_CREATE_CONTEXT Request Values
+     */
+    private void writeLeaseContext(SMBBuffer buffer, boolean v2, int dataLength) {
+        buffer.putUInt32(0); // Next (4 bytes)
+        buffer.putUInt16(CREATE_CONTEXT_HEADER_SIZE); // NameOffset (2 bytes)
+        buffer.putUInt16(SMB2Lease.CREATE_CONTEXT_NAME.length()); // NameLength (2 bytes)
+        buffer.putReserved2(); // Reserved (2 bytes)
+        buffer.putUInt16(CREATE_CONTEXT_HEADER_SIZE + 8); // DataOffset (2 bytes)
+        buffer.putUInt32(dataLength); // DataLength (4 bytes)
+        buffer.putRawBytes(SMB2Lease.CREATE_CONTEXT_NAME.getBytes(StandardCharsets.US_ASCII)); // Buffer - Name (4 bytes)
+        buffer.putReserved4(); // Padding (4 bytes)
+        lease.write(buffer, v2); // Buffer - Data (variable)
     }
 }
@@ -21,10 +21,12 @@ import com.hierynomus.msfscc.FileAttributes;
 import com.hierynomus.mssmb2.SMB2CreateAction;
 import com.hierynomus.mssmb2.SMB2FileId;
 import com.hierynomus.mssmb2.SMB2Packet;
+import com.hierynomus.mssmb2.messages.submodule.SMB2Lease;
 import com.hierynomus.protocol.commons.EnumWithValue;
 import com.hierynomus.protocol.commons.buffer.Buffer;
 import com.hierynomus.smb.SMBBuffer;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Set;
 
 import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toEnumSet;
@@ -33,7 +35,9 @@ import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toEnumSet;
  * [MS-SMB2].pdf 2.2.14 SMB2 CREATE Response
  */
 public class SMB2CreateResponse extends SMB2Packet {
+    private static final byte SMB2_OPLOCK_LEVEL_LEASE = (byte) 0xFF;
 
+    private byte oplockLevel;
     private SMB2CreateAction createAction;
     private FileTime creationTime;
     private FileTime lastAccessTime;
@@ -41,11 +45,12 @@ public class SMB2CreateResponse extends SMB2Packet {
     private FileTime changeTime;
     private Set<FileAttributes> fileAttributes;
     private SMB2FileId fileId;
+    private SMB2Lease lease;
 
     @Override
     protected void readMessage(SMBBuffer buffer) throws Buffer.BufferException {
         buffer.readUInt16(); // StructureSize (2 bytes)
-        buffer.readByte(); // OpLockLevel (1 byte) - Not used yet
+        oplockLevel = buffer.readByte(); // OpLockLevel (1 byte)
         buffer.readByte(); // Flags (1 byte) - Only for 3.x else Reserved
         createAction = EnumWithValue.EnumUtils.valueOf(buffer.readUInt32(), SMB2CreateAction.class, null); // CreateAction (4 bytes)
         creationTime = MsDataTypes.readFileTime(buffer); // CreationTime (8 bytes)
@@ -58,9 +63,36 @@ public class SMB2CreateResponse extends SMB2Packet {
         buffer.skip(4); // Reserved2 (4 bytes)
         fileId = SMB2FileId.read(buffer); // FileId (16 bytes)
 
-        // Ignore create contexts and the buffer.
-        buffer.readUInt32();// CreateContextsOffset (4 bytes)
-        buffer.readUInt32();// CreateContextsLength (4 bytes)
+        int createContextsOffset = buffer.readUInt32AsInt(); // CreateContextsOffset (4 bytes)
+        int createContextsLength = buffer.readUInt32AsInt(); // CreateContextsLength (4 bytes)
+        if (oplockLevel == SMB2_OPLOCK_LEVEL_LEASE && createContextsLength > 0) {
+            // Only the lease is read from the create contexts, the others are not requested.
+            readLease(buffer, header.getHeaderStartPosition() + createContextsOffset);
+        }
+    }
+
+    /**
+     * [MS-SMB2].pdf 2.2.14.2 SMB2_CREATE_CONTEXT Response Values
+     */
+    private void readLease(SMBBuffer buffer, int contextStart) throws Buffer.BufferException {
+        long next;
+        do {
+            buffer.rpos(contextStart);
+            next = buffer.readUInt32(); // Next (4 bytes)
+            int nameOffset = buffer.readUInt16(); // NameOffset (2 bytes)
+            int nameLength = buffer.readUInt16(); // NameLength (2 bytes)
+            buffer.skip(2); // Reserved (2 bytes)
+            int dataOffset = buffer.readUInt16(); // DataOffset (2 bytes)
+            int dataLength = buffer.readUInt32AsInt(); // DataLength (4 bytes)
+            buffer.rpos(contextStart + nameOffset);
+            String name = new String(buffer.readRawBytes(nameLength), StandardCharsets.US_ASCII); // Buffer - Name
+            if (SMB2Lease.CREATE_CONTEXT_NAME.equals(name)) {
+                buffer.rpos(contextStart + dataOffset);
+                lease = SMB2Lease.read(buffer, dataLength); // Buffer - Data
+                return;
+            }
+            contextStart += (int) next;
+        } while (next != 0);
     }
 
     public SMB2CreateAction getCreateAction() {
@@ -90,4 +122,11 @@ public class SMB2CreateResponse extends SMB2Packet {
     public SMB2FileId getFileId() {
         return fileId;
     }
+
+    /**
+     * @return the lease granted by the server, or <code>null</code> if no lease was requested or granted
+     */
+    public SMB2Lease getLease() {
+        return lease;
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.mssmb2.messages;
+
+import com.hierynomus.mssmb2.SMB2Dialect;
+import com.hierynomus.mssmb2.SMB2LeaseState;
+import com.hierynomus.mssmb2.SMB2MessageCommandCode;
+import com.hierynomus.mssmb2.SMB2Packet;
+import com.hierynomus.mssmb2.messages.submodule.SMB2Lease;
+import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.smb.SMBBuffer;
+
+import java.util.Set;
+
+import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toEnumSet;
+import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toLong;
+
+/**
+ * [MS-SMB2].pdf 2.2.24.2 Lease Break Acknowledgment / 2.2.25.2 Lease Break Response
+ */
+public class SMB2LeaseBreakAcknowledgment extends SMB2Packet {
+
+    private byte[] leaseKey;
+    private Set<SMB2LeaseState> leaseState;
+
+    public SMB2LeaseBreakAcknowledgment() {
+    }
+
+    public SMB2LeaseBreakAcknowledgment(SMB2Dialect smbDialect, long sessionId, long treeId, byte[] leaseKey, Set<SMB2LeaseState> leaseState) {
+        super(36, smbDialect, SMB2MessageCommandCode.SMB2_OPLOCK_BREAK, sessionId, treeId);
+        this.leaseKey = leaseKey;
+        this.leaseState = leaseState;
+    }
+
+    @Override
+    protected void writeTo(SMBBuffer buffer) {
+        buffer.putUInt16(structureSize); // StructureSize (2 bytes)
+        buffer.putReserved2(); // Reserved (2 bytes)
+        buffer.putReserved4(); // Flags (4 bytes) - Reserved
+        buffer.putRawBytes(leaseKey); // LeaseKey (16 bytes)
+        buffer.putUInt32(toLong(leaseState)); // LeaseState (4 bytes)
+        buffer.putReserved(8); // LeaseDuration (8 bytes) - Reserved
+    }
+
+    @Override
+    protected void readMessage(SMBBuffer buffer) throws Buffer.BufferException {
+        buffer.readUInt16(); // StructureSize (2 bytes)
+        buffer.skip(2); // Reserved (2 bytes)
+        buffer.skip(4); // Flags (4 bytes) - Reserved
+        leaseKey = buffer.readRawBytes(SMB2Lease.LEASE_KEY_SIZE); // LeaseKey (16 bytes)
+        leaseState = toEnumSet(buffer.readUInt32(), SMB2LeaseState.class); // LeaseState (4 bytes)
+        buffer.skip(8); // LeaseDuration (8 bytes) - Reserved
+    }
+
+    public byte[] getLeaseKey() {
+        return leaseKey;
+    }
+
+    public Set<SMB2LeaseState> getLeaseState() {
+        return leaseState;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.mssmb2.messages;
+
+import com.hierynomus.mssmb2.SMB2LeaseState;
+import com.hierynomus.mssmb2.SMB2Packet;
+import com.hierynomus.mssmb2.messages.submodule.SMB2Lease;
+import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.smb.SMBBuffer;
+
+import java.util.Set;
+
+import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toEnumSet;
+
+/**
+ * [MS-SMB2].pdf 2.2.23.2 Lease Break Notification
+ */
+public class SMB2LeaseBreakNotification extends SMB2Packet {
+    public static final int STRUCTURE_SIZE = 44;
+    private static final long SMB2_NOTIFY_BREAK_LEASE_FLAG_ACK_REQUIRED = 0x01L;
+
+    private int newEpoch;
+    private long flags;
+    private byte[] leaseKey;
+    private Set<SMB2LeaseState> currentLeaseState;
+    private Set<SMB2LeaseState> newLeaseState;
+
+    @Override
+    protected void readMessage(SMBBuffer buffer) throws Buffer.BufferException {
+        buffer.readUInt16(); // StructureSize (2 bytes)
+        newEpoch = buffer.readUInt16(); // NewEpoch (2 bytes)
+        flags = buffer.readUInt32(); // Flags (4 bytes)
+        leaseKey = buffer.readRawBytes(SMB2Lease.LEASE_KEY_SIZE); // LeaseKey (16 bytes)
+        currentLeaseState = toEnumSet(buffer.readUInt32(), SMB2LeaseState.class); // CurrentLeaseState (4 bytes)
+        newLeaseState = toEnumSet(buffer.readUInt32(), SMB2LeaseState.class); // NewLeaseState (4 bytes)
+        buffer.skip(4); // BreakReason (4 bytes) - Reserved
+        buffer.skip(4); // AccessMaskHint (4 bytes) - Reserved
+        buffer.skip(4); // ShareMaskHint (4 bytes) - Reserved
+    }
+
+    public int getNewEpoch() {
+        return newEpoch;
+    }
+
+    /**
+     * @return whether the client must acknowledge the break with a Lease Break Acknowledgment
+     */
+    public boolean isAckRequired() {
+        return (flags & SMB2_NOTIFY_BREAK_LEASE_FLAG_ACK_REQUIRED) != 0;
+    }
+
+    public byte[] getLeaseKey() {
+        return leaseKey;
+    }
+
+    public Set<SMB2LeaseState> getCurrentLeaseState() {
+        return currentLeaseState;
+    }
+
+    public Set<SMB2LeaseState> getNewLeaseState() {
+        return newLeaseState;
+    }
+}
@@ -17,9 +17,11 @@ package com.hierynomus.mssmb2.messages;
 
 import com.hierynomus.msdtyp.MsDataTypes;
 import com.hierynomus.mssmb2.*;
+import com.hierynomus.mssmb2.messages.negotiate.SMB2CompressionCapabilities;
 import com.hierynomus.mssmb2.messages.negotiate.SMB2EncryptionCapabilities;
 import com.hierynomus.mssmb2.messages.negotiate.SMB2NegotiateContext;
 import com.hierynomus.mssmb2.messages.negotiate.SMB2PreauthIntegrityCapabilities;
+import com.hierynomus.mssmb2.messages.negotiate.SMB2SigningCapabilities;
 import com.hierynomus.protocol.commons.EnumWithValue;
 import com.hierynomus.smb.SMBBuffer;
 
@@ -34,6 +36,8 @@ public class SMB2NegotiateRequest extends SMB2Packet {
     private UUID clientGuid;
     private boolean clientSigningRequired;
     private Set<SMB2GlobalCapability> capabilities;
+    private List<SMB3CompressionAlgorithm> compressionAlgorithms;
+    private boolean chainedCompression;
     private List<SMB2NegotiateContext> negotiateContextList;
 
     /**
@@ -43,11 +47,24 @@ public class SMB2NegotiateRequest extends SMB2Packet {
      * @param salt
      */
     public SMB2NegotiateRequest(Set<SMB2Dialect> dialects, UUID clientGuid, boolean clientSigningRequired, Set<SMB2GlobalCapability> capabilities, byte[] salt) {
+        this(dialects, clientGuid, clientSigningRequired, capabilities, salt, Collections.<SMB3CompressionAlgorithm>emptyList(), false);
+    }
+
+    /**
+     * Request constructor that also advertises the compression algorithms, which are only negotiated for SMB 3.1.1.
+     *
+     * @param compressionAlgorithms the compression algorithms in order of preference, none if empty
+     * @param chainedCompression    whether chained compression should be requested
+     */
+    public SMB2NegotiateRequest(Set<SMB2Dialect> dialects, UUID clientGuid, boolean clientSigningRequired, Set<SMB2GlobalCapability> capabilities, byte[] salt,
+                                List<SMB3CompressionAlgorithm> compressionAlgorithms, boolean chainedCompression) {
         super(36, SMB2Dialect.UNKNOWN, SMB2MessageCommandCode.SMB2_NEGOTIATE, 0, 0);
         this.dialects = dialects;
         this.clientGuid = clientGuid;
         this.clientSigningRequired = clientSigningRequired;
         this.capabilities = capabilities;
+        this.compressionAlgorithms = compressionAlgorithms;
+        this.chainedCompression = chainedCompression;
         this.negotiateContextList = buildNegotiateContextList(salt);
     }
 
@@ -61,6 +78,12 @@ public class SMB2NegotiateRequest extends SMB2Packet {
             // followed by AES-128-CCM(0x0001).
             List<SMB3EncryptionCipher> cipherList = Arrays.asList(SMB3EncryptionCipher.AES_128_GCM, SMB3EncryptionCipher.AES_128_CCM);
             contexts.add(new SMB2EncryptionCapabilities(cipherList));
+            // [MS-SMB2].pdf 3.2.4.2.2.2: AES-GMAC is preferred, as it is considerably faster than AES-CMAC.
+            List<SMB3SigningAlgorithm> signingAlgorithms = Arrays.asList(SMB3SigningAlgorithm.AES_GMAC, SMB3SigningAlgorithm.AES_CMAC);
+            contexts.add(new SMB2SigningCapabilities(signingAlgorithms));
+            if (!compressionAlgorithms.isEmpty()) {
+                contexts.add(new SMB2CompressionCapabilities(compressionAlgorithms, chainedCompression));
+            }
             return contexts;
         }
         return Collections.emptyList();
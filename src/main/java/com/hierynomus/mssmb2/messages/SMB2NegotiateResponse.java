@@ -64,6 +64,14 @@ public class SMB2NegotiateResponse extends SMB2Packet {
         this.negotiateContextList = readNegotiateContextList(buffer, negotiateContextOffset, negotiateContextCount);
     }
 
+    /**
+     * The received message is hashed into the preauth integrity hash value after it is handed out.
+     */
+    @Override
+    protected boolean retainsReceivedData() {
+        return true;
+    }
+
     private List<SMB2NegotiateContext> readNegotiateContextList(SMBBuffer buffer, int negotiateContextOffset, @SuppressWarnings("unused") int negotiateContextCount) {
         if (dialect == SMB2Dialect.SMB_3_1_1) {
             buffer.rpos(negotiateContextOffset);
@@ -19,13 +19,22 @@ import com.hierynomus.mssmb2.SMB2Packet;
 import com.hierynomus.protocol.commons.buffer.Buffer;
 import com.hierynomus.smb.SMBBuffer;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * [MS-SMB2].pdf 2.2.20 SMB2 READ Response
+ * <p/>
+ * The data is not copied out of the received packet when the response is read. Use {@link #readData(byte[], int, int)},
+ * {@link #writeData(OutputStream)} or {@link #getDataAsByteBuffer()} to access it without an intermediate copy.
  */
 public class SMB2ReadResponse extends SMB2Packet {
 
     private int dataLength;
-    private byte[] data;
+    private byte[] data = new byte[0];
+    private int dataOffset;
 
     @Override
     protected void readMessage(SMBBuffer buffer) throws Buffer.BufferException {
@@ -36,14 +45,63 @@ public class SMB2ReadResponse extends SMB2Packet {
         buffer.readUInt32AsInt(); // DataRemaining (4 bytes)
         buffer.skip(4); // Reserved2 (4 bytes)
         buffer.rpos(dataOffset);
-        data = buffer.readRawBytes(dataLength); // Buffer (variable)
+        this.data = buffer.array(); // Buffer (variable)
+        this.dataOffset = buffer.rpos();
+        buffer.skip(dataLength);
+    }
+
+    /**
+     * The data is not copied out of the received packet, so a pooled array the packet was received in is kept until
+     * this response is released.
+     */
+    @Override
+    protected boolean retainsReceivedData() {
+        return true;
     }
 
     public int getDataLength() {
         return dataLength;
     }
 
+    /**
+     * Returns a copy of the data that was read, which is never backed by the received packet.
+     *
+     * @return the data
+     */
     public byte[] getData() {
-        return data;
+        return Arrays.copyOfRange(data, dataOffset, dataOffset + dataLength);
+    }
+
+    /**
+     * Copy the data that was read into the given buffer.
+     *
+     * @param buffer the buffer to write into
+     * @param offset the start offset in the buffer at which to write data
+     * @param length the maximum number of bytes to copy
+     * @return the actual number of bytes that were copied
+     */
+    public int readData(byte[] buffer, int offset, int length) {
+        int bytesRead = Math.min(length, dataLength);
+        System.arraycopy(data, dataOffset, buffer, offset, bytesRead);
+        return bytesRead;
+    }
+
+    /**
+     * Write the data that was read to the given stream.
+     *
+     * @param out the stream to write to
+     */
+    public void writeData(OutputStream out) throws IOException {
+        out.write(data, dataOffset, dataLength);
+    }
+
+    /**
+     * Returns a read-only view on the data that was read, backed by the received packet. The view can no longer be
+     * read once this response is {@link #release() released}.
+     *
+     * @return the data
+     */
+    public ByteBuffer getDataAsByteBuffer() {
+        return ByteBuffer.wrap(data, dataOffset, dataLength).slice().asReadOnlyBuffer();
     }
 }
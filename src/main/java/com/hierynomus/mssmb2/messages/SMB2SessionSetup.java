@@ -38,6 +38,7 @@ public class SMB2SessionSetup extends SMB2Packet {
     private long clientCapabilities;
     private byte[] securityBuffer;
     private long previousSessionId;
+    private boolean binding;
 
     private Set<SMB2SessionFlags> sessionFlags;
 
@@ -76,6 +77,14 @@ public class SMB2SessionSetup extends SMB2Packet {
         securityBuffer = readSecurityBuffer(buffer, securityBufferOffset, securityBufferLength); // SecurityBuffer (variable)
     }
 
+    /**
+     * The received message is hashed into the preauth integrity hash value after it is handed out.
+     */
+    @Override
+    protected boolean retainsReceivedData() {
+        return true;
+    }
+
     private byte[] readSecurityBuffer(SMBBuffer buffer, int securityBufferOffset, int securityBufferLength) throws Buffer.BufferException {
         if (securityBufferLength > 0) {
             // Just to be sure, we should already be there.
@@ -88,8 +97,8 @@ public class SMB2SessionSetup extends SMB2Packet {
     }
 
     private void putFlags(SMBBuffer buffer) {
-        if (negotiatedDialect.isSmb3x() && previousSessionId != 0L) {
-            buffer.putByte((byte) 0x01);
+        if (negotiatedDialect.isSmb3x() && binding) {
+            buffer.putByte((byte) 0x01); // SMB2_SESSION_FLAG_BINDING
         } else {
             buffer.putByte((byte) 0);
         }
@@ -103,6 +112,13 @@ public class SMB2SessionSetup extends SMB2Packet {
         this.previousSessionId = previousSessionId;
     }
 
+    /**
+     * [MS-SMB2] 3.2.4.2.3 Binding the session to a new channel, the SessionId of the request identifies the session.
+     */
+    public void setBinding(boolean binding) {
+        this.binding = binding;
+    }
+
     public void setSecurityBuffer(byte[] securityBuffer) {
         this.securityBuffer = securityBuffer;
     }
@@ -23,6 +23,10 @@ import com.hierynomus.smbj.io.ByteChunkProvider;
  * [MS-SMB2].pdf 2.2.21 SMB2 Write Request
  */
 public class SMB2WriteRequest extends SMB2MultiCreditPacket {
+    /**
+     * The offset of the written data from the start of the message.
+     */
+    public static final int DATA_OFFSET = SMB2PacketHeader.STRUCTURE_SIZE + 48;
 
     private final SMB2FileId fileId;
     private final ByteChunkProvider byteProvider;
@@ -38,8 +42,7 @@ public class SMB2WriteRequest extends SMB2MultiCreditPacket {
     @Override
     protected void writeTo(SMBBuffer buffer) {
         buffer.putUInt16(structureSize); // StructureSize (2 bytes)
-        short dataOffset = SMB2PacketHeader.STRUCTURE_SIZE + 48;
-        buffer.putUInt16(dataOffset); // DataOffSet (2 bytes)
+        buffer.putUInt16(DATA_OFFSET); // DataOffSet (2 bytes)
         buffer.putUInt32(getPayloadSize()); // Length (4 bytes)
         buffer.putUInt64(byteProvider.getOffset()); // Offset (8 bytes)
         fileId.write(buffer);  // FileId (16 bytes)
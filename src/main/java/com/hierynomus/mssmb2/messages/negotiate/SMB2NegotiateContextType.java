@@ -24,7 +24,8 @@ public enum SMB2NegotiateContextType implements EnumWithValue<SMB2NegotiateConte
     SMB2_PREAUTH_INTEGRITY_CAPABILITIES(0x00000001L),
     SMB2_ENCRYPTION_CAPABILITIES(0x00000002L),
     SMB2_COMPRESSION_CAPABILITIES(0x00000004L),
-    SMB2_NETNAME_NEGOTIATE_CONTEXT_ID(0x00000005L);
+    SMB2_NETNAME_NEGOTIATE_CONTEXT_ID(0x00000005L),
+    SMB2_SIGNING_CAPABILITIES(0x00000008L);
 
     private long value;
 
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.mssmb2.messages.submodule;
+
+import com.hierynomus.mssmb2.SMB2LeaseState;
+import com.hierynomus.protocol.commons.ByteArrayUtils;
+import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.smb.SMBBuffer;
+
+import java.util.Set;
+
+import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toEnumSet;
+import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toLong;
+
+/**
+ * [MS-SMB2].pdf 2.2.13.2.8 SMB2_CREATE_REQUEST_LEASE / 2.2.13.2.10 SMB2_CREATE_REQUEST_LEASE_V2, and the
+ * corresponding 2.2.14.2.10 SMB2_CREATE_RESPONSE_LEASE / 2.2.14.2.11 SMB2_CREATE_RESPONSE_LEASE_V2.
+ * <p/>
+ * The lease is sent and received as the data of the "RqLs" create context. Version 1 is used for SMB 2.1, version 2
+ * for the SMB 3.x dialect family.
+ */
+public class SMB2Lease {
+    public static final String CREATE_CONTEXT_NAME = "RqLs";
+    public static final int LEASE_KEY_SIZE = 16;
+    private static final int V1_SIZE = 32;
+    private static final int V2_SIZE = 52;
+
+    private final byte[] leaseKey;
+    private final Set<SMB2LeaseState> leaseState;
+    private final int epoch;
+
+    public SMB2Lease(byte[] leaseKey, Set<SMB2LeaseState> leaseState, int epoch) {
+        this.leaseKey = leaseKey;
+        this.leaseState = leaseState;
+        this.epoch = epoch;
+    }
+
+    public byte[] getLeaseKey() {
+        return leaseKey;
+    }
+
+    public Set<SMB2LeaseState> getLeaseState() {
+        return leaseState;
+    }
+
+    /**
+     * @return the epoch of the lease, which is only sent by the server for a version 2 lease
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public static int size(boolean v2) {
+        return v2 ? V2_SIZE : V1_SIZE;
+    }
+
+    public void write(SMBBuffer buffer, boolean v2) {
+        buffer.putRawBytes(leaseKey); // LeaseKey (16 bytes)
+        buffer.putUInt32(toLong(leaseState)); // LeaseState (4 bytes)
+        buffer.putReserved4(); // LeaseFlags (4 bytes)
+        buffer.putReserved(8); // LeaseDuration (8 bytes)
+        if (v2) {
+            buffer.putReserved(LEASE_KEY_SIZE); // ParentLeaseKey (16 bytes)
+            buffer.putUInt16(epoch); // Epoch (2 bytes)
+            buffer.putReserved2(); // Reserved (2 bytes)
+        }
+    }
+
+    /**
+     * Read the lease from the data of a create context.
+     *
+     * @param length the length of the data, which determines whether it is a version 1 or a version 2 lease
+     */
+    public static SMB2Lease read(SMBBuffer buffer, int length) throws Buffer.BufferException {
+        byte[] leaseKey = buffer.readRawBytes(LEASE_KEY_SIZE); // LeaseKey (16 bytes)
+        Set<SMB2LeaseState> leaseState = toEnumSet(buffer.readUInt32(), SMB2LeaseState.class); // LeaseState (4 bytes)
+        buffer.skip(4); // LeaseFlags (4 bytes)
+        buffer.skip(8); // LeaseDuration (8 bytes)
+        int epoch = 0;
+        if (length >= V2_SIZE) {
+            buffer.skip(LEASE_KEY_SIZE); // ParentLeaseKey (16 bytes)
+            epoch = buffer.readUInt16(); // Epoch (2 bytes)
+            buffer.skip(2); // Reserved (2 bytes)
+        }
+        return new SMB2Lease(leaseKey, leaseState, epoch);
+    }
+
+    @Override
+    public String toString() {
+        return "SMB2Lease{" + "leaseKey=" + ByteArrayUtils.printHex(leaseKey) + ", leaseState=" + leaseState + ", epoch=" + epoch + '}';
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.mssmb2.messages.submodule;
+
+import com.hierynomus.protocol.commons.EnumWithValue;
+import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.Endian;
+import com.hierynomus.smb.SMBBuffer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toEnumSet;
+
+/**
+ * [MS-SMB2] 2.2.32.5 NETWORK_INTERFACE_INFO Response, as returned for FSCTL_QUERY_NETWORK_INTERFACE_INFO.
+ */
+public class SMB2NetworkInterfaceInfo {
+    private static final int AF_INET = 0x0002;
+    private static final int AF_INET6 = 0x0017;
+    private static final int SOCKADDR_STORAGE_SIZE = 128;
+
+    private long ifIndex;
+    private Set<Capability> capabilities;
+    private long linkSpeed;
+    private InetAddress address;
+
+    public long getIfIndex() {
+        return ifIndex;
+    }
+
+    public Set<Capability> getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * @return the speed of the network interface, in bits per second
+     */
+    public long getLinkSpeed() {
+        return linkSpeed;
+    }
+
+    /**
+     * @return the address of the network interface, or <code>null</code> if it is not an IPv4 or IPv6 address
+     */
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Read the chain of NETWORK_INTERFACE_INFO structures in the output of FSCTL_QUERY_NETWORK_INTERFACE_INFO.
+     */
+    public static List<SMB2NetworkInterfaceInfo> readAll(SMBBuffer buffer) throws Buffer.BufferException {
+        List<SMB2NetworkInterfaceInfo> interfaces = new ArrayList<>();
+        int start = buffer.rpos();
+        long next;
+        do {
+            buffer.rpos(start);
+            SMB2NetworkInterfaceInfo info = new SMB2NetworkInterfaceInfo();
+            next = info.read(buffer);
+            interfaces.add(info);
+            start += (int) next;
+        } while (next != 0);
+        return interfaces;
+    }
+
+    private long read(SMBBuffer buffer) throws Buffer.BufferException {
+        long next = buffer.readUInt32(); // Next (4 bytes)
+        ifIndex = buffer.readUInt32(); // IfIndex (4 bytes)
+        capabilities = toEnumSet(buffer.readUInt32(), Capability.class); // Capability (4 bytes)
+        buffer.skip(4); // Reserved (4 bytes)
+        linkSpeed = buffer.readLong(); // LinkSpeed (8 bytes)
+        int sockAddrStart = buffer.rpos();
+        address = readSockAddr(buffer); // SockAddr_Storage (128 bytes)
+        buffer.rpos(sockAddrStart + SOCKADDR_STORAGE_SIZE);
+        return next;
+    }
+
+    private InetAddress readSockAddr(SMBBuffer buffer) throws Buffer.BufferException {
+        int family = buffer.readUInt16(); // Family (2 bytes)
+        try {
+            if (family == AF_INET) {
+                buffer.readUInt16(Endian.BE); // Port (2 bytes)
+                return InetAddress.getByAddress(buffer.readRawBytes(4)); // IPv4Address (4 bytes)
+            } else if (family == AF_INET6) {
+                buffer.readUInt16(Endian.BE); // Port (2 bytes)
+                buffer.skip(4); // FlowInfo (4 bytes)
+                return InetAddress.getByAddress(buffer.readRawBytes(16)); // IPv6Address (16 bytes)
+            }
+        } catch (UnknownHostException e) {
+            throw new Buffer.BufferException("Invalid address in NETWORK_INTERFACE_INFO: " + e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "SMB2NetworkInterfaceInfo{" + "ifIndex=" + ifIndex + ", capabilities=" + capabilities + ", linkSpeed="
+               + linkSpeed + ", address=" + address + '}';
+    }
+
+    public enum Capability implements EnumWithValue<Capability> {
+        RSS_CAPABLE(0x00000001L),
+        RDMA_CAPABLE(0x00000002L);
+
+        private long value;
+
+        Capability(long value) {
+            this.value = value;
+        }
+
+        public long getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.msxca;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * A compression algorithm of [MS-XCA] Xpress Compression Algorithm.
+ * <p/>
+ * Implementations are stateless, and can be used by multiple threads at once.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Compress the input into the output array.
+     *
+     * @return the number of compressed bytes written, or <code>-1</code> if the compressed data would not fit in
+     * <code>outLength</code> bytes
+     */
+    int compress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength);
+
+    /**
+     * Decompress the input, which should decompress to exactly <code>outLength</code> bytes.
+     *
+     * @throws DataFormatException If the input is not valid compressed data, or does not decompress to the expected length
+     */
+    void decompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) throws DataFormatException;
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.msxca;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.zip.DataFormatException;
+
+import static com.hierynomus.msxca.XcaBytes.*;
+
+/**
+ * [MS-XCA].pdf 2.1 / 2.2 LZ77+Huffman Compression / Decompression
+ * <p/>
+ * The data is compressed in blocks of 64 KiB. Every block starts with a 256 byte table holding the 4-bit code lengths
+ * of the 512 Huffman symbols, followed by a bit stream of 16-bit words. A symbol is either a literal byte, or a match
+ * whose length and the number of bits of its offset are encoded in the symbol. Longer match lengths are stored as
+ * bytes in between the words of the bit stream.
+ */
+public class LZ77Huffman implements CompressionCodec {
+    private static final int BLOCK_SIZE = 65536;
+    private static final int WINDOW_SIZE = 65536;
+    private static final int MAX_OFFSET = 65535;
+    private static final int MAX_CHAIN_LENGTH = 32;
+    private static final int SYMBOL_COUNT = 512;
+    private static final int EOF_SYMBOL = 256;
+    private static final int MAX_CODE_LENGTH = 15;
+    private static final int TABLE_SIZE = SYMBOL_COUNT / 2;
+
+    @Override
+    public int compress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) {
+        int end = inOffset + inLength;
+        int limit = outOffset + outLength;
+        int op = outOffset;
+        MatchFinder finder = new MatchFinder(WINDOW_SIZE, MAX_CHAIN_LENGTH);
+        int[] symbols = new int[BLOCK_SIZE + 1];
+        int[] matchLengths = new int[BLOCK_SIZE];
+        int[] matchOffsets = new int[BLOCK_SIZE];
+        int blockStart = inOffset;
+        boolean endOfStream = false;
+        while (!endOfStream) {
+            int blockEnd = Math.min(blockStart + BLOCK_SIZE, end);
+            int[] frequencies = new int[SYMBOL_COUNT];
+            int count = 0;
+            int ip = blockStart;
+            while (ip < blockEnd) {
+                int length = finder.find(in, inOffset, ip, blockEnd, Integer.MAX_VALUE, MAX_OFFSET);
+                int symbol;
+                if (length == 0) {
+                    symbol = in[ip++] & 0xFF;
+                } else {
+                    int offset = finder.getMatchOffset();
+                    symbol = EOF_SYMBOL + Math.min(length - 3, 15) + (offsetBits(offset) << 4);
+                    matchLengths[count] = length;
+                    matchOffsets[count] = offset;
+                    finder.skip(in, ip + 1, length - 1, blockEnd);
+                    ip += length;
+                }
+                symbols[count++] = symbol;
+                frequencies[symbol]++;
+            }
+            // The decoder only looks for the end of the stream in a block that is not filled up, so an input that is
+            // a multiple of the block size is followed by a block holding nothing but the EOF symbol.
+            if (blockEnd - blockStart < BLOCK_SIZE) {
+                symbols[count++] = EOF_SYMBOL;
+                frequencies[EOF_SYMBOL]++;
+                endOfStream = true;
+            }
+
+            op = writeBlock(symbols, count, matchLengths, matchOffsets, frequencies, out, op, limit);
+            if (op < 0) {
+                return -1;
+            }
+            blockStart = blockEnd;
+        }
+        return op - outOffset;
+    }
+
+    /**
+     * @return the end of the block in the output, or <code>-1</code> if it does not fit before <code>limit</code>
+     */
+    private static int writeBlock(int[] symbols, int count, int[] matchLengths, int[] matchOffsets, int[] frequencies, byte[] out, int op, int limit) {
+        int[] codeLengths = codeLengths(frequencies);
+        int[] codes = canonicalCodes(codeLengths);
+
+        long bitCount = 0;
+        int extraBytes = 0;
+        for (int i = 0; i < count; i++) {
+            int symbol = symbols[i];
+            bitCount += codeLengths[symbol];
+            if (symbol > EOF_SYMBOL) {
+                bitCount += (symbol - EOF_SYMBOL) >>> 4;
+                extraBytes += extraLengthBytes(matchLengths[i] - 3);
+            }
+        }
+        long blockSize = TABLE_SIZE + 2 * ((bitCount + 15) / 16 + 1) + extraBytes;
+        if (op + blockSize > limit) {
+            return -1;
+        }
+
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            out[op + i] = (byte) (codeLengths[2 * i] | codeLengths[2 * i + 1] << 4);
+        }
+        BitWriter writer = new BitWriter(out, op + TABLE_SIZE);
+        for (int i = 0; i < count; i++) {
+            int symbol = symbols[i];
+            writer.writeBits(codes[symbol], codeLengths[symbol]);
+            if (symbol <= EOF_SYMBOL) {
+                // Literals, and the EOF symbol (which doubles as a match of 3 bytes at offset 1) carry nothing else.
+                continue;
+            }
+            int length = matchLengths[i] - 3;
+            if (length >= 15) {
+                if (length - 15 < 255) {
+                    writer.writeByte(length - 15);
+                } else {
+                    writer.writeByte(255);
+                    if (length < 0x10000) {
+                        writer.writeUInt16(length);
+                    } else {
+                        writer.writeUInt16(0);
+                        writer.writeInt32(length);
+                    }
+                }
+            }
+            int offset = matchOffsets[i];
+            int offsetBits = (symbol - EOF_SYMBOL) >>> 4;
+            writer.writeBits(offset - (1 << offsetBits), offsetBits);
+        }
+        return writer.finish();
+    }
+
+    private static int extraLengthBytes(int length) {
+        if (length < 15) {
+            return 0;
+        } else if (length - 15 < 255) {
+            return 1;
+        } else if (length < 0x10000) {
+            return 3;
+        }
+        return 7;
+    }
+
+    /**
+     * Compute the Huffman code lengths for the symbol frequencies. When a code would grow longer than
+     * {@value #MAX_CODE_LENGTH} bits, the frequencies are flattened until the tree is shallow enough.
+     */
+    static int[] codeLengths(int[] frequencies) {
+        int[] weights = Arrays.copyOf(frequencies, SYMBOL_COUNT);
+        int[] lengths = new int[SYMBOL_COUNT];
+        int[] parents = new int[2 * SYMBOL_COUNT];
+        while (true) {
+            PriorityQueue<Long> queue = new PriorityQueue<>();
+            for (int symbol = 0; symbol < SYMBOL_COUNT; symbol++) {
+                if (weights[symbol] > 0) {
+                    queue.add(((long) weights[symbol] << 32) | symbol);
+                }
+            }
+            if (queue.size() == 1) {
+                // A single symbol still needs a bit, pair it with an unused symbol to keep the code complete.
+                int symbol = (int) (queue.poll() & 0xFFFFFFFFL);
+                lengths[symbol] = 1;
+                lengths[symbol == 0 ? 1 : 0] = 1;
+                return lengths;
+            }
+
+            int node = SYMBOL_COUNT;
+            while (queue.size() > 1) {
+                long a = queue.poll();
+                long b = queue.poll();
+                parents[(int) (a & 0xFFFFFFFFL)] = node;
+                parents[(int) (b & 0xFFFFFFFFL)] = node;
+                queue.add((((a >>> 32) + (b >>> 32)) << 32) | node);
+                node++;
+            }
+            int root = node - 1;
+            int[] depths = new int[2 * SYMBOL_COUNT];
+            for (int n = root - 1; n >= SYMBOL_COUNT; n--) {
+                depths[n] = depths[parents[n]] + 1;
+            }
+            int maxLength = 0;
+            for (int symbol = 0; symbol < SYMBOL_COUNT; symbol++) {
+                lengths[symbol] = weights[symbol] > 0 ? depths[parents[symbol]] + 1 : 0;
+                maxLength = Math.max(maxLength, lengths[symbol]);
+            }
+            if (maxLength <= MAX_CODE_LENGTH) {
+                return lengths;
+            }
+            for (int symbol = 0; symbol < SYMBOL_COUNT; symbol++) {
+                if (weights[symbol] > 0) {
+                    weights[symbol] = (weights[symbol] >>> 1) | 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Assign the canonical codes, ordered by code length and then by symbol value.
+     */
+    private static int[] canonicalCodes(int[] codeLengths) {
+        int[] codes = new int[SYMBOL_COUNT];
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            for (int symbol = 0; symbol < SYMBOL_COUNT; symbol++) {
+                if (codeLengths[symbol] == length) {
+                    codes[symbol] = code++;
+                }
+            }
+            code <<= 1;
+        }
+        return codes;
+    }
+
+    @Override
+    public void decompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) throws DataFormatException {
+        int end = inOffset + inLength;
+        int outEnd = outOffset + outLength;
+        int ip = inOffset;
+        int op = outOffset;
+        int[] decodingTable = new int[1 << MAX_CODE_LENGTH];
+        while (op < outEnd) {
+            ensureAvailable(ip, TABLE_SIZE + 4, end);
+            buildDecodingTable(in, ip, decodingTable);
+            ip += TABLE_SIZE;
+            long bits = ((long) getUInt16(in, ip) << 16) | getUInt16(in, ip + 2);
+            ip += 4;
+            int extraBitCount = 16;
+            int blockEnd = Math.min(outEnd, op + BLOCK_SIZE);
+            while (op < blockEnd) {
+                int entry = decodingTable[(int) (bits >>> (32 - MAX_CODE_LENGTH))];
+                if (entry < 0) {
+                    throw new DataFormatException("Invalid Huffman code at offset " + ip);
+                }
+                int symbol = entry >>> 4;
+                int codeLength = entry & 0xF;
+                bits = (bits << codeLength) & 0xFFFFFFFFL;
+                extraBitCount -= codeLength;
+                if (extraBitCount < 0) {
+                    ensureAvailable(ip, 2, end);
+                    bits |= (long) getUInt16(in, ip) << -extraBitCount;
+                    ip += 2;
+                    extraBitCount += 16;
+                }
+                if (symbol < EOF_SYMBOL) {
+                    out[op++] = (byte) symbol;
+                    continue;
+                }
+
+                // The EOF symbol ends the stream only when all output has been produced, elsewhere it is a match.
+                symbol -= EOF_SYMBOL;
+                int length = symbol & 0xF;
+                int offsetBits = symbol >>> 4;
+                if (length == 15) {
+                    ensureAvailable(ip, 1, end);
+                    length = in[ip++] & 0xFF;
+                    if (length == 255) {
+                        ensureAvailable(ip, 2, end);
+                        length = getUInt16(in, ip);
+                        ip += 2;
+                        if (length == 0) {
+                            ensureAvailable(ip, 4, end);
+                            length = getInt32(in, ip);
+                            ip += 4;
+                        }
+                        if (length < 15) {
+                            throw new DataFormatException("Invalid match length " + length + " at offset " + ip);
+                        }
+                        length -= 15;
+                    }
+                    length += 15;
+                }
+                length += 3;
+                int offset = (int) (bits >>> (32 - offsetBits)) + (1 << offsetBits);
+                bits = (bits << offsetBits) & 0xFFFFFFFFL;
+                extraBitCount -= offsetBits;
+                if (extraBitCount < 0) {
+                    ensureAvailable(ip, 2, end);
+                    bits |= (long) getUInt16(in, ip) << -extraBitCount;
+                    ip += 2;
+                    extraBitCount += 16;
+                }
+                copyMatch(out, outOffset, op, outEnd, offset, length);
+                op += length;
+            }
+        }
+    }
+
+    /**
+     * Build the table that maps every 15-bit prefix of the bit stream to the symbol whose code it starts with, each
+     * entry holds the symbol and the length of its code.
+     */
+    private static void buildDecodingTable(byte[] in, int pos, int[] decodingTable) throws DataFormatException {
+        Arrays.fill(decodingTable, -1);
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            for (int symbol = 0; symbol < SYMBOL_COUNT; symbol++) {
+                int b = in[pos + symbol / 2] & 0xFF;
+                int symbolLength = (symbol & 1) == 0 ? b & 0xF : b >>> 4;
+                if (symbolLength != length) {
+                    continue;
+                }
+                int first = code << (MAX_CODE_LENGTH - length);
+                int last = (code + 1) << (MAX_CODE_LENGTH - length);
+                if (last > decodingTable.length) {
+                    throw new DataFormatException("The Huffman code lengths do not describe a valid prefix code");
+                }
+                Arrays.fill(decodingTable, first, last, symbol << 4 | length);
+                code++;
+            }
+            code <<= 1;
+        }
+    }
+
+    private static int offsetBits(int offset) {
+        return 31 - Integer.numberOfLeadingZeros(offset);
+    }
+
+    /**
+     * Writes the bit stream in 16-bit words, with the bytes that extend match lengths in between them. The decoder
+     * reads a word as soon as it has consumed the first bit of the preceding word, so the position of a word is
+     * reserved at that moment, and any bytes written afterwards follow it.
+     */
+    private static final class BitWriter {
+        private final byte[] out;
+        private int currentWord;
+        private int nextWord;
+        private boolean nextWordReserved = true;
+        private int pos;
+        private int bits;
+        private int bitCount;
+
+        private BitWriter(byte[] out, int start) {
+            this.out = out;
+            this.currentWord = start;
+            this.nextWord = start + 2;
+            this.pos = start + 4;
+        }
+
+        private void writeBits(int value, int count) {
+            while (count > 0) {
+                if (bitCount == 0 && !nextWordReserved) {
+                    nextWord = pos;
+                    pos += 2;
+                    nextWordReserved = true;
+                }
+                int n = Math.min(count, 16 - bitCount);
+                count -= n;
+                bits = (bits << n) | ((value >>> count) & ((1 << n) - 1));
+                bitCount += n;
+                if (bitCount == 16) {
+                    putUInt16(out, currentWord, bits);
+                    currentWord = nextWord;
+                    nextWordReserved = false;
+                    bits = 0;
+                    bitCount = 0;
+                }
+            }
+        }
+
+        private void writeByte(int value) {
+            out[pos++] = (byte) value;
+        }
+
+        private void writeUInt16(int value) {
+            putUInt16(out, pos, value);
+            pos += 2;
+        }
+
+        private void writeInt32(int value) {
+            putInt32(out, pos, value);
+            pos += 4;
+        }
+
+        /**
+         * Write the partially filled word and the reserved word, and return the end of the stream.
+         */
+        private int finish() {
+            putUInt16(out, currentWord, bits << (16 - bitCount));
+            if (nextWordReserved) {
+                putUInt16(out, nextWord, 0);
+            }
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.msxca;
+
+import java.util.zip.DataFormatException;
+
+import static com.hierynomus.msxca.XcaBytes.*;
+
+/**
+ * [MS-XCA].pdf 2.5 LZNT1 Algorithm Details
+ * <p/>
+ * The data is split in chunks of 4096 bytes, which are each compressed on their own. Every chunk starts with a 16-bit
+ * header containing the size of the chunk and whether it is compressed. Within a compressed chunk, a flag byte
+ * announces 8 literals or matches, a match is a 16-bit word in which the split between the offset and the length
+ * depends on the position in the chunk.
+ */
+public class LZNT1 implements CompressionCodec {
+    private static final int CHUNK_SIZE = 4096;
+    private static final int MAX_CHAIN_LENGTH = 32;
+    private static final int CHUNK_SIGNATURE = 0x3000;
+    private static final int CHUNK_COMPRESSED = 0x8000;
+    private static final int CHUNK_SIZE_MASK = 0x0FFF;
+    // A chunk can hold at most 4098 bytes, the size field contains the size minus 3.
+    private static final int MAX_CHUNK_DATA = CHUNK_SIZE_MASK + 3 - 2;
+
+    @Override
+    public int compress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) {
+        int end = inOffset + inLength;
+        int limit = outOffset + outLength;
+        int op = outOffset;
+        MatchFinder finder = new MatchFinder(CHUNK_SIZE, MAX_CHAIN_LENGTH);
+        for (int chunkStart = inOffset; chunkStart < end; chunkStart += CHUNK_SIZE) {
+            int chunkEnd = Math.min(chunkStart + CHUNK_SIZE, end);
+            int chunkLength = chunkEnd - chunkStart;
+            if (op + 2 > limit) {
+                return -1;
+            }
+            int dataLimit = Math.min(limit, op + 2 + Math.min(chunkLength, MAX_CHUNK_DATA));
+            int compressedEnd = compressChunk(finder, in, chunkStart, chunkEnd, out, op + 2, dataLimit);
+            if (compressedEnd >= 0) {
+                putUInt16(out, op, CHUNK_COMPRESSED | CHUNK_SIGNATURE | (compressedEnd - op - 3));
+                op = compressedEnd;
+            } else {
+                // The chunk does not shrink, store it as is.
+                if (op + 2 + chunkLength > limit) {
+                    return -1;
+                }
+                putUInt16(out, op, CHUNK_SIGNATURE | (chunkLength - 1));
+                System.arraycopy(in, chunkStart, out, op + 2, chunkLength);
+                op += 2 + chunkLength;
+            }
+        }
+        return op - outOffset;
+    }
+
+    /**
+     * @return the end of the compressed chunk data, or <code>-1</code> if it does not fit before <code>limit</code>
+     */
+    private int compressChunk(MatchFinder finder, byte[] in, int chunkStart, int chunkEnd, byte[] out, int op, int limit) {
+        int flagPos = -1;
+        int flagBit = 8;
+        int ip = chunkStart;
+        while (ip < chunkEnd) {
+            if (flagBit == 8) {
+                if (op >= limit) {
+                    return -1;
+                }
+                flagPos = op++;
+                out[flagPos] = 0;
+                flagBit = 0;
+            }
+            int position = ip - chunkStart;
+            int offsetBits = offsetBits(position);
+            int maxLength = (1 << (16 - offsetBits)) - 1 + 3;
+            int length = position == 0 ? 0 : finder.find(in, chunkStart, ip, chunkEnd, maxLength, position);
+            if (length == 0) {
+                if (position == 0) {
+                    finder.skip(in, ip, 1, chunkEnd);
+                }
+                if (op + 1 > limit) {
+                    return -1;
+                }
+                out[op++] = in[ip++];
+            } else {
+                if (op + 2 > limit) {
+                    return -1;
+                }
+                putUInt16(out, op, (finder.getMatchOffset() - 1) << (16 - offsetBits) | (length - 3));
+                op += 2;
+                out[flagPos] |= (byte) (1 << flagBit);
+                finder.skip(in, ip + 1, length - 1, chunkEnd);
+                ip += length;
+            }
+            flagBit++;
+        }
+        return op;
+    }
+
+    @Override
+    public void decompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) throws DataFormatException {
+        int end = inOffset + inLength;
+        int outEnd = outOffset + outLength;
+        int ip = inOffset;
+        int op = outOffset;
+        while (op < outEnd) {
+            ensureAvailable(ip, 2, end);
+            int header = getUInt16(in, ip);
+            if (header == 0) {
+                break;
+            }
+            int chunkDataLength = (header & CHUNK_SIZE_MASK) + 3 - 2;
+            ip += 2;
+            ensureAvailable(ip, chunkDataLength, end);
+            int chunkEnd = ip + chunkDataLength;
+            if ((header & CHUNK_COMPRESSED) == 0) {
+                if (chunkDataLength > outEnd - op) {
+                    throw new DataFormatException("Uncompressed chunk of " + chunkDataLength + " bytes exceeds the expected output length");
+                }
+                System.arraycopy(in, ip, out, op, chunkDataLength);
+                op += chunkDataLength;
+            } else {
+                op = decompressChunk(in, ip, chunkEnd, out, op, Math.min(outEnd, op + CHUNK_SIZE));
+            }
+            ip = chunkEnd;
+        }
+        if (op != outEnd) {
+            throw new DataFormatException("Decompressed " + (op - outOffset) + " bytes, expected " + outLength);
+        }
+    }
+
+    private int decompressChunk(byte[] in, int ip, int chunkEnd, byte[] out, int op, int outEnd) throws DataFormatException {
+        int chunkStart = op;
+        while (ip < chunkEnd) {
+            int flags = in[ip++] & 0xFF;
+            for (int bit = 0; bit < 8 && ip < chunkEnd; bit++) {
+                if ((flags & (1 << bit)) == 0) {
+                    if (op >= outEnd) {
+                        throw new DataFormatException("Chunk decompresses to more than " + CHUNK_SIZE + " bytes or the expected output length");
+                    }
+                    out[op++] = in[ip++];
+                } else {
+                    ensureAvailable(ip, 2, chunkEnd);
+                    int token = getUInt16(in, ip);
+                    ip += 2;
+                    int lengthBits = 16 - offsetBits(op - chunkStart);
+                    int length = (token & ((1 << lengthBits) - 1)) + 3;
+                    int offset = (token >>> lengthBits) + 1;
+                    copyMatch(out, chunkStart, op, outEnd, offset, length);
+                    op += length;
+                }
+            }
+        }
+        return op;
+    }
+
+    /**
+     * The number of bits of a match token that hold the offset, which is just enough to reach the start of the chunk.
+     */
+    private static int offsetBits(int position) {
+        int bits = 4;
+        while ((1 << bits) < position) {
+            bits++;
+        }
+        return bits;
+    }
+}
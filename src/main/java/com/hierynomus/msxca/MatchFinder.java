@@ -0,0 +1,115 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.msxca;
+
+import java.util.Arrays;
+
+/**
+ * Finds the longest earlier occurrence of the bytes at a position, using hash chains over 3 byte prefixes.
+ * <p/>
+ * Positions are absolute indices in the input array, and have to be visited in increasing order, either through
+ * {@link #find(byte[], int, int, int, int, int)} or {@link #skip(byte[], int, int, int)}.
+ */
+final class MatchFinder {
+    static final int MIN_MATCH = 3;
+    private static final int HASH_BITS = 15;
+
+    private final int[] head = new int[1 << HASH_BITS];
+    private final int[] prev;
+    private final int windowMask;
+    private final int maxChainLength;
+    private int matchOffset;
+
+    /**
+     * @param windowSize     the largest offset that will be searched for, a power of two
+     * @param maxChainLength the number of candidates that are compared before settling on the best match so far
+     */
+    MatchFinder(int windowSize, int maxChainLength) {
+        this.prev = new int[windowSize];
+        this.windowMask = windowSize - 1;
+        this.maxChainLength = maxChainLength;
+        Arrays.fill(head, -1);
+    }
+
+    /**
+     * Find the longest match for the bytes at <code>pos</code>, and add the position to the chains.
+     *
+     * @param start     the first position a match may refer to
+     * @param end       the end of the input, a match never extends beyond it
+     * @param maxLength the longest match that is useful to the caller
+     * @param maxOffset the largest distance a match may be at
+     * @return the length of the match, or 0 if there is no match of at least {@value #MIN_MATCH} bytes
+     */
+    int find(byte[] in, int start, int pos, int end, int maxLength, int maxOffset) {
+        if (end - pos < MIN_MATCH) {
+            return 0;
+        }
+        int limit = Math.min(maxLength, end - pos);
+        int lowest = Math.max(start, pos - Math.min(maxOffset, windowMask + 1));
+        int h = hash(in, pos);
+        int candidate = head[h];
+        int best = 0;
+        int chain = maxChainLength;
+        while (candidate >= lowest && chain-- > 0) {
+            if (in[candidate + best] == in[pos + best] && in[candidate] == in[pos]) {
+                int length = 0;
+                while (length < limit && in[candidate + length] == in[pos + length]) {
+                    length++;
+                }
+                if (length > best) {
+                    best = length;
+                    matchOffset = pos - candidate;
+                    if (length == limit) {
+                        break;
+                    }
+                }
+            }
+            int next = prev[candidate & windowMask];
+            if (next >= candidate) {
+                // The slot was reused by a newer position, the chain ends here.
+                break;
+            }
+            candidate = next;
+        }
+        prev[pos & windowMask] = head[h];
+        head[h] = pos;
+        return best >= MIN_MATCH ? best : 0;
+    }
+
+    /**
+     * Add the positions that are covered by a match to the chains, without searching for matches.
+     */
+    void skip(byte[] in, int pos, int count, int end) {
+        int last = Math.min(pos + count, end - MIN_MATCH + 1);
+        for (int p = pos; p < last; p++) {
+            int h = hash(in, p);
+            prev[p & windowMask] = head[h];
+            head[h] = p;
+        }
+    }
+
+    /**
+     * @return the distance of the match that was last returned by {@link #find(byte[], int, int, int, int, int)}
+     */
+    int getMatchOffset() {
+        return matchOffset;
+    }
+
+    private static int hash(byte[] in, int pos) {
+        int v = (in[pos] & 0xFF) << 16 | (in[pos + 1] & 0xFF) << 8 | (in[pos + 2] & 0xFF);
+        return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.msxca;
+
+import java.util.zip.DataFormatException;
+
+import static com.hierynomus.msxca.XcaBytes.*;
+
+/**
+ * [MS-XCA].pdf 2.3 / 2.4 Plain LZ77 Compression / Decompression
+ * <p/>
+ * Literals and matches are announced by 32-bit flag words, a match is encoded as a 13-bit offset and a 3-bit length
+ * which is extended by half-bytes, bytes, and 16 or 32-bit words for longer matches.
+ */
+public class PlainLZ77 implements CompressionCodec {
+    private static final int WINDOW_SIZE = 8192;
+    private static final int MAX_CHAIN_LENGTH = 32;
+    // A match token with all its length extensions, and the flag word that may follow it.
+    private static final int MAX_TOKEN_SIZE = 2 + 1 + 1 + 2 + 4 + 4;
+
+    @Override
+    public int compress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) {
+        int end = inOffset + inLength;
+        int limit = outOffset + outLength;
+        if (outLength < 4) {
+            return -1;
+        }
+        MatchFinder finder = new MatchFinder(WINDOW_SIZE, MAX_CHAIN_LENGTH);
+        int flags = 0;
+        int flagCount = 0;
+        int flagPos = outOffset;
+        int op = outOffset + 4;
+        int halfBytePos = -1;
+        int ip = inOffset;
+        while (ip < end) {
+            if (op + MAX_TOKEN_SIZE > limit) {
+                return -1;
+            }
+            int length = finder.find(in, inOffset, ip, end, Integer.MAX_VALUE, WINDOW_SIZE);
+            if (length == 0) {
+                out[op++] = in[ip++];
+                flags <<= 1;
+            } else {
+                int matchLength = length - 3;
+                int token = (finder.getMatchOffset() - 1) << 3;
+                if (matchLength < 7) {
+                    putUInt16(out, op, token | matchLength);
+                    op += 2;
+                } else {
+                    putUInt16(out, op, token | 7);
+                    op += 2;
+                    matchLength -= 7;
+                    int nibble = Math.min(matchLength, 15);
+                    if (halfBytePos < 0) {
+                        halfBytePos = op;
+                        out[op++] = (byte) nibble;
+                    } else {
+                        out[halfBytePos] |= (byte) (nibble << 4);
+                        halfBytePos = -1;
+                    }
+                    if (matchLength >= 15) {
+                        matchLength -= 15;
+                        if (matchLength < 255) {
+                            out[op++] = (byte) matchLength;
+                        } else {
+                            out[op++] = (byte) 255;
+                            matchLength += 15 + 7;
+                            if (matchLength < 0x10000) {
+                                putUInt16(out, op, matchLength);
+                                op += 2;
+                            } else {
+                                putUInt16(out, op, 0);
+                                putInt32(out, op + 2, matchLength);
+                                op += 6;
+                            }
+                        }
+                    }
+                }
+                finder.skip(in, ip + 1, length - 1, end);
+                ip += length;
+                flags = (flags << 1) | 1;
+            }
+            if (++flagCount == 32) {
+                putInt32(out, flagPos, flags);
+                flags = 0;
+                flagCount = 0;
+                flagPos = op;
+                op += 4;
+            }
+        }
+        // Pad the last flag word with match flags, the decoder stops when it runs out of input on one of them.
+        long lastFlags = ((long) flags << (32 - flagCount)) | ((1L << (32 - flagCount)) - 1);
+        putInt32(out, flagPos, (int) lastFlags);
+        return op - outOffset;
+    }
+
+    @Override
+    public void decompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) throws DataFormatException {
+        int end = inOffset + inLength;
+        int outEnd = outOffset + outLength;
+        int ip = inOffset;
+        int op = outOffset;
+        int flags = 0;
+        int flagCount = 0;
+        int halfBytePos = -1;
+        while (op < outEnd) {
+            if (flagCount == 0) {
+                ensureAvailable(ip, 4, end);
+                flags = getInt32(in, ip);
+                ip += 4;
+                flagCount = 32;
+            }
+            flagCount--;
+            if ((flags & (1 << flagCount)) == 0) {
+                ensureAvailable(ip, 1, end);
+                out[op++] = in[ip++];
+                continue;
+            }
+
+            ensureAvailable(ip, 2, end);
+            int token = getUInt16(in, ip);
+            ip += 2;
+            int length = token & 7;
+            int offset = (token >>> 3) + 1;
+            if (length == 7) {
+                if (halfBytePos < 0) {
+                    ensureAvailable(ip, 1, end);
+                    length = in[ip] & 0x0F;
+                    halfBytePos = ip++;
+                } else {
+                    length = (in[halfBytePos] & 0xFF) >>> 4;
+                    halfBytePos = -1;
+                }
+                if (length == 15) {
+                    ensureAvailable(ip, 1, end);
+                    length = in[ip++] & 0xFF;
+                    if (length == 255) {
+                        ensureAvailable(ip, 2, end);
+                        length = getUInt16(in, ip);
+                        ip += 2;
+                        if (length == 0) {
+                            ensureAvailable(ip, 4, end);
+                            length = getInt32(in, ip);
+                            ip += 4;
+                        }
+                        if (length < 15 + 7) {
+                            throw new DataFormatException("Invalid match length " + length + " at offset " + ip);
+                        }
+                        length -= 15 + 7;
+                    }
+                    length += 15;
+                }
+                length += 7;
+            }
+            length += 3;
+            copyMatch(out, outOffset, op, outEnd, offset, length);
+            op += length;
+        }
+    }
+}
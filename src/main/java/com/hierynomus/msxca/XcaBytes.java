@@ -0,0 +1,73 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.msxca;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * Little endian reads and writes on byte arrays, and the back-reference copy shared by the codecs.
+ */
+final class XcaBytes {
+
+    private XcaBytes() {
+    }
+
+    static int getUInt16(byte[] b, int pos) {
+        return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8;
+    }
+
+    static int getInt32(byte[] b, int pos) {
+        return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8 | (b[pos + 2] & 0xFF) << 16 | (b[pos + 3] & 0xFF) << 24;
+    }
+
+    static void putUInt16(byte[] b, int pos, int value) {
+        b[pos] = (byte) value;
+        b[pos + 1] = (byte) (value >>> 8);
+    }
+
+    static void putInt32(byte[] b, int pos, int value) {
+        b[pos] = (byte) value;
+        b[pos + 1] = (byte) (value >>> 8);
+        b[pos + 2] = (byte) (value >>> 16);
+        b[pos + 3] = (byte) (value >>> 24);
+    }
+
+    static void ensureAvailable(int pos, int count, int end) throws DataFormatException {
+        if (pos + count > end) {
+            throw new DataFormatException("Compressed data ends unexpectedly at offset " + pos);
+        }
+    }
+
+    /**
+     * Copy a back-reference byte by byte, as the source and destination may overlap.
+     *
+     * @param start the start of the output, a back-reference must not point before it
+     * @param pos   the position at which the match is written
+     * @param end   the end of the output
+     */
+    static void copyMatch(byte[] out, int start, int pos, int end, int offset, int length) throws DataFormatException {
+        if (offset > pos - start) {
+            throw new DataFormatException("Match offset " + offset + " points before the start of the output at " + (pos - start));
+        }
+        if (length < 0 || length > end - pos) {
+            throw new DataFormatException("Match of " + length + " bytes exceeds the expected output length");
+        }
+        int src = pos - offset;
+        for (int i = 0; i < length; i++) {
+            out[pos + i] = out[src + i];
+        }
+    }
+}
@@ -49,6 +49,10 @@ public class Buffer<T extends Buffer<T>> {
         public PlainBuffer(int size, Endian endianness) {
             super(size, endianness);
         }
+
+        public PlainBuffer(int size, Endian endianness, BufferPool pool) {
+            super(size, endianness, pool);
+        }
     }
 
     /**
@@ -70,8 +74,11 @@ public class Buffer<T extends Buffer<T>> {
         return j;
     }
 
+    private static final byte[] EMPTY = new byte[0];
+
     private byte[] data;
     private Endian endianness;
+    private BufferPool pool;
     protected int rpos;
     protected int wpos;
 
@@ -96,6 +103,16 @@ public class Buffer<T extends Buffer<T>> {
         this(new byte[getNextPowerOf2(size)], false, endianness);
     }
 
+    /**
+     * Create a buffer which takes its backing array from the pool, also when it needs to grow.
+     * <p/>
+     * Call {@link #release()} once the buffer is no longer used to give the backing array back to the pool.
+     */
+    public Buffer(int size, Endian endianness, BufferPool pool) {
+        this(pool.acquire(getNextPowerOf2(size)), false, endianness);
+        this.pool = pool;
+    }
+
     private Buffer(byte[] data, boolean read, Endian endianness) {
         this.data = data;
         this.endianness = endianness;
@@ -192,12 +209,32 @@ public class Buffer<T extends Buffer<T>> {
     public void ensureCapacity(int capacity) {
         if (data.length - wpos < capacity) {
             int cw = wpos + capacity;
-            byte[] tmp = new byte[getNextPowerOf2(cw)];
+            int size = getNextPowerOf2(cw);
+            byte[] tmp = pool != null ? pool.acquire(size) : new byte[size];
             System.arraycopy(data, 0, tmp, 0, data.length);
+            if (pool != null) {
+                pool.release(data);
+            }
             data = tmp;
         }
     }
 
+    /**
+     * Give the backing array back to the pool this buffer was created with, if any.
+     * <p/>
+     * <em>NOTE:</em> After this call the buffer is empty, and arrays previously obtained through {@link #array()} must
+     * no longer be used.
+     */
+    public void release() {
+        if (pool != null) {
+            pool.release(data);
+            pool = null;
+            data = EMPTY;
+            rpos = 0;
+            wpos = 0;
+        }
+    }
+
     /**
      * Compact this buffer by truncating the read bytes from the array.
      */
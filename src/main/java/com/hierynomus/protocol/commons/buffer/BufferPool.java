@@ -0,0 +1,54 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.protocol.commons.buffer;
+
+/**
+ * A source of byte arrays for {@link Buffer Buffers}.
+ * <p/>
+ * Arrays handed out by {@link #acquire(int)} are owned by the caller until they are given back using
+ * {@link #release(byte[])}, after which they must no longer be used. The contents of an acquired array are undefined.
+ */
+public interface BufferPool {
+
+    /**
+     * A pool that allocates a new array for every request, and lets the garbage collector reclaim released arrays.
+     */
+    BufferPool UNPOOLED = new BufferPool() {
+        @Override
+        public byte[] acquire(int size) {
+            return new byte[size];
+        }
+
+        @Override
+        public void release(byte[] array) {
+        }
+    };
+
+    /**
+     * Acquire an array from this pool.
+     *
+     * @param size The minimum size of the array
+     * @return An array of at least <code>size</code> bytes
+     */
+    byte[] acquire(int size);
+
+    /**
+     * Give an array back to this pool.
+     *
+     * @param array The array, previously returned by {@link #acquire(int)}
+     */
+    void release(byte[] array);
+}
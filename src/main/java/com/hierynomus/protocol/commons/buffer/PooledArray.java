@@ -0,0 +1,80 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.protocol.commons.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An array taken from a {@link BufferPool} that a packet is received in, and that is shared by everything that reads
+ * the packet. Each user holds a reference to it, and the array is given back to the pool when the last reference is
+ * released.
+ * <p/>
+ * A reference that is never released only keeps the array from being reused; the garbage collector reclaims it.
+ */
+public final class PooledArray {
+    private final BufferPool pool;
+    private final byte[] array;
+    private final int size;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Acquire an array from the pool, the caller holds the first reference to it.
+     *
+     * @param pool The pool to take the array from, and give it back to
+     * @param size The number of bytes used, the array may be larger
+     */
+    public PooledArray(BufferPool pool, int size) {
+        this.pool = pool;
+        this.array = pool.acquire(size);
+        this.size = size;
+    }
+
+    public byte[] array() {
+        return array;
+    }
+
+    /**
+     * @return The number of bytes of the array that are used, from its start
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Take another reference to the array.
+     */
+    public void retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("The array was already given back to the pool");
+            }
+        } while (!references.compareAndSet(count, count + 1));
+    }
+
+    /**
+     * Release a reference to the array, the array must no longer be read through it.
+     */
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count == 0) {
+            pool.release(array);
+        } else if (count < 0) {
+            throw new IllegalStateException("The array was released more often than it was retained");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.protocol.commons.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A {@link BufferPool} which keeps released arrays in size classes of a power of two.
+ * <p/>
+ * Every size class is split into a number of stripes, the stripe used is determined by the calling thread. This keeps
+ * contention low when many threads serialize packets at the same time, while arrays can still be released by a different
+ * thread than the one that acquired them (e.g. the completion thread of an asynchronous transport).
+ * <p/>
+ * Arrays larger than the maximum pooled size are not retained, and neither are arrays that would exceed the maximum
+ * number of arrays retained per stripe. A pool can therefore retain up to about <code>2 * maxPooledSize *
+ * arraysPerStripe * stripes</code> bytes, which is 64 MiB for the defaults.
+ */
+public class SizeClassedBufferPool implements BufferPool {
+    // Large enough for a packet carrying the default 1 MiB read/write buffer size, including its headers
+    public static final int DEFAULT_MAX_POOLED_SIZE = 2 * 1024 * 1024;
+    public static final int DEFAULT_ARRAYS_PER_STRIPE = 4;
+    public static final int DEFAULT_MAX_STRIPES = 4;
+
+    private final int maxSizeClass;
+    private final int stripes;
+    private final List<ArrayBlockingQueue<byte[]>> pools;
+
+    public SizeClassedBufferPool() {
+        this(DEFAULT_MAX_POOLED_SIZE, DEFAULT_ARRAYS_PER_STRIPE, Math.min(DEFAULT_MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param maxPooledSize   The size of the largest array that is retained in this pool
+     * @param arraysPerStripe The maximum number of arrays that are retained per size class and stripe
+     * @param stripes         The number of stripes per size class
+     */
+    public SizeClassedBufferPool(int maxPooledSize, int arraysPerStripe, int stripes) {
+        if (maxPooledSize <= 0 || maxPooledSize > Buffer.MAX_SIZE) {
+            throw new IllegalArgumentException("Maximum pooled size must be between 1 and " + Buffer.MAX_SIZE);
+        }
+        if (arraysPerStripe <= 0 || stripes <= 0) {
+            throw new IllegalArgumentException("Arrays per stripe and number of stripes must be greater than zero");
+        }
+        this.maxSizeClass = sizeClass(maxPooledSize);
+        this.stripes = stripes;
+        this.pools = new ArrayList<>((maxSizeClass + 1) * stripes);
+        for (int i = 0; i < (maxSizeClass + 1) * stripes; i++) {
+            pools.add(new ArrayBlockingQueue<byte[]>(arraysPerStripe));
+        }
+    }
+
+    @Override
+    public byte[] acquire(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass <= maxSizeClass) {
+            byte[] array = stripe(sizeClass).poll();
+            if (array != null) {
+                return array;
+            }
+        }
+        return new byte[1 << sizeClass];
+    }
+
+    @Override
+    public void release(byte[] array) {
+        int length = array.length;
+        if (length == 0 || (length & (length - 1)) != 0) {
+            return; // Not one of ours
+        }
+        int sizeClass = Integer.numberOfTrailingZeros(length);
+        if (sizeClass <= maxSizeClass) {
+            stripe(sizeClass).offer(array);
+        }
+    }
+
+    private ArrayBlockingQueue<byte[]> stripe(int sizeClass) {
+        return pools.get(sizeClass * stripes + (int) (Thread.currentThread().getId() % stripes));
+    }
+
+    private static int sizeClass(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -17,6 +17,7 @@ package com.hierynomus.protocol.transport;
 
 import com.hierynomus.protocol.PacketData;
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 
 import java.io.IOException;
 
@@ -30,6 +31,16 @@ public interface PacketFactory<D extends PacketData<?>> {
      */
     D read(byte[] data) throws Buffer.BufferException, IOException;
 
+    /**
+     * Construct {@link PacketData packet data} out of raw byte data that was received in a pooled array. The packet
+     * data is read in place, and takes over the caller's reference to the array; the receiver of the packet releases
+     * it once the packet is handled.
+     *
+     * @param data the pooled array containing the full packet data
+     * @return A newly constructed {@link PacketData} object.
+     */
+    D read(PooledArray data) throws Buffer.BufferException, IOException;
+
     /**
      * Checks whether this PacketFactory is able to handle the incoming raw byte data.
      *
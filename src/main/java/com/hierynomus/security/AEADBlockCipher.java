@@ -19,6 +19,12 @@ import javax.crypto.spec.GCMParameterSpec;
 
 public interface AEADBlockCipher {
 
+    /**
+     * Initialize the cipher for a new message.
+     *
+     * @param bytes the key, or <code>null</code> to keep using the key of the previous initialization, which saves
+     *              expanding the same key again for every message
+     */
     void init(Cipher.CryptMode cryptMode, byte[] bytes, GCMParameterSpec gcmParameterSpec) throws SecurityException;
 
     void updateAAD(byte[] aad, int aadOffset, int aadLength) throws SecurityException;
@@ -27,6 +33,23 @@ public interface AEADBlockCipher {
 
     byte[] doFinal(byte[] in, int inOffset, int inLength) throws SecurityException;
 
+    /**
+     * Process the input and write the output into <code>out</code>. The output may be written into the same array as
+     * the input, as long as <code>outOffset</code> is not past <code>inOffset</code>.
+     *
+     * @return the number of bytes written to <code>out</code>
+     */
+    int update(byte[] in, int inOffset, int inLength, byte[] out, int outOffset) throws SecurityException;
+
+    /**
+     * Process the last input and write the output, including the authentication tag when encrypting, into
+     * <code>out</code>. The output may be written into the same array as the input, as long as <code>outOffset</code>
+     * is not past <code>inOffset</code>.
+     *
+     * @return the number of bytes written to <code>out</code>
+     */
+    int doFinal(byte[] in, int inOffset, int inLength, byte[] out, int outOffset) throws SecurityException;
+
     void reset();
 
 }
@@ -21,6 +21,7 @@ import com.hierynomus.security.Cipher.CryptMode;
 import com.hierynomus.security.SecurityException;
 
 import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.engines.AESEngine;
 import org.bouncycastle.crypto.modes.CCMBlockCipher;
@@ -45,7 +46,7 @@ public class BCAEADCipherFactory {
                     protected CipherParameters createParams(byte[] key,
                                                             GCMParameterSpec gcmParameterSpec) {
                         return new AEADParameters(
-                            new KeyParameter(key),
+                            key != null ? new KeyParameter(key) : null,
                             gcmParameterSpec.getTLen(),
                             gcmParameterSpec.getIV()
                         );
@@ -61,7 +62,7 @@ public class BCAEADCipherFactory {
                     protected CipherParameters createParams(byte[] key,
                                                             GCMParameterSpec gcmParameterSpec) {
                         return new AEADParameters(
-                            new KeyParameter(key),
+                            key != null ? new KeyParameter(key) : null,
                             gcmParameterSpec.getTLen(),
                             gcmParameterSpec.getIV()
                         );
@@ -118,6 +119,25 @@ public class BCAEADCipherFactory {
             return out;
         }
 
+        @Override
+        public int update(byte[] in, int inOffset, int inLength, byte[] out, int outOffset) throws SecurityException {
+            try {
+                return wrappedCipher.processBytes(in, inOffset, inLength, out, outOffset);
+            } catch (DataLengthException e) {
+                throw new SecurityException(e);
+            }
+        }
+
+        @Override
+        public int doFinal(byte[] in, int inOffset, int inLength, byte[] out, int outOffset) throws SecurityException {
+            try {
+                int written = wrappedCipher.processBytes(in, inOffset, inLength, out, outOffset);
+                return written + wrappedCipher.doFinal(out, outOffset + written);
+            } catch (DataLengthException | InvalidCipherTextException e) {
+                throw new SecurityException(e);
+            }
+        }
+
         @Override
         public void reset() {
             wrappedCipher.reset();
@@ -28,11 +28,13 @@ import java.security.Provider;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 public class JceAEADCipher implements AEADBlockCipher {
     private javax.crypto.Cipher cipher;
+    private SecretKeySpec key;
 
     JceAEADCipher(String name, Provider jceProvider, String providerName) throws SecurityException {
         try {
@@ -51,10 +53,13 @@ public class JceAEADCipher implements AEADBlockCipher {
     @Override
     public void init(CryptMode cryptMode, byte[] bytes, GCMParameterSpec gcmParameterSpec) throws SecurityException {
         try {
+            if (bytes != null) {
+                key = new SecretKeySpec(bytes, cipher.getAlgorithm().split("/")[0]);
+            }
             if (CryptMode.DECRYPT == cryptMode) {
-                cipher.init(javax.crypto.Cipher.DECRYPT_MODE, new SecretKeySpec(bytes, cipher.getAlgorithm().split("/")[0]), gcmParameterSpec);
+                cipher.init(javax.crypto.Cipher.DECRYPT_MODE, key, gcmParameterSpec);
             } else {
-                cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, new SecretKeySpec(bytes, cipher.getAlgorithm().split("/")[0]), gcmParameterSpec);
+                cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, key, gcmParameterSpec);
             }
         } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
             throw new SecurityException(e);
@@ -80,6 +85,24 @@ public class JceAEADCipher implements AEADBlockCipher {
         }
     }
 
+    @Override
+    public int update(byte[] in, int inOffset, int inLength, byte[] out, int outOffset) throws SecurityException {
+        try {
+            return cipher.update(in, inOffset, inLength, out, outOffset);
+        } catch (ShortBufferException e) {
+            throw new SecurityException(e);
+        }
+    }
+
+    @Override
+    public int doFinal(byte[] in, int inOffset, int inLength, byte[] out, int outOffset) throws SecurityException {
+        try {
+            return cipher.doFinal(in, inOffset, inLength, out, outOffset);
+        } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+            throw new SecurityException(e);
+        }
+    }
+
     @Override
     public void reset() {
         // no-op
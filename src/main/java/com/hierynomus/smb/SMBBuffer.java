@@ -17,6 +17,7 @@ package com.hierynomus.smb;
 
 import com.hierynomus.protocol.commons.Charsets;
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.BufferPool;
 import com.hierynomus.protocol.commons.buffer.Endian;
 
 import java.util.Arrays;
@@ -33,6 +34,10 @@ public class SMBBuffer extends Buffer<SMBBuffer> {
         super(data, Endian.LE);
     }
 
+    public SMBBuffer(BufferPool pool) {
+        super(DEFAULT_SIZE, Endian.LE, pool);
+    }
+
     /**
      * Puts '0' bytes for reserved parts of messages/headers
      *
@@ -17,6 +17,7 @@ package com.hierynomus.smb;
 
 import com.hierynomus.protocol.PacketData;
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 
 /**
  * The SMB Packet Data represents a partially deserialized SMB packet.
@@ -28,14 +29,30 @@ import com.hierynomus.protocol.commons.buffer.Buffer;
 public abstract class SMBPacketData<H extends SMBHeader> implements PacketData<SMBBuffer> {
     private H header;
     protected SMBBuffer dataBuffer;
+    private PooledArray pooledArray;
 
     public SMBPacketData(H header, byte[] data) throws Buffer.BufferException {
         this(header, new SMBBuffer(data));
     }
 
+    /**
+     * Read the packet data in place from the used part of a pooled array.
+     */
+    protected SMBPacketData(H header, PooledArray data) throws Buffer.BufferException {
+        this(header, pooledBuffer(data), data);
+    }
+
     protected SMBPacketData(H header, SMBBuffer buffer) throws Buffer.BufferException {
+        this(header, buffer, null);
+    }
+
+    /**
+     * @param pooledArray the pooled array that backs the buffer, or <code>null</code>
+     */
+    protected SMBPacketData(H header, SMBBuffer buffer, PooledArray pooledArray) throws Buffer.BufferException {
         this.header = header;
         this.dataBuffer = buffer;
+        this.pooledArray = pooledArray;
         readHeader();
     }
 
@@ -55,4 +72,21 @@ public abstract class SMBPacketData<H extends SMBHeader> implements PacketData<S
     public SMBBuffer getDataBuffer() {
         return dataBuffer;
     }
+
+    /**
+     * The pooled array that the data was received in. A packet read from the data that still reads it after the
+     * packet is handled retains the array. The data itself does not hold a reference, the receiver of the packet
+     * releases the reference it was handed.
+     *
+     * @return the array, or <code>null</code> if the data was not received in a pooled array
+     */
+    public PooledArray getPooledArray() {
+        return pooledArray;
+    }
+
+    private static SMBBuffer pooledBuffer(PooledArray data) {
+        SMBBuffer buffer = new SMBBuffer(data.array());
+        buffer.wpos(data.size());
+        return buffer;
+    }
 }
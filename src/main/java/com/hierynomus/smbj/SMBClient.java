@@ -23,6 +23,9 @@ import net.engio.mbassy.listener.Handler;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -37,7 +40,8 @@ public class SMBClient implements Closeable {
      */
     public static final int DEFAULT_PORT = 445;
 
-    private Map<String, Connection> connectionTable = new ConcurrentHashMap<>();
+    // The connections to each host:port, more than one if SmbConfig.getConnectionsPerServer() allows it
+    private Map<String, List<Connection>> connectionTable = new ConcurrentHashMap<>();
     private ServerList serverList = new ServerList();
 
     private SmbConfig config;
@@ -84,32 +88,65 @@ public class SMBClient implements Closeable {
     private Connection getEstablishedOrConnect(String hostname, int port) throws IOException {
         synchronized (this) {
             String hostPort = hostname + ":" + port;
-            Connection cachedConnection = connectionTable.get(hostPort);
-            if (cachedConnection != null) {
-                cachedConnection = cachedConnection.lease();
+            List<Connection> connections = connectionTable.get(hostPort);
+            if (connections == null) {
+                connections = new ArrayList<>();
+                connectionTable.put(hostPort, connections);
             }
-            if (cachedConnection == null || !cachedConnection.isConnected()) {
-                Connection connection = new Connection(config, this, bus, serverList);
-                try {
-                    connection.connect(hostname, port);
-                } catch (IOException e) {
-                    closeSilently(connection); // Quietly close broken connection.
-                    throw e;
+            removeDisconnected(connections);
+            if (connections.size() < config.getConnectionsPerServer()) {
+                return connect(connections, hostname, port);
+            }
+
+            Connection leastBusy = connections.get(0);
+            for (Connection connection : connections) {
+                if (connection.getOutstandingRequestCount() < leastBusy.getOutstandingRequestCount()) {
+                    leastBusy = connection;
                 }
-                connectionTable.put(hostPort, connection);
-                return connection;
+            }
+            Connection cachedConnection = leastBusy.lease();
+            if (cachedConnection == null || !cachedConnection.isConnected()) {
+                connections.remove(leastBusy);
+                return connect(connections, hostname, port);
             }
 
             return cachedConnection;
         }
     }
 
+    private Connection connect(List<Connection> connections, String hostname, int port) throws IOException {
+        Connection connection = new Connection(config, this, bus, serverList);
+        try {
+            connection.connect(hostname, port);
+        } catch (IOException e) {
+            closeSilently(connection); // Quietly close broken connection.
+            throw e;
+        }
+        connections.add(connection);
+        return connection;
+    }
+
+    private static void removeDisconnected(List<Connection> connections) {
+        Iterator<Connection> it = connections.iterator();
+        while (it.hasNext()) {
+            if (!it.next().isConnected()) {
+                it.remove();
+            }
+        }
+    }
+
     @Handler
     @SuppressWarnings("unused")
     private void connectionClosed(ConnectionClosed event) {
         synchronized (this) {
             String hostPort = event.getHostname() + ":" + event.getPort();
-            connectionTable.remove(hostPort);
+            List<Connection> connections = connectionTable.get(hostPort);
+            if (connections != null) {
+                removeDisconnected(connections);
+                if (connections.isEmpty()) {
+                    connectionTable.remove(hostPort);
+                }
+            }
             System.out.println("tempGT2: Connection to << " + hostPort + " >> closed");
         }
     }
@@ -118,7 +155,13 @@ public class SMBClient implements Closeable {
     @Override
     public void close() {
         System.out.println("tempGT2: Going to close all remaining connections");
-        for (Connection connection : connectionTable.values()) {
+        List<Connection> connections = new ArrayList<>();
+        synchronized (this) {
+            for (List<Connection> serverConnections : connectionTable.values()) {
+                connections.addAll(serverConnections);
+            }
+        }
+        for (Connection connection : connections) {
             try {
                 connection.close();
             } catch (Exception e) {
@@ -17,7 +17,9 @@ package com.hierynomus.smbj;
 
 import com.hierynomus.mssmb2.SMB2Dialect;
 import com.hierynomus.mssmb2.SMB2GlobalCapability;
+import com.hierynomus.mssmb2.SMB3CompressionAlgorithm;
 import com.hierynomus.protocol.commons.Factory;
+import com.hierynomus.protocol.commons.buffer.BufferPool;
 import com.hierynomus.protocol.commons.socket.ProxySocketFactory;
 import com.hierynomus.security.SecurityProvider;
 import com.hierynomus.security.bc.BCSecurityProvider;
@@ -27,6 +29,7 @@ import com.hierynomus.smb.SMBPacketData;
 import com.hierynomus.smbj.auth.Authenticator;
 import com.hierynomus.smbj.auth.NtlmAuthenticator;
 import com.hierynomus.smbj.common.SMBRuntimeException;
+import com.hierynomus.smbj.connection.CreditWaitPolicy;
 import com.hierynomus.smbj.transport.TransportLayerFactory;
 import com.hierynomus.smbj.transport.tcp.direct.DirectTcpTransportFactory;
 
@@ -39,6 +42,15 @@ import static com.hierynomus.mssmb2.SMB2Dialect.*;
 
 public final class SmbConfig {
     private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    private static final int DEFAULT_READ_WINDOW_SIZE = 1;
+    private static final int DEFAULT_WRITE_WINDOW_SIZE = 1;
+    private static final int DEFAULT_LEASE_CACHE_SIZE = 16 * 1024 * 1024;
+    private static final long DEFAULT_HANDLE_CACHE_TIMEOUT = 10;
+    private static final TimeUnit DEFAULT_HANDLE_CACHE_TIMEOUT_UNIT = TimeUnit.SECONDS;
+
+    private static final int DEFAULT_CREDIT_TARGET = 512;
+    private static final long DEFAULT_CREDIT_WAIT_TIMEOUT = 5;
+    private static final TimeUnit DEFAULT_CREDIT_WAIT_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
     private static final int DEFAULT_SO_TIMEOUT = 0;
     private static final TimeUnit DEFAULT_SO_TIMEOUT_UNIT = TimeUnit.SECONDS;
@@ -69,13 +81,28 @@ public final class SmbConfig {
     private boolean dfsEnabled;
     private boolean useMultiProtocolNegotiate;
     private SecurityProvider securityProvider;
+    private BufferPool bufferPool;
     private int readBufferSize;
+    private int readWindowSize;
     private long readTimeout;
     private int writeBufferSize;
+    private int writeWindowSize;
     private long writeTimeout;
     private int transactBufferSize;
     private TransportLayerFactory<SMBPacketData<?>, SMBPacket<?, ?>> transportLayerFactory;
     private long transactTimeout;
+    private int creditTarget;
+    private long creditWaitTimeout;
+    private CreditWaitPolicy creditWaitPolicy;
+    private List<SMB3CompressionAlgorithm> compressionAlgorithms;
+    private boolean chainedCompression;
+    private int cryptoThreads;
+    private int maxChannels;
+    private int connectionsPerServer;
+    private boolean leasingEnabled;
+    private int leaseCacheSize;
+    private int handleCacheSize;
+    private long handleCacheTimeout;
     private GSSContextConfig clientGSSContextConfig;
     private boolean encryptData;
     private String workStationName;
@@ -91,11 +118,25 @@ public final class SmbConfig {
             .withClientGuid(UUID.randomUUID())
             .withRandomProvider(new SecureRandom())
             .withSecurityProvider(getDefaultSecurityProvider())
+            .withBufferPool(BufferPool.UNPOOLED)
             .withSocketFactory(new ProxySocketFactory())
             .withSigningRequired(false)
             .withDfsEnabled(false)
             .withMultiProtocolNegotiate(false)
             .withBufferSize(DEFAULT_BUFFER_SIZE)
+            .withReadWindowSize(DEFAULT_READ_WINDOW_SIZE)
+            .withWriteWindowSize(DEFAULT_WRITE_WINDOW_SIZE)
+            .withCreditTarget(DEFAULT_CREDIT_TARGET)
+            .withCreditWaitTimeout(DEFAULT_CREDIT_WAIT_TIMEOUT, DEFAULT_CREDIT_WAIT_TIMEOUT_UNIT)
+            .withCreditWaitPolicy(CreditWaitPolicy.FIFO)
+            .withCompressionAlgorithms()
+            .withChainedCompression(true)
+            .withCryptoThreads(0)
+            .withMaxChannels(1)
+            .withConnectionsPerServer(1)
+            .withLeasingEnabled(false)
+            .withLeaseCacheSize(DEFAULT_LEASE_CACHE_SIZE)
+            .withHandleCache(0, DEFAULT_HANDLE_CACHE_TIMEOUT, DEFAULT_HANDLE_CACHE_TIMEOUT_UNIT)
             .withTransportLayerFactory(DEFAULT_TRANSPORT_LAYER_FACTORY)
             .withSoTimeout(DEFAULT_SO_TIMEOUT, DEFAULT_SO_TIMEOUT_UNIT)
             .withDialects(SMB_3_1_1, SMB_3_0_2, SMB_3_0, SMB_2_1, SMB_2_0_2)
@@ -129,24 +170,40 @@ public final class SmbConfig {
     private SmbConfig() {
         dialects = EnumSet.noneOf(SMB2Dialect.class);
         authenticators = new ArrayList<>();
+        compressionAlgorithms = new ArrayList<>();
     }
 
     private SmbConfig(SmbConfig other) {
         this();
         dialects.addAll(other.dialects);
         authenticators.addAll(other.authenticators);
+        compressionAlgorithms.addAll(other.compressionAlgorithms);
+        chainedCompression = other.chainedCompression;
+        cryptoThreads = other.cryptoThreads;
+        maxChannels = other.maxChannels;
+        connectionsPerServer = other.connectionsPerServer;
+        leasingEnabled = other.leasingEnabled;
+        leaseCacheSize = other.leaseCacheSize;
+        handleCacheSize = other.handleCacheSize;
+        handleCacheTimeout = other.handleCacheTimeout;
         socketFactory = other.socketFactory;
         random = other.random;
         clientGuid = other.clientGuid;
         signingRequired = other.signingRequired;
         dfsEnabled = other.dfsEnabled;
         securityProvider = other.securityProvider;
+        bufferPool = other.bufferPool;
         readBufferSize = other.readBufferSize;
+        readWindowSize = other.readWindowSize;
         readTimeout = other.readTimeout;
         writeBufferSize = other.writeBufferSize;
+        writeWindowSize = other.writeWindowSize;
         writeTimeout = other.writeTimeout;
         transactBufferSize = other.transactBufferSize;
         transactTimeout = other.transactTimeout;
+        creditTarget = other.creditTarget;
+        creditWaitTimeout = other.creditWaitTimeout;
+        creditWaitPolicy = other.creditWaitPolicy;
         transportLayerFactory = other.transportLayerFactory;
         soTimeout = other.soTimeout;
         useMultiProtocolNegotiate = other.useMultiProtocolNegotiate;
@@ -163,6 +220,14 @@ public final class SmbConfig {
         return securityProvider;
     }
 
+    /**
+     * The pool from which the buffers are taken that outgoing packets are serialized into and incoming packets are
+     * received in. By default no buffers are pooled.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     public Set<SMB2Dialect> getSupportedDialects() {
         return EnumSet.copyOf(dialects);
     }
@@ -195,6 +260,14 @@ public final class SmbConfig {
         return readBufferSize;
     }
 
+    /**
+     * The maximum number of read requests that are kept outstanding at the same time when a file is read sequentially.
+     * The effective window is further limited by the credits the server has granted on the connection.
+     */
+    public int getReadWindowSize() {
+        return readWindowSize;
+    }
+
     public long getReadTimeout() {
         return readTimeout;
     }
@@ -203,6 +276,15 @@ public final class SmbConfig {
         return writeBufferSize;
     }
 
+    /**
+     * The maximum number of write requests that are kept outstanding at the same time when data is written to a file.
+     * This bounds the data in flight to this number times the write buffer size. The effective window is further
+     * limited by the credits the server has granted on the connection.
+     */
+    public int getWriteWindowSize() {
+        return writeWindowSize;
+    }
+
     public long getWriteTimeout() {
         return writeTimeout;
     }
@@ -219,6 +301,92 @@ public final class SmbConfig {
         return transportLayerFactory;
     }
 
+    /**
+     * The number of credits the client tries to keep available on a connection, by requesting them from the server.
+     */
+    public int getCreditTarget() {
+        return creditTarget;
+    }
+
+    /**
+     * The maximum time (in milliseconds) a request waits for credits to become available.
+     */
+    public long getCreditWaitTimeout() {
+        return creditWaitTimeout;
+    }
+
+    /**
+     * The order in which requests waiting for credits are handed their credits.
+     */
+    public CreditWaitPolicy getCreditWaitPolicy() {
+        return creditWaitPolicy;
+    }
+
+    /**
+     * The compression algorithms that are offered to an SMB 3.1.1 server, in order of preference. If empty, messages
+     * are never compressed.
+     */
+    public List<SMB3CompressionAlgorithm> getCompressionAlgorithms() {
+        return new ArrayList<>(compressionAlgorithms);
+    }
+
+    /**
+     * Whether chained compression is requested, which allows leading and trailing runs of a single byte to be encoded
+     * as a pattern, and uncompressible parts of a message to be sent as is.
+     */
+    public boolean isChainedCompression() {
+        return chainedCompression;
+    }
+
+    public int getCryptoThreads() {
+        return cryptoThreads;
+    }
+
+    /**
+     * The maximum number of channels (connections) a session is bound to. When greater than 1, the client advertises
+     * multichannel support, and binds additional channels over the network interfaces of the server.
+     */
+    public int getMaxChannels() {
+        return maxChannels;
+    }
+
+    /**
+     * The number of connections the {@link SMBClient} opens to the same server (host and port).
+     */
+    public int getConnectionsPerServer() {
+        return connectionsPerServer;
+    }
+
+    /**
+     * Whether leases are requested when a file is opened, so that the data and attributes that are read from it can
+     * be cached while the lease allows it.
+     */
+    public boolean isLeasingEnabled() {
+        return leasingEnabled;
+    }
+
+    /**
+     * The maximum number of bytes of file data that a share caches while it holds leases on the files.
+     */
+    public int getLeaseCacheSize() {
+        return leaseCacheSize;
+    }
+
+    /**
+     * The maximum number of handles per share that are kept open for reuse after they are closed, 0 if handles are
+     * closed right away.
+     */
+    public int getHandleCacheSize() {
+        return handleCacheSize;
+    }
+
+    /**
+     * The time in milliseconds after which a handle that is kept open for reuse is closed, if it is not reused.
+     */
+    public long getHandleCacheTimeout() {
+        return handleCacheTimeout;
+    }
+
     public int getSoTimeout() {
         return soTimeout;
     }
@@ -250,6 +418,12 @@ public final class SmbConfig {
         if (isEncryptData()) {
             set.add(SMB2GlobalCapability.SMB2_GLOBAL_CAP_ENCRYPTION);
         }
+        if (maxChannels > 1) {
+            set.add(SMB2GlobalCapability.SMB2_GLOBAL_CAP_MULTI_CHANNEL);
+        }
+        if (leasingEnabled) {
+            set.add(SMB2GlobalCapability.SMB2_GLOBAL_CAP_LEASING);
+        }
         return set;
     }
 
@@ -276,6 +450,21 @@ public final class SmbConfig {
             return this;
         }
 
+        /**
+         * Take the buffers that outgoing packets are serialized into from the pool, and give them back once the packets
+         * are sent. Incoming packets are received in arrays from the pool as well, which are given back once the packet
+         * is handled, or for a READ response once it is {@link com.hierynomus.mssmb2.SMB2Packet#release() released}.
+         * A {@link com.hierynomus.protocol.commons.buffer.SizeClassedBufferPool} avoids allocating a large array for
+         * every READ or WRITE, at the cost of the memory it retains.
+         */
+        public Builder withBufferPool(BufferPool bufferPool) {
+            if (bufferPool == null) {
+                throw new IllegalArgumentException("Buffer pool may not be null");
+            }
+            config.bufferPool = bufferPool;
+            return this;
+        }
+
         public Builder withSocketFactory(SocketFactory socketFactory) {
             if (socketFactory == null) {
                 throw new IllegalArgumentException("Socket factory may not be null");
@@ -344,6 +533,14 @@ public final class SmbConfig {
             return this;
         }
 
+        public Builder withReadWindowSize(int readWindowSize) {
+            if (readWindowSize <= 0) {
+                throw new IllegalArgumentException("Read window size must be greater than zero");
+            }
+            config.readWindowSize = readWindowSize;
+            return this;
+        }
+
         public Builder withReadTimeout(long timeout, TimeUnit timeoutUnit) {
             config.readTimeout = timeoutUnit.toMillis(timeout);
             return this;
@@ -357,6 +554,14 @@ public final class SmbConfig {
             return this;
         }
 
+        public Builder withWriteWindowSize(int writeWindowSize) {
+            if (writeWindowSize <= 0) {
+                throw new IllegalArgumentException("Write window size must be greater than zero");
+            }
+            config.writeWindowSize = writeWindowSize;
+            return this;
+        }
+
         public Builder withWriteTimeout(long timeout, TimeUnit timeoutUnit) {
             config.writeTimeout = timeoutUnit.toMillis(timeout);
             return this;
@@ -394,6 +599,151 @@ public final class SmbConfig {
             return this;
         }
 
+        public Builder withCreditTarget(int creditTarget) {
+            if (creditTarget <= 0) {
+                throw new IllegalArgumentException("Credit target must be greater than zero");
+            }
+            config.creditTarget = creditTarget;
+            return this;
+        }
+
+        public Builder withCreditWaitTimeout(long timeout, TimeUnit timeoutUnit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("Credit wait timeout should be either 0 (no waiting) or a positive value");
+            }
+            config.creditWaitTimeout = timeoutUnit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder withCreditWaitPolicy(CreditWaitPolicy creditWaitPolicy) {
+            if (creditWaitPolicy == null) {
+                throw new IllegalArgumentException("Credit wait policy may not be null");
+            }
+            config.creditWaitPolicy = creditWaitPolicy;
+            return this;
+        }
+
+        public Builder withCompressionAlgorithms(SMB3CompressionAlgorithm... compressionAlgorithms) {
+            return withCompressionAlgorithms(Arrays.asList(compressionAlgorithms));
+        }
+
+        public Builder withCompressionAlgorithms(Iterable<SMB3CompressionAlgorithm> compressionAlgorithms) {
+            if (compressionAlgorithms == null) {
+                throw new IllegalArgumentException("Compression algorithms may not be null");
+            }
+
+            config.compressionAlgorithms.clear();
+            for (SMB3CompressionAlgorithm compressionAlgorithm : compressionAlgorithms) {
+                if (compressionAlgorithm == null || compressionAlgorithm == SMB3CompressionAlgorithm.NONE) {
+                    throw new IllegalArgumentException("Compression algorithm may not be null or NONE");
+                }
+                if (!config.compressionAlgorithms.contains(compressionAlgorithm)) {
+                    config.compressionAlgorithms.add(compressionAlgorithm);
+                }
+            }
+            return this;
+        }
+
+        public Builder withChainedCompression(boolean chainedCompression) {
+            config.chainedCompression = chainedCompression;
+            return this;
+        }
+
+        /**
+         * Decrypt, decompress and verify the signatures of the received packets of a connection using a pool of
+         * threads, instead of on the thread that reads them from the transport. The packets are put back in the order
+         * in which they were received before they are processed further.
+         *
+         * @param cryptoThreads the number of threads per connection, or 0 to process the packets on the reading thread
+         */
+        public Builder withCryptoThreads(int cryptoThreads) {
+            if (cryptoThreads < 0) {
+                throw new IllegalArgumentException("Crypto threads may not be negative");
+            }
+            config.cryptoThreads = cryptoThreads;
+            return this;
+        }
+
+        /**
+         * Use SMB 3.x multichannel, binding each session to at most <code>maxChannels</code> connections to the server,
+         * one over each of its network interfaces. Reads and writes are spread over the channels of the session.
+         *
+         * @param maxChannels the maximum number of channels per session, or 1 to use only the connection the session
+         *                    was established on
+         */
+        public Builder withMaxChannels(int maxChannels) {
+            if (maxChannels < 1) {
+                throw new IllegalArgumentException("Max channels should be at least 1");
+            }
+            config.maxChannels = maxChannels;
+            return this;
+        }
+
+        /**
+         * Open up to <code>connectionsPerServer</code> connections to the same server, instead of sharing a single
+         * connection. {@link SMBClient#connect(String, int)} opens a new connection until there are this many, and
+         * after that hands out the connection with the fewest outstanding requests. Each connection has its own
+         * socket and reading thread, unlike the channels of a multichannel session these do not require support from
+         * the server.
+         *
+         * @param connectionsPerServer the number of connections per server, 1 to share a single connection
+         */
+        public Builder withConnectionsPerServer(int connectionsPerServer) {
+            if (connectionsPerServer < 1) {
+                throw new IllegalArgumentException("Connections per server should be at least 1");
+            }
+            config.connectionsPerServer = connectionsPerServer;
+            return this;
+        }
+
+        /**
+         * Request a read and handle caching lease when a file is opened, if the server supports leasing. While the
+         * lease allows read caching, the data and file information that are read are cached, and served from the
+         * cache on the next read of the same file. The cache is invalidated when the server breaks the lease.
+         */
+        public Builder withLeasingEnabled(boolean leasingEnabled) {
+            config.leasingEnabled = leasingEnabled;
+            return this;
+        }
+
+        /**
+         * @param leaseCacheSize the maximum number of bytes of file data that is cached per share, 0 to only cache
+         *                       file information
+         */
+        public Builder withLeaseCacheSize(int leaseCacheSize) {
+            if (leaseCacheSize < 0) {
+                throw new IllegalArgumentException("Lease cache size may not be negative");
+            }
+            config.leaseCacheSize = leaseCacheSize;
+            return this;
+        }
+
+        /**
+         * Keep the handles of files and directories open when they are closed, so that opening the same path again
+         * with the same access, sharing and options reuses the handle instead of sending a CREATE and a CLOSE. Path
+         * based operations that only read (e.g. {@link com.hierynomus.smbj.share.DiskShare#getFileInformation(String)})
+         * reuse the handles as well.
+         * <p/>
+         * A handle that is opened with a lease (see {@link #withLeasingEnabled(boolean)}) is closed as soon as the
+         * server revokes handle caching, before it would conflict with an open by another client. Other handles are
+         * only closed when they are idle for longer than the timeout, and may make an open by another client fail with
+         * a sharing violation until then. A handle on which byte-range locks were requested is always closed.
+         *
+         * @param maxHandles  the maximum number of idle handles per share, 0 to disable the handle cache
+         * @param idleTimeout the time after which an idle handle is closed
+         */
+        public Builder withHandleCache(int maxHandles, long idleTimeout, TimeUnit idleTimeoutUnit) {
+            if (maxHandles < 0) {
+                throw new IllegalArgumentException("Handle cache size may not be negative");
+            }
+            if (idleTimeout <= 0) {
+                throw new IllegalArgumentException("Handle cache timeout should be positive");
+            }
+            config.handleCacheSize = maxHandles;
+            config.handleCacheTimeout = idleTimeoutUnit.toMillis(idleTimeout);
+            return this;
+        }
+
         public Builder withTimeout(long timeout, TimeUnit timeoutUnit) {
             return withReadTimeout(timeout, timeoutUnit).withWriteTimeout(timeout, timeoutUnit).withTransactTimeout(timeout, timeoutUnit);
         }
@@ -424,6 +774,10 @@ public final class SmbConfig {
                 throw new IllegalStateException("If encryption is enabled, at least one dialect should be SMB3.x compatible");
             }
 
+            if (!config.compressionAlgorithms.isEmpty() && !config.dialects.contains(SMB2Dialect.SMB_3_1_1)) {
+                throw new IllegalStateException("If compression is enabled, SMB 3.1.1 should be one of the dialects");
+            }
+
             return new SmbConfig(config);
         }
 
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection;
+
+import static com.hierynomus.mssmb2.SMB2MessageFlag.SMB2_FLAGS_RELATED_OPERATIONS;
+import static com.hierynomus.mssmb2.SMB2MessageFlag.SMB2_FLAGS_SIGNED;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+
+import com.hierynomus.mssmb2.SMB2Packet;
+import com.hierynomus.mssmb2.SMB2PacketHeader;
+import com.hierynomus.smb.SMBBuffer;
+
+/**
+ * [MS-SMB2] 3.2.4.1.4 Sending Compounded Requests
+ * <p/>
+ * A chain of requests that is sent to the server in a single transport send. Each request is aligned on an 8-byte
+ * boundary, and the NextCommand field of its header holds the offset of the next request in the chain.
+ * <p/>
+ * In a chain of related operations, every request after the first has the SMB2_FLAGS_RELATED_OPERATIONS flag set, the
+ * server then uses the FileId that resulted from the previous request when a request carries the FileId
+ * <code>{ 0xFFFFFFFFFFFFFFFF, 0xFFFFFFFFFFFFFFFF }</code> (i.e. a <code>new SMB2FileId()</code>).
+ * <p/>
+ * If the chain is signed, each request is signed separately, including its padding. If the chain is encrypted, it is
+ * encrypted as a whole. Every request is charged its own credits and gets its own message id, so the responses are
+ * received separately, see {@link #getResponses()}.
+ */
+public class CompoundedPacket extends SMB2Packet {
+    private static final int NEXT_COMMAND_OFFSET = 20;
+    private static final int ALIGNMENT = 8;
+
+    private final List<SMB2Packet> packets;
+    private final boolean related;
+    private PacketSignatory signatory;
+    private SecretKey signingKey;
+    private List<Future<SMB2Packet>> responses = Collections.emptyList();
+
+    public CompoundedPacket(boolean related, SMB2Packet... packets) {
+        this(related, Arrays.asList(packets));
+    }
+
+    public CompoundedPacket(boolean related, List<? extends SMB2Packet> packets) {
+        if (packets.isEmpty()) {
+            throw new IllegalArgumentException("A compounded request needs at least one request");
+        }
+        this.related = related;
+        this.packets = new ArrayList<>(packets);
+    }
+
+    /**
+     * Sign each of the requests in the chain when it is written.
+     */
+    CompoundedPacket signWith(PacketSignatory signatory, SecretKey signingKey) {
+        this.signatory = signatory;
+        this.signingKey = signingKey;
+        return this;
+    }
+
+    @Override
+    public void write(SMBBuffer buffer) {
+        for (int i = 0; i < packets.size(); i++) {
+            SMB2Packet packet = packets.get(i);
+            SMB2PacketHeader header = packet.getHeader();
+            if (related && i > 0) {
+                header.setFlag(SMB2_FLAGS_RELATED_OPERATIONS);
+            }
+            if (signingKey != null) {
+                header.setFlag(SMB2_FLAGS_SIGNED);
+            }
+
+            int start = buffer.wpos();
+            packet.write(buffer);
+            if (i < packets.size() - 1) {
+                int length = buffer.wpos() - start;
+                int padding = (ALIGNMENT - length % ALIGNMENT) % ALIGNMENT;
+                buffer.putReserved(padding);
+                length += padding;
+                header.setNextCommandOffset(length);
+                int end = buffer.wpos();
+                buffer.wpos(start + NEXT_COMMAND_OFFSET);
+                buffer.putUInt32(length); // NextCommand (4 bytes)
+                buffer.wpos(end);
+            }
+            if (signingKey != null) {
+                signatory.signInPlace(buffer.array(), start, buffer.wpos() - start, signingKey);
+            }
+        }
+    }
+
+    /**
+     * @return the requests in the chain, in the order in which they are sent
+     */
+    public List<SMB2Packet> getPackets() {
+        return Collections.unmodifiableList(packets);
+    }
+
+    public boolean isRelated() {
+        return related;
+    }
+
+    /**
+     * The responses to the requests in the chain, in the same order as {@link #getPackets()}. These are only available
+     * once the chain has been sent.
+     *
+     * @return a Future for the response to each request
+     */
+    public List<Future<SMB2Packet>> getResponses() {
+        return responses;
+    }
+
+    void setResponses(List<Future<SMB2Packet>> responses) {
+        this.responses = Collections.unmodifiableList(responses);
+    }
+
+    /**
+     * The header of the first request in the chain, which determines the session the chain is sent for.
+     */
+    @Override
+    public SMB2PacketHeader getHeader() {
+        return packets.get(0).getHeader();
+    }
+
+    @Override
+    public long getSequenceNumber() {
+        return packets.get(0).getSequenceNumber();
+    }
+
+    @Override
+    public String toString() {
+        return "Compounded" + packets;
+    }
+}
@@ -16,20 +16,35 @@
 package com.hierynomus.smbj.connection;
 
 import static com.hierynomus.mssmb2.SMB2Packet.SINGLE_CREDIT_PAYLOAD_SIZE;
+import static com.hierynomus.protocol.commons.IOUtils.closeSilently;
 import static java.lang.String.format;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.UUID;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.hierynomus.mssmb.SMB1PacketFactory;
 import com.hierynomus.mssmb2.*;
 import com.hierynomus.mssmb2.messages.SMB2Cancel;
+import com.hierynomus.mssmb2.messages.submodule.SMB2NetworkInterfaceInfo;
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.protocol.commons.concurrent.CancellableFuture;
 import com.hierynomus.protocol.commons.concurrent.Futures;
 import com.hierynomus.protocol.transport.PacketFactory;
@@ -42,16 +57,20 @@ import com.hierynomus.smb.SMBPacketData;
 import com.hierynomus.smbj.SMBClient;
 import com.hierynomus.smbj.SmbConfig;
 import com.hierynomus.smbj.auth.AuthenticationContext;
+import com.hierynomus.smbj.common.SMBRuntimeException;
 import com.hierynomus.smbj.common.Pooled;
 import com.hierynomus.smbj.connection.packet.DeadLetterPacketHandler;
 import com.hierynomus.smbj.connection.packet.IncomingPacketHandler;
+import com.hierynomus.smbj.connection.packet.ParallelPacketHandler;
 import com.hierynomus.smbj.connection.packet.SMB1PacketHandler;
 import com.hierynomus.smbj.connection.packet.SMB2AsyncResponsePacketHandler;
 import com.hierynomus.smbj.connection.packet.SMB2CompoundedPacketHandler;
 import com.hierynomus.smbj.connection.packet.SMB2CreditGrantingPacketHandler;
 import com.hierynomus.smbj.connection.packet.SMB2IsOutstandingPacketHandler;
+import com.hierynomus.smbj.connection.packet.SMB2OplockBreakPacketHandler;
 import com.hierynomus.smbj.connection.packet.SMB2ProcessResponsePacketHandler;
 import com.hierynomus.smbj.connection.packet.SMB2SignatureVerificationPacketHandler;
+import com.hierynomus.smbj.connection.packet.SMB3DecompressingPacketHandler;
 import com.hierynomus.smbj.connection.packet.SMB3DecryptingPacketHandler;
 import com.hierynomus.smbj.event.ConnectionClosed;
 import com.hierynomus.smbj.event.SMBEventBus;
@@ -84,6 +103,9 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
 
     private PacketSignatory signatory;
     private PacketEncryptor encryptor;
+    private PacketCompressor compressor;
+    private ParallelPacketHandler parallelPacketHandler;
+    private ThreadPoolExecutor notificationExecutor;
 
     public SMBClient getClient() {
         return client;
@@ -92,12 +114,11 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
     private SmbConfig config;
     TransportLayer<SMBPacket<?, ?>> transport;
     private final SMBEventBus bus;
-    private final ReentrantLock lock = new ReentrantLock();
 
     public Connection(SmbConfig config, SMBClient client, SMBEventBus bus, ServerList serverList) {
         this.config = config;
         this.client = client;
-        this.transport = config.getTransportLayerFactory().createTransportLayer(new PacketHandlers<>(new SMBPacketSerializer(), this, converter), config);
+        this.transport = config.getTransportLayerFactory().createTransportLayer(new PacketHandlers<>(new SMBPacketSerializer(config.getBufferPool()), this, converter), config);
         this.bus = bus;
         this.serverList = serverList;
         init();
@@ -105,18 +126,30 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
 
     private void init() {
         bus.subscribe(this);
-        this.sequenceWindow = new SequenceWindow();
+        this.sequenceWindow = new SequenceWindow(config.getCreditTarget(), config.getCreditWaitTimeout(), TimeUnit.MILLISECONDS, config.getCreditWaitPolicy());
         this.signatory = new PacketSignatory(config.getSecurityProvider());
         this.encryptor = new PacketEncryptor(config.getSecurityProvider());
-
-        this.packetHandlerChain = new SMB3DecryptingPacketHandler(sessionTable, encryptor).setNext(
-            new SMB2CompoundedPacketHandler().setNext(
-                new SMB2IsOutstandingPacketHandler(outstandingRequests).setNext(
-                    new SMB2SignatureVerificationPacketHandler(sessionTable, signatory).setNext(
-                        new SMB2CreditGrantingPacketHandler(sequenceWindow).setNext(
-                            new SMB2AsyncResponsePacketHandler(outstandingRequests).setNext(
-                                new SMB2ProcessResponsePacketHandler(smb2Converter, outstandingRequests).setNext(
-                                    new SMB1PacketHandler().setNext(new DeadLetterPacketHandler()))))))));
+        this.compressor = new PacketCompressor(config.getBufferPool());
+        this.notificationExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NotificationThreadFactory());
+        this.notificationExecutor.allowCoreThreadTimeOut(true);
+
+        IncomingPacketHandler inOrder = new SMB2IsOutstandingPacketHandler(outstandingRequests).setNext(
+            new SMB2CreditGrantingPacketHandler(sequenceWindow).setNext(
+                new SMB2OplockBreakPacketHandler(smb2Converter, bus).setNext(
+                    new SMB2AsyncResponsePacketHandler(outstandingRequests).setNext(
+                        new SMB2ProcessResponsePacketHandler(smb2Converter, outstandingRequests).setNext(
+                            new SMB1PacketHandler().setNext(new DeadLetterPacketHandler()))))));
+        // Decrypting, decompressing and verifying the signature of a packet do not depend on the packets received before
+        // it, so these can be run in parallel. The packets are put back in order before they are processed further.
+        if (config.getCryptoThreads() > 0) {
+            this.parallelPacketHandler = new ParallelPacketHandler(config.getCryptoThreads(), this);
+            inOrder = parallelPacketHandler.inOrder(inOrder);
+        }
+        IncomingPacketHandler chain = new SMB3DecryptingPacketHandler(sessionTable, encryptor).setNext(
+            new SMB3DecompressingPacketHandler(compressor).setNext(
+                new SMB2SignatureVerificationPacketHandler(this, sessionTable, signatory).setNext(
+                    new SMB2CompoundedPacketHandler().setNext(inOrder))));
+        this.packetHandlerChain = parallelPacketHandler != null ? parallelPacketHandler.setNext(chain) : chain;
     }
 
     public Connection(Connection connection) {
@@ -137,6 +170,7 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
         new SMBProtocolNegotiator(this, config, connectionContext).negotiateDialect();
         this.signatory.init();
         this.encryptor.init(connectionContext);
+        this.compressor.init(connectionContext, config.getCompressionAlgorithms());
 
         this.pathResolver = new SymlinkPathResolver(PathResolver.LOCAL);
         if (config.isDfsEnabled() && connectionContext.supportsDFS()) {
@@ -170,6 +204,10 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
         try {
             if (!force) {
                 for (Session session : sessionTable.activeSessions()) {
+                    if (session.getConnection() != this) {
+                        // This is a channel of a session that was established on another connection
+                        continue;
+                    }
                     try {
                         session.close();
                     } catch (IOException e) {
@@ -178,7 +216,16 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
                 }
             }
         } finally {
+            for (Session session : sessionTable.activeSessions()) {
+                if (session.getConnection() == this) {
+                    session.closeChannels();
+                }
+            }
             transport.disconnect();
+            notificationExecutor.shutdown();
+            if (parallelPacketHandler != null) {
+                parallelPacketHandler.shutdown();
+            }
             System.out.println("tempGT2: Closed connection to " + getRemoteHostname());
             bus.publish(new ConnectionClosed(connectionContext.getServer().getServerName(), connectionContext.getServer().getPort()));
         }
@@ -190,47 +237,172 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
      * @return a (new) Session that is authenticated for the user.
      */
     public Session authenticate(AuthenticationContext authContext) {
-        return new SMBSessionBuilder(this, config, new SMBSessionBuilder.SessionFactory() {
+        Session session = new SMBSessionBuilder(this, config, new SMBSessionBuilder.SessionFactory() {
             @Override
             public Session createSession(AuthenticationContext context) {
-                return new Session(Connection.this, config, context, bus, pathResolver, signatory, encryptor);
+                return new Session(Connection.this, config, context, bus, pathResolver, signatory, encryptor, compressor);
             }
         }).establish(authContext);
+        if (config.getMaxChannels() > 1 && connectionContext.supportsMultiChannel() && !session.isGuest() && !session.isAnonymous()) {
+            bindChannels(session);
+        }
+        return session;
+    }
+
+    /**
+     * Bind additional channels to the session, one over each network interface of the server other than the one this
+     * connection was made to, fastest first. A channel that cannot be bound is skipped, the
+     * session can always be used over this connection.
+     */
+    private void bindChannels(Session session) {
+        List<SMB2NetworkInterfaceInfo> interfaces;
+        try {
+            interfaces = session.queryNetworkInterfaces();
+        } catch (SMBRuntimeException e) {
+            System.out.println("tempGT2: Could not query the network interfaces of " + getRemoteHostname() + ", not binding any channels: " + e);
+            return;
+        }
+
+        Set<InetAddress> connected = new HashSet<>();
+        try {
+            connected.addAll(Arrays.asList(InetAddress.getAllByName(getRemoteHostname())));
+        } catch (UnknownHostException e) {
+            System.out.println("tempGT2: Could not resolve " + getRemoteHostname() + ": " + e);
+        }
+
+        for (InetAddress address : selectChannelAddresses(interfaces, connected, config.getMaxChannels() - 1)) {
+            Connection channel = new Connection(config, client, bus, serverList);
+            try {
+                channel.connect(address.getHostAddress(), connectionContext.getServer().getPort());
+                if (channel.getNegotiatedProtocol().getDialect() != getNegotiatedProtocol().getDialect()) {
+                    throw new TransportException("Negotiated " + channel.getNegotiatedProtocol().getDialect() + " instead of " + getNegotiatedProtocol().getDialect());
+                }
+                session.addChannel(new SMBSessionBuilder(channel, config, null).bind(session));
+            } catch (IOException | SMBRuntimeException e) {
+                System.out.println("tempGT2: Could not bind session " + session.getSessionId() + " to a channel to " + address + ": " + e);
+                closeSilently(channel);
+            }
+        }
+    }
+
+    /**
+     * Select the addresses to bind channels over, at most one per network interface and none over the interfaces of
+     * the connected addresses. Faster interfaces come first, and an IPv4 address before an IPv6 address of the same
+     * speed. Link-local and loopback addresses are skipped.
+     */
+    static List<InetAddress> selectChannelAddresses(List<SMB2NetworkInterfaceInfo> interfaces, Set<InetAddress> connected, int maxChannels) {
+        List<SMB2NetworkInterfaceInfo> candidates = new ArrayList<>(interfaces);
+        Collections.sort(candidates, new Comparator<SMB2NetworkInterfaceInfo>() {
+            @Override
+            public int compare(SMB2NetworkInterfaceInfo o1, SMB2NetworkInterfaceInfo o2) {
+                int bySpeed = Long.compare(o2.getLinkSpeed(), o1.getLinkSpeed());
+                if (bySpeed != 0) {
+                    return bySpeed;
+                }
+                // Prefer IPv4, an interface is commonly reported with both an IPv4 and an IPv6 address
+                return Boolean.compare(o2.getAddress() instanceof Inet4Address, o1.getAddress() instanceof Inet4Address);
+            }
+        });
+
+        Set<Long> usedInterfaces = new HashSet<>();
+        for (SMB2NetworkInterfaceInfo info : candidates) {
+            if (info.getAddress() != null && connected.contains(info.getAddress())) {
+                usedInterfaces.add(info.getIfIndex());
+            }
+        }
+        List<InetAddress> addresses = new ArrayList<>();
+        for (SMB2NetworkInterfaceInfo info : candidates) {
+            if (addresses.size() >= maxChannels) {
+                break;
+            }
+            InetAddress address = info.getAddress();
+            if (address == null || address.isLinkLocalAddress() || address.isLoopbackAddress() || !usedInterfaces.add(info.getIfIndex())) {
+                continue;
+            }
+            addresses.add(address);
+        }
+        return addresses;
     }
 
     /**
      * send a packet.
+     * <p/>
+     * This method can be called concurrently from many threads. Handing out the sequence numbers is the only step
+     * that is serialized (by the {@link SequenceWindow}), waiting for credits, registering the request and the
+     * serialization, signing and encryption of the packet all happen in the calling thread without holding a lock
+     * on the connection. Only the actual write to the socket is serialized by the transport.
+     * <p/>
+     * As a consequence, requests may reach the wire in a different order than their message ids were assigned. This
+     * is allowed, as the server accepts any message id within its command sequence window ([MS-SMB2] 3.3.1.1); the
+     * requirements of [MS-SMB2] 3.2.4.1.6 (unique ids, consecutive ranges for multi-credit requests, taken from the
+     * lowest available) are upheld by the {@link SequenceWindow}.
+     *
+     * <p/>
+     * A {@link CompoundedPacket} is sent in a single write, the futures for the responses to each of its requests are
+     * available from {@link CompoundedPacket#getResponses()}.
      *
      * @param packet SMBPacket to send
-     * @return a Future to be used to retrieve the response packet
+     * @return a Future to be used to retrieve the response packet, or the response to the first request of a
+     * {@link CompoundedPacket}
      * @throws TransportException When a transport level error occurred
      */
+    @SuppressWarnings("unchecked")
     public <T extends SMB2Packet> Future<T> send(SMB2Packet packet) throws TransportException {
-        lock.lock();
         Future<T> f = null;
-        try {
-            if (!(packet.getPacket() instanceof SMB2Cancel)) {
-                int availableCredits = sequenceWindow.available();
-                int grantCredits = calculateGrantedCredits(packet, availableCredits);
-                if (availableCredits == 0) {
-                    System.out.println(
-                        "tempGT2: There are no credits left to send " + packet.getHeader().getMessage() + ", will block until there are more credits available.");
-                }
-                long[] messageIds = sequenceWindow.get(grantCredits);
-                packet.getHeader().setMessageId(messageIds[0]);
-                System.out.println("tempGT2: Granted " + grantCredits + " (out of " + availableCredits + ") credits to " + packet);
-                packet.getHeader().setCreditRequest(Math
-                    .max(SequenceWindow.PREFERRED_MINIMUM_CREDITS - availableCredits - grantCredits, grantCredits));
-
-                Request request = new Request(packet.getPacket(), messageIds[0], UUID.randomUUID());
-                outstandingRequests.registerOutstanding(request);
-                f = request.getFuture(new CancelRequest(request, packet.getHeader().getSessionId()));
+        if (packet.getPacket() instanceof CompoundedPacket) {
+            f = (Future<T>) registerCompounded((CompoundedPacket) packet.getPacket());
+        } else if (!(packet.getPacket() instanceof SMB2Cancel)) {
+            int availableCredits = sequenceWindow.available();
+            int grantCredits = calculateGrantedCredits(packet, availableCredits);
+            if (availableCredits == 0) {
+                System.out.println(
+                    "tempGT2: There are no credits left to send " + packet.getHeader().getMessage() + ", will block until there are more credits available.");
             }
-            transport.write(packet);
-            return f;
-        } finally {
-            lock.unlock();
+            long messageId = sequenceWindow.acquire(grantCredits);
+            packet.getHeader().setMessageId(messageId);
+            System.out.println("tempGT2: Granted " + grantCredits + " (out of " + availableCredits + ") credits to " + packet);
+            packet.getHeader().setCreditRequest(sequenceWindow.creditRequest(grantCredits));
+
+            Request request = new Request(packet.getPacket(), messageId);
+            // Register before writing, the response can arrive before transport.write returns.
+            outstandingRequests.registerOutstanding(request);
+            f = request.getFuture(new CancelRequest(request, packet.getHeader().getSessionId()));
+        }
+        transport.write(packet);
+        return f;
+    }
+
+    /**
+     * Every request in a compounded chain is charged its own credits and has its own message id. The credits for the
+     * whole chain are acquired at once, so that the requests get consecutive message ids and the chain is never split
+     * by waiting for credits halfway.
+     */
+    private Future<SMB2Packet> registerCompounded(CompoundedPacket compound) throws TransportException {
+        List<SMB2Packet> packets = compound.getPackets();
+        int availableCredits = sequenceWindow.available();
+        int totalCredits = 0;
+        for (SMB2Packet packet : packets) {
+            if (packet.getPacket() instanceof SMB2Cancel) {
+                throw new TransportException("An SMB2 CANCEL request cannot be compounded");
+            }
+            totalCredits += calculateGrantedCredits(packet, availableCredits - totalCredits);
         }
+
+        long messageId = sequenceWindow.acquire(totalCredits);
+        System.out.println("tempGT2: Granted " + totalCredits + " (out of " + availableCredits + ") credits to " + compound);
+        List<Future<SMB2Packet>> responses = new ArrayList<>(packets.size());
+        for (int i = 0; i < packets.size(); i++) {
+            SMB2Packet packet = packets.get(i);
+            packet.getHeader().setMessageId(messageId);
+            // The first request asks for the credits of the whole chain, the others only for their own charge.
+            packet.getHeader().setCreditRequest(i == 0 ? sequenceWindow.creditRequest(totalCredits) : 0);
+            Request request = new Request(packet.getPacket(), messageId);
+            outstandingRequests.registerOutstanding(request);
+            responses.add(request.<SMB2Packet>getFuture(new CancelRequest(request, packet.getHeader().getSessionId())));
+            messageId += packet.getCreditsAssigned();
+        }
+        compound.setResponses(responses);
+        return responses.get(0);
     }
 
     <T extends SMB2Packet> T sendAndReceive(SMB2Packet packet) throws TransportException {
@@ -262,6 +434,43 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
         return Math.abs((payloadSize - 1) / SINGLE_CREDIT_PAYLOAD_SIZE) + 1;
     }
 
+    /**
+     * Returns the number of credits that are currently available to send requests on this connection.
+     *
+     * @return The number of available credits
+     */
+    public int getAvailableCredits() {
+        return sequenceWindow.available();
+    }
+
+    /**
+     * Run a task that sends requests in response to a notification from the server, such as a lease break
+     * acknowledgment. The notifications are handled on the thread that receives the packets, which must not wait
+     * for credits, as only the responses it receives grant them. The tasks are run one at a time, in the order in
+     * which they are submitted.
+     */
+    public void executeNotificationTask(Runnable task) {
+        notificationExecutor.execute(task);
+    }
+
+    /**
+     * Returns the number of requests on this connection that are waiting for a response.
+     *
+     * @return The number of outstanding requests
+     */
+    public int getOutstandingRequestCount() {
+        return outstandingRequests.count();
+    }
+
+    /**
+     * Returns a snapshot of the credit accounting on this connection, e.g. to diagnose requests waiting for credits.
+     *
+     * @return The credit statistics
+     */
+    public CreditStatistics getCreditStatistics() {
+        return sequenceWindow.getStatistics();
+    }
+
     /**
      * Returns the negotiated protocol details for this connection.
      *
@@ -273,7 +482,15 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
 
     @Override
     public void handle(SMBPacketData<?> uncheckedPacket) throws TransportException {
-        this.packetHandlerChain.handle(uncheckedPacket);
+        PooledArray received = uncheckedPacket.getPooledArray();
+        try {
+            this.packetHandlerChain.handle(uncheckedPacket);
+        } finally {
+            // The packet is handled, or handed to the parallel handlers which hold their own reference
+            if (received != null) {
+                received.release();
+            }
+        }
         // [MS-SMB2] 3.2.5.1.6 Handling Session Expiration
         // if (packet.getHeader().getStatus() == NtStatus.STATUS_NETWORK_SESSION_EXPIRED) {
         // TODO reauthenticate session!
@@ -329,6 +546,19 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
             throw new IOException("Unknown packet format received.");
         }
 
+        @Override
+        public SMBPacketData<?> read(PooledArray data) throws Buffer.BufferException, IOException {
+            // The pooled array may be larger than the packet, only check a protocol id that was received
+            if (data.size() >= 4) {
+                for (PacketFactory<?> packetFactory : packetFactories) {
+                    if (packetFactory.canHandle(data.array())) {
+                        return (SMBPacketData<?>) packetFactory.read(data);
+                    }
+                }
+            }
+            throw new IOException("Unknown packet format received.");
+        }
+
         @Override
         public boolean canHandle(byte[] data) {
             for (PacketFactory<?> packetFactory : packetFactories) {
@@ -359,7 +589,8 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
                 request.getMessageId(),
                 request.getAsyncId());
             try {
-                sessionTable.find(sessionId).send(cancel);
+                // The cancel is sent on the same channel as the request
+                sessionTable.find(sessionId).send(Connection.this, cancel);
                 // transport.write(cancel);
             } catch (TransportException e) {
                 System.out.println("tempGT2: Failed to send " + cancel);
@@ -374,4 +605,19 @@ public class Connection extends Pooled<Connection> implements Closeable, PacketR
     SessionTable getPreauthSessionTable() {
         return preauthSessionTable;
     }
+
+    PacketSignatory getSignatory() {
+        return signatory;
+    }
+
+    private static class NotificationThreadFactory implements ThreadFactory {
+        private static final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Notification Handler " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
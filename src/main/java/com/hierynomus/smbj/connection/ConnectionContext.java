@@ -25,6 +25,7 @@ import com.hierynomus.mssmb2.SMB2GlobalCapability;
 import com.hierynomus.mssmb2.SMB3CompressionAlgorithm;
 import com.hierynomus.mssmb2.SMB3EncryptionCipher;
 import com.hierynomus.mssmb2.SMB3HashAlgorithm;
+import com.hierynomus.mssmb2.SMB3SigningAlgorithm;
 import com.hierynomus.mssmb2.messages.SMB2NegotiateResponse;
 import com.hierynomus.ntlm.messages.WindowsVersion;
 import com.hierynomus.smbj.SmbConfig;
@@ -57,6 +58,8 @@ public class ConnectionContext {
     private byte[] preauthIntegrityHashValue;
     private SMB3EncryptionCipher cipherId;
     private Set<SMB3CompressionAlgorithm> compressionIds;
+    private boolean supportsChainedCompression;
+    private SMB3SigningAlgorithm signingAlgorithm;
     // How much the SMB server clock is off from client clock
     private Long timeOffsetMillis;
 
@@ -78,6 +81,8 @@ public class ConnectionContext {
         this.negotiatedProtocol = new NegotiatedProtocol(response.getDialect(), response.getMaxTransactSize(), response.getMaxReadSize(), response.getMaxWriteSize(), supportsMultiCredit());
         this.cipherId = negotiationContext.getCipher();
         this.compressionIds = negotiationContext.getCompressionIds();
+        this.supportsChainedCompression = negotiationContext.isChainedCompression();
+        this.signingAlgorithm = negotiationContext.getSigningAlgorithm();
         this.preauthIntegrityHashId = negotiationContext.getPreauthIntegrityHashId();
         this.preauthIntegrityHashValue = negotiationContext.getPreauthIntegrityHashValue() != null ? negotiationContext.getPreauthIntegrityHashValue() : new byte[0];
         timeOffsetMillis = System.currentTimeMillis() - response.getSystemTime().toEpochMillis();
@@ -243,4 +248,26 @@ public class ConnectionContext {
     public Set<SMB3CompressionAlgorithm> getCompressionIds() {
         return compressionIds;
     }
+
+    /**
+     * @return whether a compression algorithm was negotiated, this is only possible for SMB 3.1.1
+     */
+    public boolean supportsCompression() {
+        return compressionIds != null && !compressionIds.isEmpty();
+    }
+
+    /**
+     * @return whether compressed messages may consist of a chain of compressed and uncompressed payloads
+     */
+    public boolean supportsChainedCompression() {
+        return supportsChainedCompression;
+    }
+
+    /**
+     * @return the signing algorithm that was negotiated, this is only possible for SMB 3.1.1. If none was negotiated,
+     * AES-CMAC is used for the SMB 3.x dialects and HMAC-SHA256 for the SMB 2 dialects.
+     */
+    public SMB3SigningAlgorithm getSigningAlgorithm() {
+        return signingAlgorithm;
+    }
 }
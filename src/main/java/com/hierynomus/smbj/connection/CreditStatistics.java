@@ -0,0 +1,111 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection;
+
+/**
+ * A snapshot of the credit accounting of a {@link Connection}.
+ */
+public class CreditStatistics {
+    private final int availableCredits;
+    private final long creditsGranted;
+    private final long creditsUsed;
+    private final long waits;
+    private final int waiting;
+    private final long totalWaitTime;
+    private final long longestWaitTime;
+    private final long starvationEvents;
+
+    CreditStatistics(int availableCredits, long creditsGranted, long creditsUsed, long waits, int waiting, long totalWaitTime, long longestWaitTime, long starvationEvents) {
+        this.availableCredits = availableCredits;
+        this.creditsGranted = creditsGranted;
+        this.creditsUsed = creditsUsed;
+        this.waits = waits;
+        this.waiting = waiting;
+        this.totalWaitTime = totalWaitTime;
+        this.longestWaitTime = longestWaitTime;
+        this.starvationEvents = starvationEvents;
+    }
+
+    /**
+     * @return The number of credits available at the time of the snapshot
+     */
+    public int getAvailableCredits() {
+        return availableCredits;
+    }
+
+    /**
+     * @return The total number of credits granted by the server
+     */
+    public long getCreditsGranted() {
+        return creditsGranted;
+    }
+
+    /**
+     * @return The total number of credits charged for the requests sent
+     */
+    public long getCreditsUsed() {
+        return creditsUsed;
+    }
+
+    /**
+     * @return The number of requests that had to wait for credits
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return The number of requests waiting for credits at the time of the snapshot
+     */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * @return The total time (in milliseconds) requests spent waiting for credits
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    /**
+     * @return The longest time (in milliseconds) a single request spent waiting for credits
+     */
+    public long getLongestWaitTime() {
+        return longestWaitTime;
+    }
+
+    /**
+     * @return The number of requests that failed because no credits became available in time
+     */
+    public long getStarvationEvents() {
+        return starvationEvents;
+    }
+
+    @Override
+    public String toString() {
+        return "CreditStatistics{" +
+            "availableCredits=" + availableCredits +
+            ", creditsGranted=" + creditsGranted +
+            ", creditsUsed=" + creditsUsed +
+            ", waits=" + waits +
+            ", waiting=" + waiting +
+            ", totalWaitTime=" + totalWaitTime +
+            ", longestWaitTime=" + longestWaitTime +
+            ", starvationEvents=" + starvationEvents +
+            '}';
+    }
+}
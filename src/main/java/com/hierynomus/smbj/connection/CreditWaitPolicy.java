@@ -0,0 +1,32 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection;
+
+/**
+ * The order in which requests that are waiting for credits are handed their credits.
+ */
+public enum CreditWaitPolicy {
+    /**
+     * Requests are handed their credits in the order in which they started waiting.
+     */
+    FIFO,
+    /**
+     * Requests that need the fewest credits are handed their credits first, so that small (e.g. metadata) requests
+     * are not held up behind large multi-credit reads and writes. Requests needing the same number of credits are
+     * handed them in the order in which they started waiting.
+     */
+    PRIORITY
+}
@@ -17,78 +17,92 @@ package com.hierynomus.smbj.connection;
 
 import com.hierynomus.smbj.common.SMBRuntimeException;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * The requests on a connection for which no (final) response was received yet.
+ * <p/>
+ * Message ids are handed out sequentially, and only a limited number of requests is outstanding at any time, so the
+ * requests are kept in a ring of slots indexed by their message id modulo the size of the ring. All operations are
+ * lock-free and do not box the message id. If the slot of a request is still taken by a much older request (e.g. a
+ * long running CHANGE_NOTIFY), the request is kept in an overflow map instead.
+ * <p/>
+ * The message id also identifies the request when it is cancelled, as that is what the SMB2 CANCEL refers to.
+ */
 public class OutstandingRequests {
-    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-    private Map<Long, Request> lookup = new HashMap<>();
-    private Map<UUID, Request> cancelLookup = new HashMap<>();
+    private static final int RING_SIZE = 8192;
+    private static final int RING_MASK = RING_SIZE - 1;
 
-    public boolean isOutstanding(Long messageId) {
-        lock.readLock().lock();
-        try {
-            return lookup.containsKey(messageId);
-        } finally {
-            lock.readLock().unlock();
-        }
+    private final AtomicReferenceArray<Request> ring = new AtomicReferenceArray<>(RING_SIZE);
+    private final ConcurrentMap<Long, Request> overflow = new ConcurrentHashMap<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * @return the number of requests that are waiting for a response
+     */
+    public int count() {
+        return outstanding.get();
     }
 
-    public Request getRequestByMessageId(Long messageId) {
-        lock.readLock().lock();
-        try {
-            return lookup.get(messageId);
-        } finally {
-            lock.readLock().unlock();
-        }
+    public boolean isOutstanding(long messageId) {
+        return getRequestByMessageId(messageId) != null;
     }
 
-    Request getRequestByCancelId(UUID cancelId) {
-        lock.readLock().lock();
-        try {
-            return cancelLookup.get(cancelId);
-        } finally {
-            lock.readLock().unlock();
+    public Request getRequestByMessageId(long messageId) {
+        Request r = ring.get(slot(messageId));
+        if (r != null && r.getMessageId() == messageId) {
+            return r;
         }
+        return overflow.isEmpty() ? null : overflow.get(messageId);
     }
 
-    public Request receivedResponseFor(Long messageId) {
-        lock.writeLock().lock();
-        try {
-            Request r = lookup.remove(messageId);
-            if (r == null) {
-                throw new SMBRuntimeException("Unable to find outstanding request for messageId " + messageId);
-            }
-            cancelLookup.remove(r.getCancelId());
+    public Request receivedResponseFor(long messageId) {
+        int slot = slot(messageId);
+        Request r = ring.get(slot);
+        if (r != null && r.getMessageId() == messageId && ring.compareAndSet(slot, r, null)) {
+            outstanding.decrementAndGet();
             return r;
-        } finally {
-            lock.writeLock().unlock();
         }
+        r = overflow.remove(messageId);
+        if (r == null) {
+            throw new SMBRuntimeException("Unable to find outstanding request for messageId " + messageId);
+        }
+        outstanding.decrementAndGet();
+        return r;
     }
 
     void registerOutstanding(Request request) {
-        lock.writeLock().lock();
-        try {
-            lookup.put(request.getMessageId(), request);
-            cancelLookup.put(request.getCancelId(), request);
-        } finally {
-            lock.writeLock().unlock();
+        outstanding.incrementAndGet();
+        if (!ring.compareAndSet(slot(request.getMessageId()), null, request)) {
+            overflow.put(request.getMessageId(), request);
         }
     }
 
     void handleError(Throwable t) {
-        lock.writeLock().lock();
-        try {
-            for (Long id : new HashSet<>(lookup.keySet())) {
-                Request removed = lookup.remove(id);
-                cancelLookup.remove(removed.getCancelId());
+        for (int i = 0; i < RING_SIZE; i++) {
+            Request removed = ring.getAndSet(i, null);
+            if (removed != null) {
+                outstanding.decrementAndGet();
                 removed.getPromise().deliverError(t);
             }
-        } finally {
-            lock.writeLock().unlock();
         }
+        Iterator<Request> it = overflow.values().iterator();
+        while (it.hasNext()) {
+            Request removed = it.next();
+            if (!overflow.remove(removed.getMessageId(), removed)) {
+                // The response was received in the meantime
+                continue;
+            }
+            outstanding.decrementAndGet();
+            removed.getPromise().deliverError(t);
+        }
+    }
+
+    private static int slot(long messageId) {
+        return (int) (messageId & RING_MASK);
     }
 }
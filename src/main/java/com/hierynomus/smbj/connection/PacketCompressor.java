@@ -0,0 +1,348 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection;
+
+import com.hierynomus.mssmb2.*;
+import com.hierynomus.mssmb2.messages.SMB2WriteRequest;
+import com.hierynomus.msxca.CompressionCodec;
+import com.hierynomus.msxca.LZ77Huffman;
+import com.hierynomus.msxca.LZNT1;
+import com.hierynomus.msxca.PlainLZ77;
+import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.BufferPool;
+import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smb.SMBBuffer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+/**
+ * Compresses outgoing SMB2 WRITE requests and decompresses incoming compressed messages ([MS-SMB2] 3.1.4.4 and
+ * 3.2.5.1.10).
+ * <p/>
+ * Only the written data is compressed, the header and the fixed part of the WRITE request are sent as is. With chained
+ * compression, runs of a single byte value at the start and end of the data are sent as a Pattern_V1 payload if the
+ * server supports it, and data that does not shrink is sent uncompressed. A message is only sent compressed if that
+ * makes it smaller.
+ */
+public class PacketCompressor {
+    /**
+     * Writes with less data than this are never worth the effort of compressing.
+     */
+    static final int MIN_COMPRESSED_DATA_SIZE = 4096;
+    /**
+     * The shortest run of a single byte that is sent as a Pattern_V1 payload, it replaces its bytes by 16 bytes.
+     */
+    static final int MIN_PATTERN_LENGTH = 32;
+    private static final int PAYLOAD_HEADER_SIZE = 8;
+    private static final int ORIGINAL_PAYLOAD_SIZE_SIZE = 4;
+    private static final int PATTERN_PAYLOAD_SIZE = 8;
+    private static final int UNCHAINED_HEADER_SIZE = 16;
+    private static final int CHAINED_HEADER_SIZE = 8;
+
+    private final BufferPool bufferPool;
+    private SMB3CompressionAlgorithm algorithm;
+    private boolean chained;
+    private boolean patternV1;
+
+    public PacketCompressor() {
+        this(BufferPool.UNPOOLED);
+    }
+
+    public PacketCompressor(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Pick the algorithm to compress with, the first of the client's preferred algorithms that the server supports.
+     */
+    void init(ConnectionContext connectionContext, List<SMB3CompressionAlgorithm> preferredAlgorithms) {
+        algorithm = null;
+        chained = connectionContext.supportsChainedCompression();
+        patternV1 = chained && connectionContext.getCompressionIds().contains(SMB3CompressionAlgorithm.PATTERN_V1);
+        if (!connectionContext.supportsCompression()) {
+            return;
+        }
+        for (SMB3CompressionAlgorithm preferred : preferredAlgorithms) {
+            if (connectionContext.getCompressionIds().contains(preferred) && codec(preferred) != null) {
+                algorithm = preferred;
+                break;
+            }
+        }
+        System.out.println("tempGT2: Initialized PacketCompressor with algorithm << " + algorithm + " >>, chained: " + chained);
+    }
+
+    /**
+     * Wrap the packet so that it is compressed when it is written, if it is an SMB2 WRITE request with enough data.
+     */
+    public SMB2Packet compress(SMB2Packet packet) {
+        if ((algorithm == null && !patternV1) || !(packet.getPacket() instanceof SMB2WriteRequest)) {
+            return packet;
+        }
+        return new CompressedPacketWrapper(packet);
+    }
+
+    public byte[] decompress(SMB3CompressedPacketData packetData) throws TransportException {
+        SMB2CompressionTransformHeader header = packetData.getHeader();
+        SMBBuffer buffer = packetData.getDataBuffer();
+        try {
+            if (header.isChained()) {
+                return decompressChained(header, buffer);
+            }
+            int offset = header.getOffset();
+            int segmentSize = header.getOriginalCompressedSegmentSize();
+            if (offset < 0 || segmentSize < 0) {
+                throw new DataFormatException("Invalid compressed message of " + segmentSize + " bytes at offset " + offset);
+            }
+            byte[] message = new byte[offset + segmentSize];
+            buffer.readRawBytes(message, 0, offset);
+            codecFor(header.getCompressionAlgorithm()).decompress(buffer.array(), buffer.rpos(), buffer.available(), message, offset, segmentSize);
+            return message;
+        } catch (Buffer.BufferException | DataFormatException e) {
+            throw new TransportException("Could not decompress packet " + packetData, e);
+        }
+    }
+
+    private byte[] decompressChained(SMB2CompressionTransformHeader header, SMBBuffer buffer) throws Buffer.BufferException, DataFormatException {
+        int size = header.getOriginalCompressedSegmentSize();
+        if (size < 0) {
+            throw new DataFormatException("Invalid compressed message size " + size);
+        }
+        byte[] message = new byte[size];
+        int position = 0;
+        SMB2CompressionPayloadHeader payloadHeader = new SMB2CompressionPayloadHeader();
+        while (buffer.available() > 0) {
+            payloadHeader.readFrom(buffer);
+            int dataLength = payloadHeader.getDataLength();
+            if (dataLength < 0 || dataLength > buffer.available()) {
+                throw new DataFormatException("Payload of " + dataLength + " bytes exceeds the compressed message");
+            }
+            switch (payloadHeader.getCompressionAlgorithm()) {
+                case NONE:
+                    ensureFits(position, dataLength, size);
+                    buffer.readRawBytes(message, position, dataLength);
+                    position += dataLength;
+                    break;
+                case PATTERN_V1:
+                    byte pattern = buffer.readByte(); // Pattern (1 byte)
+                    buffer.skip(3); // Reserved1 (1 byte), Reserved2 (2 bytes)
+                    int repetitions = buffer.readUInt32AsInt(); // Repetitions (4 bytes)
+                    ensureFits(position, repetitions, size);
+                    Arrays.fill(message, position, position + repetitions, pattern);
+                    position += repetitions;
+                    buffer.skip(dataLength - PATTERN_PAYLOAD_SIZE);
+                    break;
+                default:
+                    int originalSize = payloadHeader.getOriginalPayloadSize();
+                    ensureFits(position, originalSize, size);
+                    codecFor(payloadHeader.getCompressionAlgorithm()).decompress(buffer.array(), buffer.rpos(), dataLength, message, position, originalSize);
+                    position += originalSize;
+                    buffer.skip(dataLength);
+                    break;
+            }
+        }
+        if (position != size) {
+            throw new DataFormatException("Decompressed " + position + " bytes, expected " + size);
+        }
+        return message;
+    }
+
+    private static void ensureFits(int position, int length, int size) throws DataFormatException {
+        if (length < 0 || length > size - position) {
+            throw new DataFormatException("Payload of " + length + " bytes exceeds the original message size of " + size);
+        }
+    }
+
+    private static CompressionCodec codecFor(SMB3CompressionAlgorithm algorithm) throws DataFormatException {
+        CompressionCodec codec = codec(algorithm);
+        if (codec == null) {
+            throw new DataFormatException("Unsupported compression algorithm " + algorithm);
+        }
+        return codec;
+    }
+
+    private static CompressionCodec codec(SMB3CompressionAlgorithm algorithm) {
+        switch (algorithm) {
+            case LZNT1:
+                return Codecs.LZNT1;
+            case LZ77:
+                return Codecs.LZ77;
+            case LZ77_HUFFMAN:
+                return Codecs.LZ77_HUFFMAN;
+            default:
+                return null;
+        }
+    }
+
+    private static class Codecs {
+        private static final CompressionCodec LZNT1 = new LZNT1();
+        private static final CompressionCodec LZ77 = new PlainLZ77();
+        private static final CompressionCodec LZ77_HUFFMAN = new LZ77Huffman();
+    }
+
+    public class CompressedPacketWrapper extends SMB2Packet {
+        private final SMB2Packet packet;
+
+        CompressedPacketWrapper(SMB2Packet packet) {
+            this.packet = packet;
+        }
+
+        @Override
+        public void write(SMBBuffer buffer) {
+            SMBBuffer plain = new SMBBuffer(bufferPool);
+            try {
+                packet.write(plain);
+                byte[] message = plain.array();
+                int start = plain.rpos();
+                int length = plain.available();
+                int prefix = SMB2WriteRequest.DATA_OFFSET;
+                if (length - prefix < MIN_COMPRESSED_DATA_SIZE
+                    || !(chained ? writeChained(buffer, message, start, length, prefix) : writeUnchained(buffer, message, start, length, prefix))) {
+                    buffer.putRawBytes(message, start, length);
+                }
+            } finally {
+                plain.release();
+            }
+        }
+
+        private boolean writeUnchained(SMBBuffer buffer, byte[] message, int start, int length, int prefix) {
+            if (algorithm == null) {
+                return false;
+            }
+            int dataLength = length - prefix;
+            byte[] compressed = bufferPool.acquire(dataLength);
+            try {
+                int compressedLength = codec(algorithm).compress(message, start + prefix, dataLength, compressed, 0, dataLength - UNCHAINED_HEADER_SIZE);
+                if (compressedLength < 0) {
+                    return false;
+                }
+                new SMB2CompressionTransformHeader(dataLength, algorithm, prefix).writeTo(buffer);
+                buffer.putRawBytes(message, start, prefix);
+                buffer.putRawBytes(compressed, 0, compressedLength);
+                return true;
+            } finally {
+                bufferPool.release(compressed);
+            }
+        }
+
+        private boolean writeChained(SMBBuffer buffer, byte[] message, int start, int length, int prefix) {
+            int dataStart = start + prefix;
+            int end = start + length;
+            int leading = patternV1 ? runLength(message, dataStart, end, 1) : 0;
+            if (leading < MIN_PATTERN_LENGTH) {
+                leading = 0;
+            }
+            int trailing = patternV1 ? runLength(message, end - 1, dataStart + leading - 1, -1) : 0;
+            if (trailing < MIN_PATTERN_LENGTH) {
+                trailing = 0;
+            }
+            int middleStart = dataStart + leading;
+            int middleLength = length - prefix - leading - trailing;
+
+            int size = CHAINED_HEADER_SIZE + PAYLOAD_HEADER_SIZE + prefix;
+            size += leading > 0 ? PAYLOAD_HEADER_SIZE + PATTERN_PAYLOAD_SIZE : 0;
+            size += trailing > 0 ? PAYLOAD_HEADER_SIZE + PATTERN_PAYLOAD_SIZE : 0;
+            byte[] compressed = null;
+            int compressedLength = -1;
+            try {
+                if (algorithm != null && middleLength >= MIN_COMPRESSED_DATA_SIZE) {
+                    compressed = bufferPool.acquire(middleLength);
+                    compressedLength = codec(algorithm).compress(message, middleStart, middleLength, compressed, 0, middleLength - ORIGINAL_PAYLOAD_SIZE_SIZE - 1);
+                }
+                if (compressedLength >= 0) {
+                    size += PAYLOAD_HEADER_SIZE + ORIGINAL_PAYLOAD_SIZE_SIZE + compressedLength;
+                } else if (middleLength > 0) {
+                    size += PAYLOAD_HEADER_SIZE + middleLength;
+                }
+                if (size >= length) {
+                    return false;
+                }
+
+                new SMB2CompressionTransformHeader(length).writeTo(buffer);
+                new SMB2CompressionPayloadHeader(SMB3CompressionAlgorithm.NONE, prefix, 0).writeTo(buffer);
+                buffer.putRawBytes(message, start, prefix);
+                if (leading > 0) {
+                    putPattern(buffer, message[dataStart], leading);
+                }
+                if (compressedLength >= 0) {
+                    new SMB2CompressionPayloadHeader(algorithm, compressedLength, middleLength).writeTo(buffer);
+                    buffer.putRawBytes(compressed, 0, compressedLength);
+                } else if (middleLength > 0) {
+                    new SMB2CompressionPayloadHeader(SMB3CompressionAlgorithm.NONE, middleLength, 0).writeTo(buffer);
+                    buffer.putRawBytes(message, middleStart, middleLength);
+                }
+                if (trailing > 0) {
+                    putPattern(buffer, message[end - 1], trailing);
+                }
+                return true;
+            } finally {
+                if (compressed != null) {
+                    bufferPool.release(compressed);
+                }
+            }
+        }
+
+        private void putPattern(SMBBuffer buffer, byte pattern, int repetitions) {
+            new SMB2CompressionPayloadHeader(SMB3CompressionAlgorithm.PATTERN_V1, PATTERN_PAYLOAD_SIZE, 0).writeTo(buffer);
+            buffer.putByte(pattern); // Pattern (1 byte)
+            buffer.putReserved1(); // Reserved1 (1 byte)
+            buffer.putReserved2(); // Reserved2 (2 bytes)
+            buffer.putUInt32(repetitions); // Repetitions (4 bytes)
+        }
+
+        @Override
+        public int getMaxPayloadSize() {
+            return packet.getMaxPayloadSize();
+        }
+
+        @Override
+        public SMB2PacketHeader getHeader() {
+            return packet.getHeader();
+        }
+
+        @Override
+        public long getSequenceNumber() {
+            return packet.getSequenceNumber();
+        }
+
+        @Override
+        public int getStructureSize() {
+            return packet.getStructureSize();
+        }
+
+        @Override
+        public String toString() {
+            return "Compressed[" + packet.toString() + "]";
+        }
+
+        @Override
+        public SMB2Packet getPacket() {
+            return packet.getPacket();
+        }
+    }
+
+    /**
+     * The number of bytes equal to the one at <code>from</code>, stepping by <code>step</code> until <code>to</code>.
+     */
+    private static int runLength(byte[] data, int from, int to, int step) {
+        int count = 0;
+        for (int i = from; i != to && data[i] == data[from]; i += step) {
+            count++;
+        }
+        return count;
+    }
+}
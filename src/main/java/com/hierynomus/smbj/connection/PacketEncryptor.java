@@ -26,14 +26,31 @@ import com.hierynomus.smbj.common.SMBRuntimeException;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
+import java.security.SecureRandom;
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PacketEncryptor {
+    // The SMB2 TRANSFORM_HEADER, excluding the ProtocolId and Signature fields, is the AAD
+    private static final int TRANSFORM_HEADER_SIZE = 52;
+    private static final int SIGNATURE_OFFSET = 4;
+    private static final int AAD_OFFSET = 20;
+    private static final int AAD_LENGTH = TRANSFORM_HEADER_SIZE - AAD_OFFSET;
+
     private SecurityProvider securityProvider;
     private SMB3EncryptionCipher cipher;
     private SMB2Dialect dialect;
-    private AtomicInteger nonceCounter = new AtomicInteger(0);
+    // Packets are encrypted concurrently, so the nonces come from a counter rather than the clock to keep them unique.
+    private final AtomicLong nonceCounter = new AtomicLong(new SecureRandom().nextLong());
+    // The ciphers of a session are released along with its keys.
+    private final ThreadLocal<Map<SecretKey, AEADBlockCipher>> ciphers = new ThreadLocal<Map<SecretKey, AEADBlockCipher>>() {
+        @Override
+        protected Map<SecretKey, AEADBlockCipher> initialValue() {
+            return new WeakHashMap<>();
+        }
+    };
 
     public PacketEncryptor(SecurityProvider securityProvider) {
         this.securityProvider = securityProvider;
@@ -57,32 +74,35 @@ public class PacketEncryptor {
             && packetData.getHeader().getFlagsEncryptionAlgorithm() == 0x01;
     }
 
-    public byte[] decrypt(SMB3EncryptedPacketData packetData, SecretKey decryptionKey) {
-        byte[] realNonce = Arrays.copyOf(packetData.getHeader().getNonce(), cipher.getNonceLength());
+    /**
+     * Decrypt the message in place, the plain text is written over the received data starting at the start of the
+     * array, so that no copies of the cipher text are made.
+     *
+     * @return a buffer holding the decrypted message
+     */
+    public SMBBuffer decrypt(SMB3EncryptedPacketData packetData, SecretKey decryptionKey) {
+        SMB2TransformHeader header = packetData.getHeader();
+        SMBBuffer buffer = packetData.getDataBuffer();
+        int cipherTextLength = header.getOriginalMessageSize();
+        if (buffer.available() < cipherTextLength) {
+            System.out.println("tempGT2: Could not read cipherText from packet << " + packetData + " >>");
+            throw new SMBRuntimeException("Could not read cipherText from packet", new Buffer.BufferException("Underflow"));
+        }
+        byte[] realNonce = Arrays.copyOf(header.getNonce(), cipher.getNonceLength());
+        byte[] data = buffer.array();
         try {
-            byte[] aad = createAAD(packetData.getHeader());
-            byte[] cipherText = packetData.getCipherText();
-            byte[] signature = packetData.getHeader().getSignature();
-
-            AEADBlockCipher aeadBlockCipher = securityProvider.getAEADBlockCipher(cipher.getAlgorithmName());
-            aeadBlockCipher.init(Cipher.CryptMode.DECRYPT, decryptionKey.getEncoded(), new GCMParameterSpec(128, realNonce));
-            aeadBlockCipher.updateAAD(aad, 0, aad.length);
-            byte[] bytes = aeadBlockCipher.update(cipherText, 0, cipherText.length);
-            byte[] bytes2 = aeadBlockCipher.doFinal(signature, 0, signature.length);
-            if (bytes != null && bytes.length != 0) {
-                byte[] decrypted = new byte[bytes.length + bytes2.length];
-                System.arraycopy(bytes, 0, decrypted, 0, bytes.length);
-                System.arraycopy(bytes2, 0, decrypted, bytes.length, bytes2.length);
-                return decrypted;
-            } else {
-                return bytes2;
-            }
+            AEADBlockCipher aeadBlockCipher = getCipher(Cipher.CryptMode.DECRYPT, decryptionKey, new GCMParameterSpec(128, realNonce));
+            // The AAD is consumed before the plain text overwrites the SMB2 TRANSFORM_HEADER.
+            aeadBlockCipher.updateAAD(data, header.getHeaderStartPosition() + AAD_OFFSET, AAD_LENGTH);
+            int plainTextLength = aeadBlockCipher.update(data, buffer.rpos(), cipherTextLength, data, 0);
+            byte[] signature = header.getSignature();
+            plainTextLength += aeadBlockCipher.doFinal(signature, 0, signature.length, data, plainTextLength);
+            SMBBuffer decrypted = new SMBBuffer(data);
+            decrypted.wpos(plainTextLength);
+            return decrypted;
         } catch (SecurityException e) {
             System.out.println("tempGT2: Security exception while decrypting packet << " + packetData + " >>");
             throw new SMBRuntimeException(e);
-        } catch (Buffer.BufferException be) {
-            System.out.println("tempGT2: Could not read cipherText from packet << " + packetData + " >>");
-            throw new SMBRuntimeException("Could not read cipherText from packet", be);
         }
     }
 
@@ -95,6 +115,24 @@ public class PacketEncryptor {
         }
     }
 
+    /**
+     * Retrieve a cipher that is initialized for the next message. Expanding a key and creating a cipher are costly
+     * compared to encrypting a single message, so each thread keeps the ciphers it used for every key, and a cached
+     * cipher is only given the nonce of the next message.
+     */
+    private AEADBlockCipher getCipher(Cipher.CryptMode cryptMode, SecretKey key, GCMParameterSpec parameterSpec) throws SecurityException {
+        Map<SecretKey, AEADBlockCipher> threadCiphers = ciphers.get();
+        AEADBlockCipher aeadBlockCipher = threadCiphers.get(key);
+        if (aeadBlockCipher == null) {
+            aeadBlockCipher = securityProvider.getAEADBlockCipher(cipher.getAlgorithmName());
+            aeadBlockCipher.init(cryptMode, key.getEncoded(), parameterSpec);
+            threadCiphers.put(key, aeadBlockCipher);
+        } else {
+            aeadBlockCipher.init(cryptMode, null, parameterSpec);
+        }
+        return aeadBlockCipher;
+    }
+
     byte[] createAAD(SMB2TransformHeader header) {
         SMBBuffer b = new SMBBuffer();
         header.writeTo(b); // Write the header
@@ -103,9 +141,9 @@ public class PacketEncryptor {
     }
 
     byte[] getNewNonce() {
-        long nonce = System.nanoTime();
+        long nonce = nonceCounter.getAndIncrement();
         SMBBuffer b = new SMBBuffer();
-        b.putUInt64(nonce); // Little Endians go first
+        b.putLong(nonce); // Little Endians go first, the counter may wrap to a negative value
         int padding = cipher.getNonceLength() - 8; // 64 bits = 8 bytes
         b.putReserved(padding);
         return b.getCompactData();
@@ -122,47 +160,56 @@ public class PacketEncryptor {
 
         @Override
         public void write(SMBBuffer buffer) {
-            SMBBuffer wrappedPacketPlain = new SMBBuffer();
-            // Write the whole plainText packet to the buffer
-            packet.write(wrappedPacketPlain);
+            int headerStart = buffer.wpos();
+            int plainTextOffset = headerStart + TRANSFORM_HEADER_SIZE;
 
-            // number of bytes available to read is equals to packet size
-            final byte[] plainText = wrappedPacketPlain.getCompactData();
+            // Write the whole plainText packet to the buffer, after the space for the SMB2 TRANSFORM_HEADER. It is
+            // encrypted where it is.
+            buffer.wpos(plainTextOffset);
+            packet.write(buffer);
+            int plainTextLength = buffer.wpos() - plainTextOffset;
 
             // The nonce used in the SMB2_TRANSFORM_HEADER
             final byte[] nonceField = getNewNonce();
             // the nonce actually used in encryption
             final GCMParameterSpec parameterSpec = new GCMParameterSpec(128, nonceField);
 
-            // 3.1.4.3 Encrypting the Message, The SMB2 TRANSFORM_HEADER,
-            // excluding the ProtocolId and Signature fields,
-            // as the optional authenticated data.
-            SMB2TransformHeader header = new SMB2TransformHeader(nonceField, plainText.length, packet.getHeader().getSessionId());
-            final byte[] aad = createAAD(header);
+            // Write the header with an empty signature, the signature is known only after encrypting.
+            SMB2TransformHeader header = new SMB2TransformHeader(nonceField, plainTextLength, packet.getHeader().getSessionId());
+            header.setSignature(new byte[16]);
+            buffer.wpos(headerStart);
+            header.writeTo(buffer);
+            buffer.wpos(plainTextOffset + plainTextLength);
+            // Room for the authentication tag, which the cipher appends to the cipherText.
+            buffer.ensureCapacity(16);
+            byte[] data = buffer.array();
 
             // the AEC-CCM and AES-GCM both will generate cipherText with authentication tag
-            byte[] cipherTextWithMac;
+            int cipherTextLength;
             try {
-                AEADBlockCipher aeadBlockCipher = securityProvider.getAEADBlockCipher(cipher.getAlgorithmName());
-                aeadBlockCipher.init(Cipher.CryptMode.ENCRYPT, encryptionKey.getEncoded(), parameterSpec);
-                aeadBlockCipher.updateAAD(aad, 0, aad.length);
-                cipherTextWithMac = aeadBlockCipher.doFinal(plainText, 0, plainText.length);
+                AEADBlockCipher aeadBlockCipher = getCipher(Cipher.CryptMode.ENCRYPT, encryptionKey, parameterSpec);
+                // 3.1.4.3 Encrypting the Message, The SMB2 TRANSFORM_HEADER,
+                // excluding the ProtocolId and Signature fields,
+                // as the optional authenticated data.
+                aeadBlockCipher.updateAAD(data, headerStart + AAD_OFFSET, AAD_LENGTH);
+                cipherTextLength = aeadBlockCipher.doFinal(data, plainTextOffset, plainTextLength, data, plainTextOffset);
             } catch (SecurityException e) {
                 System.out.println("tempGT2: Security exception while encrypting packet << " + packet.getHeader() + " >>");
                 throw new SMBRuntimeException(e);
             }
 
             // the plainTextSize should equals cipherTextSize - AUTHENTICATION_TAG_LENGTH
-            if (cipherTextWithMac.length != plainText.length + 16) {
+            if (cipherTextLength != plainTextLength + 16) {
                 throw new IllegalStateException("Invalid length for cipherText after encryption.");
             }
 
-            byte[] signature = new byte[16];
-            System.arraycopy(cipherTextWithMac, plainText.length, signature, 0, signature.length);
-            header.setSignature(signature);
+            // Move the authentication tag into the Signature field of the header
+            System.arraycopy(data, plainTextOffset + plainTextLength, data, headerStart + SIGNATURE_OFFSET, 16);
+        }
 
-            header.writeTo(buffer);
-            buffer.putRawBytes(cipherTextWithMac, 0, plainText.length);
+        @Override
+        public int getMaxPayloadSize() {
+            return packet.getMaxPayloadSize();
         }
 
         @Override
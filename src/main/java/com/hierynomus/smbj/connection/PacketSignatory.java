@@ -19,21 +19,41 @@ import com.hierynomus.mssmb2.SMB2Dialect;
 import com.hierynomus.mssmb2.SMB2PacketData;
 import com.hierynomus.mssmb2.SMB2PacketHeader;
 import com.hierynomus.mssmb2.SMB2Packet;
-import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.mssmb2.SMB3EncryptionCipher;
+import com.hierynomus.protocol.commons.ByteArrayUtils;
+import com.hierynomus.security.AEADBlockCipher;
+import com.hierynomus.security.Cipher;
 import com.hierynomus.security.Mac;
 import com.hierynomus.security.SecurityException;
 import com.hierynomus.security.SecurityProvider;
 import com.hierynomus.smb.SMBBuffer;
 
 import javax.crypto.SecretKey;
-import java.util.Arrays;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import static com.hierynomus.mssmb2.SMB2PacketHeader.*;
+import static com.hierynomus.mssmb2.SMB2MessageCommandCode.SMB2_CANCEL;
+import static com.hierynomus.mssmb2.SMB2MessageFlag.SMB2_FLAGS_SERVER_TO_REDIR;
 import static com.hierynomus.mssmb2.SMB2MessageFlag.SMB2_FLAGS_SIGNED;
 
 public class PacketSignatory {
+    private static final int NONCE_LENGTH = 12;
+    private static final int COMMAND_OFFSET = 12;
+    private static final int FLAGS_OFFSET = 16;
+    private static final int MESSAGE_ID_OFFSET = 24;
 
     private SecurityProvider securityProvider;
+    // Creating and keying a MAC is costly compared to signing a single message, so each thread keeps the signers it
+    // used per key. The signers of a session are released along with its keys.
+    private final ThreadLocal<Map<SecretKey, Signer>> signers = new ThreadLocal<Map<SecretKey, Signer>>() {
+        @Override
+        protected Map<SecretKey, Signer> initialValue() {
+            return new WeakHashMap<>();
+        }
+    };
 
     PacketSignatory(SecurityProvider securityProvider) {
         this.securityProvider = securityProvider;
@@ -43,7 +63,9 @@ public class PacketSignatory {
     }
 
     public SMB2Packet sign(SMB2Packet packet, SecretKey secretKey) {
-        if (secretKey != null) {
+        if (secretKey != null && packet instanceof CompoundedPacket) {
+            return ((CompoundedPacket) packet).signWith(this, secretKey);
+        } else if (secretKey != null) {
             return new SignedPacketWrapper(packet, secretKey);
         } else {
             System.out.println("tempGT2: Not wrapping " + packet.getHeader() . getMessage() + " as signed, as no key is set.");
@@ -51,97 +73,196 @@ public class PacketSignatory {
         }
     }
 
-    // TODO make session a packet handler which wraps the incoming packets
-    public boolean verify(SMB2PacketData packet, SecretKey secretKey) {
+    /**
+     * Sign a message that has already been written, with its signature field still empty. The signature is written
+     * into the signature field.
+     */
+    void signInPlace(byte[] data, int offset, int length, SecretKey secretKey) {
         try {
-            SMBBuffer buffer = packet.getDataBuffer();
-            Mac mac = getMac(secretKey, securityProvider);
-            mac.update(buffer.array(), packet.getHeader().getHeaderStartPosition(), SIGNATURE_OFFSET);
-            mac.update(EMPTY_SIGNATURE);
-            mac.update(buffer.array(), STRUCTURE_SIZE, packet.getHeader().getMessageEndPosition() - STRUCTURE_SIZE);
-            byte[] signature = mac.doFinal();
-            byte[] receivedSignature = packet.getHeader().getSignature();
-            for (int i = 0; i < SIGNATURE_SIZE; i++) {
-                if (signature[i] != receivedSignature[i]) {
-                    System.out.println("tempGT2: Signatures for packet " + packet + " do not match (received: " + Arrays.toString(receivedSignature) + ", calculated: " + Arrays.toString(signature));
-                    System.out.println("tempGT2: Packet " + packet + " has header: " + packet.getHeader());
-                    return false;
-                }
-            }
+            getSigner(secretKey).sign(data, offset, length);
+        } catch (SecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
+    public boolean verify(SMB2PacketData packet, SecretKey secretKey) {
+        SMBBuffer buffer = packet.getDataBuffer();
+        // A compounded response is not necessarily the first message in the buffer.
+        int headerStart = packet.getHeader().getHeaderStartPosition();
+        int length = packet.getHeader().getMessageEndPosition() - headerStart;
+        if (verify(ByteBuffer.wrap(buffer.array(), headerStart, length), secretKey)) {
             return true;
+        }
+        System.out.println("tempGT2: Packet " + packet + " has header: " + packet.getHeader());
+        return false;
+    }
+
+    /**
+     * Verify the signature of a received message, without parsing its header.
+     *
+     * @param message the received data, from the start of the SMB2 header of the message (the position) up to the next
+     *                message in a compounded response, or the end of the received data (the limit)
+     * @return whether the signature in the header matches the signature of the message
+     */
+    public boolean verify(ByteBuffer message, SecretKey secretKey) {
+        byte[] data;
+        int offset;
+        if (message.hasArray()) {
+            data = message.array();
+            offset = message.arrayOffset() + message.position();
+        } else {
+            data = new byte[message.remaining()];
+            message.duplicate().get(data);
+            offset = 0;
+        }
+        try {
+            if (getSigner(secretKey).verify(data, offset, message.remaining())) {
+                return true;
+            }
+            System.out.println("tempGT2: Signature of message at offset " + offset + " does not match (received: " + ByteArrayUtils.printHex(data, offset + SIGNATURE_OFFSET, SIGNATURE_SIZE) + ")");
+            return false;
         } catch (SecurityException e) {
             throw new IllegalStateException(e);
         }
     }
 
-    private static Mac getMac(SecretKey secretKey, SecurityProvider securityProvider) throws SecurityException {
-        Mac mac = securityProvider.getMac(secretKey.getAlgorithm());
-        mac.init(secretKey.getEncoded());
-        return mac;
+    private Signer getSigner(SecretKey secretKey) throws SecurityException {
+        Map<SecretKey, Signer> threadSigners = signers.get();
+        Signer signer = threadSigners.get(secretKey);
+        if (signer == null) {
+            if (SMBSessionBuilder.AES_128_GMAC_ALGORITHM.equals(secretKey.getAlgorithm())) {
+                signer = new GmacSigner(securityProvider.getAEADBlockCipher(SMB3EncryptionCipher.AES_128_GCM.getAlgorithmName()), secretKey.getEncoded());
+            } else {
+                Mac mac = securityProvider.getMac(secretKey.getAlgorithm());
+                mac.init(secretKey.getEncoded());
+                signer = new MacSigner(mac);
+            }
+            threadSigners.put(secretKey, signer);
+        }
+        return signer;
     }
 
-    public class SignedPacketWrapper extends SMB2Packet {
-        private final SMB2Packet wrappedPacket;
-        private SecretKey secretKey;
+    /**
+     * Computes the signature of a message, as if its signature field were empty. The message is passed to the MAC in
+     * bulk, around the signature field.
+     */
+    private abstract static class Signer {
+        abstract void sign(byte[] data, int offset, int length) throws SecurityException;
 
-        SignedPacketWrapper(SMB2Packet packet, SecretKey secretKey) {
-            this.wrappedPacket = packet;
-            this.secretKey = secretKey;
+        /**
+         * Verify the signature in the signature field of the message.
+         */
+        abstract boolean verify(byte[] data, int offset, int length) throws SecurityException;
+    }
+
+    /**
+     * [MS-SMB2] 3.1.4.1 Signing An Outgoing Message, using HMAC-SHA256 or AES-CMAC.
+     */
+    private static class MacSigner extends Signer {
+        private final Mac mac;
+
+        private MacSigner(Mac mac) {
+            this.mac = mac;
         }
 
         @Override
-        public int getMaxPayloadSize() {
-            return wrappedPacket.getMaxPayloadSize();
+        void sign(byte[] data, int offset, int length) {
+            System.arraycopy(computeSignature(data, offset, length), 0, data, offset + SIGNATURE_OFFSET, SIGNATURE_SIZE);
         }
 
         @Override
-        public void write(SMBBuffer buffer) {
+        boolean verify(byte[] data, int offset, int length) {
+            byte[] computed = computeSignature(data, offset, length);
+            // Compare in constant time, so that the time taken does not reveal how much of a forged signature is right.
+            int difference = 0;
+            for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                difference |= computed[i] ^ data[offset + SIGNATURE_OFFSET + i];
+            }
+            return difference == 0;
+        }
+
+        private byte[] computeSignature(byte[] data, int offset, int length) {
+            mac.update(data, offset, SIGNATURE_OFFSET);
+            mac.update(EMPTY_SIGNATURE);
+            mac.update(data, offset + STRUCTURE_SIZE, length - STRUCTURE_SIZE);
+            return mac.doFinal();
+        }
+    }
+
+    /**
+     * [MS-SMB2] 3.1.4.1 Signing An Outgoing Message, using AES-GMAC. This is AES-GCM with the message as the
+     * additional authenticated data and no plain text, the nonce is derived from the MessageId, whether the message is
+     * a response and whether it is an SMB2 CANCEL request.
+     * <p/>
+     * A signature is verified by decrypting the empty plain text with the signature as the authentication tag, as an
+     * interim and a final response have the same nonce, which may not be reused for encryption.
+     */
+    private static class GmacSigner extends Signer {
+        private final AEADBlockCipher cipher;
+        private final byte[] nonce = new byte[NONCE_LENGTH];
+        private final byte[] tag = new byte[SIGNATURE_SIZE];
+        private byte[] key;
+
+        private GmacSigner(AEADBlockCipher cipher, byte[] key) {
+            this.cipher = cipher;
+            this.key = key;
+        }
+
+        @Override
+        void sign(byte[] data, int offset, int length) throws SecurityException {
+            init(Cipher.CryptMode.ENCRYPT, data, offset, length);
+            cipher.doFinal(EMPTY_SIGNATURE, 0, 0, data, offset + SIGNATURE_OFFSET);
+        }
+
+        @Override
+        boolean verify(byte[] data, int offset, int length) throws SecurityException {
+            init(Cipher.CryptMode.DECRYPT, data, offset, length);
             try {
-                wrappedPacket.getHeader().setFlag(SMB2_FLAGS_SIGNED);
-                int packetStartPos = buffer.wpos();
-                SigningBuffer signingBuffer = new SigningBuffer(buffer);
-                // Write the real packet to the buffer
-                wrappedPacket.write(signingBuffer);
-                // The MAC in the signingbuffer now contains the right signature.
-                byte[] signature = signingBuffer.mac.doFinal();
-                // Copy the signature into the buffer's data at the right point.
-                System.arraycopy(signature, 0, buffer.array(), packetStartPos + SIGNATURE_OFFSET, SIGNATURE_SIZE);
+                // The cipher compares the tags in constant time
+                cipher.doFinal(data, offset + SIGNATURE_OFFSET, SIGNATURE_SIZE, tag, 0);
+                return true;
             } catch (SecurityException e) {
-                // TODO other exception
-                throw new IllegalStateException(e);
+                // The authentication tag does not match
+                return false;
             }
         }
 
-        private class SigningBuffer extends SMBBuffer {
-            private SMBBuffer wrappedBuffer;
-            private final Mac mac;
+        private void init(Cipher.CryptMode cryptMode, byte[] data, int offset, int length) throws SecurityException {
+            System.arraycopy(data, offset + MESSAGE_ID_OFFSET, nonce, 0, 8); // MessageId (8 bytes)
+            int role = data[offset + FLAGS_OFFSET] & (int) SMB2_FLAGS_SERVER_TO_REDIR.getValue();
+            boolean cancel = (data[offset + COMMAND_OFFSET] & 0xFF) == SMB2_CANCEL.getValue() && data[offset + COMMAND_OFFSET + 1] == 0;
+            nonce[8] = (byte) (role | (cancel ? 0x2 : 0x0));
+            // The key is only expanded the first time the cipher is used.
+            cipher.init(cryptMode, key, new GCMParameterSpec(SIGNATURE_SIZE * 8, nonce));
+            key = null;
+            cipher.updateAAD(data, offset, SIGNATURE_OFFSET);
+            cipher.updateAAD(EMPTY_SIGNATURE, 0, SIGNATURE_SIZE);
+            cipher.updateAAD(data, offset + STRUCTURE_SIZE, length - STRUCTURE_SIZE);
+        }
+    }
 
-            SigningBuffer(SMBBuffer wrappedBuffer) throws SecurityException {
-                this.wrappedBuffer = wrappedBuffer;
-                mac = getMac(secretKey, PacketSignatory.this.securityProvider);
-            }
+    public class SignedPacketWrapper extends SMB2Packet {
+        private final SMB2Packet wrappedPacket;
+        private SecretKey secretKey;
 
-            @Override
-            public Buffer<SMBBuffer> putByte(byte b) {
-                mac.update(b);
-                wrappedBuffer.putByte(b);
-                return this;
-            }
+        SignedPacketWrapper(SMB2Packet packet, SecretKey secretKey) {
+            this.wrappedPacket = packet;
+            this.secretKey = secretKey;
+        }
 
-            @Override
-            public Buffer<SMBBuffer> putBuffer(Buffer<? extends Buffer<?>> buffer) {
-                mac.update(buffer.array(), buffer.rpos(), buffer.available());
-                wrappedBuffer.putBuffer(buffer);
-                return this;
-            }
+        @Override
+        public int getMaxPayloadSize() {
+            return wrappedPacket.getMaxPayloadSize();
+        }
 
-            @Override
-            public Buffer<SMBBuffer> putRawBytes(byte[] buf, int offset, int length) {
-                mac.update(buf, offset, length);
-                wrappedBuffer.putRawBytes(buf, offset, length);
-                return this;
-            }
+        @Override
+        public void write(SMBBuffer buffer) {
+            wrappedPacket.getHeader().setFlag(SMB2_FLAGS_SIGNED);
+            int packetStartPos = buffer.wpos();
+            // Write the real packet to the buffer, with an empty signature
+            wrappedPacket.write(buffer);
+            // Sign the written packet in one pass, and write the signature into the buffer's data at the right point.
+            signInPlace(buffer.array(), packetStartPos, buffer.wpos() - packetStartPos, secretKey);
         }
 
         @Override
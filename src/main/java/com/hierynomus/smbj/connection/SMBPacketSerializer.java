@@ -15,16 +15,42 @@
  */
 package com.hierynomus.smbj.connection;
 
+import com.hierynomus.mssmb2.SMB2Packet;
+import com.hierynomus.mssmb2.messages.SMB2NegotiateRequest;
+import com.hierynomus.mssmb2.messages.SMB2SessionSetup;
+import com.hierynomus.protocol.commons.buffer.BufferPool;
 import com.hierynomus.protocol.transport.PacketSerializer;
 import com.hierynomus.smb.SMBBuffer;
 import com.hierynomus.smb.SMBPacket;
 
 public class SMBPacketSerializer implements PacketSerializer<SMBPacket<?, ?>, SMBBuffer> {
-    
+    private final BufferPool bufferPool;
+
+    public SMBPacketSerializer() {
+        this(BufferPool.UNPOOLED);
+    }
+
+    /**
+     * @param bufferPool The pool the packet buffers are taken from, the transport releases them once they are sent.
+     *                   NEGOTIATE and SESSION_SETUP requests are not taken from the pool, as their bytes are still read
+     *                   for the SMB 3.1.1 preauth integrity hash after they are sent.
+     */
+    public SMBPacketSerializer(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
     @Override
     public SMBBuffer write(SMBPacket<?, ?> packet) {
-        SMBBuffer b = new SMBBuffer();
+        SMBBuffer b = isPreauthHashed(packet) ? new SMBBuffer() : new SMBBuffer(bufferPool);
         packet.write(b);
         return b;
     }
+
+    private static boolean isPreauthHashed(SMBPacket<?, ?> packet) {
+        if (!(packet instanceof SMB2Packet)) {
+            return false;
+        }
+        SMB2Packet unwrapped = ((SMB2Packet) packet).getPacket();
+        return unwrapped instanceof SMB2NegotiateRequest || unwrapped instanceof SMB2SessionSetup;
+    }
 }
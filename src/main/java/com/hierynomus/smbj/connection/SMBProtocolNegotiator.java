@@ -25,6 +25,7 @@ import com.hierynomus.mssmb2.messages.negotiate.SMB2CompressionCapabilities;
 import com.hierynomus.mssmb2.messages.negotiate.SMB2EncryptionCapabilities;
 import com.hierynomus.mssmb2.messages.negotiate.SMB2NegotiateContext;
 import com.hierynomus.mssmb2.messages.negotiate.SMB2PreauthIntegrityCapabilities;
+import com.hierynomus.mssmb2.messages.negotiate.SMB2SigningCapabilities;
 import com.hierynomus.protocol.commons.concurrent.Futures;
 import com.hierynomus.protocol.transport.TransportException;
 import com.hierynomus.security.MessageDigest;
@@ -38,7 +39,6 @@ import com.hierynomus.smbj.utils.DigestUtil;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
-import java.util.UUID;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -91,6 +91,7 @@ class SMBProtocolNegotiator {
                 boolean seenPreAuth = false;
                 boolean seenEncryption = false;
                 boolean seenCompression = false;
+                boolean seenSigning = false;
                 for (SMB2NegotiateContext negotiateContext: negotiateContextList) {
                     switch (negotiateContext.getNegotiateContextType()) {
                         case SMB2_PREAUTH_INTEGRITY_CAPABILITIES:
@@ -114,6 +115,13 @@ class SMBProtocolNegotiator {
                             seenCompression = true;
                             handleCompressionNegotiateContext((SMB2CompressionCapabilities) negotiateContext);
                             break;
+                        case SMB2_SIGNING_CAPABILITIES:
+                            if (seenSigning) {
+                                throw new IllegalStateException("SMB2_SIGNING_CAPABILITIES should only appear once in the NegotiateContextList");
+                            }
+                            seenSigning = true;
+                            handleSigningNegotiateContext((SMB2SigningCapabilities) negotiateContext);
+                            break;
                         default:
                             throw new IllegalStateException("unknown negotiate context type");
                     }
@@ -138,8 +146,17 @@ class SMBProtocolNegotiator {
             return;
         }
 
-        // TODO flags CHAINED
         negotiationContext.compressionIds = EnumSet.copyOf(compressionAlgorithms);
+        negotiationContext.compressionIds.remove(SMB3CompressionAlgorithm.NONE);
+        negotiationContext.chainedCompression = negotiateContext.isChained();
+    }
+
+    private void handleSigningNegotiateContext(SMB2SigningCapabilities negotiateContext) {
+        List<SMB3SigningAlgorithm> signingAlgorithms = negotiateContext.getSigningAlgorithms();
+        if (signingAlgorithms.size() != 1 || signingAlgorithms.get(0) == null) {
+            throw new IllegalStateException("The SMB2SigningCapabilities NegotiateContext does not contain exactly 1 known signing algorithm");
+        }
+        negotiationContext.signingAlgorithm = signingAlgorithms.get(0);
     }
 
     private void handleEncryptionNegotiateContext(SMB2EncryptionCapabilities negotiateContext) {
@@ -164,6 +181,8 @@ class SMBProtocolNegotiator {
         // get the requestBytes and responseBytes
         byte[] requestBytes = getPacketBytes(negotiationContext.negotiationRequest);
         byte[] responseBytes = getPacketBytes(negotiationContext.negotiationResponse);
+        // The received message is no longer read once it is hashed
+        negotiationContext.negotiationResponse.release();
 
         MessageDigest messageDigest;
         String algorithmName = negotiationContext.preauthIntegrityHashId.getAlgorithmName();
@@ -186,7 +205,13 @@ class SMBProtocolNegotiator {
     private SMB2NegotiateResponse smb2OnlyNegotiate() throws TransportException {
         byte[] salt = new byte[32];
         config.getRandomProvider().nextBytes(salt);
-        SMB2Packet negotiatePacket = new SMB2NegotiateRequest(config.getSupportedDialects(), connectionContext.getClientGuid(), config.isSigningRequired(), config.getClientCapabilities(), salt);
+        List<SMB3CompressionAlgorithm> compressionAlgorithms = config.getCompressionAlgorithms();
+        if (!config.isChainedCompression()) {
+            // Pattern_V1 can only be used for a payload of a chained compressed message.
+            compressionAlgorithms.remove(SMB3CompressionAlgorithm.PATTERN_V1);
+        }
+        SMB2Packet negotiatePacket = new SMB2NegotiateRequest(config.getSupportedDialects(), connectionContext.getClientGuid(), config.isSigningRequired(), config.getClientCapabilities(), salt,
+            compressionAlgorithms, config.isChainedCompression());
         this.negotiationContext.negotiationRequest = negotiatePacket;
         return connection.sendAndReceive(negotiatePacket);
     }
@@ -197,7 +222,7 @@ class SMBProtocolNegotiator {
         if (l != 0) {
             throw new IllegalStateException("The SMBv1 SMB_COM_NEGOTIATE packet needs to be the first packet sent.");
         }
-        Request request = new Request(negotiatePacket, l, UUID.randomUUID());
+        Request request = new Request(negotiatePacket, l);
         connection.outstandingRequests.registerOutstanding(request);
         this.negotiationContext.negotiationRequest = negotiatePacket;
         connection.transport.write(negotiatePacket);
@@ -236,6 +261,8 @@ class SMBProtocolNegotiator {
         private SMB3EncryptionCipher cipher;
         private SMB3HashAlgorithm preauthIntegrityHashId;
         private Set<SMB3CompressionAlgorithm> compressionIds = EnumSet.noneOf(SMB3CompressionAlgorithm.class);
+        private boolean chainedCompression;
+        private SMB3SigningAlgorithm signingAlgorithm;
         private byte[] preauthIntegrityHashValue;
         private Server server;
 
@@ -259,6 +286,14 @@ class SMBProtocolNegotiator {
             return compressionIds;
         }
 
+        public boolean isChainedCompression() {
+            return chainedCompression;
+        }
+
+        public SMB3SigningAlgorithm getSigningAlgorithm() {
+            return signingAlgorithm;
+        }
+
         public Server getServer() {
             return server;
         }
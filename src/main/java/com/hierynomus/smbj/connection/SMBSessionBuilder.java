@@ -19,6 +19,7 @@ import com.hierynomus.asn1.types.primitive.ASN1ObjectIdentifier;
 import com.hierynomus.mserref.NtStatus;
 import com.hierynomus.mssmb2.SMB2Dialect;
 import com.hierynomus.mssmb2.SMB2Packet;
+import com.hierynomus.mssmb2.SMB3SigningAlgorithm;
 import com.hierynomus.mssmb2.SMBApiException;
 import com.hierynomus.mssmb2.messages.SMB2SessionSetup;
 import com.hierynomus.protocol.commons.Factory;
@@ -33,6 +34,7 @@ import com.hierynomus.smbj.auth.AuthenticateResponse;
 import com.hierynomus.smbj.auth.AuthenticationContext;
 import com.hierynomus.smbj.auth.Authenticator;
 import com.hierynomus.smbj.common.SMBRuntimeException;
+import com.hierynomus.smbj.session.Channel;
 import com.hierynomus.smbj.session.SMB2GuestSigningRequiredException;
 import com.hierynomus.smbj.session.Session;
 import com.hierynomus.smbj.session.SessionContext;
@@ -72,6 +74,7 @@ public class SMBSessionBuilder {
     static final byte[] KDF_APP_LABEL_SMB311 = nullTerminatedBytes("SMBAppKey");
     static final String HMAC_SHA256_ALGORITHM = "HmacSHA256";
     static final String AES_128_CMAC_ALGORITHM = "AesCmac";
+    static final String AES_128_GMAC_ALGORITHM = "AesGmac";
 
 
     private final SmbConfig config;
@@ -112,6 +115,60 @@ public class SMBSessionBuilder {
         }
     }
 
+    /**
+     * [MS-SMB2] 3.2.4.2.3 Bind a session that was established on another connection to this connection, as an
+     * additional channel. The user is authenticated again, with the same credentials, in signed SESSION_SETUP requests
+     * that carry the SMB2_SESSION_FLAG_BINDING flag.
+     *
+     * @return the channel, with its own signing key
+     */
+    public Channel bind(Session session) {
+        try {
+            AuthenticationContext authContext = session.getAuthenticationContext();
+            Authenticator authenticator = getAuthenticator(authContext);
+            BuilderContext ctx = newContext(authContext, authenticator);
+            ctx.sessionId = session.getSessionId();
+
+            authenticator.init(config);
+            processAuthenticationToken(ctx, connectionContext.getGssNegotiateToken());
+
+            // The preauthentication integrity hash of a channel starts from that of its connection.
+            SessionContext channelContext = new SessionContext();
+            channelContext.setPreauthIntegrityHashValue(connectionContext.getPreauthIntegrityHashValue());
+            Channel channel = bindChannel(ctx, session, channelContext);
+            sessionTable.registerSession(session.getSessionId(), session);
+            return channel;
+        } catch (SpnegoException | IOException e) {
+            throw new SMBRuntimeException(e);
+        }
+    }
+
+    private Channel bindChannel(BuilderContext ctx, Session session, SessionContext channelContext) throws IOException {
+        SMB2Dialect dialect = connectionContext.getNegotiatedProtocol().getDialect();
+        SMB2SessionSetup req = newSessionSetupRequest(ctx, ctx.securityContext);
+        req.setBinding(true);
+        // A binding request is signed with the signing key of the session
+        SMB2SessionSetup response = connection.sendAndReceive(connection.getSignatory().sign(req, session.getSessionContext().getSigningKey()));
+        if (dialect == SMB2Dialect.SMB_3_1_1) {
+            updatePreauthIntegrityValue(ctx, channelContext, req);
+        }
+        if (response.getHeader().getStatusCode() == NtStatus.STATUS_MORE_PROCESSING_REQUIRED.getValue()) {
+            if (dialect == SMB2Dialect.SMB_3_1_1) {
+                updatePreauthIntegrityValue(ctx, channelContext, response);
+            }
+            response.release();
+            processAuthenticationToken(ctx, response.getSecurityBuffer());
+            return bindChannel(ctx, session, channelContext);
+        } else if (response.getHeader().getStatusCode() != NtStatus.STATUS_SUCCESS.getValue()) {
+            throw new SMBApiException(response.getHeader(), format("Binding session %d to %s failed", session.getSessionId(), connection.getRemoteHostname()));
+        }
+
+        processAuthenticationToken(ctx, response.getSecurityBuffer());
+        // The signing key of the channel is derived from the session key of this authentication.
+        SecretKey channelSessionKey = new SecretKeySpec(ctx.sessionKey, HMAC_SHA256_ALGORITHM);
+        return new Channel(connection, deriveSigningKey(channelSessionKey, dialect, channelContext.getPreauthIntegrityHashValue()));
+    }
+
     private BuilderContext newContext(AuthenticationContext authContext, Authenticator authenticator) {
         BuilderContext ctx = new BuilderContext();
         ctx.authenticator = authenticator;
@@ -134,6 +191,7 @@ public class SMBSessionBuilder {
                 updatePreauthIntegrityValue(ctx, preauthSession.getSessionContext(), ctx.request);
                 updatePreauthIntegrityValue(ctx, preauthSession.getSessionContext(), ctx.response);
             }
+            response.release();
             System.out.println("tempGT2: More processing required for authentication of " + ctx.authContext.getUsername() + " using " + ctx.authenticator);
             processAuthenticationToken(ctx, response.getSecurityBuffer());
             return setupSession(ctx);
@@ -159,6 +217,7 @@ public class SMBSessionBuilder {
             deriveKeys(response, dialect, context);
 
             context.established(response);
+            response.release();
             return session;
         }
     }
@@ -184,15 +243,20 @@ public class SMBSessionBuilder {
     }
 
     private BuilderContext initiateSessionSetup(BuilderContext ctx, byte[] securityContext) throws TransportException {
+        SMB2SessionSetup req = newSessionSetupRequest(ctx, securityContext);
+        ctx.request = req;
+        ctx.response = connection.sendAndReceive(req);
+        return ctx;
+    }
+
+    private SMB2SessionSetup newSessionSetupRequest(BuilderContext ctx, byte[] securityContext) {
         SMB2SessionSetup req = new SMB2SessionSetup(
             connectionContext.getNegotiatedProtocol().getDialect(),
             connectionContext.isServerRequiresSigning() ? EnumSet.of(SMB2_NEGOTIATE_SIGNING_REQUIRED) : EnumSet.of(SMB2_NEGOTIATE_SIGNING_ENABLED),
             connectionContext.getClientCapabilities());
         req.setSecurityBuffer(securityContext);
         req.getHeader().setSessionId(ctx.sessionId);
-        ctx.request = req;
-        ctx.response = connection.sendAndReceive(req);
-        return ctx;
+        return req;
     }
 
     private Authenticator getAuthenticator(AuthenticationContext context) throws SpnegoException {
@@ -263,11 +327,7 @@ public class SMBSessionBuilder {
             !response.getSessionFlags().contains(SMB2SessionSetup.SMB2SessionFlags.SMB2_SESSION_FLAG_IS_NULL) &&
             !response.getSessionFlags().contains(SMB2SessionSetup.SMB2SessionFlags.SMB2_SESSION_FLAG_IS_GUEST)) {
             // derive signingKey
-            if (dialect == SMB2Dialect.SMB_3_1_1) {
-                context.setSigningKey(deriveKey(context.getSessionKey(), KDF_SIGN_LABEL_SMB311, context.getPreauthIntegrityHashValue(), AES_128_CMAC_ALGORITHM));
-            } else {
-                context.setSigningKey(deriveKey(context.getSessionKey(), KDF_SIGN_LABEL, KDF_SIGN_CONTEXT, AES_128_CMAC_ALGORITHM));
-            }
+            context.setSigningKey(deriveSigningKey(context.getSessionKey(), dialect, context.getPreauthIntegrityHashValue()));
             // derive other key if encryption supported
             if (connectionContext.supportsEncryption()) {
                 String alg = connectionContext.getCipherId().getAlgorithmName();
@@ -284,6 +344,16 @@ public class SMBSessionBuilder {
         }
     }
 
+    private SecretKey deriveSigningKey(SecretKey sessionKey, SMB2Dialect dialect, byte[] preauthIntegrityHashValue) {
+        if (dialect == SMB2Dialect.SMB_3_1_1) {
+            // The signing key is the same for AES-CMAC and AES-GMAC, its algorithm determines how messages are signed.
+            SMB3SigningAlgorithm signingAlgorithm = connectionContext.getSigningAlgorithm();
+            String algorithm = signingAlgorithm == SMB3SigningAlgorithm.AES_GMAC ? AES_128_GMAC_ALGORITHM : AES_128_CMAC_ALGORITHM;
+            return deriveKey(sessionKey, KDF_SIGN_LABEL_SMB311, preauthIntegrityHashValue, algorithm);
+        }
+        return deriveKey(sessionKey, KDF_SIGN_LABEL, KDF_SIGN_CONTEXT, AES_128_CMAC_ALGORITHM);
+    }
+
     private SecretKey deriveKey(SecretKey derivationKey, byte[] label, byte[] context, String algorithm) {
         ByteArrayOutputStream fixedSuffixTemp = new ByteArrayOutputStream(25);
         try {
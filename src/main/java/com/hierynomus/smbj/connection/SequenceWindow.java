@@ -17,9 +17,13 @@ package com.hierynomus.smbj.connection;
 
 import com.hierynomus.smbj.common.SMBRuntimeException;
 
-import java.util.concurrent.Semaphore;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * [MS-SMB2] 3.2.4.1.6 Algorithm for Handling Available Message Sequence Numbers by the Client.
@@ -35,86 +39,209 @@ import java.util.concurrent.atomic.AtomicLong;
  * <li>The client MUST use the lowest available sequence number in its allowable set for each request.</li>
  * <li>For a multi-credit request as specified in section 3.2.4.1.5, the client MUST use the lowest available range of consecutive sequence numbers.</li>
  * </ul>
+ * <p/>
+ * Requests that cannot be handed their credits right away wait in line, either in order of arrival
+ * ({@link CreditWaitPolicy#FIFO}), or with the requests needing the fewest credits first
+ * ({@link CreditWaitPolicy#PRIORITY}). A request that arrives while others are waiting never overtakes them, unless
+ * the policy gives it precedence. Handing out credits does not allocate, only waiting does.
  */
 public class SequenceWindow {
     static final int PREFERRED_MINIMUM_CREDITS = 512;
-    private AtomicLong lowestAvailable = new AtomicLong(0);
-    private Semaphore available = new Semaphore(1);
     private static final long MAX_WAIT = 5000;
+    // The CreditRequest field in the SMB2 header is 2 bytes
+    private static final int MAX_CREDIT_REQUEST = 0xFFFF;
+
+    private final int creditTarget;
+    private final long waitTimeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Queue<Waiter> waiters;
+    private long lowestAvailable = 0;
+    private int available = 1;
+    private boolean creditsDisabled;
+    private long waiterSequence;
+    private int waitingCredits;
+
+    // Statistics
+    private long totalCreditsGranted;
+    private long totalCreditsUsed;
+    private long waits;
+    private long totalWaitNanos;
+    private long longestWaitNanos;
+    private long starvationEvents;
+
+    public SequenceWindow() {
+        this(PREFERRED_MINIMUM_CREDITS, MAX_WAIT, TimeUnit.MILLISECONDS, CreditWaitPolicy.FIFO);
+    }
+
+    /**
+     * @param creditTarget The number of credits the client tries to keep available, by requesting them from the server
+     * @param maxWait      The maximum time to wait for credits to become available
+     * @param maxWaitUnit  The unit of <code>maxWait</code>
+     * @param waitPolicy   The order in which waiting requests are handed their credits
+     */
+    public SequenceWindow(int creditTarget, long maxWait, TimeUnit maxWaitUnit, CreditWaitPolicy waitPolicy) {
+        this.creditTarget = creditTarget;
+        this.waitTimeoutNanos = maxWaitUnit.toNanos(maxWait);
+        if (waitPolicy == CreditWaitPolicy.PRIORITY) {
+            this.waiters = new PriorityQueue<>(11, new Comparator<Waiter>() {
+                @Override
+                public int compare(Waiter o1, Waiter o2) {
+                    int c = Integer.compare(o1.credits, o2.credits);
+                    return c != 0 ? c : Long.compare(o1.sequence, o2.sequence);
+                }
+            });
+        } else {
+            this.waiters = new ArrayDeque<>();
+        }
+    }
 
     long get() {
-        return get(1)[0];
+        return acquire(1);
     }
 
-    long[] get(int credits) {
+    /**
+     * Acquire a range of consecutive sequence numbers, waiting for the credits to become available if needed.
+     *
+     * @param credits The number of credits (and thereby sequence numbers) needed
+     * @return the first sequence number of the range, the range is <code>[result, result + credits)</code>
+     * @throws SMBRuntimeException If the credits did not become available in time
+     */
+    long acquire(int credits) {
+        lock.lock();
         try {
-            if (available.tryAcquire(credits, MAX_WAIT, TimeUnit.MILLISECONDS)) {
-                long lowest = lowestAvailable.getAndAdd(credits);
-                return range(lowest, lowest + credits);
+            if (creditsDisabled) {
+                return take(credits);
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new SMBRuntimeException("Got interrupted waiting for " + credits + " to be available. Credits available at this moment: " + available.availablePermits());
+            if (available >= credits && (waiters.isEmpty() || precedes(credits, waiters.peek()))) {
+                return take(credits);
+            }
+            return await(credits);
+        } finally {
+            lock.unlock();
         }
-        throw new SMBRuntimeException("Not enough credits (" + available.availablePermits() + " available) to hand out " + credits + " sequence numbers");
     }
 
-    void disableCredits() {
-        this.available = new NoopSemaphore();
+    private long await(int credits) {
+        Waiter waiter = new Waiter(credits, waiterSequence++, lock.newCondition());
+        waiters.add(waiter);
+        waitingCredits += credits;
+        waits++;
+        long start = System.nanoTime();
+        long remaining = waitTimeoutNanos;
+        try {
+            // Once crediting is disabled, every waiting request can go ahead
+            while (!creditsDisabled && (waiters.peek() != waiter || available < credits)) {
+                if (remaining <= 0) {
+                    starvationEvents++;
+                    throw new SMBRuntimeException("Not enough credits (" + available + " available) to hand out " + credits + " sequence numbers");
+                }
+                remaining = waiter.condition.awaitNanos(remaining);
+            }
+            return take(credits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SMBRuntimeException("Got interrupted waiting for " + credits + " to be available. Credits available at this moment: " + available);
+        } finally {
+            waiters.remove(waiter);
+            waitingCredits -= credits;
+            long waited = System.nanoTime() - start;
+            totalWaitNanos += waited;
+            longestWaitNanos = Math.max(longestWaitNanos, waited);
+            signalHead();
+        }
     }
 
-    public int available() {
-        return available.availablePermits();
+    private long take(int credits) {
+        if (!creditsDisabled) {
+            available -= credits;
+        }
+        totalCreditsUsed += credits;
+        long lowest = lowestAvailable;
+        lowestAvailable += credits;
+        return lowest;
     }
 
-    public void creditsGranted(int credits) {
-        available.release(credits);
+    private boolean precedes(int credits, Waiter head) {
+        return waiters instanceof PriorityQueue && credits < head.credits;
     }
 
-    private long[] range(long start, long stop) {
-        int l = (int) (stop - start);
-        long[] result = new long[l];
-
-        for (int i = 0; i < l; i++)
-            result[i] = start + i;
-
-        return result;
+    private void signalHead() {
+        Waiter head = waiters.peek();
+        if (head != null) {
+            head.condition.signal();
+        }
     }
 
-    @SuppressWarnings("serial")
-    private static class NoopSemaphore extends Semaphore {
-        public NoopSemaphore() {
-            super(1);
+    void disableCredits() {
+        lock.lock();
+        try {
+            this.creditsDisabled = true;
+            for (Waiter waiter : waiters) {
+                waiter.condition.signal();
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        @Override
-        public boolean tryAcquire() {
-            return true;
+    public int available() {
+        lock.lock();
+        try {
+            return creditsDisabled ? Integer.MAX_VALUE : available;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        @Override
-        public boolean tryAcquire(long timeout, TimeUnit unit) {
-            return true;
+    public void creditsGranted(int credits) {
+        lock.lock();
+        try {
+            available += credits;
+            totalCreditsGranted += credits;
+            signalHead();
+        } finally {
+            lock.unlock();
         }
+    }
 
-        @Override
-        public boolean tryAcquire(int permits) {
-            return true;
+    /**
+     * The number of credits to request from the server in a request that is charged <code>creditCharge</code> credits.
+     * <p/>
+     * This tops up the available credits to the credit target, and also asks for the credits that waiting requests
+     * still need, so that the window grows when the client is starved of credits.
+     */
+    int creditRequest(int creditCharge) {
+        lock.lock();
+        try {
+            long wanted = (long) creditTarget - (creditsDisabled ? Integer.MAX_VALUE : available) - creditCharge + waitingCredits;
+            return (int) Math.min(MAX_CREDIT_REQUEST, Math.max(wanted, creditCharge));
+        } finally {
+            lock.unlock();
         }
+    }
 
-        @Override
-        public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
-            return true;
+    /**
+     * @return a snapshot of the credit statistics of this window
+     */
+    public CreditStatistics getStatistics() {
+        lock.lock();
+        try {
+            return new CreditStatistics(creditsDisabled ? Integer.MAX_VALUE : available, totalCreditsGranted, totalCreditsUsed,
+                waits, waiters.size(), TimeUnit.NANOSECONDS.toMillis(totalWaitNanos), TimeUnit.NANOSECONDS.toMillis(longestWaitNanos), starvationEvents);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        @Override
-        public void release(int permits) {
-            // no-op
-        }
+    private static class Waiter {
+        private final int credits;
+        private final long sequence;
+        private final Condition condition;
 
-        @Override
-        public int availablePermits() {
-            return Integer.MAX_VALUE;
+        private Waiter(int credits, long sequence, Condition condition) {
+            this.credits = credits;
+            this.sequence = sequence;
+            this.condition = condition;
         }
     }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection.packet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hierynomus.protocol.commons.buffer.PooledArray;
+import com.hierynomus.protocol.transport.PacketReceiver;
+import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smb.SMBPacketData;
+
+/**
+ * Runs the handlers that follow it on a pool of threads, so that the costly parts of handling a packet (decrypting,
+ * decompressing and verifying its signature) are done for multiple packets in parallel, instead of one after the other
+ * on the thread that reads from the transport.
+ * <p/>
+ * The handlers that are run in parallel must end in {@link #inOrder(IncomingPacketHandler)}, which collects the packets
+ * they pass on, and hands them to the rest of the chain in the order in which they were received. Packets that are
+ * received while too many packets are still being handled make the reading thread wait.
+ */
+public class ParallelPacketHandler implements IncomingPacketHandler {
+    private static final int MAX_IN_FLIGHT_PER_THREAD = 4;
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore inFlight;
+    private final PacketReceiver<?> errorReceiver;
+    // The packets passed on by the parallel handlers on the current thread
+    private final ThreadLocal<List<SMBPacketData<?>>> output = new ThreadLocal<>();
+    private IncomingPacketHandler next;
+    private IncomingPacketHandler ordered;
+
+    // Only used on the thread reading from the transport
+    private long receiveSequence;
+
+    private final Map<Long, Handled> handled = new HashMap<>();
+    private long deliverSequence;
+    private boolean delivering;
+
+    /**
+     * @param threads       the number of threads that handle packets in parallel
+     * @param errorReceiver receives the errors that occur while handling a packet, as these can no longer be thrown
+     *                      to the reading thread
+     */
+    public ParallelPacketHandler(int threads, PacketReceiver<?> errorReceiver) {
+        this.errorReceiver = errorReceiver;
+        this.inFlight = new Semaphore(threads * MAX_IN_FLIGHT_PER_THREAD);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void handle(final SMBPacketData<?> packetData) throws TransportException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransportException(e);
+        }
+        final long sequence = receiveSequence++;
+        // The receiver releases its reference to the array once this returns, the packet is handled after that
+        final PooledArray received = packetData.getPooledArray();
+        if (received != null) {
+            received.retain();
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleInParallel(sequence, packetData, received);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            if (received != null) {
+                received.release();
+            }
+            throw new TransportException(e);
+        }
+    }
+
+    @Override
+    public IncomingPacketHandler setNext(IncomingPacketHandler handler) {
+        this.next = handler;
+        return this;
+    }
+
+    /**
+     * The end of the handlers that are run in parallel.
+     *
+     * @param handler the rest of the chain, which receives the packets in the order in which they were received
+     * @return the handler that collects the packets passed on by the parallel handlers
+     */
+    public IncomingPacketHandler inOrder(IncomingPacketHandler handler) {
+        this.ordered = handler;
+        return new CollectingPacketHandler();
+    }
+
+    /**
+     * Stop the threads once the packets that were already received are handled.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void handleInParallel(long sequence, SMBPacketData<?> packetData, PooledArray received) {
+        Handled result = new Handled(received);
+        output.set(result.packets);
+        try {
+            next.handle(packetData);
+        } catch (TransportException | RuntimeException e) {
+            result.error = e;
+        } finally {
+            output.remove();
+        }
+        deliver(sequence, result);
+    }
+
+    /**
+     * Hand the packets on in order. Whichever thread finishes the packet that is next in line delivers it, together
+     * with any later packets that were already finished.
+     */
+    private void deliver(long sequence, Handled result) {
+        synchronized (handled) {
+            handled.put(sequence, result);
+            if (delivering) {
+                return;
+            }
+            delivering = true;
+        }
+        while (true) {
+            Handled toDeliver;
+            synchronized (handled) {
+                toDeliver = handled.remove(deliverSequence);
+                if (toDeliver == null) {
+                    delivering = false;
+                    return;
+                }
+                deliverSequence++;
+            }
+            try {
+                toDeliver.deliver();
+            } finally {
+                inFlight.release();
+                if (toDeliver.received != null) {
+                    toDeliver.received.release();
+                }
+            }
+        }
+    }
+
+    private class Handled {
+        private final List<SMBPacketData<?>> packets = new ArrayList<>(1);
+        private final PooledArray received;
+        private Exception error;
+
+        private Handled(PooledArray received) {
+            this.received = received;
+        }
+
+        private void deliver() {
+            try {
+                for (SMBPacketData<?> packet : packets) {
+                    ordered.handle(packet);
+                }
+            } catch (TransportException | RuntimeException e) {
+                error = e;
+            }
+            if (error != null) {
+                System.out.println("tempGT2: Error while handling received packet: " + error);
+                errorReceiver.handleError(error);
+            }
+        }
+    }
+
+    private class CollectingPacketHandler implements IncomingPacketHandler {
+        @Override
+        public void handle(SMBPacketData<?> packetData) throws TransportException {
+            List<SMBPacketData<?>> packets = output.get();
+            if (packets == null) {
+                // Not handled by one of the threads of the pool
+                ordered.handle(packetData);
+            } else {
+                packets.add(packetData);
+            }
+        }
+
+        @Override
+        public IncomingPacketHandler setNext(IncomingPacketHandler handler) {
+            throw new UnsupportedOperationException("The packets are handed on to the handler passed to inOrder()");
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Packet Handler " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection.packet;
+
+import com.hierynomus.mssmb2.SMB2MessageConverter;
+import com.hierynomus.mssmb2.SMB2PacketData;
+import com.hierynomus.mssmb2.SMB2PacketHeader;
+import com.hierynomus.mssmb2.messages.SMB2LeaseBreakNotification;
+import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smbj.event.LeaseBreak;
+import com.hierynomus.smbj.event.SMBEventBus;
+
+/**
+ * [MS-SMB2] 3.2.5.19 Receiving an SMB2 OPLOCK_BREAK Notification
+ * <p>
+ * If the MessageId field of the SMB2 header of the response is 0xFFFFFFFFFFFFFFFF, this MUST be processed as an oplock
+ * or lease break indication. The type of break is determined by the StructureSize of the notification.
+ * <p>
+ * 3.2.5.19.2 Processing a Lease Break Notification: the client MUST locate the lease using the LeaseKey in the
+ * notification. The client MUST update the lease state to the NewLeaseState, flushing and invalidating any cached
+ * state that is no longer allowed. If SMB2_NOTIFY_BREAK_LEASE_FLAG_ACK_REQUIRED is set, the client MUST send a Lease
+ * Break Acknowledgment.
+ * <p>
+ * The lease break is published as a {@link LeaseBreak} event, to which the shares that hold leases respond. Oplocks
+ * are never requested, so an oplock break notification is discarded.
+ */
+public class SMB2OplockBreakPacketHandler extends SMB2PacketHandler {
+    private final SMB2MessageConverter smb2Converter;
+    private final SMBEventBus bus;
+
+    public SMB2OplockBreakPacketHandler(SMB2MessageConverter smb2Converter, SMBEventBus bus) {
+        this.smb2Converter = smb2Converter;
+        this.bus = bus;
+    }
+
+    @Override
+    protected void doSMB2Handle(SMB2PacketData packetData) throws TransportException {
+        if (!packetData.isOplockBreakNotification()) {
+            next.handle(packetData);
+            return;
+        }
+
+        SMB2PacketHeader header = packetData.getHeader();
+        byte[] data = packetData.getDataBuffer().array();
+        int structureSizeOffset = header.getHeaderStartPosition() + SMB2PacketHeader.STRUCTURE_SIZE;
+        int structureSize = (data[structureSizeOffset] & 0xFF) | (data[structureSizeOffset + 1] & 0xFF) << 8;
+        if (structureSize != SMB2LeaseBreakNotification.STRUCTURE_SIZE) {
+            System.out.println("tempGT2: Discarding oplock break notification, as no oplocks are requested");
+            return;
+        }
+
+        try {
+            SMB2LeaseBreakNotification notification = (SMB2LeaseBreakNotification) smb2Converter.readPacket(null, packetData);
+            System.out.println("tempGT2: Received lease break to " + notification.getNewLeaseState() + " for lease epoch " + notification.getNewEpoch());
+            bus.publish(new LeaseBreak(notification.getLeaseKey(), notification.getNewLeaseState(), notification.getNewEpoch(), notification.isAckRequired()));
+        } catch (Buffer.BufferException e) {
+            throw new TransportException("Unable to deserialize Lease Break Notification.", e);
+        }
+    }
+}
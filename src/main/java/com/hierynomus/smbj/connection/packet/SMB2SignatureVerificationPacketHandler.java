@@ -15,15 +15,25 @@
  */
 package com.hierynomus.smbj.connection.packet;
 
+import com.hierynomus.mserref.NtStatus;
 import com.hierynomus.mssmb2.DeadLetterPacketData;
+import com.hierynomus.mssmb2.SMB2MessageCommandCode;
 import com.hierynomus.mssmb2.SMB2PacketData;
+import com.hierynomus.mssmb2.SMB2PacketHeader;
 import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smb.SMBBuffer;
+import com.hierynomus.smbj.connection.Connection;
 import com.hierynomus.smbj.connection.PacketSignatory;
 import com.hierynomus.smbj.connection.SessionTable;
 import com.hierynomus.smbj.session.Session;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import static com.hierynomus.mssmb2.SMB2MessageCommandCode.SMB2_SESSION_SETUP;
+import static com.hierynomus.mssmb2.SMB2MessageFlag.SMB2_FLAGS_ASYNC_COMMAND;
 import static com.hierynomus.mssmb2.SMB2MessageFlag.SMB2_FLAGS_SIGNED;
+import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.isSet;
 
 /**
  * 3.2.5.1.3 Verifying the Signature
@@ -63,82 +73,127 @@ import static com.hierynomus.mssmb2.SMB2MessageFlag.SMB2_FLAGS_SIGNED;
  * as specified in subsequent sections.<152>
  */
 public class SMB2SignatureVerificationPacketHandler extends SMB2PacketHandler {
+    private static final int STATUS_OFFSET = 8;
+    private static final int COMMAND_OFFSET = 12;
+    private static final int FLAGS_OFFSET = 16;
+    private static final int NEXT_COMMAND_OFFSET = 20;
+    private static final int MESSAGE_ID_OFFSET = 24;
+    private static final int SESSION_ID_OFFSET = 40;
+
+    private Connection connection;
     private SessionTable sessionTable;
     private PacketSignatory signatory;
 
-    public SMB2SignatureVerificationPacketHandler(SessionTable sessionTable, PacketSignatory signatory) {
+    /**
+     * @param connection the connection the packets are received on, which determines the signing key if it is a
+     *                   channel of a session that was established on another connection
+     */
+    public SMB2SignatureVerificationPacketHandler(Connection connection, SessionTable sessionTable, PacketSignatory signatory) {
+        this.connection = connection;
         this.sessionTable = sessionTable;
         this.signatory = signatory;
     }
 
+    /**
+     * The messages of a compounded response are verified together, before the response is separated into the
+     * individual messages. The first message is checked using its parsed header, the fields of the messages that
+     * follow it are read straight from the received data, so their headers are not parsed for this. If one of the
+     * messages cannot be verified, or the NextCommand offset of a message does not point to a message within the
+     * received data, the entire compounded response is discarded.
+     */
     @Override
     protected void doSMB2Handle(SMB2PacketData packetData) throws TransportException {
-        if (packetData.getHeader().getMessageId() == 0xFFFFFFFFFFFFFFFFL) {
-            System.out.println("tempGT2: Message ID is 0xFFFFFFFFFFFFFFFF, no verification necessary");
+        if (packetData.isDecrypted()) {
+            System.out.println("tempGT2: Passthrough Signature Verification as packet is decrypted");
             next.handle(packetData);
             return;
         }
 
-        if (packetData.isDecrypted()) {
-            System.out.println("tempGT2: Passthrough Signature Verification as packet is decrypted");
-            next.handle(packetData);
+        SMB2PacketHeader header = packetData.getHeader();
+        SMBBuffer buffer = packetData.getDataBuffer();
+        int messageStart = header.getHeaderStartPosition();
+        int nextCommand = header.getNextCommandOffset();
+        Session session = sessionTable.find(header.getSessionId());
+        if (!isValidNextCommand(nextCommand, messageStart, buffer.wpos())
+            || !isValid(header.getMessageId(), header.getFlags(), header.getSessionId(), header.getStatusCode(), header.getMessage(),
+                session, buffer, messageStart, nextCommand)) {
+            next.handle(new DeadLetterPacketData(header));
             return;
         }
 
-        if (packetData.getHeader().isFlagSet(SMB2_FLAGS_SIGNED)) {
-            long sessionId = packetData.getHeader().getSessionId();
-            // TODO Deviation from Spec...
-            if (sessionId == 0L || packetData.getHeader().getMessage() == SMB2_SESSION_SETUP) {
-                next.handle(packetData);
+        ByteBuffer received = ByteBuffer.wrap(buffer.array(), 0, buffer.wpos()).order(ByteOrder.LITTLE_ENDIAN);
+        while (nextCommand != 0) {
+            messageStart += nextCommand;
+            if (messageStart + SMB2PacketHeader.STRUCTURE_SIZE > buffer.wpos()) {
+                System.out.println("tempGT2: Compounded message at offset " + messageStart + " is truncated in " + packetData);
+                next.handle(new DeadLetterPacketData(header));
                 return;
             }
-            Session session = sessionTable.find(sessionId);
+            nextCommand = received.getInt(messageStart + NEXT_COMMAND_OFFSET);
+            long sessionId = received.getLong(messageStart + SESSION_ID_OFFSET);
+            if (session == null || session.getSessionId() != sessionId) {
+                session = sessionTable.find(sessionId);
+            }
+            if (!isValidNextCommand(nextCommand, messageStart, buffer.wpos())
+                || !isValid(received.getLong(messageStart + MESSAGE_ID_OFFSET), received.getInt(messageStart + FLAGS_OFFSET) & 0xFFFFFFFFL, sessionId,
+                    received.getInt(messageStart + STATUS_OFFSET) & 0xFFFFFFFFL, SMB2MessageCommandCode.lookup(received.getShort(messageStart + COMMAND_OFFSET) & 0xFFFF),
+                    session, buffer, messageStart, nextCommand)) {
+                next.handle(new DeadLetterPacketData(header));
+                return;
+            }
+        }
+        next.handle(packetData);
+    }
+
+    /**
+     * [MS-SMB2] 2.2.1 NextCommand: the offset of the next message from the start of this one, or 0 if this is the last
+     * message. Every message in a compounded response starts on an 8-byte boundary, and holds at least an SMB2 header.
+     */
+    private boolean isValidNextCommand(int nextCommand, int messageStart, int end) {
+        if (nextCommand == 0) {
+            return true;
+        }
+        if (nextCommand < SMB2PacketHeader.STRUCTURE_SIZE || (nextCommand & 7) != 0 || nextCommand > end - messageStart) {
+            System.out.println("tempGT2: Invalid NextCommand offset " + nextCommand + " for the message at offset " + messageStart);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isValid(long messageId, long flags, long sessionId, long statusCode, SMB2MessageCommandCode command,
+                            Session session, SMBBuffer buffer, int messageStart, int nextCommand) {
+        if (messageId == 0xFFFFFFFFFFFFFFFFL) {
+            System.out.println("tempGT2: Message ID is 0xFFFFFFFFFFFFFFFF, no verification necessary");
+            return true;
+        }
+
+        if (isSet(flags, SMB2_FLAGS_SIGNED)) {
+            // TODO Deviation from Spec...
+            if (sessionId == 0L || command == SMB2_SESSION_SETUP) {
+                return true;
+            }
 
             if (session == null) {
-                System.out.println("tempGT2: Could not find session << " + sessionId + " >> for packet " + packetData);
-                next.handle(new DeadLetterPacketData(packetData.getHeader()));
-                return;
+                System.out.println("tempGT2: Could not find session << " + sessionId + " >> for message " + command);
+                return false;
             }
 
-            if (signatory.verify(packetData, session.getSigningKey(packetData.getHeader(), false))) {
-                System.out.println("tempGT2: Signature for packet " + packetData + " verified.");
-                next.handle(packetData);
-                return;
+            int messageEnd = nextCommand != 0 ? messageStart + nextCommand : buffer.wpos();
+            ByteBuffer message = ByteBuffer.wrap(buffer.array(), messageStart, messageEnd - messageStart);
+            if (signatory.verify(message, session.getSigningKey(connection, command, statusCode, false))) {
+                System.out.println("tempGT2: Signature for message " + command + " verified.");
+                return true;
             } else {
-                System.out.println("tempGT2: Invalid packet signature for packet " + packetData);
-                next.handle(new DeadLetterPacketData(packetData.getHeader()));
-                return;
+                System.out.println("tempGT2: Invalid packet signature for message " + command);
+                return false;
             }
         }
 
-        if (!packetData.getHeader().isFlagSet(SMB2_FLAGS_SIGNED)) {
-            if (packetData.isIntermediateAsyncResponse() || packetData.isOplockBreakNotification()) {
-                // ok
-            } else {
-                long sessionId = packetData.getHeader().getSessionId();
-                Session session = sessionTable.find(sessionId);
-                if (session != null && session.isSigningRequired()) {
-                    System.out.println("tempGT2: Illegal request, session requires message signing, but packet " + packetData + " is not signed.");
-                    next.handle(new DeadLetterPacketData(packetData.getHeader()));
-                    return;
-                }
-            }
+        boolean intermediateAsyncResponse = isSet(flags, SMB2_FLAGS_ASYNC_COMMAND) && statusCode == NtStatus.STATUS_PENDING.getValue();
+        if (!intermediateAsyncResponse && session != null && session.isSigningRequired()) {
+            System.out.println("tempGT2: Illegal request, session requires message signing, but message " + command + " is not signed.");
+            return false;
         }
-        next.handle(packetData);
+        return true;
     }
-//
-//    private void verifyPacketSignature(SMB2Packet packet, Session session) throws TransportException {
-//        if (!session.getPacketSignatory().verify(packet)) {
-//            if (session.isSigningRequired()) {
-//                throw new TransportException("Packet signature for packet " + packet + " was not correct");
-//            }
-//        }
-//    } else if(session.isSigningRequired())
-//
-//    {
-//        throw new TransportException("Session requires signing, but packet " + packet + " was not signed");
-//    }
-//}
-
-
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection.packet;
+
+import com.hierynomus.mssmb2.SMB2DecryptedPacketData;
+import com.hierynomus.mssmb2.SMB2PacketData;
+import com.hierynomus.mssmb2.SMB2PacketHeader;
+import com.hierynomus.mssmb2.SMB3CompressedPacketData;
+import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smb.SMBPacketData;
+import com.hierynomus.smbj.connection.PacketCompressor;
+
+import java.util.Arrays;
+
+/**
+ * [MS-SMB2] 3.2.5.1.10 Decompressing the Message
+ * <p>
+ * The client MUST decompress the message using the algorithm(s) in the SMB2 COMPRESSION_TRANSFORM_HEADER. If
+ * decompression fails, the client MUST disconnect the connection.
+ * <p>
+ * If the ProtocolId of the decompressed message is not 0x424D53FE, indicating an SMB2 header, the client MUST
+ * disconnect the connection. Otherwise the decompressed message is processed further as if it was received as such,
+ * a message that was decrypted before is not required to be signed.
+ */
+public class SMB3DecompressingPacketHandler extends AbstractIncomingPacketHandler {
+    private final PacketCompressor compressor;
+
+    public SMB3DecompressingPacketHandler(PacketCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    @Override
+    protected boolean canHandle(SMBPacketData<?> packetData) {
+        return packetData instanceof SMB3CompressedPacketData;
+    }
+
+    @Override
+    protected void doHandle(SMBPacketData<?> packetData) throws TransportException {
+        SMB3CompressedPacketData data = (SMB3CompressedPacketData) packetData;
+        byte[] decompressed = compressor.decompress(data);
+        if (!Arrays.equals(Arrays.copyOf(decompressed, 4), SMB2PacketHeader.PROTOCOL_ID)) {
+            System.out.println("tempGT2: Decompressed packet " + packetData + " does not contain an SMB2 message, disconnecting the transport");
+            throw new TransportException("Decompressed packet " + packetData + " does not contain an SMB2 message");
+        }
+
+        try {
+            SMB2PacketData nextPacket = data.isDecrypted() ? new SMB2DecryptedPacketData(decompressed) : new SMB2PacketData(decompressed);
+            System.out.println("tempGT2: Decompressed packet " + packetData + " is packet " + nextPacket);
+            next.handle(nextPacket);
+        } catch (Buffer.BufferException e) {
+            throw new TransportException("Could not load decompressed SMB2 Packet", e);
+        }
+    }
+}
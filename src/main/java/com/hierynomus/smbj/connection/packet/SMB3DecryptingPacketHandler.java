@@ -18,6 +18,7 @@ package com.hierynomus.smbj.connection.packet;
 import com.hierynomus.mssmb2.*;
 import com.hierynomus.protocol.commons.buffer.Buffer;
 import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smb.SMBBuffer;
 import com.hierynomus.smb.SMBPacketData;
 import com.hierynomus.smbj.common.SMBRuntimeException;
 import com.hierynomus.smbj.connection.PacketEncryptor;
@@ -111,9 +112,9 @@ public class SMB3DecryptingPacketHandler extends AbstractIncomingPacketHandler {
             return;
         }
 
-        byte[] decrypted = encryptor.decrypt(data, session.getSessionContext().getDecryptionKey());
+        SMBBuffer decrypted = encryptor.decrypt(data, session.getSessionContext().getDecryptionKey());
 
-        byte[] decryptedProtocolId = Arrays.copyOf(decrypted, 4);
+        byte[] decryptedProtocolId = Arrays.copyOfRange(decrypted.array(), decrypted.rpos(), decrypted.rpos() + 4);
         if (Arrays.equals(decryptedProtocolId, SMB2TransformHeader.ENCRYPTED_PROTOCOL_ID)) {
             System.out.println("tempGT2: Encountered a nested encrypted packet in packet " + packetData + " disconnecting the transport");
             throw new TransportException("Cannot nest an encrypted packet in encrypted packet " + packetData);
@@ -129,7 +130,7 @@ public class SMB3DecryptingPacketHandler extends AbstractIncomingPacketHandler {
         }
     }
 
-    private void handleCompressedPacket(SMBPacketData<?> packetData, byte[] decrypted) throws TransportException {
+    private void handleCompressedPacket(SMBPacketData<?> packetData, SMBBuffer decrypted) throws TransportException {
         System.out.println("tempGT2: Packet " + packetData + " is compressed.");
         try {
             next.handle(new SMB3CompressedPacketData(decrypted, true));
@@ -140,9 +141,10 @@ public class SMB3DecryptingPacketHandler extends AbstractIncomingPacketHandler {
         }
     }
 
-    private void handleSMB2Packet(byte[] decrypted, SMB3EncryptedPacketData packetData) throws TransportException {
+    private void handleSMB2Packet(SMBBuffer decrypted, SMB3EncryptedPacketData packetData) throws TransportException {
         try {
-            SMB2PacketData nextPacket = new SMB2DecryptedPacketData(decrypted);
+            // Decrypted in place, the message is still backed by the array the packet was received in
+            SMB2PacketData nextPacket = new SMB2DecryptedPacketData(decrypted, packetData.getPooledArray());
             System.out.println("tempGT2: Decrypted packet " + packetData + " is packet " + nextPacket);
             if (nextPacket.getHeader().getSessionId() != packetData.getHeader().getSessionId()) {
                 System.out.println("tempGT2: Mismatched sessionId between encrypted packet " + packetData + " and decrypted contents " + nextPacket);
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.event;
+
+import com.hierynomus.mssmb2.SMB2LeaseState;
+
+import java.util.Set;
+
+/**
+ * Published when the server breaks a lease, i.e. it downgrades the caching the client may do for the files opened
+ * with the lease key.
+ */
+public class LeaseBreak implements SMBEvent {
+    private final byte[] leaseKey;
+    private final Set<SMB2LeaseState> newLeaseState;
+    private final int newEpoch;
+    private final boolean ackRequired;
+
+    public LeaseBreak(byte[] leaseKey, Set<SMB2LeaseState> newLeaseState, int newEpoch, boolean ackRequired) {
+        this.leaseKey = leaseKey;
+        this.newLeaseState = newLeaseState;
+        this.newEpoch = newEpoch;
+        this.ackRequired = ackRequired;
+    }
+
+    public byte[] getLeaseKey() {
+        return leaseKey;
+    }
+
+    public Set<SMB2LeaseState> getNewLeaseState() {
+        return newLeaseState;
+    }
+
+    public int getNewEpoch() {
+        return newEpoch;
+    }
+
+    /**
+     * @return whether the break must be acknowledged, after which the server completes the operation that caused it
+     */
+    public boolean isAckRequired() {
+        return ackRequired;
+    }
+}
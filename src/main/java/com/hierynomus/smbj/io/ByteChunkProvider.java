@@ -47,13 +47,17 @@ public abstract class ByteChunkProvider implements Closeable {
 
     public void writeChunks(Buffer<?> buffer, int nrChunks) {
         lastWriteSize = 0;
-        byte[] chunk = new byte[chunkSize];
+        // Reserve room for all chunks up front, so that they are read straight into the buffer's array.
+        buffer.ensureCapacity(Math.max(0, Math.min(nrChunks * chunkSize, bytesLeft())));
         for (int i = 0; i < nrChunks; i++) {
             try {
-                int size = getChunk(chunk);
-                buffer.putRawBytes(chunk, 0, size);
-                offset += size;
-                lastWriteSize += size;
+                buffer.ensureCapacity(chunkSize);
+                int size = getChunk(buffer.array(), buffer.wpos(), chunkSize);
+                if (size > 0) {
+                    buffer.wpos(buffer.wpos() + size);
+                    offset += size;
+                    lastWriteSize += size;
+                }
             } catch (IOException e) {
                 throw new SMBRuntimeException(e);
             }
@@ -61,16 +65,7 @@ public abstract class ByteChunkProvider implements Closeable {
     }
 
     public void writeChunk(Buffer<?> buffer) {
-        lastWriteSize = 0;
-        byte[] chunk = new byte[chunkSize];
-        try {
-            int size = getChunk(chunk);
-            buffer.putRawBytes(chunk, 0, size);
-            offset += size;
-            lastWriteSize += size;
-        } catch (IOException e) {
-            throw new SMBRuntimeException(e);
-        }
+        writeChunks(buffer, 1);
     }
 
     public long getOffset() {
@@ -83,6 +78,25 @@ public abstract class ByteChunkProvider implements Closeable {
 
     protected abstract int getChunk(byte[] chunk) throws IOException;
 
+    /**
+     * Read the next chunk into <code>chunk</code>, starting at <code>offset</code> and reading at most
+     * <code>length</code> bytes. Providers that can read into an arbitrary position of an array should override this
+     * to avoid going through an intermediate array.
+     *
+     * @return the number of bytes read
+     */
+    protected int getChunk(byte[] chunk, int offset, int length) throws IOException {
+        if (offset == 0 && length == chunk.length) {
+            return getChunk(chunk);
+        }
+        byte[] tmp = new byte[length];
+        int size = getChunk(tmp);
+        if (size > 0) {
+            System.arraycopy(tmp, 0, chunk, offset, size);
+        }
+        return size;
+    }
+
     public abstract int bytesLeft();
 
     @Override
@@ -52,6 +52,11 @@ public class FileByteChunkProvider extends ByteChunkProvider {
         return underlyingProvider.getChunk(chunk);
     }
 
+    @Override
+    protected int getChunk(byte[] chunk, int offset, int length) throws IOException {
+        return underlyingProvider.getChunk(chunk, offset, length);
+    }
+
     @Override
     public int bytesLeft() {
         return underlyingProvider.bytesLeft();
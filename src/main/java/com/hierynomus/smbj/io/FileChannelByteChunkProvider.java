@@ -0,0 +1,97 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Provides the contents of a local file using positional reads on a {@link FileChannel}.
+ * <p/>
+ * The chunks are read straight into the buffer of the packet that is sent, without an intermediate stream or array.
+ * As the position of the channel is never changed, the same channel can be shared by multiple providers.
+ */
+public class FileChannelByteChunkProvider extends ByteChunkProvider {
+
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final long end;
+
+    /**
+     * Provide the contents of the file at the given path, the file is closed when this provider is closed.
+     */
+    public FileChannelByteChunkProvider(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.READ), 0, true);
+    }
+
+    public FileChannelByteChunkProvider(FileChannel channel) throws IOException {
+        this(channel, 0);
+    }
+
+    public FileChannelByteChunkProvider(FileChannel channel, long offset) throws IOException {
+        this(channel, offset, false);
+    }
+
+    private FileChannelByteChunkProvider(FileChannel channel, long offset, boolean ownsChannel) throws IOException {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.end = channel.size();
+        if (offset > end) {
+            throw new IOException("Was unable to go to the requested offset of " + offset + " of a file of " + end + " bytes");
+        }
+        this.offset = offset;
+    }
+
+    @Override
+    protected int getChunk(byte[] chunk) throws IOException {
+        return getChunk(chunk, 0, chunk.length);
+    }
+
+    @Override
+    protected int getChunk(byte[] chunk, int offset, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(chunk, offset, (int) Math.min(length, end - this.offset));
+        int count = 0;
+        while (target.hasRemaining()) {
+            int read = channel.read(target, this.offset + count);
+            if (read == -1) {
+                throw new EOFException("File was truncated while reading it at offset " + (this.offset + count));
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    @Override
+    public int bytesLeft() {
+        return (int) Math.min(end - offset, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return offset < end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
@@ -34,12 +34,17 @@ public class InputStreamByteChunkProvider extends ByteChunkProvider {
 
     @Override
     protected int getChunk(byte[] chunk) throws IOException {
+        return getChunk(chunk, 0, CHUNK_SIZE);
+    }
+
+    @Override
+    protected int getChunk(byte[] chunk, int offset, int length) throws IOException {
         if (is == null) {
             return -1;
         }
         int count = 0;
         int read;
-        while (count < CHUNK_SIZE && ((read = is.read(chunk, count, CHUNK_SIZE - count)) != -1)) {
+        while (count < length && ((read = is.read(chunk, offset + count, length - count)) != -1)) {
             count += read;
         }
         return count;
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.session;
+
+import com.hierynomus.smbj.connection.Connection;
+
+import javax.crypto.SecretKey;
+
+/**
+ * [MS-SMB2] 3.2.1.8 Per Channel
+ * <p/>
+ * An additional connection a session is bound to. Messages on a channel are signed with the signing key of the
+ * channel, rather than that of the session.
+ */
+public class Channel {
+    private final Connection connection;
+    private final SecretKey signingKey;
+
+    public Channel(Connection connection, SecretKey signingKey) {
+        this.connection = connection;
+        this.signingKey = signingKey;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public SecretKey getSigningKey() {
+        return signingKey;
+    }
+
+    @Override
+    public String toString() {
+        return "Channel{" + connection.getRemoteHostname() + "}";
+    }
+}
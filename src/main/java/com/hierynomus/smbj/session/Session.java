@@ -21,13 +21,18 @@ import com.hierynomus.mssmb2.messages.SMB2CreateRequest;
 import com.hierynomus.mssmb2.messages.SMB2Logoff;
 import com.hierynomus.mssmb2.messages.SMB2TreeConnectRequest;
 import com.hierynomus.mssmb2.messages.SMB2TreeConnectResponse;
+import com.hierynomus.mssmb2.messages.submodule.SMB2NetworkInterfaceInfo;
+import com.hierynomus.protocol.commons.buffer.Buffer;
 import com.hierynomus.protocol.commons.concurrent.Futures;
 import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smb.SMBBuffer;
 import com.hierynomus.smbj.SmbConfig;
 import com.hierynomus.smbj.auth.AuthenticationContext;
 import com.hierynomus.smbj.common.SMBRuntimeException;
 import com.hierynomus.smbj.common.SmbPath;
+import com.hierynomus.smbj.connection.CompoundedPacket;
 import com.hierynomus.smbj.connection.Connection;
+import com.hierynomus.smbj.connection.PacketCompressor;
 import com.hierynomus.smbj.connection.PacketEncryptor;
 import com.hierynomus.smbj.connection.PacketSignatory;
 import com.hierynomus.smbj.event.SMBEventBus;
@@ -40,10 +45,14 @@ import net.engio.mbassy.listener.Handler;
 
 import javax.crypto.SecretKey;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static java.lang.String.format;
@@ -52,6 +61,8 @@ import static java.lang.String.format;
  * A Session
  */
 public class Session implements AutoCloseable {
+    private static final long FSCTL_QUERY_NETWORK_INTERFACE_INFO = 0x001401FCL;
+
     private long sessionId;
 
     private Connection connection;
@@ -60,13 +71,17 @@ public class Session implements AutoCloseable {
     private final PathResolver pathResolver;
     private PacketSignatory signatory;
     private PacketEncryptor encryptor;
+    private PacketCompressor compressor;
     private TreeConnectTable treeConnectTable = new TreeConnectTable();
     private Map<String, Session> nestedSessionsByHost = new HashMap<>();
     private ReentrantReadWriteLock nestedSessionsRwLock = new ReentrantReadWriteLock();
     private AuthenticationContext userCredentials;
     private SessionContext sessionContext;
+    // The channels the session is bound to, besides the connection it was established on
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextChannel = new AtomicInteger();
 
-    public Session(Connection connection, SmbConfig config, AuthenticationContext userCredentials, SMBEventBus bus, PathResolver pathResolver, PacketSignatory signatory, PacketEncryptor encryptor) {
+    public Session(Connection connection, SmbConfig config, AuthenticationContext userCredentials, SMBEventBus bus, PathResolver pathResolver, PacketSignatory signatory, PacketEncryptor encryptor, PacketCompressor compressor) {
         this.connection = connection;
         this.config = config;
         this.userCredentials = userCredentials;
@@ -75,6 +90,7 @@ public class Session implements AutoCloseable {
         this.signatory = signatory;
         this.sessionContext = new SessionContext();
         this.encryptor = encryptor;
+        this.compressor = compressor;
         if (bus != null) {
             bus.subscribe(this);
         }
@@ -256,6 +272,50 @@ public class Session implements AutoCloseable {
             }
         } finally {
             bus.publish(new SessionLoggedOff(sessionId));
+            closeChannels();
+        }
+    }
+
+    /**
+     * [MS-SMB2] 3.2.4.20.10 Application Requests Querying Server's Network Interfaces
+     *
+     * @return the network interfaces of the server, over which additional channels can be bound to this session
+     */
+    public List<SMB2NetworkInterfaceInfo> queryNetworkInterfaces() {
+        try (Share ipc = connectShare("IPC$")) {
+            byte[] output = ipc.ioctl(FSCTL_QUERY_NETWORK_INTERFACE_INFO, true, new byte[0]);
+            return SMB2NetworkInterfaceInfo.readAll(new SMBBuffer(output));
+        } catch (Buffer.BufferException | IOException e) {
+            throw new SMBRuntimeException(e);
+        }
+    }
+
+    /**
+     * Add a channel the session has been bound to.
+     */
+    public void addChannel(Channel channel) {
+        System.out.println("tempGT2: Bound session " + sessionId + " to " + channel);
+        channels.add(channel);
+    }
+
+    /**
+     * @return the channels the session is bound to, besides the connection it was established on
+     */
+    public List<Channel> getChannels() {
+        return Collections.unmodifiableList(channels);
+    }
+
+    /**
+     * Close the connections of the channels, the session remains usable on the connection it was established on.
+     */
+    public void closeChannels() {
+        for (Channel channel : channels) {
+            channels.remove(channel);
+            try {
+                channel.getConnection().close(true);
+            } catch (IOException e) {
+                System.out.println("tempGT2: Caught exception while closing " + channel + ": " + e);
+            }
         }
     }
 
@@ -288,16 +348,74 @@ public class Session implements AutoCloseable {
      * @throws TransportException
      */
     public <T extends SMB2Packet> Future<T> send(SMB2Packet packet) throws TransportException {
-        SecretKey signingKey = getSigningKey(packet.getHeader(), true);
+        return send(connection, packet);
+    }
+
+    /**
+     * send a packet on one of the channels of the session, in turn. This spreads requests that can be sent on any
+     * channel, like reads and writes, over all connections the session is bound to ([MS-SMB2] 3.2.4.1.7).
+     *
+     * @param packet SMBPacket to send
+     * @return a Future to be used to retrieve the response packet
+     * @throws TransportException
+     */
+    public <T extends SMB2Packet> Future<T> sendOnAnyChannel(SMB2Packet packet) throws TransportException {
+        if (channels.isEmpty()) {
+            return send(connection, packet);
+        }
+        int index = (nextChannel.getAndIncrement() & Integer.MAX_VALUE) % (channels.size() + 1);
+        if (index == 0) {
+            return send(connection, packet);
+        }
+        Channel channel;
+        try {
+            channel = channels.get(index - 1);
+        } catch (IndexOutOfBoundsException e) {
+            // A channel was removed in the meantime
+            return send(connection, packet);
+        }
+        if (!channel.getConnection().isConnected()) {
+            System.out.println("tempGT2: " + channel + " of session " + sessionId + " is no longer connected, removing it");
+            channels.remove(channel);
+            return send(connection, packet);
+        }
+        return send(channel.getConnection(), packet);
+    }
+
+    /**
+     * send a packet on the given channel of the session, which is either the connection the session was established
+     * on or the connection of one of its channels.
+     *
+     * @param channel the connection to send the packet on
+     * @param packet SMBPacket to send
+     * @return a Future to be used to retrieve the response packet
+     * @throws TransportException
+     */
+    public <T extends SMB2Packet> Future<T> send(Connection channel, SMB2Packet packet) throws TransportException {
+        SecretKey signingKey = getSigningKey(channel, packet.getHeader().getMessage(), packet.getHeader().getStatusCode(), true);
         if (sessionContext.isSigningRequired() && signingKey == null) {
             throw new TransportException("Message signing is required, but no signing key is negotiated");
         }
 
+        // [MS-SMB2] 3.1.4.4: a message is compressed before it is encrypted, but after it is signed.
         if (shouldEncryptData()) {
-            return connection.send(encryptor.encrypt(packet, sessionContext.getEncryptionKey()));
+            return channel.send(encryptor.encrypt(compressor.compress(packet), sessionContext.getEncryptionKey()));
         }
 
-        return connection.send(signatory.sign(packet, signingKey));
+        return channel.send(compressor.compress(signatory.sign(packet, signingKey)));
+    }
+
+    /**
+     * send the packets as a single compounded request. The chain is signed or encrypted as a unit, in the same way as
+     * a single packet is by {@link #send(SMB2Packet)}.
+     *
+     * @param compound the chain of packets to send
+     * @return a Future for the response to each of the packets, in the order in which they are chained
+     * @throws TransportException
+     */
+    public List<Future<SMB2Packet>> sendCompounded(CompoundedPacket compound) throws TransportException {
+        send(compound);
+        return compound.getResponses();
     }
 
     public <T extends SMB2Packet> T processSendResponse(SMB2CreateRequest packet) throws TransportException {
@@ -322,16 +440,32 @@ public class Session implements AutoCloseable {
      * @return
      */
     public SecretKey getSigningKey(SMB2PacketHeader header, boolean signing) {
+        return getSigningKey(connection, header.getMessage(), header.getStatusCode(), signing);
+    }
+
+    /**
+     * Returns the key to sign or verify a message on a channel with, given the Command and Status fields of its
+     * header.
+     *
+     * @param channel the connection the message is sent or received on
+     * @see #getSigningKey(SMB2PacketHeader, boolean)
+     */
+    public SecretKey getSigningKey(Connection channel, SMB2MessageCommandCode message, long statusCode, boolean signing) {
         if (connection.getNegotiatedProtocol().getDialect().isSmb3x()) {
-            if (header.getMessage() == SMB2MessageCommandCode.SMB2_SESSION_SETUP) {
+            if (message == SMB2MessageCommandCode.SMB2_SESSION_SETUP) {
                 if (signing) {
                     return sessionContext.getSigningKey();
                 }
-                if (header.getStatusCode() != NtStatus.STATUS_SUCCESS.getValue()) {
+                if (statusCode != NtStatus.STATUS_SUCCESS.getValue()) {
                     return sessionContext.getSigningKey();
                 }
             }
-            return sessionContext.getSigningKey(); // TODO channel.getSigningKey()
+            for (Channel bound : channels) {
+                if (bound.getConnection() == channel) {
+                    return bound.getSigningKey();
+                }
+            }
+            return sessionContext.getSigningKey();
         }
 
         return sessionContext.getSessionKey();
@@ -17,6 +17,7 @@ package com.hierynomus.smbj.share;
 
 import com.hierynomus.mserref.NtStatus;
 import com.hierynomus.msfscc.FileInformationClass;
+import com.hierynomus.msfscc.fileinformation.FileDirectoryCursor;
 import com.hierynomus.msfscc.fileinformation.FileDirectoryQueryableInformation;
 import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
 import com.hierynomus.msfscc.fileinformation.FileInformation;
@@ -32,10 +33,21 @@ import com.hierynomus.smbj.common.SmbPath;
 
 import java.util.*;
 import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 public class Directory extends DiskEntry implements Iterable<FileIdBothDirectoryInformation> {
+    private final boolean reused;
+
     Directory(SMB2FileId fileId, DiskShare diskShare, SmbPath fileName) {
-        super(fileId, diskShare, fileName);
+        this(fileId, diskShare, fileName, null, false);
+    }
+
+    /**
+     * @param reused whether the handle was used before, possibly to list the directory with another search pattern
+     */
+    Directory(SMB2FileId fileId, DiskShare diskShare, SmbPath fileName, FileLease lease, boolean reused) {
+        super(fileId, diskShare, fileName, lease);
+        this.reused = reused;
     }
 
     /**
@@ -71,6 +83,29 @@ public class Directory extends DiskEntry implements Iterable<FileIdBothDirectory
         return fileList;
     }
 
+    /**
+     * Lists the entries of this directory that are accepted by the filter. The filter is passed a
+     * {@link FileDirectoryCursor} that reads the fields of each entry from the received data, so only the accepted
+     * entries are decoded. The pages of entries are prefetched as in {@link #iterator(Class, String, int)}.
+     *
+     * @see #iterator(Class, String)
+     */
+    public <F extends FileDirectoryQueryableInformation> List<F> list(Class<F> informationClass, String searchPattern, FileDirectoryCursor.Filter filter) {
+        FileInformation.Decoder<F> decoder = FileInformationFactory.getDecoder(informationClass);
+        Pages pages = new Pages(decoder.getInformationClass(), searchPattern, Integer.MAX_VALUE, true);
+        List<F> fileList = new ArrayList<>();
+        byte[] page;
+        while ((page = pages.next()) != null) {
+            FileDirectoryCursor<F> cursor = FileInformationFactory.createFileInformationCursor(page, decoder);
+            while (cursor.next()) {
+                if (filter.accept(cursor)) {
+                    fileList.add(cursor.read());
+                }
+            }
+        }
+        return fileList;
+    }
+
     /**
      * Equivalent to calling {@link #iterator(Class, String) iterator(FileIdBothDirectoryInformation.class, null)}.
      *
@@ -109,7 +144,22 @@ public class Directory extends DiskEntry implements Iterable<FileIdBothDirectory
      * string("") match all files in a directory.
      */
     public <F extends FileDirectoryQueryableInformation> Iterator<F> iterator(Class<F> informationClass, String searchPattern) {
-        return new DirectoryIterator<>(informationClass, searchPattern);
+        return new DirectoryIterator<>(informationClass, searchPattern, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Returns an iterator of the contents of this directory, like {@link #iterator(Class, String)}, which requests
+     * the next page of entries from the server as soon as a page is received, so that the next page is on its way
+     * while the current page is consumed. A page is only requested after the previous page is received, so the pages
+     * are never requested out of order.
+     * <p>
+     * If the iterator is not consumed until the end, the last page that was requested is discarded.
+     *
+     * @param bufferSize the maximum number of bytes of entries in a page, which is capped at the maximum transact size
+     *                   negotiated with the server. Use {@link Integer#MAX_VALUE} for the fewest round trips.
+     */
+    public <F extends FileDirectoryQueryableInformation> Iterator<F> iterator(Class<F> informationClass, String searchPattern, int bufferSize) {
+        return new DirectoryIterator<>(informationClass, searchPattern, bufferSize, true);
     }
 
     /***
@@ -137,15 +187,14 @@ public class Directory extends DiskEntry implements Iterable<FileIdBothDirectory
 
     private class DirectoryIterator<F extends FileDirectoryQueryableInformation> implements Iterator<F> {
         private final FileInformation.Decoder<F> decoder;
+        private final Pages pages;
         private Iterator<F> currentIterator;
-        private byte[] currentBuffer;
         private F next;
-        private String searchPattern;
 
-        DirectoryIterator(Class<F> informationClass, String searchPattern) {
+        DirectoryIterator(Class<F> informationClass, String searchPattern, int bufferSize, boolean prefetch) {
             decoder = FileInformationFactory.getDecoder(informationClass);
-            this.searchPattern = searchPattern;
-            queryDirectory(true);
+            pages = new Pages(decoder.getInformationClass(), searchPattern, bufferSize, prefetch);
+            nextPage();
             this.next = prepareNext();
         }
 
@@ -170,46 +219,109 @@ public class Directory extends DiskEntry implements Iterable<FileIdBothDirectory
                 if (currentIterator.hasNext()) {
                     return currentIterator.next();
                 } else {
-                    queryDirectory(false);
+                    nextPage();
                 }
             }
             return null;
         }
 
-        private void queryDirectory(boolean firstQuery) {
-            DiskShare share = Directory.this.share;
+        private void nextPage() {
+            byte[] buffer = pages.next();
+            currentIterator = buffer != null ? FileInformationFactory.createFileInformationIterator(buffer, decoder) : null;
+        }
 
-            // Query Directory Request
-            EnumSet<SMB2QueryDirectoryRequest.SMB2QueryDirectoryFlags> flags;
-            if (firstQuery) {
-                flags = EnumSet.of(SMB2QueryDirectoryRequest.SMB2QueryDirectoryFlags.SMB2_RESTART_SCANS);
-            } else {
-                flags = EnumSet.noneOf(SMB2QueryDirectoryRequest.SMB2QueryDirectoryFlags.class);
-            }
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 
-            FileInformationClass informationClass = decoder.getInformationClass();
+    /**
+     * The pages of entries that QUERY_DIRECTORY returns for the directory, optionally requesting the next page as soon
+     * as a page is received.
+     */
+    private class Pages {
+        private final FileInformationClass informationClass;
+        private final String searchPattern;
+        private final int bufferSize;
+        private final boolean prefetch;
+        private boolean firstQuery = true;
+        private boolean done;
+        // The length and checksum of the previous page, to detect a page that is repeated
+        private long previousPage = -1;
+        private Future<SMB2QueryDirectoryResponse> nextPage;
+
+        /**
+         * @param bufferSize the maximum size of a page when the pages are prefetched, otherwise the configured
+         *                   transact buffer size is used
+         */
+        Pages(FileInformationClass informationClass, String searchPattern, int bufferSize, boolean prefetch) {
+            this.informationClass = informationClass;
+            this.searchPattern = searchPattern;
+            this.bufferSize = bufferSize;
+            this.prefetch = prefetch;
+        }
 
-            SMB2QueryDirectoryResponse qdResp = share.queryDirectory(fileId, flags, informationClass, searchPattern);
+        /**
+         * @return the output buffer of the next page, or <code>null</code> if there are no more entries
+         */
+        byte[] next() {
+            if (done) {
+                return null;
+            }
+            SMB2QueryDirectoryResponse qdResp;
+            if (nextPage != null) {
+                qdResp = share.receiveQueryDirectory(nextPage, fileId);
+                nextPage = null;
+            } else if (prefetch) {
+                qdResp = share.receiveQueryDirectory(sendQueryDirectory(), fileId);
+            } else {
+                qdResp = share.queryDirectory(fileId, queryFlags(), informationClass, searchPattern);
+            }
+            firstQuery = false;
 
             long status = qdResp.getHeader().getStatusCode();
             byte[] buffer = qdResp.getOutputBuffer();
 
             // The macOS SMB server doesn't always send a STATUS_NO_MORE_FILES response. Instead it keeps on sending
             // an identical response back. Detect if the response is identical to the previous one and abort the loop
-            // if that's the case.
+            // if that's the case. Only the length and checksum of the previous response are kept to compare with.
             // Additionally, STATUS_NO_SUCH_FILE is being returned when searchPattern does not match any files
-            if (status == NtStatus.STATUS_NO_MORE_FILES.getValue() || status == NtStatus.STATUS_NO_SUCH_FILE.getValue() || (currentBuffer != null && Arrays.equals(currentBuffer, buffer))) {
-                currentIterator = null;
-                currentBuffer = null;
+            if (status == NtStatus.STATUS_NO_MORE_FILES.getValue() || status == NtStatus.STATUS_NO_SUCH_FILE.getValue()) {
+                done = true;
+                return null;
+            }
+            long page = pageChecksum(buffer);
+            if (page == previousPage) {
+                done = true;
+                return null;
+            }
+            previousPage = page;
+            if (prefetch) {
+                nextPage = sendQueryDirectory();
+            }
+            return buffer;
+        }
+
+        private Future<SMB2QueryDirectoryResponse> sendQueryDirectory() {
+            return share.queryDirectoryAsync(fileId, queryFlags(), informationClass, searchPattern, bufferSize);
+        }
+
+        private EnumSet<SMB2QueryDirectoryRequest.SMB2QueryDirectoryFlags> queryFlags() {
+            if (firstQuery && reused) {
+                // The search pattern of a handle is only replaced when the enumeration is reopened
+                return EnumSet.of(SMB2QueryDirectoryRequest.SMB2QueryDirectoryFlags.SMB2_REOPEN);
+            } else if (firstQuery) {
+                return EnumSet.of(SMB2QueryDirectoryRequest.SMB2QueryDirectoryFlags.SMB2_RESTART_SCANS);
             } else {
-                currentBuffer = buffer;
-                currentIterator = FileInformationFactory.createFileInformationIterator(currentBuffer, decoder);
+                return EnumSet.noneOf(SMB2QueryDirectoryRequest.SMB2QueryDirectoryFlags.class);
             }
         }
 
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
+        private long pageChecksum(byte[] buffer) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer, 0, buffer.length);
+            return ((long) buffer.length << 32) | crc.getValue();
         }
     }
 }
@@ -17,6 +17,7 @@ package com.hierynomus.smbj.share;
 
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.hierynomus.msdtyp.SecurityDescriptor;
 import com.hierynomus.msdtyp.SecurityInformation;
@@ -30,12 +31,62 @@ import com.hierynomus.mssmb2.SMBApiException;
 import com.hierynomus.smbj.common.SmbPath;
 
 public abstract class DiskEntry extends Open<DiskShare> {
+    final FileLease lease;
+    // Set if the handle is handed to the handle cache of the share when it is closed
+    HandleCache.Key cacheKey;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
     DiskEntry(SMB2FileId fileId, DiskShare share, SmbPath fileName) {
+        this(fileId, share, fileName, null);
+    }
+
+    /**
+     * @param lease the lease the entry is opened with, or <code>null</code>
+     */
+    DiskEntry(SMB2FileId fileId, DiskShare share, SmbPath fileName, FileLease lease) {
         super(fileId, fileName, share);
+        this.lease = lease;
+    }
+
+    @Override
+    public void close() {
+        if (closed.getAndSet(true) || release()) {
+            return;
+        }
+        try {
+            super.close();
+        } finally {
+            closeLease();
+        }
     }
 
     public void closeNoWait() {
-        share.closeFileIdNoWait(fileId);
+        if (closed.getAndSet(true) || release()) {
+            return;
+        }
+        try {
+            share.closeFileIdNoWait(fileId);
+        } finally {
+            closeLease();
+        }
+    }
+
+    /**
+     * Hand the handle to the handle cache instead of closing it. A handle through which locks were requested is
+     * closed, as the server only releases the locks that are still held when the handle is closed.
+     */
+    private boolean release() {
+        if (cacheKey == null || isLockRequested()) {
+            return false;
+        }
+        share.releaseHandle(new HandleCache.CachedHandle(cacheKey, fileId, lease, this instanceof Directory));
+        return true;
+    }
+
+    private void closeLease() {
+        if (lease != null) {
+            share.closed(lease);
+        }
     }
 
     /**
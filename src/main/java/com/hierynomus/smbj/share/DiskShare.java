@@ -16,28 +16,45 @@
 package com.hierynomus.smbj.share;
 
 import com.hierynomus.msdtyp.AccessMask;
+import com.hierynomus.msdtyp.FileTime;
 import com.hierynomus.msdtyp.SecurityDescriptor;
 import com.hierynomus.msdtyp.SecurityInformation;
 import com.hierynomus.msfscc.FileAttributes;
 import com.hierynomus.msfscc.FileSystemInformationClass;
 import com.hierynomus.msfscc.fileinformation.*;
 import com.hierynomus.mssmb2.*;
+import com.hierynomus.mssmb2.messages.SMB2CreateRequest;
 import com.hierynomus.mssmb2.messages.SMB2CreateResponse;
 import com.hierynomus.mssmb2.messages.SMB2QueryInfoRequest;
+import com.hierynomus.mssmb2.messages.SMB2QueryInfoResponse;
 import com.hierynomus.mssmb2.messages.SMB2SetInfoRequest;
+import com.hierynomus.mssmb2.messages.submodule.SMB2Lease;
 import com.hierynomus.protocol.commons.EnumWithValue;
 import com.hierynomus.protocol.commons.buffer.Buffer;
 import com.hierynomus.protocol.commons.buffer.Endian;
 import com.hierynomus.smb.SMBBuffer;
 import com.hierynomus.smbj.common.SMBRuntimeException;
+import com.hierynomus.smbj.SmbConfig;
 import com.hierynomus.smbj.common.SmbPath;
+import com.hierynomus.smbj.event.LeaseBreak;
 import com.hierynomus.smbj.paths.PathResolveException;
 import com.hierynomus.smbj.paths.PathResolver;
 import com.hierynomus.smbj.session.Session;
+import net.engio.mbassy.listener.Handler;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.hierynomus.msdtyp.AccessMask.*;
 import static com.hierynomus.mserref.NtStatus.*;
@@ -47,32 +64,96 @@ import static com.hierynomus.mssmb2.SMB2CreateDisposition.FILE_CREATE;
 import static com.hierynomus.mssmb2.SMB2CreateDisposition.FILE_OPEN;
 import static com.hierynomus.mssmb2.SMB2CreateOptions.FILE_DIRECTORY_FILE;
 import static com.hierynomus.mssmb2.SMB2CreateOptions.FILE_NON_DIRECTORY_FILE;
+import static com.hierynomus.mssmb2.SMB2LeaseState.SMB2_LEASE_HANDLE_CACHING;
+import static com.hierynomus.mssmb2.SMB2LeaseState.SMB2_LEASE_READ_CACHING;
 import static com.hierynomus.mssmb2.SMB2ShareAccess.*;
 import static com.hierynomus.mssmb2.messages.SMB2QueryInfoRequest.SMB2QueryInfoType.SMB2_0_INFO_SECURITY;
 import static java.util.EnumSet.noneOf;
 import static java.util.EnumSet.of;
 
 public class DiskShare extends Share {
+    // The FileId with which a related request refers to the file opened by the preceding CREATE in the chain
+    private static final SMB2FileId RELATED_FILE_ID = new SMB2FileId();
+    private static final int DEFAULT_BATCH_WINDOW = 32;
+    // The access that only reads from a file, for which a read caching lease is useful
+    private static final long READ_ACCESS = EnumWithValue.EnumUtils.toLong(EnumSet.of(FILE_READ_DATA, FILE_READ_EA,
+            FILE_EXECUTE, FILE_READ_ATTRIBUTES, READ_CONTROL, SYNCHRONIZE, GENERIC_EXECUTE, GENERIC_READ));
     private final PathResolver resolver;
+    private final LeaseCache leaseCache;
+    private final HandleCache handleCache;
 
     public DiskShare(SmbPath smbPath, TreeConnect treeConnect, PathResolver pathResolver) {
         super(smbPath, treeConnect);
         this.resolver = pathResolver;
+        SmbConfig config = treeConnect.getConfig();
+        if (config.isLeasingEnabled() && session.getConnection().getConnectionContext().supportsFileLeasing()) {
+            this.leaseCache = new LeaseCache(config.getRandomProvider(), config.getLeaseCacheSize());
+            treeConnect.getBus().subscribe(this);
+        } else {
+            this.leaseCache = null;
+        }
+        if (config.getHandleCacheSize() > 0) {
+            this.handleCache = new HandleCache(this, config.getHandleCacheSize(), config.getHandleCacheTimeout());
+        } else {
+            this.handleCache = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (leaseCache != null) {
+            treeConnect.getBus().unsubscribe(this);
+        }
+        if (handleCache != null && isConnected()) {
+            handleCache.clear();
+        }
+        super.close();
     }
 
     public DiskEntry open(String path, Set<AccessMask> accessMask, Set<FileAttributes> attributes, Set<SMB2ShareAccess> shareAccesses, SMB2CreateDisposition createDisposition, Set<SMB2CreateOptions> createOptions) {
         SmbPath pathAndFile = new SmbPath(smbPath, path);
+        HandleCache.Key key = handleCacheKey(pathAndFile, accessMask, shareAccesses, createDisposition, createOptions);
+        if (key != null) {
+            HandleCache.CachedHandle handle = handleCache.take(key);
+            if (handle != null) {
+                return getDiskEntry(handle);
+            }
+        }
         SMB2CreateResponseContext response = resolveAndCreateFile(pathAndFile, null, accessMask, attributes, shareAccesses, createDisposition, createOptions);
         return getDiskEntry(response);
     }
 
+    /**
+     * Only an open of an existing file can reuse a handle. A handle that is deleted when it is closed, or that may be
+     * used to delete or rename the file, is not kept. GENERIC_ALL and MAXIMUM_ALLOWED include DELETE access.
+     *
+     * @return the key of the handle cache for the open, or <code>null</code> if the handle is not cached
+     */
+    private HandleCache.Key handleCacheKey(SmbPath path, Set<AccessMask> accessMask, Set<SMB2ShareAccess> shareAccess,
+            SMB2CreateDisposition createDisposition, Set<SMB2CreateOptions> createOptions) {
+        if (handleCache == null || createDisposition != FILE_OPEN
+            || (createOptions != null && createOptions.contains(SMB2CreateOptions.FILE_DELETE_ON_CLOSE))
+            || (accessMask != null && (accessMask.contains(DELETE) || accessMask.contains(GENERIC_ALL) || accessMask.contains(MAXIMUM_ALLOWED)))) {
+            return null;
+        }
+        return new HandleCache.Key(path, accessMask, shareAccess, createOptions);
+    }
+
+    void releaseHandle(HandleCache.CachedHandle handle) {
+        handleCache.release(handle);
+    }
+
     @Override
     protected StatusHandler getCreateStatusHandler() {
         return resolver.statusHandler();
     }
 
     private SMB2CreateResponseContext createFileAndResolve(final SmbPath path, final SMB2ImpersonationLevel impersonationLevel, final Set<AccessMask> accessMask, final Set<FileAttributes> fileAttributes, final Set<SMB2ShareAccess> shareAccess, final SMB2CreateDisposition createDisposition, final Set<SMB2CreateOptions> createOptions) {
-        final SMB2CreateResponse resp = super.createFile(path, impersonationLevel, accessMask, fileAttributes, shareAccess, createDisposition, createOptions);
+        SMB2CreateRequest cr = createRequest(path, impersonationLevel, accessMask, fileAttributes, shareAccess, createDisposition, createOptions);
+        if (requestsLease(accessMask, createOptions)) {
+            cr.setLease(new SMB2Lease(leaseCache.leaseKey(path), of(SMB2_LEASE_READ_CACHING, SMB2_LEASE_HANDLE_CACHING), 0));
+        }
+        final SMB2CreateResponse resp = createFile(cr, path);
         try {
             SMB2CreateResponseContext target = resolver.resolve(session, resp, path, new PathResolver.ResolveAction<SMB2CreateResponseContext>() {
                 @Override
@@ -90,7 +171,9 @@ public class DiskShare extends Share {
                 return target;
             }
 
-            return new SMB2CreateResponseContext(resp, path, this);
+            SMB2CreateResponseContext context = new SMB2CreateResponseContext(resp, path, this);
+            context.cacheKey = handleCacheKey(path, accessMask, shareAccess, createDisposition, createOptions);
+            return context;
         } catch (PathResolveException e) {
             throw new SMBApiException(e.getStatusCode(), SMB2MessageCommandCode.SMB2_CREATE,
                     "Cannot resolve path " + path, e);
@@ -117,6 +200,175 @@ public class DiskShare extends Share {
         }
     }
 
+    /**
+     * Builds the request that is chained between the CREATE and the CLOSE of a path based operation.
+     */
+    private interface RelatedRequest {
+        SMB2Packet create(DiskShare share, SMB2FileId fileId);
+    }
+
+    /**
+     * Open the path, send a request for the opened file and close it again, compounded into a single round trip
+     * instead of three. If the path needs to be resolved (e.g. it is a symbolic link or a DFS link), the operation
+     * is repeated for the resolved path.
+     *
+     * <p/>
+     * If the handle cache is enabled, a path that is only read from is not closed, but its handle is kept for the next
+     * operation on the path, which then sends the request to the open handle without a CREATE.
+     *
+     * @param name    the name of the chained request, used when it fails
+     * @param request the request to chain, or <code>null</code> to only open and close the path
+     * @return the response to the chained request, or the CREATE response if no request was chained, which is
+     * <code>null</code> if the path was found in the handle cache
+     */
+    private SMB2Packet sendRelated(String path, final Set<AccessMask> accessMask, final Set<FileAttributes> attributes,
+            final Set<SMB2ShareAccess> shareAccesses, final Set<SMB2CreateOptions> createOptions, final String name,
+            final RelatedRequest request) {
+        final SmbPath pathAndFile = new SmbPath(smbPath, path);
+        try {
+            return resolver.resolve(session, pathAndFile, new PathResolver.ResolveAction<SMB2Packet>() {
+                @Override
+                public SMB2Packet apply(SmbPath target) {
+                    DiskShare resolvedShare = rerouteIfNeeded(pathAndFile, target);
+                    return resolvedShare.sendRelatedAndResolve(target, accessMask, attributes, shareAccesses,
+                            createOptions, name, request);
+                }
+            });
+        } catch (PathResolveException pre) {
+            throw new SMBApiException(pre.getStatus().getValue(), SMB2MessageCommandCode.SMB2_CREATE,
+                    "Cannot resolve path " + pathAndFile, pre);
+        }
+    }
+
+    private SMB2Packet sendRelatedAndResolve(final SmbPath path, final Set<AccessMask> accessMask,
+            final Set<FileAttributes> attributes, final Set<SMB2ShareAccess> shareAccesses,
+            final Set<SMB2CreateOptions> createOptions, final String name, final RelatedRequest request) {
+        HandleCache.Key key = null;
+        if (isReadOnly(accessMask)) {
+            key = handleCacheKey(path, accessMask, shareAccesses, FILE_OPEN, createOptions);
+        }
+        if (key != null) {
+            HandleCache.CachedHandle handle = handleCache.take(key);
+            if (handle != null) {
+                SMB2Packet response = sendToCachedHandle(handle, name, request);
+                if (response != null || request == null) {
+                    return response;
+                }
+            }
+        }
+
+        SMB2CreateRequest create = createRequest(path, null, accessMask, attributes, shareAccesses, FILE_OPEN,
+                createOptions);
+        if (key != null && requestsLease(accessMask, createOptions)) {
+            create.setLease(new SMB2Lease(leaseCache.leaseKey(path), of(SMB2_LEASE_READ_CACHING, SMB2_LEASE_HANDLE_CACHING), 0));
+        }
+        List<Future<SMB2Packet>> responses;
+        if (key != null) {
+            // The file is not closed, its handle is kept in the cache instead
+            if (request != null) {
+                responses = sendRelated(create, request.create(this, RELATED_FILE_ID));
+            } else {
+                responses = sendRelated(create);
+            }
+        } else if (request != null) {
+            responses = sendRelated(create, request.create(this, RELATED_FILE_ID), closeRequest(RELATED_FILE_ID));
+        } else {
+            responses = sendRelated(create, closeRequest(RELATED_FILE_ID));
+        }
+
+        SMB2Packet createResponse = receive(responses.get(0), getTransactTimeout());
+        long status = createResponse.getHeader().getStatusCode();
+        if (status != STATUS_SUCCESS.getValue()) {
+            // The chained requests failed as well, as there is no open file for them.
+            if (getCreateStatusHandler().isSuccess(status)) {
+                SMB2Packet resolved = resolve(path, createResponse, accessMask, attributes, shareAccesses,
+                        createOptions, name, request);
+                if (resolved != null) {
+                    return resolved;
+                }
+            }
+            throw new SMBApiException(createResponse.getHeader(), "Create failed for " + path);
+        }
+
+        if (key != null) {
+            HandleCache.CachedHandle handle = cachedHandle(key, (SMB2CreateResponse) createResponse);
+            try {
+                return request != null ? receive(responses.get(1), name, path, StatusHandler.SUCCESS, getTransactTimeout()) : createResponse;
+            } finally {
+                handleCache.release(handle);
+            }
+        }
+
+        SMB2Packet response = createResponse;
+        if (request != null) {
+            response = receive(responses.get(1), name, path, StatusHandler.SUCCESS, getTransactTimeout());
+        }
+        receive(responses.get(responses.size() - 1), "Close", path, SUCCESS_OR_CLOSED, getTransactTimeout());
+        return response;
+    }
+
+    /**
+     * Send the request for a file to a cached handle of the file, which is released again afterwards. If the server
+     * closed the handle in the meantime (e.g. as the session was reconnected), the handle is dropped.
+     *
+     * @return the response to the request, or <code>null</code> if the handle was closed or no request is sent
+     */
+    private SMB2Packet sendToCachedHandle(HandleCache.CachedHandle handle, String name, RelatedRequest request) {
+        if (request == null) {
+            handleCache.release(handle);
+            return null;
+        }
+        boolean release = false;
+        try {
+            SMB2Packet response = receive(sendRelated(request.create(this, handle.fileId)).get(0), getTransactTimeout());
+            long status = response.getHeader().getStatusCode();
+            if (status == STATUS_FILE_CLOSED.getValue()) {
+                return null;
+            }
+            if (!StatusHandler.SUCCESS.isSuccess(status)) {
+                throw new SMBApiException(response.getHeader(), name + " failed for " + handle.key.path);
+            }
+            release = true;
+            return response;
+        } finally {
+            if (release) {
+                handleCache.release(handle);
+            } else {
+                handleCache.close(handle);
+            }
+        }
+    }
+
+    private HandleCache.CachedHandle cachedHandle(HandleCache.Key key, SMB2CreateResponse response) {
+        FileLease lease = null;
+        if (response.getLease() != null) {
+            lease = leaseCache.opened(key.path, response.getLease());
+        }
+        return new HandleCache.CachedHandle(key, response.getFileId(), lease,
+            response.getFileAttributes().contains(FILE_ATTRIBUTE_DIRECTORY));
+    }
+
+    private SMB2Packet resolve(final SmbPath path, SMB2Packet createResponse, final Set<AccessMask> accessMask,
+            final Set<FileAttributes> attributes, final Set<SMB2ShareAccess> shareAccesses,
+            final Set<SMB2CreateOptions> createOptions, final String name, final RelatedRequest request) {
+        try {
+            return resolver.resolve(session, createResponse, path, new PathResolver.ResolveAction<SMB2Packet>() {
+                @Override
+                public SMB2Packet apply(SmbPath target) {
+                    if (path.equals(target)) {
+                        return null;
+                    }
+                    DiskShare resolvedShare = rerouteIfNeeded(path, target);
+                    return resolvedShare.sendRelatedAndResolve(target, accessMask, attributes, shareAccesses,
+                            createOptions, name, request);
+                }
+            });
+        } catch (PathResolveException e) {
+            throw new SMBApiException(e.getStatusCode(), SMB2MessageCommandCode.SMB2_CREATE,
+                    "Cannot resolve path " + path, e);
+        }
+    }
+
     private DiskShare rerouteIfNeeded(SmbPath path, SmbPath target) {
         Session connectedSession = this.session;
         if (!path.isOnSameHost(target)) {
@@ -128,12 +380,95 @@ public class DiskShare extends Share {
         return this;
     }
 
+    /**
+     * A lease is only requested for files that are opened for reading, as it is only used to cache what is read and
+     * to keep the handles of the files in the handle cache. Directory leases are not requested.
+     */
+    private boolean requestsLease(Set<AccessMask> accessMask, Set<SMB2CreateOptions> createOptions) {
+        return leaseCache != null && (createOptions == null || !createOptions.contains(FILE_DIRECTORY_FILE))
+            && isReadOnly(accessMask);
+    }
+
+    private static boolean isReadOnly(Set<AccessMask> accessMask) {
+        return accessMask != null && !accessMask.isEmpty() && (EnumWithValue.EnumUtils.toLong(accessMask) & ~READ_ACCESS) == 0;
+    }
+
     protected DiskEntry getDiskEntry(SMB2CreateResponseContext responseContext) {
         SMB2CreateResponse response = responseContext.resp;
+        FileLease lease = null;
+        if (response.getLease() != null) {
+            lease = responseContext.share.leaseCache.opened(responseContext.target, response.getLease());
+        }
+        DiskEntry entry;
         if (response.getFileAttributes().contains(FILE_ATTRIBUTE_DIRECTORY)) {
-            return new Directory(response.getFileId(), responseContext.share, responseContext.target);
+            entry = new Directory(response.getFileId(), responseContext.share, responseContext.target, lease, false);
+        } else {
+            entry = new File(response.getFileId(), responseContext.share, responseContext.target, lease);
+        }
+        entry.cacheKey = responseContext.cacheKey;
+        return entry;
+    }
+
+    private DiskEntry getDiskEntry(HandleCache.CachedHandle handle) {
+        DiskEntry entry;
+        if (handle.directory) {
+            entry = new Directory(handle.fileId, this, handle.key.path, handle.lease, true);
         } else {
-            return new File(response.getFileId(), responseContext.share, responseContext.target);
+            entry = new File(handle.fileId, this, handle.key.path, handle.lease);
+        }
+        entry.cacheKey = handle.key;
+        return entry;
+    }
+
+    void closed(FileLease lease) {
+        leaseCache.closed(lease);
+    }
+
+    /**
+     * [MS-SMB2] 3.2.5.19.2 Processing a Lease Break Notification. The cached data and file information are dropped if
+     * read caching is no longer allowed, and the idle handles opened with the lease are closed if handle caching is no
+     * longer allowed.
+     * <p/>
+     * The lease state is updated on the thread that received the notification. Closing the handles and acknowledging
+     * the break send requests, which may have to wait for credits that only that thread can receive, so these are
+     * done by the notification task of the connection.
+     */
+    @Handler
+    @SuppressWarnings("unused")
+    private void leaseBroken(final LeaseBreak leaseBreak) {
+        final FileLease lease = leaseCache.find(leaseBreak.getLeaseKey());
+        if (lease == null) {
+            // The lease is held by another share, or no longer held by an open
+            return;
+        }
+        System.out.println("tempGT2: Lease on " + lease.getPath() + " broken to " + leaseBreak.getNewLeaseState());
+        lease.broken(leaseBreak.getNewLeaseState(), leaseBreak.getNewEpoch());
+        final boolean evict = handleCache != null && !leaseBreak.getNewLeaseState().contains(SMB2_LEASE_HANDLE_CACHING);
+        if (!evict && !leaseBreak.isAckRequired()) {
+            return;
+        }
+        try {
+            session.getConnection().executeNotificationTask(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (evict) {
+                            handleCache.evict(lease);
+                            if (leaseCache.find(lease.getLeaseKey()) != lease) {
+                                // The idle handles were the last opens with the lease, the server no longer expects an acknowledgment
+                                return;
+                            }
+                        }
+                        if (leaseBreak.isAckRequired()) {
+                            acknowledgeLeaseBreakNoWait(lease.getLeaseKey(), leaseBreak.getNewLeaseState());
+                        }
+                    } catch (RuntimeException e) {
+                        System.out.println("tempGT2: Failed to handle the lease break on " + lease.getPath() + ", " + e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            System.out.println("tempGT2: Not handling the lease break on " + lease.getPath() + ", the connection is closed");
         }
     }
 
@@ -211,7 +546,8 @@ public class DiskShare extends Share {
     }
 
     private boolean exists(String path, EnumSet<SMB2CreateOptions> createOptions, StatusHandler statusHandler) throws SMBApiException {
-        try (DiskEntry ignored = open(path, of(FILE_READ_ATTRIBUTES), of(FILE_ATTRIBUTE_NORMAL), ALL, FILE_OPEN, createOptions)) {
+        try {
+            sendRelated(path, of(FILE_READ_ATTRIBUTES), of(FILE_ATTRIBUTE_NORMAL), ALL, createOptions, "Create", null);
             return true;
         } catch (SMBApiException sae) {
             if (statusHandler.isSuccess(sae.getStatusCode())) {
@@ -267,6 +603,46 @@ public class DiskShare extends Share {
         }
     }
 
+    /**
+     * Opens the given path for read-only access and lists the entries that are accepted by the filter. Only the
+     * accepted entries are decoded, the filter reads the fields of the other entries from the received data.
+     *
+     * @see Directory#list(Class, String, FileDirectoryCursor.Filter)
+     */
+    public <I extends FileDirectoryQueryableInformation> List<I> list(String path, Class<I> informationClass, String searchPattern, EnumSet<AccessMask> accessMask, FileDirectoryCursor.Filter filter) {
+        Directory d = openDirectory(path,
+                accessMask == null ? of(FILE_LIST_DIRECTORY, FILE_READ_ATTRIBUTES, FILE_READ_EA) : accessMask,
+            null, ALL, FILE_OPEN, null);
+        try {
+            return d.list(informationClass, searchPattern, filter);
+        } finally {
+            d.closeSilently();
+        }
+    }
+
+    /**
+     * Visit the entries of the directory tree under the given path. The directories are listed by
+     * <code>parallelism</code> threads at the same time. Each thread requests the next page of a directory while it
+     * visits the current one, so it can have up to two requests outstanding, and the credits the walk uses grow with
+     * <code>parallelism</code>. The entries of a directory are passed to the visitor as they are received, and a
+     * subdirectory is only listed if the visitor does not prune it. This call returns once the whole tree has been
+     * visited.
+     * <p/>
+     * Directories that are symbolic links or junctions (they have {@link FileAttributes#FILE_ATTRIBUTE_REPARSE_POINT}
+     * set) are not listed, as they may form a cycle, unless the visitor {@link TreeVisitor#followReparsePoints() follows}
+     * them.
+     *
+     * @param path        the directory to walk, "" for the root of the share
+     * @param parallelism the number of directories that are listed at the same time
+     * @throws SMBApiException if the directory cannot be opened or listed
+     */
+    public void walk(String path, TreeVisitor visitor, int parallelism) throws SMBApiException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be at least 1");
+        }
+        new TreeWalker(this, visitor, parallelism).walk(path);
+    }
+
     /**
      * Create a directory in the given path.
      */
@@ -292,11 +668,175 @@ public class DiskShare extends Share {
      * Get information about the given path.
      **/
     public <F extends FileQueryableInformation> F getFileInformation(String path, Class<F> informationClass) throws SMBApiException {
-        try (DiskEntry e = open(path, of(FILE_READ_ATTRIBUTES, FILE_READ_EA), null, ALL, FILE_OPEN, null)) {
-            return e.getFileInformation(informationClass);
+        FileLease lease = leaseCache != null ? leaseCache.get(new SmbPath(smbPath, path)) : null;
+        if (lease == null) {
+            return queryFileInformation(path, informationClass);
+        }
+        long generation = lease.getGeneration();
+        F information = lease.getInformation(informationClass);
+        if (information == null) {
+            information = queryFileInformation(path, informationClass);
+            lease.cacheInformation(generation, informationClass, information);
+        }
+        return information;
+    }
+
+    /**
+     * Equivalent to calling {@link #getFileInformation(Collection, Class, int, boolean) getFileInformation(paths, informationClass, 32, false)}.
+     *
+     * @see #getFileInformation(Collection, Class, int, boolean)
+     */
+    public <F extends FileQueryableInformation> FileInformationBatch<F> getFileInformation(Collection<String> paths, Class<F> informationClass) {
+        return getFileInformation(paths, informationClass, DEFAULT_BATCH_WINDOW, false);
+    }
+
+    /**
+     * Get information about many paths. Like {@link #getFileInformation(String, Class)}, each path is queried with a
+     * CREATE, QUERY_INFO and CLOSE compounded into a single request, but the requests are sent without waiting for the
+     * responses to the previous ones, with up to <code>window</code> requests outstanding. An error for a single path
+     * does not fail the batch, it is returned for the path in the result.
+     * <p/>
+     * If <code>listParent</code> is set, the information class is {@link FileBasicInformation} and all paths are in
+     * the same directory, the directory is listed instead, and only the paths that are not found in the listing are
+     * queried. This is only faster if the paths make up a good part of the directory.
+     *
+     * @param window     the maximum number of requests that are outstanding at the same time
+     * @param listParent whether to list the directory the paths are in, if that gives the requested information
+     */
+    @SuppressWarnings("unchecked")
+    public <F extends FileQueryableInformation> FileInformationBatch<F> getFileInformation(Collection<String> paths, Class<F> informationClass, int window, boolean listParent) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window should be at least 1");
+        }
+        FileInformationBatch<F> batch = new FileInformationBatch<>();
+        Collection<String> toQuery = paths;
+        if (listParent && informationClass == FileBasicInformation.class) {
+            toQuery = listBasicInformation(paths, (FileInformationBatch<FileBasicInformation>) batch);
+        }
+        FileInformation.Decoder<F> decoder = FileInformationFactory.getDecoder(informationClass);
+        Deque<PendingQuery> pending = new ArrayDeque<>();
+        for (String path : toQuery) {
+            if (leaseCache != null && leaseCache.get(new SmbPath(smbPath, path)) != null) {
+                // Likely to be cached already
+                queryInformation(batch, path, informationClass);
+                continue;
+            }
+            if (pending.size() >= window) {
+                receiveInformation(batch, pending.removeFirst(), informationClass, decoder);
+            }
+            SMB2CreateRequest create = createRequest(new SmbPath(smbPath, path), null, of(FILE_READ_ATTRIBUTES, FILE_READ_EA), null, ALL, FILE_OPEN, null);
+            SMB2QueryInfoRequest query = queryInfoRequest(RELATED_FILE_ID, SMB2QueryInfoRequest.SMB2QueryInfoType.SMB2_0_INFO_FILE, null, decoder.getInformationClass(), null);
+            pending.addLast(new PendingQuery(path, sendRelated(create, query, closeRequest(RELATED_FILE_ID))));
+        }
+        while (!pending.isEmpty()) {
+            receiveInformation(batch, pending.removeFirst(), informationClass, decoder);
+        }
+        return batch;
+    }
+
+    private <F extends FileQueryableInformation> void receiveInformation(FileInformationBatch<F> batch, PendingQuery query, Class<F> informationClass, FileInformation.Decoder<F> decoder) {
+        try {
+            SMB2Packet createResponse = receive(query.responses.get(0), getTransactTimeout());
+            long status = createResponse.getHeader().getStatusCode();
+            if (status == STATUS_SUCCESS.getValue()) {
+                SMB2QueryInfoResponse response = (SMB2QueryInfoResponse) receive(query.responses.get(1), "QueryInfo", query.path, StatusHandler.SUCCESS, getTransactTimeout());
+                receive(query.responses.get(2), "Close", query.path, SUCCESS_OR_CLOSED, getTransactTimeout());
+                batch.put(query.path, readInformation(decoder, response.getOutputBuffer()));
+            } else if (getCreateStatusHandler().isSuccess(status)) {
+                // The path needs to be resolved (e.g. it is a symbolic link or a DFS link)
+                queryInformation(batch, query.path, informationClass);
+            } else {
+                batch.failed(query.path, new SMBApiException(createResponse.getHeader(), "Create failed for " + query.path));
+            }
+        } catch (SMBApiException e) {
+            batch.failed(query.path, e);
+        }
+    }
+
+    private <F extends FileQueryableInformation> void queryInformation(FileInformationBatch<F> batch, String path, Class<F> informationClass) {
+        try {
+            batch.put(path, getFileInformation(path, informationClass));
+        } catch (SMBApiException e) {
+            batch.failed(path, e);
         }
     }
 
+    /**
+     * Get the basic information of the paths from a listing of the directory they are in, if they are all in the same
+     * directory.
+     *
+     * @return the paths that were not found in the listing
+     */
+    private Collection<String> listBasicInformation(Collection<String> paths, FileInformationBatch<FileBasicInformation> batch) {
+        String parent = null;
+        final Map<String, String> pathsByName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String path : paths) {
+            String normalized = path.replace('/', '\\');
+            int separator = normalized.lastIndexOf('\\');
+            String pathParent = separator < 0 ? "" : normalized.substring(0, separator);
+            if (parent == null) {
+                parent = pathParent;
+            } else if (!parent.equalsIgnoreCase(pathParent)) {
+                return paths;
+            }
+            pathsByName.put(normalized.substring(separator + 1), path);
+        }
+        if (parent == null) {
+            return paths;
+        }
+
+        final Map<String, FileBasicInformation> found = new HashMap<>();
+        try {
+            list(parent, FileDirectoryInformation.class, null, null, new FileDirectoryCursor.Filter() {
+                @Override
+                public boolean accept(FileDirectoryCursor<?> entry) {
+                    String path = pathsByName.get(entry.getFileName().toString());
+                    if (path != null) {
+                        found.put(path, new FileBasicInformation(new FileTime(entry.getCreationTime()),
+                            new FileTime(entry.getLastAccessTime()), new FileTime(entry.getLastWriteTime()),
+                            new FileTime(entry.getChangeTime()), entry.getFileAttributes()));
+                    }
+                    return false;
+                }
+            });
+        } catch (SMBApiException e) {
+            System.out.println("tempGT2: Could not list " + parent + ", querying the paths one by one: " + e);
+            return paths;
+        }
+
+        List<String> notFound = new ArrayList<>();
+        for (String path : paths) {
+            FileBasicInformation information = found.get(path);
+            if (information != null) {
+                batch.put(path, information);
+            } else {
+                notFound.add(path);
+            }
+        }
+        return notFound;
+    }
+
+    private static class PendingQuery {
+        private final String path;
+        private final List<Future<SMB2Packet>> responses;
+
+        private PendingQuery(String path, List<Future<SMB2Packet>> responses) {
+            this.path = path;
+            this.responses = responses;
+        }
+    }
+
+    private <F extends FileQueryableInformation> F queryFileInformation(String path, Class<F> informationClass) {
+        final FileInformation.Decoder<F> decoder = FileInformationFactory.getDecoder(informationClass);
+        SMB2QueryInfoResponse response = (SMB2QueryInfoResponse) sendRelated(path, of(FILE_READ_ATTRIBUTES, FILE_READ_EA), null, ALL, null, "QueryInfo", new RelatedRequest() {
+            @Override
+            public SMB2Packet create(DiskShare share, SMB2FileId fileId) {
+                return share.queryInfoRequest(fileId, SMB2QueryInfoRequest.SMB2QueryInfoType.SMB2_0_INFO_FILE, null, decoder.getInformationClass(), null);
+            }
+        });
+        return readInformation(decoder, response.getOutputBuffer());
+    }
+
     /**
      * Get information for a given fileId
      **/
@@ -315,6 +855,10 @@ public class DiskShare extends Share {
             null
         ).getOutputBuffer();
 
+        return readInformation(decoder, outputBuffer);
+    }
+
+    private static <F extends FileQueryableInformation> F readInformation(FileInformation.Decoder<F> decoder, byte[] outputBuffer) {
         try {
             return decoder.read(new Buffer.PlainBuffer(outputBuffer, Endian.LE));
         } catch (Buffer.BufferException e) {
@@ -323,26 +867,38 @@ public class DiskShare extends Share {
     }
 
     public <F extends FileSettableInformation> void setFileInformation(SMB2FileId fileId, F information) {
-        SMBBuffer buffer = new SMBBuffer();
         FileInformation.Encoder<F> encoder = FileInformationFactory.getEncoder(information);
-        encoder.write(information, buffer);
-
         setInfo(
             fileId,
             SMB2SetInfoRequest.SMB2InfoType.SMB2_0_INFO_FILE,
             null,
             encoder.getInformationClass(),
-            buffer.getCompactData()
+            encode(encoder, information)
         );
     }
 
+    private static <F extends FileSettableInformation> byte[] encode(FileInformation.Encoder<F> encoder, F information) {
+        SMBBuffer buffer = new SMBBuffer();
+        encoder.write(information, buffer);
+        return buffer.getCompactData();
+    }
+
+    private static <F extends FileSettableInformation> RelatedRequest setFileInformationRequest(final F information) {
+        final FileInformation.Encoder<F> encoder = FileInformationFactory.getEncoder(information);
+        final byte[] data = encode(encoder, information);
+        return new RelatedRequest() {
+            @Override
+            public SMB2Packet create(DiskShare share, SMB2FileId fileId) {
+                return share.setInfoRequest(fileId, SMB2SetInfoRequest.SMB2InfoType.SMB2_0_INFO_FILE, null, encoder.getInformationClass(), data);
+            }
+        };
+    }
+
     /**
      * Get information for a given path
      **/
     public <F extends FileSettableInformation> void setFileInformation(String path, F information) throws SMBApiException {
-        try (DiskEntry e = open(path, of(FILE_WRITE_ATTRIBUTES, FILE_WRITE_EA), null, ALL, FILE_OPEN, null)) {
-            e.setFileInformation(information);
-        }
+        sendRelated(path, of(FILE_WRITE_ATTRIBUTES, FILE_WRITE_EA), null, ALL, null, "SetInfo", setFileInformationRequest(information));
     }
 
     /**
@@ -351,20 +907,17 @@ public class DiskShare extends Share {
      * @return the ShareInfo
      */
     public ShareInfo getShareInformation() throws SMBApiException {
-        try (Directory directory = openDirectory("", of(FILE_READ_ATTRIBUTES), null, ALL, FILE_OPEN, null)) {
-            byte[] outputBuffer = queryInfo(
-                directory.getFileId(),
-                SMB2QueryInfoRequest.SMB2QueryInfoType.SMB2_0_INFO_FILESYSTEM,
-                null,
-                null,
-                FileSystemInformationClass.FileFsFullSizeInformation
-            ).getOutputBuffer();
-
-            try {
-                return ShareInfo.parseFsFullSizeInformation(new Buffer.PlainBuffer(outputBuffer, Endian.LE));
-            } catch (Buffer.BufferException e) {
-                throw new SMBRuntimeException(e);
+        SMB2QueryInfoResponse response = (SMB2QueryInfoResponse) sendRelated("", of(FILE_READ_ATTRIBUTES), of(FILE_ATTRIBUTE_DIRECTORY), ALL, of(FILE_DIRECTORY_FILE), "QueryInfo", new RelatedRequest() {
+            @Override
+            public SMB2Packet create(DiskShare share, SMB2FileId fileId) {
+                return share.queryInfoRequest(fileId, SMB2QueryInfoRequest.SMB2QueryInfoType.SMB2_0_INFO_FILESYSTEM, null, null, FileSystemInformationClass.FileFsFullSizeInformation);
             }
+        });
+
+        try {
+            return ShareInfo.parseFsFullSizeInformation(new Buffer.PlainBuffer(response.getOutputBuffer(), Endian.LE));
+        } catch (Buffer.BufferException e) {
+            throw new SMBRuntimeException(e);
         }
     }
 
@@ -379,6 +932,7 @@ public class DiskShare extends Share {
      * Remove the directory at the given path.
      */
     public void rmdir(String path, boolean recursive) throws SMBApiException {
+        evictHandles(path);
         if (recursive) {
             List<FileIdBothDirectoryInformation> list = list(path);
             for (FileIdBothDirectoryInformation fi : list) {
@@ -394,15 +948,16 @@ public class DiskShare extends Share {
             }
             rmdir(path, false);
         } else {
-            try (DiskEntry e = open(
-                path,
-                of(DELETE),
-                of(FILE_ATTRIBUTE_DIRECTORY),
-                of(FILE_SHARE_DELETE, FILE_SHARE_WRITE, FILE_SHARE_READ),
-                FILE_OPEN,
-                of(FILE_DIRECTORY_FILE)
-            )) {
-                e.deleteOnClose();
+            try {
+                sendRelated(
+                    path,
+                    of(DELETE),
+                    of(FILE_ATTRIBUTE_DIRECTORY),
+                    of(FILE_SHARE_DELETE, FILE_SHARE_WRITE, FILE_SHARE_READ),
+                    of(FILE_DIRECTORY_FILE),
+                    "SetInfo",
+                    setFileInformationRequest(new FileDispositionInformation(true))
+                );
             } catch (SMBApiException sae) {
                 if (ALREADY_DELETED_STATUS_HANDLER.isSuccess(sae.getStatusCode())) {
                     return;
@@ -412,19 +967,85 @@ public class DiskShare extends Share {
         }
     }
 
+    /**
+     * Remove the directory at the given path and everything under it. Unlike {@link #rmdir(String, boolean)}, the
+     * directories are listed by <code>parallelism</code> threads at the same time, and the files in a directory are
+     * deleted while it is listed, with up to <code>window</code> deletes outstanding per directory. Each file is
+     * deleted by a CREATE with FILE_DELETE_ON_CLOSE compounded with the CLOSE, in a single round trip. A directory is
+     * removed as soon as everything under it is deleted.
+     * <p/>
+     * Symbolic links and junctions are deleted themselves, the directories they point to are not emptied.
+     *
+     * @param path        the directory to remove, or "" to empty the root of the share
+     * @param parallelism the number of directories that are emptied at the same time
+     * @param window      the maximum number of deletes that are outstanding per directory
+     */
+    public void deleteTree(String path, int parallelism, int window) throws SMBApiException {
+        if (parallelism < 1 || window < 1) {
+            throw new IllegalArgumentException("Parallelism and window should be at least 1");
+        }
+        evictHandles(path);
+        new TreeDeleter(this, parallelism, window).delete(path);
+    }
+
+    /**
+     * Delete the file or directory when the CREATE is closed, without waiting for the responses. The path itself is
+     * deleted, if it is a symbolic link or junction.
+     *
+     * @see #receiveDelete(String, boolean, List)
+     */
+    List<Future<SMB2Packet>> deleteAsync(String path, boolean directory) {
+        SMB2CreateRequest create = createRequest(new SmbPath(smbPath, path), null, of(DELETE),
+            of(directory ? FILE_ATTRIBUTE_DIRECTORY : FILE_ATTRIBUTE_NORMAL),
+            of(FILE_SHARE_DELETE, FILE_SHARE_WRITE, FILE_SHARE_READ), FILE_OPEN,
+            of(directory ? FILE_DIRECTORY_FILE : FILE_NON_DIRECTORY_FILE, SMB2CreateOptions.FILE_DELETE_ON_CLOSE, SMB2CreateOptions.FILE_OPEN_REPARSE_POINT));
+        return sendRelated(create, closeRequest(RELATED_FILE_ID));
+    }
+
+    /**
+     * Wait for a delete sent by {@link #deleteAsync(String, boolean)}. A path that is already deleted is ignored, a
+     * path that needs to be resolved (e.g. a DFS link) is deleted again with {@link #rm(String)} or
+     * {@link #rmdir(String, boolean)}.
+     */
+    void receiveDelete(String path, boolean directory, List<Future<SMB2Packet>> responses) {
+        SMB2Packet createResponse = receive(responses.get(0), getTransactTimeout());
+        long status = createResponse.getHeader().getStatusCode();
+        if (status == STATUS_SUCCESS.getValue()) {
+            receive(responses.get(1), "Close", path, SUCCESS_OR_CLOSED, getTransactTimeout());
+        } else if (ALREADY_DELETED_STATUS_HANDLER.isSuccess(status) || status == STATUS_OBJECT_NAME_NOT_FOUND.getValue()) {
+            System.out.println("tempGT2: " + path + " was already deleted");
+        } else if (getCreateStatusHandler().isSuccess(status)) {
+            if (directory) {
+                rmdir(path, false);
+            } else {
+                rm(path);
+            }
+        } else {
+            throw new SMBApiException(createResponse.getHeader(), "Delete failed for " + path);
+        }
+    }
+
+    private void evictHandles(String path) {
+        if (handleCache != null) {
+            handleCache.evict(new SmbPath(smbPath, path));
+        }
+    }
+
     /**
      * Remove the file at the given path
      */
     public void rm(String path) throws SMBApiException {
-        try (DiskEntry e = open(
-            path,
-            of(DELETE),
-            of(FILE_ATTRIBUTE_NORMAL),
-            of(FILE_SHARE_DELETE, FILE_SHARE_WRITE, FILE_SHARE_READ),
-            FILE_OPEN,
-            of(FILE_NON_DIRECTORY_FILE)
-        )) {
-            e.deleteOnClose();
+        evictHandles(path);
+        try {
+            sendRelated(
+                path,
+                of(DELETE),
+                of(FILE_ATTRIBUTE_NORMAL),
+                of(FILE_SHARE_DELETE, FILE_SHARE_WRITE, FILE_SHARE_READ),
+                of(FILE_NON_DIRECTORY_FILE),
+                "SetInfo",
+                setFileInformationRequest(new FileDispositionInformation(true))
+            );
         } catch (SMBApiException sae) {
             if (ALREADY_DELETED_STATUS_HANDLER.isSuccess(sae.getStatusCode())) {
                 return;
@@ -440,23 +1061,30 @@ public class DiskShare extends Share {
     /**
      * The SecurityDescriptor(MS-DTYP 2.4.6 SECURITY_DESCRIPTOR) for the Given Path
      */
-    public SecurityDescriptor getSecurityInfo(String path, Set<SecurityInformation> securityInfo) throws SMBApiException {
+    public SecurityDescriptor getSecurityInfo(String path, final Set<SecurityInformation> securityInfo) throws SMBApiException {
         EnumSet<AccessMask> accessMask = of(READ_CONTROL);
         if (securityInfo.contains(SecurityInformation.SACL_SECURITY_INFORMATION)) {
             accessMask.add(ACCESS_SYSTEM_SECURITY);
         }
 
-        try (DiskEntry e = open(path, accessMask, null, ALL, FILE_OPEN, null)) {
-            return e.getSecurityInformation(securityInfo);
-        }
+        SMB2QueryInfoResponse response = (SMB2QueryInfoResponse) sendRelated(path, accessMask, null, ALL, null, "QueryInfo", new RelatedRequest() {
+            @Override
+            public SMB2Packet create(DiskShare share, SMB2FileId fileId) {
+                return share.queryInfoRequest(fileId, SMB2_0_INFO_SECURITY, securityInfo, null, null);
+            }
+        });
+        return readSecurityDescriptor(response.getOutputBuffer());
     }
 
     /**
      * The SecurityDescriptor(MS-DTYP 2.4.6 SECURITY_DESCRIPTOR) for the Given FileId
      */
     public SecurityDescriptor getSecurityInfo(SMB2FileId fileId, Set<SecurityInformation> securityInfo) throws SMBApiException {
-
         byte[] outputBuffer = queryInfo(fileId, SMB2_0_INFO_SECURITY, securityInfo, null, null).getOutputBuffer();
+        return readSecurityDescriptor(outputBuffer);
+    }
+
+    private static SecurityDescriptor readSecurityDescriptor(byte[] outputBuffer) {
         try {
             return SecurityDescriptor.read(new SMBBuffer(outputBuffer));
         } catch (Buffer.BufferException e) {
@@ -467,7 +1095,7 @@ public class DiskShare extends Share {
     /**
      * The SecurityDescriptor(MS-DTYP 2.4.6 SECURITY_DESCRIPTOR) for the Given FileId
      */
-    public void setSecurityInfo(String path, Set<SecurityInformation> securityInfo, SecurityDescriptor securityDescriptor) throws SMBApiException {
+    public void setSecurityInfo(String path, final Set<SecurityInformation> securityInfo, SecurityDescriptor securityDescriptor) throws SMBApiException {
         Set<AccessMask> accessMask = noneOf(AccessMask.class);
         if (securityInfo.contains(SecurityInformation.SACL_SECURITY_INFORMATION)) {
             accessMask.add(ACCESS_SYSTEM_SECURITY);
@@ -479,27 +1107,34 @@ public class DiskShare extends Share {
             accessMask.add(WRITE_DAC);
         }
 
-        try (DiskEntry e = open(path, accessMask, null, ALL, FILE_OPEN, null)) {
-            e.setSecurityInformation(securityDescriptor, securityInfo);
-        }
+        final byte[] data = encode(securityDescriptor);
+        sendRelated(path, accessMask, null, ALL, null, "SetInfo", new RelatedRequest() {
+            @Override
+            public SMB2Packet create(DiskShare share, SMB2FileId fileId) {
+                return share.setInfoRequest(fileId, SMB2SetInfoRequest.SMB2InfoType.SMB2_0_INFO_SECURITY, securityInfo, null, data);
+            }
+        });
     }
 
     /**
      * The SecurityDescriptor(MS-DTYP 2.4.6 SECURITY_DESCRIPTOR) for the Given FileId
      */
     public void setSecurityInfo(SMB2FileId fileId, Set<SecurityInformation> securityInfo, SecurityDescriptor securityDescriptor) throws SMBApiException {
-        SMBBuffer buffer = new SMBBuffer();
-        securityDescriptor.write(buffer);
-
         setInfo(
             fileId,
             SMB2SetInfoRequest.SMB2InfoType.SMB2_0_INFO_SECURITY,
             securityInfo,
             null,
-            buffer.getCompactData()
+            encode(securityDescriptor)
         );
     }
 
+    private static byte[] encode(SecurityDescriptor securityDescriptor) {
+        SMBBuffer buffer = new SMBBuffer();
+        securityDescriptor.write(buffer);
+        return buffer.getCompactData();
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "[" + getSmbPath() + "]";
@@ -514,6 +1149,8 @@ public class DiskShare extends Share {
         final SMB2CreateResponse resp;
         final DiskShare share;
         final SmbPath target;
+        // The key with which the handle is kept in the handle cache when it is closed, or null if it is not kept
+        HandleCache.Key cacheKey;
 
         public SMB2CreateResponseContext(SMB2CreateResponse resp, SmbPath target, DiskShare share) {
             this.resp = resp;
@@ -18,6 +18,11 @@ package com.hierynomus.smbj.share;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -25,6 +30,7 @@ import java.util.concurrent.Future;
 
 import com.hierynomus.mserref.NtStatus;
 import com.hierynomus.msfscc.fileinformation.FileEndOfFileInformation;
+import com.hierynomus.msfscc.fileinformation.FileQueryableInformation;
 import com.hierynomus.msfscc.fileinformation.FileStandardInformation;
 import com.hierynomus.mssmb2.SMB2FileId;
 import com.hierynomus.mssmb2.SMBApiException;
@@ -40,13 +46,22 @@ import com.hierynomus.smbj.common.SMBRuntimeException;
 import com.hierynomus.smbj.common.SmbPath;
 import com.hierynomus.smbj.io.ArrayByteChunkProvider;
 import com.hierynomus.smbj.io.ByteChunkProvider;
+import com.hierynomus.smbj.io.FileChannelByteChunkProvider;
 
 public class File extends DiskEntry {
 
     private final SMB2Writer writer;
 
     File(SMB2FileId fileId, DiskShare diskShare, SmbPath fileName) {
-        super(fileId, diskShare, fileName);
+        this(fileId, diskShare, fileName, null);
+    }
+
+    /**
+     * @param lease the lease the file is opened with, while it allows read caching the data and file information
+     *              that are read are cached
+     */
+    File(SMB2FileId fileId, DiskShare diskShare, SmbPath fileName, FileLease lease) {
+        super(fileId, diskShare, fileName, lease);
         this.writer = new SMB2Writer(diskShare, fileId, fileName.toUncPath());
     }
 
@@ -120,6 +135,27 @@ public class File extends DiskEntry {
         return writer.writeAsync(provider);
     }
 
+    /**
+     * Upload the contents of a local file to this file, starting at offset 0.
+     * <p/>
+     * The local file is read with positional {@link java.nio.channels.FileChannel} reads straight into the write
+     * requests, without going through a stream.
+     *
+     * @param localFile        the local file to upload
+     * @param progressListener an optional callback that will be invoked when data has been written to the file
+     * @return the number of bytes that were written to the file
+     */
+    public long upload(Path localFile, ProgressListener progressListener) throws IOException {
+        try (FileChannelByteChunkProvider provider = new FileChannelByteChunkProvider(localFile)) {
+            writer.write(provider, progressListener);
+            return provider.getOffset();
+        }
+    }
+
+    public long upload(Path localFile) throws IOException {
+        return upload(localFile, null);
+    }
+
     public OutputStream getOutputStream() {
         return getOutputStream(false);
     }
@@ -157,15 +193,28 @@ public class File extends DiskEntry {
      * @return the actual number of bytes that were read; or -1 if the end of the file was reached
      */
     public int read(byte[] buffer, long fileOffset, int offset, int length) {
+        long generation = 0;
+        if (lease != null) {
+            generation = lease.getGeneration();
+            int read = lease.read(fileOffset, buffer, offset, length);
+            if (read >= 0) {
+                return read;
+            }
+        }
         SMB2ReadResponse response = share.read(fileId, fileOffset, length);
-        if (response.getHeader().getStatusCode() == NtStatus.STATUS_END_OF_FILE.getValue()) {
-            return -1;
-        } else {
-            byte[] data = response.getData();
-            int bytesRead = Math.min(length, data.length);
-            System.arraycopy(data, 0, buffer, offset, bytesRead);
-            return bytesRead;
+        int read;
+        try {
+            if (response.getHeader().getStatusCode() == NtStatus.STATUS_END_OF_FILE.getValue()) {
+                return -1;
+            }
+            read = response.readData(buffer, offset, length);
+        } finally {
+            response.release();
+        }
+        if (lease != null) {
+            lease.cacheData(generation, fileOffset, buffer, offset, read);
         }
+        return read;
     }
 
     Future<SMB2ReadResponse> readAsync(long offset, int length) {
@@ -176,14 +225,109 @@ public class File extends DiskEntry {
         read(destStream, null);
     }
 
+    /**
+     * Read the entire file and write its contents to the given stream.
+     * <p/>
+     * Up to {@link com.hierynomus.smbj.SmbConfig#getReadWindowSize()} read requests are kept outstanding at the same
+     * time, as far as the credits granted by the server allow.
+     *
+     * @param destStream       the stream to write the file contents to
+     * @param progressListener an optional callback that will be invoked when data has been read from the file
+     */
     public void read(OutputStream destStream, ProgressListener progressListener) throws IOException {
-        InputStream is = getInputStream(progressListener);
-        int numRead;
-        byte[] buf = new byte[share.getReadBufferSize()];
-        while ((numRead = is.read(buf)) != -1) {
-            destStream.write(buf, 0, numRead);
+        PipelinedReader reader = newPipelinedReader();
+        try {
+            SMB2ReadResponse res;
+            while ((res = reader.next()) != null) {
+                try {
+                    res.writeData(destStream);
+                } finally {
+                    res.release();
+                }
+                if (progressListener != null) {
+                    progressListener.onProgressChanged(res.getDataLength(), reader.getOffset());
+                }
+            }
+        } finally {
+            reader.close();
         }
-        is.close();
+    }
+
+    public void read(WritableByteChannel destChannel) throws IOException {
+        read(destChannel, null);
+    }
+
+    /**
+     * Read the entire file and write its contents to the given channel.
+     * <p/>
+     * Up to {@link com.hierynomus.smbj.SmbConfig#getReadWindowSize()} read requests are kept outstanding at the same
+     * time, as far as the credits granted by the server allow.
+     *
+     * @param destChannel      the channel to write the file contents to
+     * @param progressListener an optional callback that will be invoked when data has been read from the file
+     */
+    public void read(WritableByteChannel destChannel, ProgressListener progressListener) throws IOException {
+        PipelinedReader reader = newPipelinedReader();
+        try {
+            SMB2ReadResponse res;
+            while ((res = reader.next()) != null) {
+                try {
+                    ByteBuffer buffer = res.getDataAsByteBuffer();
+                    while (buffer.hasRemaining()) {
+                        destChannel.write(buffer);
+                    }
+                } finally {
+                    res.release();
+                }
+                if (progressListener != null) {
+                    progressListener.onProgressChanged(res.getDataLength(), reader.getOffset());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Download this file to a local file. The local file is created if it does not exist, and truncated if it does.
+     *
+     * @param localFile        the local file to write to
+     * @param progressListener an optional callback that will be invoked when data has been read from the file
+     * @return the number of bytes that were downloaded
+     */
+    public long download(Path localFile, ProgressListener progressListener) throws IOException {
+        try (FileChannel channel = FileChannel.open(localFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return transferTo(channel, 0, progressListener);
+        }
+    }
+
+    public long download(Path localFile) throws IOException {
+        return download(localFile, null);
+    }
+
+    /**
+     * Read the entire file and write its contents to the given channel, starting at <code>position</code>.
+     * <p/>
+     * Every response is written to the channel at its own position using {@link FileChannel#write(ByteBuffer, long)},
+     * so responses of the pipelined read requests are handled as soon as they arrive, regardless of their order. The
+     * position of the channel itself is not changed.
+     *
+     * @param destChannel      the channel to write the file contents to
+     * @param position         the position in the channel at which to write the start of the file
+     * @param progressListener an optional callback that will be invoked when data has been read from the file
+     * @return the number of bytes that were transferred
+     */
+    public long transferTo(FileChannel destChannel, long position, ProgressListener progressListener) throws IOException {
+        PipelinedReader reader = newPipelinedReader();
+        try {
+            return reader.transferTo(destChannel, position, progressListener);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private PipelinedReader newPipelinedReader() {
+        return new PipelinedReader(this, 0, share.getReadBufferSize(), share.getReadWindowSize(), share.getReadTimeout());
     }
 
     /**
@@ -358,12 +502,26 @@ public class File extends DiskEntry {
         this.setFileInformation(endOfFileInfo);
     }
 
+    @Override
+    public <F extends FileQueryableInformation> F getFileInformation(Class<F> informationClass) throws SMBApiException {
+        if (lease == null) {
+            return super.getFileInformation(informationClass);
+        }
+        long generation = lease.getGeneration();
+        F information = lease.getInformation(informationClass);
+        if (information == null) {
+            information = super.getFileInformation(informationClass);
+            lease.cacheInformation(generation, informationClass, information);
+        }
+        return information;
+    }
+
     public InputStream getInputStream() {
         return getInputStream(null);
     }
 
     public InputStream getInputStream(ProgressListener listener) {
-        return new FileInputStream(this, share.getReadBufferSize(), share.getReadTimeout(), listener);
+        return new FileInputStream(this, share.getReadBufferSize(), share.getReadWindowSize(), share.getReadTimeout(), listener);
     }
 
     @Override
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.hierynomus.msfscc.fileinformation.FileQueryableInformation;
+import com.hierynomus.mssmb2.SMBApiException;
+
+/**
+ * The result of {@link DiskShare#getFileInformation(java.util.Collection, Class)}: the information of each path that
+ * could be queried, and the error for each path that could not.
+ */
+public class FileInformationBatch<F extends FileQueryableInformation> {
+    private final Map<String, F> information = new LinkedHashMap<>();
+    private final Map<String, SMBApiException> errors = new LinkedHashMap<>();
+
+    void put(String path, F pathInformation) {
+        information.put(path, pathInformation);
+    }
+
+    void failed(String path, SMBApiException error) {
+        errors.put(path, error);
+    }
+
+    /**
+     * @return the information of the path
+     * @throws SMBApiException the error that occurred when the path was queried
+     * @throws IllegalArgumentException if the path was not part of the batch
+     */
+    public F get(String path) throws SMBApiException {
+        F pathInformation = information.get(path);
+        if (pathInformation != null) {
+            return pathInformation;
+        }
+        SMBApiException error = errors.get(path);
+        if (error != null) {
+            throw error;
+        }
+        throw new IllegalArgumentException("Path " + path + " was not queried");
+    }
+
+    /**
+     * @return the information of the paths that could be queried
+     */
+    public Map<String, F> getInformation() {
+        return Collections.unmodifiableMap(information);
+    }
+
+    /**
+     * @return the errors of the paths that could not be queried (e.g. with
+     * {@link com.hierynomus.mserref.NtStatus#STATUS_OBJECT_NAME_NOT_FOUND})
+     */
+    public Map<String, SMBApiException> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    @Override
+    public String toString() {
+        return "FileInformationBatch{" + information.size() + " paths, " + errors.size() + " errors}";
+    }
+}
@@ -15,47 +15,44 @@
  */
 package com.hierynomus.smbj.share;
 
-import com.hierynomus.mserref.NtStatus;
-import com.hierynomus.mssmb2.SMBApiException;
 import com.hierynomus.mssmb2.messages.SMB2ReadResponse;
-import com.hierynomus.protocol.commons.concurrent.Futures;
-import com.hierynomus.protocol.transport.TransportException;
 import com.hierynomus.smbj.ProgressListener;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.nio.ByteBuffer;
 
 class FileInputStream extends InputStream {
 
     private final long readTimeout;
     private File file;
     private long offset = 0;
-    private int curr = 0;
-    private byte[] buf;
+    private ByteBuffer buf;
+    private SMB2ReadResponse bufResponse;
     private ProgressListener progressListener;
     private boolean isClosed;
-    private Future<SMB2ReadResponse> nextResponse;
+    private PipelinedReader reader;
 
     private int bufferSize;
+    private int windowSize;
 
-    FileInputStream(File file, int bufferSize, long readTimeout, ProgressListener progressListener) {
+    FileInputStream(File file, int bufferSize, int windowSize, long readTimeout, ProgressListener progressListener) {
         this.file = file;
         this.bufferSize = bufferSize;
+        this.windowSize = windowSize;
         this.progressListener = progressListener;
         this.readTimeout = readTimeout;
     }
 
     @Override
     public int read() throws IOException {
-        if (buf == null || curr >= buf.length) {
+        if (buf == null || !buf.hasRemaining()) {
             loadBuffer();
         }
         if (isClosed) {
             return -1;
         }
-        return buf[curr++] & 0xFF;
+        return buf.get() & 0xFF;
     }
 
     @Override
@@ -65,17 +62,15 @@ class FileInputStream extends InputStream {
 
     @Override
     public int read(byte b[], int off, int len) throws IOException {
-        if (buf == null || curr >= buf.length) {
+        if (buf == null || !buf.hasRemaining()) {
             loadBuffer();
         }
         if (isClosed) {
             return -1;
         }
 
-
-        int l = buf.length - curr > len ? len : buf.length - curr;
-        System.arraycopy(buf, curr, b, off, l);
-        curr += l;
+        int l = Math.min(len, buf.remaining());
+        buf.get(b, off, l);
         return l;
     }
 
@@ -83,7 +78,11 @@ class FileInputStream extends InputStream {
     public void close() {
         isClosed = true;
         file = null;
-        buf = null;
+        releaseBuffer();
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
     }
 
     @Override
@@ -95,12 +94,15 @@ class FileInputStream extends InputStream {
     public long skip(long n) {
         if (buf == null) {
             offset += n;
-        } else if (curr + n < buf.length) {
-            curr += n;
+        } else if (n < buf.remaining()) {
+            buf.position(buf.position() + (int) n);
         } else {
-            offset += (curr + n) - buf.length;
-            buf = null;
-            nextResponse = null;
+            offset += n - buf.remaining();
+            releaseBuffer();
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
         }
         return n;
     }
@@ -110,37 +112,32 @@ class FileInputStream extends InputStream {
             return;
         }
 
-        if (nextResponse == null) {
-            nextResponse = sendRequest();
-        }
-
-        SMB2ReadResponse res = Futures.get(nextResponse, readTimeout, TimeUnit.MILLISECONDS, TransportException.Wrapper);
-        if (res.getHeader().getStatusCode() == NtStatus.STATUS_SUCCESS.getValue()) {
-            buf = res.getData();
-            curr = 0;
-            offset += res.getDataLength();
-            if (progressListener != null) {
-                progressListener.onProgressChanged(res.getDataLength(), offset);
-            }
+        if (reader == null) {
+            reader = new PipelinedReader(file, offset, bufferSize, windowSize, readTimeout);
         }
 
-        // According to MS-SMB2 2.2.20 and 3.3.5.12 the server should terminate the last SMB2 READ Response with STATUS_END_OF_FILE,
-        // however at least the IBM implementation does not do that and only returns a '0' data length on the response.
-        // Treat this corner case as an EOF marker to fix unbounded loops.
-        if (res.getHeader().getStatusCode() == NtStatus.STATUS_END_OF_FILE.getValue() || res.getDataLength() == 0) {
+        releaseBuffer();
+        SMB2ReadResponse res = reader.next();
+        if (res == null) {
             System.out.println("tempGT2: EOF, " + offset + " bytes read");
             isClosed = true;
             return;
         }
 
-        if (res.getHeader().getStatusCode() != NtStatus.STATUS_SUCCESS.getValue()) {
-            throw new SMBApiException(res.getHeader(), "Read failed for " + this);
+        // Serve the data straight from the received packet, it is only copied into the caller's buffer.
+        bufResponse = res;
+        buf = res.getDataAsByteBuffer();
+        offset += res.getDataLength();
+        if (progressListener != null) {
+            progressListener.onProgressChanged(res.getDataLength(), offset);
         }
-
-        nextResponse = sendRequest();
     }
 
-    private Future<SMB2ReadResponse> sendRequest() {
-        return file.readAsync(offset, bufferSize);
+    private void releaseBuffer() {
+        buf = null;
+        if (bufResponse != null) {
+            bufResponse.release();
+            bufResponse = null;
+        }
     }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.hierynomus.msfscc.fileinformation.FileQueryableInformation;
+import com.hierynomus.mssmb2.SMB2LeaseState;
+import com.hierynomus.smbj.common.SmbPath;
+
+import static com.hierynomus.mssmb2.SMB2LeaseState.SMB2_LEASE_READ_CACHING;
+
+/**
+ * [MS-SMB2] 3.2.1.10 Per Lease
+ * <p/>
+ * The lease held on a file by the opens of the file with the same lease key, and the data and file information that
+ * are cached while the lease allows read caching. Cached state is tagged with the generation of the lease at the time
+ * it was requested from the server, so that a response which crosses a lease break is not cached.
+ */
+class FileLease {
+    private final LeaseCache cache;
+    private final SmbPath path;
+    private final byte[] leaseKey;
+    private Set<SMB2LeaseState> leaseState;
+    private int epoch;
+    private int openCount;
+    private long generation;
+    private final TreeMap<Long, byte[]> data = new TreeMap<>();
+    private long cachedBytes;
+    private final Map<Class<?>, FileQueryableInformation> information = new HashMap<>();
+
+    FileLease(LeaseCache cache, SmbPath path, byte[] leaseKey, Set<SMB2LeaseState> leaseState, int epoch) {
+        this.cache = cache;
+        this.path = path;
+        this.leaseKey = leaseKey;
+        this.leaseState = EnumSet.copyOf(leaseState);
+        this.epoch = epoch;
+    }
+
+    SmbPath getPath() {
+        return path;
+    }
+
+    byte[] getLeaseKey() {
+        return leaseKey;
+    }
+
+    synchronized Set<SMB2LeaseState> getLeaseState() {
+        return EnumSet.copyOf(leaseState);
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    synchronized void opened(Set<SMB2LeaseState> grantedState, int grantedEpoch) {
+        openCount++;
+        update(grantedState, grantedEpoch);
+    }
+
+    /**
+     * @return whether this was the last open with the lease, after which the server no longer holds it
+     */
+    synchronized boolean closed() {
+        openCount--;
+        if (openCount > 0) {
+            return false;
+        }
+        leaseState.clear();
+        invalidate();
+        return true;
+    }
+
+    /**
+     * The server broke the lease to the given state.
+     */
+    synchronized void broken(Set<SMB2LeaseState> newState, int newEpoch) {
+        update(newState, newEpoch);
+    }
+
+    private void update(Set<SMB2LeaseState> newState, int newEpoch) {
+        // [MS-SMB2] 3.2.5.7.5 a version 2 lease is only updated if the epoch has moved forward, a version 1 lease has
+        // no epoch and is always updated.
+        if (newEpoch != 0 && epoch != 0 && (short) (newEpoch - epoch) <= 0) {
+            return;
+        }
+        if (!newState.contains(SMB2_LEASE_READ_CACHING)) {
+            invalidate();
+        }
+        leaseState = newState.isEmpty() ? EnumSet.noneOf(SMB2LeaseState.class) : EnumSet.copyOf(newState);
+        epoch = newEpoch;
+    }
+
+    synchronized void invalidate() {
+        generation++;
+        cache.release(cachedBytes);
+        cachedBytes = 0;
+        data.clear();
+        information.clear();
+    }
+
+    private boolean canCacheReads(long requestGeneration) {
+        return openCount > 0 && requestGeneration == generation && leaseState.contains(SMB2_LEASE_READ_CACHING);
+    }
+
+    /**
+     * Read from the cached data, starting at <code>fileOffset</code>.
+     *
+     * @return the number of bytes that were read, or -1 if the data at <code>fileOffset</code> is not cached
+     */
+    synchronized int read(long fileOffset, byte[] buffer, int offset, int length) {
+        if (!canCacheReads(generation)) {
+            return -1;
+        }
+        Map.Entry<Long, byte[]> chunk = data.floorEntry(fileOffset);
+        if (chunk == null || chunk.getKey() + chunk.getValue().length <= fileOffset) {
+            return -1;
+        }
+        int chunkOffset = (int) (fileOffset - chunk.getKey());
+        int read = Math.min(length, chunk.getValue().length - chunkOffset);
+        System.arraycopy(chunk.getValue(), chunkOffset, buffer, offset, read);
+        return read;
+    }
+
+    synchronized void cacheData(long requestGeneration, long fileOffset, byte[] buffer, int offset, int length) {
+        if (length <= 0 || !canCacheReads(requestGeneration)) {
+            return;
+        }
+        byte[] existing = data.get(fileOffset);
+        if (existing != null && existing.length >= length) {
+            return;
+        }
+        int released = existing != null ? existing.length : 0;
+        if (!cache.reserve(length - released)) {
+            return;
+        }
+        byte[] chunk = new byte[length];
+        System.arraycopy(buffer, offset, chunk, 0, length);
+        data.put(fileOffset, chunk);
+        cachedBytes += length - released;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <F extends FileQueryableInformation> F getInformation(Class<F> informationClass) {
+        if (!canCacheReads(generation)) {
+            return null;
+        }
+        return (F) information.get(informationClass);
+    }
+
+    synchronized <F extends FileQueryableInformation> void cacheInformation(long requestGeneration, Class<F> informationClass, F info) {
+        if (canCacheReads(requestGeneration)) {
+            information.put(informationClass, info);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileLease{" + path + ", leaseState=" + leaseState + ", epoch=" + epoch + '}';
+    }
+}
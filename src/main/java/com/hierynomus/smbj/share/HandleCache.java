@@ -0,0 +1,305 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hierynomus.msdtyp.AccessMask;
+import com.hierynomus.mssmb2.SMB2CreateOptions;
+import com.hierynomus.mssmb2.SMB2FileId;
+import com.hierynomus.mssmb2.SMB2LeaseState;
+import com.hierynomus.mssmb2.SMB2ShareAccess;
+import com.hierynomus.smbj.common.SmbPath;
+
+import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.ensureNotNull;
+import static com.hierynomus.protocol.commons.EnumWithValue.EnumUtils.toLong;
+
+/**
+ * The handles of a share that are kept open after they are closed by the application, so that a later open of the
+ * same path with the same access can reuse the handle instead of sending a CREATE and a CLOSE to the server.
+ * <p/>
+ * A handle that was opened with a lease is only kept while the lease allows handle caching, the server then breaks
+ * the lease before an open by another client would conflict with it. A handle without a lease is only protected by
+ * the idle timeout. At most <code>maxHandles</code> handles are kept; the handle that is idle longest is closed to
+ * make room, and handles that are idle longer than the timeout are closed when a timer expires them.
+ * <p/>
+ * One timer thread expires the handles of all caches. Closing sends a request that may have to wait for credits, so
+ * the expired handles are closed by the notification task of the connection, not on the timer thread.
+ */
+class HandleCache {
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+    private static final ScheduledThreadPoolExecutor expiryTimer = createExpiryTimer();
+
+    private final DiskShare share;
+    private final int maxHandles;
+    private final long idleTimeout;
+    // Idle handles, the handle that is idle longest first
+    private final LinkedList<CachedHandle> idle = new LinkedList<>();
+    // Pending expiry of the handle that is idle longest, or null if there are no idle handles
+    private ScheduledFuture<?> expiry;
+
+    HandleCache(DiskShare share, int maxHandles, long idleTimeout) {
+        this.share = share;
+        this.maxHandles = maxHandles;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Take an idle handle that was opened with the given key.
+     *
+     * @return the handle, or <code>null</code> if there is none
+     */
+    CachedHandle take(Key key) {
+        List<CachedHandle> toClose = new ArrayList<>();
+        CachedHandle found = null;
+        synchronized (this) {
+            expire(toClose);
+            Iterator<CachedHandle> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                CachedHandle handle = it.next();
+                if (handle.key.equals(key)) {
+                    it.remove();
+                    found = handle;
+                    break;
+                }
+            }
+        }
+        close(toClose);
+        return found;
+    }
+
+    /**
+     * Keep a handle that is closed by the application, or close it if it cannot be kept.
+     */
+    void release(CachedHandle handle) {
+        List<CachedHandle> toClose = new ArrayList<>();
+        synchronized (this) {
+            expire(toClose);
+            if (handle.lease != null && !handle.lease.getLeaseState().contains(SMB2LeaseState.SMB2_LEASE_HANDLE_CACHING)) {
+                toClose.add(handle);
+            } else {
+                handle.idleSince = System.currentTimeMillis();
+                idle.addLast(handle);
+                while (idle.size() > maxHandles) {
+                    toClose.add(idle.removeFirst());
+                }
+                scheduleExpiry();
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Close the idle handles that were opened with the lease, as it no longer allows handle caching.
+     */
+    void evict(FileLease lease) {
+        List<CachedHandle> toClose = new ArrayList<>();
+        synchronized (this) {
+            Iterator<CachedHandle> it = idle.iterator();
+            while (it.hasNext()) {
+                CachedHandle handle = it.next();
+                if (handle.lease == lease) {
+                    it.remove();
+                    toClose.add(handle);
+                }
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Close the idle handles of the path and the paths under it, as they would keep them from being deleted.
+     */
+    void evict(SmbPath path) {
+        String prefix = path.getPath() == null || path.getPath().isEmpty() ? "" : path.getPath() + "\\";
+        List<CachedHandle> toClose = new ArrayList<>();
+        synchronized (this) {
+            Iterator<CachedHandle> it = idle.iterator();
+            while (it.hasNext()) {
+                CachedHandle handle = it.next();
+                SmbPath handlePath = handle.key.path;
+                if (handlePath.equals(path) || (handlePath.isOnSameShare(path) && handlePath.getPath() != null && handlePath.getPath().startsWith(prefix))) {
+                    it.remove();
+                    toClose.add(handle);
+                }
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Close a handle that was taken from the cache, instead of releasing it.
+     */
+    void close(CachedHandle handle) {
+        close(Collections.singletonList(handle));
+    }
+
+    void clear() {
+        List<CachedHandle> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            if (expiry != null) {
+                expiry.cancel(false);
+                expiry = null;
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Close the handles that are idle longer than the timeout, even if the cache is not used again.
+     */
+    private void expireIdle() {
+        final List<CachedHandle> toClose = new ArrayList<>();
+        synchronized (this) {
+            expiry = null;
+            expire(toClose);
+            scheduleExpiry();
+        }
+        if (toClose.isEmpty()) {
+            return;
+        }
+        try {
+            share.getTreeConnect().getSession().getConnection().executeNotificationTask(new Runnable() {
+                @Override
+                public void run() {
+                    close(toClose);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            System.out.println("tempGT2: Not closing " + toClose.size() + " expired handles of " + share + ", the connection is closed");
+        }
+    }
+
+    /**
+     * Schedule the expiry of the handle that is idle longest, if it is not scheduled yet. When it runs early, as that
+     * handle was taken again, the expiry of the next handle is scheduled then.
+     */
+    private void scheduleExpiry() {
+        if (expiry != null || idle.isEmpty()) {
+            return;
+        }
+        long delay = Math.max(0, idle.getFirst().idleSince + idleTimeout - System.currentTimeMillis());
+        expiry = expiryTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expireIdle();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(List<CachedHandle> toClose) {
+        long expired = System.currentTimeMillis() - idleTimeout;
+        while (!idle.isEmpty() && idle.getFirst().idleSince <= expired) {
+            toClose.add(idle.removeFirst());
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createExpiryTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Handle Cache Expiry " + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        timer.setKeepAliveTime(60, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+        return timer;
+    }
+
+    /**
+     * The handles are closed without waiting for the response, as they may be closed while a lease break is handled
+     * on the thread that receives the responses.
+     */
+    private void close(List<CachedHandle> handles) {
+        for (CachedHandle handle : handles) {
+            try {
+                share.closeFileIdNoWait(handle.fileId);
+            } catch (RuntimeException e) {
+                System.out.println("tempGT2: Failed to close cached handle " + handle.fileId + " for " + handle.key.path + ", " + e);
+            } finally {
+                if (handle.lease != null) {
+                    share.closed(handle.lease);
+                }
+            }
+        }
+    }
+
+    /**
+     * What an open must match to reuse a handle: the path, and the access, sharing and options it was opened with.
+     */
+    static final class Key {
+        final SmbPath path;
+        private final long accessMask;
+        private final long shareAccess;
+        private final long createOptions;
+
+        Key(SmbPath path, Set<AccessMask> accessMask, Set<SMB2ShareAccess> shareAccess, Set<SMB2CreateOptions> createOptions) {
+            this.path = path;
+            this.accessMask = toLong(ensureNotNull(accessMask, AccessMask.class));
+            this.shareAccess = toLong(ensureNotNull(shareAccess, SMB2ShareAccess.class));
+            this.createOptions = toLong(ensureNotNull(createOptions, SMB2CreateOptions.class));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return accessMask == key.accessMask && shareAccess == key.shareAccess && createOptions == key.createOptions
+                && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int) (accessMask ^ (accessMask >>> 32));
+            result = 31 * result + (int) (shareAccess ^ (shareAccess >>> 32));
+            result = 31 * result + (int) (createOptions ^ (createOptions >>> 32));
+            return result;
+        }
+    }
+
+    static final class CachedHandle {
+        final Key key;
+        final SMB2FileId fileId;
+        final FileLease lease;
+        final boolean directory;
+        private long idleSince;
+
+        CachedHandle(Key key, SMB2FileId fileId, FileLease lease, boolean directory) {
+            this.key = key;
+            this.fileId = fileId;
+            this.lease = lease;
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hierynomus.mssmb2.messages.submodule.SMB2Lease;
+import com.hierynomus.smbj.common.SmbPath;
+
+/**
+ * The leases held by the opens of a share, by lease key and by path. A path keeps the same lease key as long as it is
+ * open, so that all opens of the same file share one lease, instead of breaking each other's leases. The data that is cached for
+ * the files is limited to a maximum number of bytes for the share as a whole.
+ */
+class LeaseCache {
+    private final ConcurrentMap<ByteBuffer, FileLease> leases = new ConcurrentHashMap<>();
+    // The lease key that is requested for a path, which is the key of the first lease on it that is still held
+    private final ConcurrentMap<SmbPath, FileLease> leasesByPath = new ConcurrentHashMap<>();
+    private final Random random;
+    private final long maxCachedBytes;
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    LeaseCache(Random random, long maxCachedBytes) {
+        this.random = random;
+        this.maxCachedBytes = maxCachedBytes;
+    }
+
+    /**
+     * The lease key to request when opening the path, which is the key of the lease on the path if it is open.
+     */
+    byte[] leaseKey(SmbPath path) {
+        FileLease lease = leasesByPath.get(path);
+        if (lease != null) {
+            return lease.getLeaseKey();
+        }
+        byte[] leaseKey = new byte[SMB2Lease.LEASE_KEY_SIZE];
+        random.nextBytes(leaseKey);
+        return leaseKey;
+    }
+
+    /**
+     * Record that the path is opened with the lease the server granted. If two opens of a path were sent with
+     * different keys at the same time, both leases are tracked, but only the first is used for later opens.
+     *
+     * @return the lease the path is opened with
+     */
+    FileLease opened(SmbPath path, SMB2Lease granted) {
+        ByteBuffer key = ByteBuffer.wrap(granted.getLeaseKey());
+        FileLease created = new FileLease(this, path, granted.getLeaseKey(), granted.getLeaseState(), granted.getEpoch());
+        while (true) {
+            FileLease lease = leases.putIfAbsent(key, created);
+            if (lease == null) {
+                lease = created;
+            }
+            synchronized (lease) {
+                // The lease may have been closed by its last open in the meantime
+                if (leases.get(key) == lease) {
+                    lease.opened(granted.getLeaseState(), granted.getEpoch());
+                    leasesByPath.putIfAbsent(path, lease);
+                    return lease;
+                }
+            }
+        }
+    }
+
+    void closed(FileLease lease) {
+        synchronized (lease) {
+            if (lease.closed()) {
+                leases.remove(ByteBuffer.wrap(lease.getLeaseKey()), lease);
+                leasesByPath.remove(lease.getPath(), lease);
+            }
+        }
+    }
+
+    /**
+     * @return the lease on the path, or <code>null</code> if it is not open with a lease
+     */
+    FileLease get(SmbPath path) {
+        return leasesByPath.get(path);
+    }
+
+    FileLease find(byte[] leaseKey) {
+        return leases.get(ByteBuffer.wrap(leaseKey));
+    }
+
+    boolean reserve(long bytes) {
+        while (true) {
+            long current = cachedBytes.get();
+            if (current + bytes > maxCachedBytes) {
+                return false;
+            }
+            if (cachedBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void release(long bytes) {
+        cachedBytes.addAndGet(-bytes);
+    }
+}
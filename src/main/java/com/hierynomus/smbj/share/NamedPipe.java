@@ -82,10 +82,11 @@ public class NamedPipe extends Open<PipeShare> {
      */
     public int read(byte[] buffer, int offset, int length) {
         SMB2ReadResponse response = share.read(fileId, 0, length);
-        byte[] data = response.getData();
-        int bytesRead = Math.min(length, data.length);
-        System.arraycopy(data, 0, buffer, offset, bytesRead);
-        return bytesRead;
+        try {
+            return response.readData(buffer, offset, length);
+        } finally {
+            response.release();
+        }
     }
 
     /**
@@ -35,6 +35,8 @@ public class Open<S extends Share> implements Closeable {
     protected SMB2FileId fileId;
     protected SmbPath name;
     private OperationBuckets operationBuckets = new OperationBuckets();
+    // Set once a lock request is sent, the locks are only released by an unlock or by closing the handle
+    private volatile boolean lockRequested;
 
 
     Open(SMB2FileId fileId, SmbPath name, S share) {
@@ -74,6 +76,7 @@ public class Open<S extends Share> implements Closeable {
             sequenceIndex = b.getIndex();
         }
 
+        lockRequested = true;
         share.sendLockRequest(fileId, (short) sequenceNumber, sequenceIndex, lockElements);
 
         if (share.getDialect() != SMB2Dialect.SMB_2_0_2) {
@@ -81,6 +84,13 @@ public class Open<S extends Share> implements Closeable {
         }
     }
 
+    /**
+     * @return whether byte-range locks may have been taken through this open
+     */
+    boolean isLockRequested() {
+        return lockRequested;
+    }
+
     public SMB2FileId getFileId() {
         return fileId;
     }
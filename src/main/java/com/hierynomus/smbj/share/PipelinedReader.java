@@ -0,0 +1,224 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share;
+
+import static com.hierynomus.mssmb2.SMB2Packet.SINGLE_CREDIT_PAYLOAD_SIZE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.hierynomus.mserref.NtStatus;
+import com.hierynomus.mssmb2.SMBApiException;
+import com.hierynomus.mssmb2.messages.SMB2ReadResponse;
+import com.hierynomus.protocol.commons.concurrent.Futures;
+import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smbj.ProgressListener;
+
+/**
+ * Keeps a window of SMB2 READ requests outstanding for a file, and hands out the received data in file order.
+ * <p/>
+ * The number of reads in flight is bounded by the configured read window, and further by the credits that are
+ * currently available on the connection, so that a pipelined read never starves other requests of credits.
+ * <p/>
+ * A server may return less data than requested (e.g. because fewer credits were charged for the request), in that
+ * case the gap is read before the next outstanding response is handed out.
+ * <p/>
+ * When the data is written to a {@link FileChannel} using {@link #transferTo(FileChannel, long, ProgressListener)}, the
+ * responses are handled in the order in which they arrive instead, as each of them is written at its own position.
+ */
+class PipelinedReader {
+    private final File file;
+    private final int bufferSize;
+    private final int windowSize;
+    private final int creditsPerRead;
+    private final long readTimeout;
+    private final Deque<PendingRead> window = new ArrayDeque<>();
+    private long offset;
+    private long nextRequestOffset;
+    private boolean endOfFile;
+
+    PipelinedReader(File file, long offset, int bufferSize, int windowSize, long readTimeout) {
+        this.file = file;
+        this.offset = offset;
+        this.nextRequestOffset = offset;
+        this.bufferSize = bufferSize;
+        this.windowSize = Math.max(1, windowSize);
+        this.creditsPerRead = (bufferSize - 1) / SINGLE_CREDIT_PAYLOAD_SIZE + 1;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Retrieve the next chunk of data of the file.
+     *
+     * @return the response containing the data starting at the previous {@link #getOffset()}, or <code>null</code>
+     * if the end of the file was reached. The caller {@link SMB2ReadResponse#release() releases} the response once it
+     * has consumed the data.
+     * @throws TransportException If the response was not received in time
+     */
+    SMB2ReadResponse next() throws TransportException {
+        if (endOfFile) {
+            return null;
+        }
+
+        fill();
+        PendingRead read = window.pollFirst();
+        if (read.offset > offset) {
+            // A previous response was shorter than requested, first read the data we skipped over.
+            window.addFirst(read);
+            read = new PendingRead(offset, (int) Math.min(bufferSize, read.offset - offset));
+        }
+
+        SMB2ReadResponse res = Futures.get(read.response, readTimeout, TimeUnit.MILLISECONDS, TransportException.Wrapper);
+        long statusCode = res.getHeader().getStatusCode();
+        // According to MS-SMB2 2.2.20 and 3.3.5.12 the server should terminate the last SMB2 READ Response with STATUS_END_OF_FILE,
+        // however at least the IBM implementation does not do that and only returns a '0' data length on the response.
+        // Treat this corner case as an EOF marker to fix unbounded loops.
+        if (statusCode == NtStatus.STATUS_END_OF_FILE.getValue()
+            || (statusCode == NtStatus.STATUS_SUCCESS.getValue() && res.getDataLength() == 0)) {
+            res.release();
+            endOfFile = true;
+            window.clear();
+            return null;
+        }
+
+        if (statusCode != NtStatus.STATUS_SUCCESS.getValue()) {
+            res.release();
+            window.clear();
+            throw new SMBApiException(res.getHeader(), "Read failed for " + file);
+        }
+
+        offset += res.getDataLength();
+        // Top up the window so that the server keeps sending while the caller processes this chunk.
+        fill();
+        return res;
+    }
+
+    /**
+     * Read the remainder of the file, and write it to the channel using positional writes.
+     *
+     * @param channel          the channel to write to
+     * @param position         the position in the channel at which the data at {@link #getOffset()} is written
+     * @param progressListener an optional callback that will be invoked when data has been written to the channel
+     * @return the number of bytes that were transferred
+     * @throws IOException If the response was not received in time, or writing to the channel failed
+     */
+    long transferTo(FileChannel channel, long position, ProgressListener progressListener) throws IOException {
+        long start = offset;
+        long endOffset = Long.MAX_VALUE;
+        long transferred = 0;
+        fill();
+        while (!window.isEmpty()) {
+            PendingRead read = takeCompleted();
+            if (read.offset >= endOffset) {
+                continue;
+            }
+
+            SMB2ReadResponse res = Futures.get(read.response, readTimeout, TimeUnit.MILLISECONDS, TransportException.Wrapper);
+            int dataLength;
+            try {
+                long statusCode = res.getHeader().getStatusCode();
+                if (statusCode == NtStatus.STATUS_END_OF_FILE.getValue()
+                    || (statusCode == NtStatus.STATUS_SUCCESS.getValue() && res.getDataLength() == 0)) {
+                    endOfFile = true;
+                    endOffset = Math.min(endOffset, read.offset);
+                    continue;
+                }
+
+                if (statusCode != NtStatus.STATUS_SUCCESS.getValue()) {
+                    close();
+                    throw new SMBApiException(res.getHeader(), "Read failed for " + file);
+                }
+
+                ByteBuffer data = res.getDataAsByteBuffer();
+                long target = position + (read.offset - start);
+                while (data.hasRemaining()) {
+                    target += channel.write(data, target);
+                }
+                dataLength = res.getDataLength();
+            } finally {
+                res.release();
+            }
+
+            transferred += dataLength;
+            if (dataLength < read.length) {
+                // The server returned less than requested, read the rest of the range separately.
+                window.addLast(new PendingRead(read.offset + dataLength, read.length - dataLength));
+            }
+            if (progressListener != null) {
+                progressListener.onProgressChanged(dataLength, transferred);
+            }
+            fill();
+        }
+        offset = start + transferred;
+        endOfFile = true;
+        return transferred;
+    }
+
+    /**
+     * @return the offset in the file of the data that will be returned by the next call to {@link #next()}
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Stop reading, any responses which are still outstanding are discarded.
+     */
+    void close() {
+        endOfFile = true;
+        window.clear();
+    }
+
+    private void fill() {
+        while (!endOfFile && window.size() < windowSize && (window.isEmpty() || file.share.getAvailableCredits() > creditsPerRead)) {
+            window.addLast(new PendingRead(nextRequestOffset, bufferSize));
+            nextRequestOffset += bufferSize;
+        }
+    }
+
+    /**
+     * Take the first read from the window for which the response was received, or the oldest read if none was.
+     */
+    private PendingRead takeCompleted() {
+        Iterator<PendingRead> it = window.iterator();
+        while (it.hasNext()) {
+            PendingRead read = it.next();
+            if (read.response.isDone()) {
+                it.remove();
+                return read;
+            }
+        }
+        return window.pollFirst();
+    }
+
+    private class PendingRead {
+        private final long offset;
+        private final int length;
+        private final Future<SMB2ReadResponse> response;
+
+        private PendingRead(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+            this.response = file.readAsync(offset, length);
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.hierynomus.smbj.share;
 
+import static com.hierynomus.mssmb2.SMB2Packet.SINGLE_CREDIT_PAYLOAD_SIZE;
+
 import com.hierynomus.mssmb2.SMB2FileId;
 import com.hierynomus.mssmb2.messages.SMB2WriteResponse;
 import com.hierynomus.protocol.commons.concurrent.AFuture;
@@ -25,6 +27,8 @@ import com.hierynomus.smbj.io.ArrayByteChunkProvider;
 import com.hierynomus.smbj.io.ByteChunkProvider;
 
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.concurrent.Future;
@@ -86,6 +90,12 @@ public class SMB2Writer {
      * Write all available data from the byte chunk provider to this file. The
      * offset in the file to which data is written is determined by
      * {@link ByteChunkProvider#getOffset()}.
+     * <p/>
+     * Up to {@link com.hierynomus.smbj.SmbConfig#getWriteWindowSize()} write
+     * requests are kept outstanding at the same time, as far as the credits
+     * granted by the server allow. The responses are processed in order, and
+     * writing stops at the first response that reports fewer bytes written
+     * than were sent.
      *
      * @param provider         the byte chunk provider
      * @param progressListener an optional callback that will be invoked when data
@@ -93,13 +103,27 @@ public class SMB2Writer {
      * @return the actual number of bytes that was written to the file
      */
     public int write(ByteChunkProvider provider, ProgressListener progressListener) {
+        int windowSize = share.getWriteWindowSize();
+        int creditsPerWrite = (share.getWriteBufferSize() - 1) / SINGLE_CREDIT_PAYLOAD_SIZE + 1;
+        Deque<PendingWrite> window = new ArrayDeque<>();
         int bytesWritten = 0;
-        while (provider.isAvailable()) {
-            System.out.println("tempGT2: Writing to " + this.entryName + " from offset " + provider.getOffset());
-            SMB2WriteResponse wresp = share.write(fileId, provider);
+        while (provider.isAvailable() || !window.isEmpty()) {
+            while (provider.isAvailable() && window.size() < windowSize
+                && (window.isEmpty() || share.getAvailableCredits() > creditsPerWrite)) {
+                System.out.println("tempGT2: Writing to " + this.entryName + " from offset " + provider.getOffset());
+                Future<SMB2WriteResponse> resp = share.writeAsync(fileId, provider);
+                window.addLast(new PendingWrite(resp, provider.getLastWriteSize(), provider.getOffset()));
+            }
+
+            PendingWrite write = window.pollFirst();
+            SMB2WriteResponse wresp = share.receive(write.response, "Write", fileId, StatusHandler.SUCCESS, share.getWriteTimeout());
+            if (wresp.getBytesWritten() != write.length) {
+                throw new SMBRuntimeException("Possible remote file corruption detected, server wrote less bytes ("
+                    + wresp.getBytesWritten() + ") than we sent (" + write.length + ").");
+            }
             bytesWritten += wresp.getBytesWritten();
             if (progressListener != null)
-                progressListener.onProgressChanged(wresp.getBytesWritten(), provider.getOffset());
+                progressListener.onProgressChanged(wresp.getBytesWritten(), write.endOffset);
         }
         return bytesWritten;
     }
@@ -159,6 +183,18 @@ public class SMB2Writer {
         });
     }
 
+    private static class PendingWrite {
+        private final Future<SMB2WriteResponse> response;
+        private final int length;
+        private final long endOffset;
+
+        private PendingWrite(Future<SMB2WriteResponse> response, int length, long endOffset) {
+            this.response = response;
+            this.length = length;
+            this.endOffset = endOffset;
+        }
+    }
+
     public OutputStream getOutputStream() {
         return getOutputStream(null, 0);
     }
@@ -29,6 +29,7 @@ import com.hierynomus.protocol.transport.TransportException;
 import com.hierynomus.smbj.SmbConfig;
 import com.hierynomus.smbj.common.SMBRuntimeException;
 import com.hierynomus.smbj.common.SmbPath;
+import com.hierynomus.smbj.connection.CompoundedPacket;
 import com.hierynomus.smbj.connection.NegotiatedProtocol;
 import com.hierynomus.smbj.io.ArrayByteChunkProvider;
 import com.hierynomus.smbj.io.ByteChunkProvider;
@@ -71,7 +72,7 @@ public class Share implements AutoCloseable {
                     || statusCode == NtStatus.STATUS_END_OF_FILE.getValue();
         }
     };
-    private static final StatusHandler SUCCESS_OR_CLOSED = new StatusHandler() {
+    static final StatusHandler SUCCESS_OR_CLOSED = new StatusHandler() {
         @Override
         public boolean isSuccess(long statusCode) {
             return statusCode == NtStatus.STATUS_SUCCESS.getValue()
@@ -85,12 +86,16 @@ public class Share implements AutoCloseable {
     protected Session session;
     private final SMB2Dialect dialect;
     private final int readBufferSize;
+    private final int readWindowSize;
     private final long readTimeout;
     private final int writeBufferSize;
+    private final int writeWindowSize;
     private final long writeTimeout;
     private final int transactBufferSize;
+    private final int maxTransactSize;
     private final long transactTimeout;
     private final long sessionId;
+    private final boolean compressReads;
     private final AtomicBoolean disconnected = new AtomicBoolean(false);
 
     Share(SmbPath smbPath, TreeConnect treeConnect) {
@@ -101,13 +106,17 @@ public class Share implements AutoCloseable {
         dialect = negotiatedProtocol.getDialect();
         SmbConfig config = treeConnect.getConfig();
         readBufferSize = Math.min(config.getReadBufferSize(), negotiatedProtocol.getMaxReadSize());
+        readWindowSize = config.getReadWindowSize();
         readTimeout = config.getReadTimeout();
         writeBufferSize = Math.min(config.getWriteBufferSize(), negotiatedProtocol.getMaxWriteSize());
+        writeWindowSize = config.getWriteWindowSize();
         writeTimeout = config.getWriteTimeout();
-        transactBufferSize = Math.min(config.getTransactBufferSize(), negotiatedProtocol.getMaxTransactSize());
+        maxTransactSize = negotiatedProtocol.getMaxTransactSize();
+        transactBufferSize = Math.min(config.getTransactBufferSize(), maxTransactSize);
         transactTimeout = config.getTransactTimeout();
         sessionId = session.getSessionId();
         treeId = treeConnect.getTreeId();
+        compressReads = session.getConnection().getConnectionContext().supportsCompression();
     }
 
     @Override
@@ -133,6 +142,10 @@ public class Share implements AutoCloseable {
         return readBufferSize;
     }
 
+    int getReadWindowSize() {
+        return readWindowSize;
+    }
+
     long getReadTimeout() {
         return readTimeout;
     }
@@ -141,6 +154,18 @@ public class Share implements AutoCloseable {
         return writeBufferSize;
     }
 
+    int getWriteWindowSize() {
+        return writeWindowSize;
+    }
+
+    long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    int getAvailableCredits() {
+        return session.getConnection().getAvailableCredits();
+    }
+
     SMB2FileId openFileId(SmbPath path, SMB2ImpersonationLevel impersonationLevel, Set<AccessMask> accessMask,
             Set<FileAttributes> fileAttributes, Set<SMB2ShareAccess> shareAccess,
             SMB2CreateDisposition createDisposition, Set<SMB2CreateOptions> createOptions) {
@@ -151,10 +176,20 @@ public class Share implements AutoCloseable {
     SMB2CreateResponse createFile(SmbPath path, SMB2ImpersonationLevel impersonationLevel, Set<AccessMask> accessMask,
             Set<FileAttributes> fileAttributes, Set<SMB2ShareAccess> shareAccess,
             SMB2CreateDisposition createDisposition, Set<SMB2CreateOptions> createOptions) {
-        SMB2CreateRequest cr = new SMB2CreateRequest(dialect, sessionId, treeId, impersonationLevel, accessMask,
-                fileAttributes, shareAccess, createDisposition, createOptions, path);
-        SMB2CreateResponse resp = sendReceive(cr, "Create", path, getCreateStatusHandler(), transactTimeout);
-        return resp;
+        SMB2CreateRequest cr = createRequest(path, impersonationLevel, accessMask, fileAttributes, shareAccess,
+                createDisposition, createOptions);
+        return createFile(cr, path);
+    }
+
+    SMB2CreateResponse createFile(SMB2CreateRequest cr, SmbPath path) {
+        return sendReceive(cr, "Create", path, getCreateStatusHandler(), transactTimeout);
+    }
+
+    SMB2CreateRequest createRequest(SmbPath path, SMB2ImpersonationLevel impersonationLevel,
+            Set<AccessMask> accessMask, Set<FileAttributes> fileAttributes, Set<SMB2ShareAccess> shareAccess,
+            SMB2CreateDisposition createDisposition, Set<SMB2CreateOptions> createOptions) {
+        return new SMB2CreateRequest(dialect, sessionId, treeId, impersonationLevel, accessMask, fileAttributes,
+                shareAccess, createDisposition, createOptions, path);
     }
 
     protected StatusHandler getCreateStatusHandler() {
@@ -176,28 +211,66 @@ public class Share implements AutoCloseable {
         send(closeReq);
     }
 
+    /**
+     * [MS-SMB2] 3.2.4.25 Application Requests Sending a Lease Break Acknowledgment. This does not wait for the
+     * response, so that the notification task that sends it is not held up by the round trip.
+     */
+    void acknowledgeLeaseBreakNoWait(byte[] leaseKey, Set<SMB2LeaseState> leaseState) {
+        SMB2LeaseBreakAcknowledgment ack = new SMB2LeaseBreakAcknowledgment(dialect, sessionId, treeId, leaseKey, leaseState);
+        send(ack);
+    }
+
+    SMB2Close closeRequest(SMB2FileId fileId) {
+        return new SMB2Close(dialect, sessionId, treeId, fileId);
+    }
+
     SMB2QueryInfoResponse queryInfo(SMB2FileId fileId, SMB2QueryInfoRequest.SMB2QueryInfoType infoType,
             Set<SecurityInformation> securityInfo, FileInformationClass fileInformationClass,
             FileSystemInformationClass fileSystemInformationClass) {
-        SMB2QueryInfoRequest qreq = new SMB2QueryInfoRequest(dialect, sessionId, treeId, fileId, infoType,
-                fileInformationClass, fileSystemInformationClass, null, securityInfo);
+        SMB2QueryInfoRequest qreq = queryInfoRequest(fileId, infoType, securityInfo, fileInformationClass,
+                fileSystemInformationClass);
         return sendReceive(qreq, "QueryInfo", fileId, StatusHandler.SUCCESS, transactTimeout);
     }
 
+    SMB2QueryInfoRequest queryInfoRequest(SMB2FileId fileId, SMB2QueryInfoRequest.SMB2QueryInfoType infoType,
+            Set<SecurityInformation> securityInfo, FileInformationClass fileInformationClass,
+            FileSystemInformationClass fileSystemInformationClass) {
+        return new SMB2QueryInfoRequest(dialect, sessionId, treeId, fileId, infoType, fileInformationClass,
+                fileSystemInformationClass, null, securityInfo);
+    }
+
     void setInfo(SMB2FileId fileId, SMB2SetInfoRequest.SMB2InfoType infoType, Set<SecurityInformation> securityInfo,
             FileInformationClass fileInformationClass, byte[] buffer) {
-        SMB2SetInfoRequest qreq = new SMB2SetInfoRequest(dialect, sessionId, treeId, infoType, fileId,
-                fileInformationClass, securityInfo, buffer);
+        SMB2SetInfoRequest qreq = setInfoRequest(fileId, infoType, securityInfo, fileInformationClass, buffer);
         sendReceive(qreq, "SetInfo", fileId, StatusHandler.SUCCESS, transactTimeout);
     }
 
+    SMB2SetInfoRequest setInfoRequest(SMB2FileId fileId, SMB2SetInfoRequest.SMB2InfoType infoType,
+            Set<SecurityInformation> securityInfo, FileInformationClass fileInformationClass, byte[] buffer) {
+        return new SMB2SetInfoRequest(dialect, sessionId, treeId, infoType, fileId, fileInformationClass,
+                securityInfo, buffer);
+    }
+
     SMB2QueryDirectoryResponse queryDirectory(SMB2FileId fileId,
             Set<SMB2QueryDirectoryRequest.SMB2QueryDirectoryFlags> flags, FileInformationClass informationClass,
             String searchPattern) {
+        return receiveQueryDirectory(queryDirectoryAsync(fileId, flags, informationClass, searchPattern, transactBufferSize), fileId);
+    }
+
+    /**
+     * @param outputBufferSize the maximum number of bytes of directory entries the server returns, which is capped at
+     *                         the maximum transact size negotiated with the server
+     */
+    Future<SMB2QueryDirectoryResponse> queryDirectoryAsync(SMB2FileId fileId,
+            Set<SMB2QueryDirectoryRequest.SMB2QueryDirectoryFlags> flags, FileInformationClass informationClass,
+            String searchPattern, int outputBufferSize) {
         SMB2QueryDirectoryRequest qdr = new SMB2QueryDirectoryRequest(dialect, sessionId, treeId, fileId,
-                informationClass, flags, 0, searchPattern, transactBufferSize);
+                informationClass, flags, 0, searchPattern, Math.min(outputBufferSize, maxTransactSize));
+        return send(qdr);
+    }
 
-        return sendReceive(qdr, "Query directory", fileId, SUCCESS_OR_NO_MORE_FILES_OR_NO_SUCH_FILE, transactTimeout);
+    SMB2QueryDirectoryResponse receiveQueryDirectory(Future<SMB2QueryDirectoryResponse> fut, SMB2FileId fileId) {
+        return receive(fut, "Query directory", fileId, SUCCESS_OR_NO_MORE_FILES_OR_NO_SUCH_FILE, transactTimeout);
     }
 
     SMB2WriteResponse write(SMB2FileId fileId, ByteChunkProvider provider) {
@@ -206,7 +279,7 @@ public class Share implements AutoCloseable {
 
     Future<SMB2WriteResponse> writeAsync(SMB2FileId fileId, ByteChunkProvider provider) {
         SMB2WriteRequest wreq = new SMB2WriteRequest(dialect, fileId, sessionId, treeId, provider, writeBufferSize);
-        return send(wreq);
+        return send(wreq, true);
     }
 
     SMB2ReadResponse read(SMB2FileId fileId, long offset, int length) {
@@ -216,7 +289,8 @@ public class Share implements AutoCloseable {
     Future<SMB2ReadResponse> readAsync(SMB2FileId fileId, long offset, int length) {
         SMB2ReadRequest rreq = new SMB2ReadRequest(dialect, fileId, sessionId, treeId, offset,
                 Math.min(length, readBufferSize));
-        return send(rreq);
+        rreq.setRequestCompressed(compressReads);
+        return send(rreq, true);
     }
 
     private static final EmptyByteChunkProvider EMPTY = new EmptyByteChunkProvider(0);
@@ -356,17 +430,49 @@ public class Share implements AutoCloseable {
     }
 
     private <T extends SMB2Packet> Future<T> send(SMB2Packet request) {
+        return send(request, false);
+    }
+
+    /**
+     * @param anyChannel whether the request can be sent on any channel of the session, which is the case for reads
+     *                   and writes
+     */
+    private <T extends SMB2Packet> Future<T> send(SMB2Packet request, boolean anyChannel) {
         if (!isConnected()) {
             throw new SMBRuntimeException(getClass().getSimpleName() + " has already been closed");
         }
 
         try {
-            return session.send(request);
+            return anyChannel ? session.<T>sendOnAnyChannel(request) : session.<T>send(request);
         } catch (TransportException e) {
             throw new SMBRuntimeException(e);
         }
     }
 
+    /**
+     * Send the requests as a chain of related operations in a single round trip ([MS-SMB2] 3.2.4.1.4). The requests
+     * following the first can refer to the file that was opened or used by the previous request with a
+     * <code>new SMB2FileId()</code>.
+     *
+     * @param requests the requests to chain
+     * @return a Future for the response to each request, in the same order
+     */
+    List<Future<SMB2Packet>> sendRelated(SMB2Packet... requests) {
+        if (!isConnected()) {
+            throw new SMBRuntimeException(getClass().getSimpleName() + " has already been closed");
+        }
+
+        try {
+            return session.sendCompounded(new CompoundedPacket(true, requests));
+        } catch (TransportException e) {
+            throw new SMBRuntimeException(e);
+        }
+    }
+
+    long getTransactTimeout() {
+        return transactTimeout;
+    }
+
     <T extends SMB2Packet> T receive(Future<T> fut, String name, Object target, StatusHandler statusHandler,
             long timeout) {
         T resp = receive(fut, timeout);
@@ -112,6 +112,10 @@ public class TreeConnect {
         return negotiatedProtocol;
     }
 
+    SMBEventBus getBus() {
+        return bus;
+    }
+
     @Override
     public String toString() {
         return String.format("TreeConnect[%s](%s)", treeId, smbPath);
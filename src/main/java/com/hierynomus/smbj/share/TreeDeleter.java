@@ -0,0 +1,231 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.hierynomus.msdtyp.AccessMask;
+import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.msfscc.fileinformation.FileDirectoryCursor;
+import com.hierynomus.msfscc.fileinformation.FileDirectoryInformation;
+import com.hierynomus.mssmb2.SMB2Packet;
+import com.hierynomus.mssmb2.SMBApiException;
+import com.hierynomus.smbj.common.SMBRuntimeException;
+
+import static com.hierynomus.msdtyp.AccessMask.DELETE;
+import static com.hierynomus.msdtyp.AccessMask.FILE_LIST_DIRECTORY;
+import static com.hierynomus.msdtyp.AccessMask.FILE_READ_ATTRIBUTES;
+import static com.hierynomus.mserref.NtStatus.STATUS_DIRECTORY_NOT_EMPTY;
+import static com.hierynomus.mssmb2.SMB2CreateDisposition.FILE_OPEN;
+import static com.hierynomus.mssmb2.SMB2ShareAccess.ALL;
+import static java.util.EnumSet.of;
+
+/**
+ * Deletes a directory tree with a number of threads, each of which empties one directory at a time. The files in a
+ * directory are deleted while it is listed, and the subdirectories that are found are queued. A directory is removed
+ * by the thread that finishes the last thing under it, so the tree is removed bottom-up as the directories empty.
+ * <p/>
+ * Some servers skip entries when the directory is changed while it is listed, so a directory that is not empty when
+ * it is removed is emptied again, up to {@link #MAX_ATTEMPTS} times.
+ */
+class TreeDeleter {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final DiskShare share;
+    private final int window;
+    private final ThreadPoolExecutor executor;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    TreeDeleter(DiskShare share, int parallelism, int window) {
+        this.share = share;
+        this.window = window;
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Tree Deleter " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    void delete(String path) {
+        try {
+            submit(new Node(path, null));
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SMBRuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private void submit(final Node node) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (failure.get() == null) {
+                        empty(node);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    finished(node);
+                }
+            }
+        });
+    }
+
+    /**
+     * Delete the files in the directory, and queue its subdirectories.
+     */
+    private void empty(final Node node) {
+        final Deque<Delete> deletes = new ArrayDeque<>();
+        // With DELETE access the handle is closed rather than kept in the handle cache, where it would keep the
+        // directory from being removed. The root of the share is not removed.
+        EnumSet<AccessMask> accessMask = of(FILE_LIST_DIRECTORY, FILE_READ_ATTRIBUTES);
+        if (!node.path.isEmpty()) {
+            accessMask.add(DELETE);
+        }
+        Directory directory = share.openDirectory(node.path, accessMask, null, ALL, FILE_OPEN, null);
+        try {
+            directory.list(FileDirectoryInformation.class, null, new FileDirectoryCursor.Filter() {
+                @Override
+                public boolean accept(FileDirectoryCursor<?> entry) {
+                    CharSequence name = entry.getFileName();
+                    if (failure.get() != null || isDotOrDotDot(name)) {
+                        return false;
+                    }
+                    String childPath = node.path.isEmpty() ? name.toString() : node.path + "\\" + name;
+                    boolean isDirectory = entry.isSet(FileAttributes.FILE_ATTRIBUTE_DIRECTORY);
+                    if (isDirectory && !entry.isSet(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT)) {
+                        node.remaining.incrementAndGet();
+                        submit(new Node(childPath, node));
+                    } else {
+                        if (deletes.size() >= window) {
+                            deletes.removeFirst().receive();
+                        }
+                        deletes.addLast(new Delete(childPath, isDirectory, share.deleteAsync(childPath, isDirectory)));
+                    }
+                    return false;
+                }
+            });
+            while (!deletes.isEmpty()) {
+                deletes.removeFirst().receive();
+            }
+        } finally {
+            directory.closeSilently();
+        }
+    }
+
+    /**
+     * Remove the directory once everything under it is deleted, and then its parent if this was the last thing under
+     * it.
+     */
+    private void finished(Node node) {
+        while (node != null && node.remaining.decrementAndGet() == 0) {
+            if (failure.get() == null) {
+                try {
+                    if (!remove(node)) {
+                        // Emptied again, the directory is removed when that is finished
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+            if (node.parent == null) {
+                done.countDown();
+            }
+            node = node.parent;
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the directory was not empty, and is emptied again
+     */
+    private boolean remove(Node node) {
+        if (node.path.isEmpty()) {
+            // The root of the share is only emptied
+            return true;
+        }
+        try {
+            share.receiveDelete(node.path, true, share.deleteAsync(node.path, true));
+            return true;
+        } catch (SMBApiException e) {
+            if (e.getStatusCode() != STATUS_DIRECTORY_NOT_EMPTY.getValue() || ++node.attempts >= MAX_ATTEMPTS) {
+                throw e;
+            }
+            System.out.println("tempGT2: " + node.path + " is not empty yet, listing it again");
+            node.remaining.set(1);
+            submit(node);
+            return false;
+        }
+    }
+
+    private static boolean isDotOrDotDot(CharSequence name) {
+        return name.length() > 0 && name.charAt(0) == '.' && (name.length() == 1 || (name.length() == 2 && name.charAt(1) == '.'));
+    }
+
+    private static class Node {
+        private final String path;
+        private final Node parent;
+        // The listing of the directory and the subdirectories that are not removed yet
+        private final AtomicInteger remaining = new AtomicInteger(1);
+        private int attempts;
+
+        private Node(String path, Node parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+    }
+
+    private class Delete {
+        private final String path;
+        private final boolean directory;
+        private final List<Future<SMB2Packet>> responses;
+
+        private Delete(String path, boolean directory, List<Future<SMB2Packet>> responses) {
+            this.path = path;
+            this.directory = directory;
+            this.responses = responses;
+        }
+
+        private void receive() {
+            share.receiveDelete(path, directory, responses);
+        }
+    }
+}
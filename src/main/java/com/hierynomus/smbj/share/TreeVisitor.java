@@ -0,0 +1,60 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share;
+
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.mssmb2.SMBApiException;
+
+/**
+ * Visits the entries of a directory tree, see {@link DiskShare#walk(String, TreeVisitor, int)}.
+ * <p/>
+ * The directories of the tree are listed in parallel, so the methods of the visitor are called from multiple threads
+ * at the same time, and need to be thread-safe. The entries of a single directory are visited in the order in which
+ * the server lists them, by a single thread. A runtime exception thrown by the visitor stops the walk and is rethrown
+ * by {@link DiskShare#walk(String, TreeVisitor, int)}.
+ */
+public interface TreeVisitor {
+    /**
+     * Visit a subdirectory, before it is listed.
+     *
+     * @param path the path of the directory, relative to the share
+     * @return whether the entries of the directory are visited, <code>false</code> to prune the directory
+     */
+    boolean preVisitDirectory(String path, FileIdBothDirectoryInformation information);
+
+    /**
+     * Visit an entry that is not a directory, or a directory that is a reparse point which is not followed.
+     *
+     * @param path the path of the file, relative to the share
+     */
+    void visitFile(String path, FileIdBothDirectoryInformation information);
+
+    /**
+     * Called when a directory could not be opened or listed, e.g. with {@link com.hierynomus.mserref.NtStatus#STATUS_ACCESS_DENIED}. The
+     * walk continues with the other directories, unless the exception is rethrown.
+     *
+     * @param path the path of the directory, relative to the share
+     */
+    void visitDirectoryFailed(String path, SMBApiException exception);
+
+    /**
+     * Whether the directories that have {@link com.hierynomus.msfscc.FileAttributes#FILE_ATTRIBUTE_REPARSE_POINT} set,
+     * such as symbolic links and junctions, are visited and listed like other directories. If not, they are passed to
+     * {@link #visitFile(String, FileIdBothDirectoryInformation)}. A visitor that follows them must prune those that
+     * form a cycle.
+     */
+    boolean followReparsePoints();
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.mssmb2.SMBApiException;
+import com.hierynomus.protocol.commons.EnumWithValue;
+import com.hierynomus.smbj.common.SMBRuntimeException;
+
+import static com.hierynomus.msdtyp.AccessMask.FILE_LIST_DIRECTORY;
+import static com.hierynomus.msdtyp.AccessMask.FILE_READ_ATTRIBUTES;
+import static com.hierynomus.msfscc.FileAttributes.FILE_ATTRIBUTE_DIRECTORY;
+import static com.hierynomus.msfscc.FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT;
+import static com.hierynomus.mssmb2.SMB2CreateDisposition.FILE_OPEN;
+import static com.hierynomus.mssmb2.SMB2ShareAccess.ALL;
+import static java.util.EnumSet.of;
+
+/**
+ * Walks a directory tree with a number of threads, each of which lists one directory at a time. The subdirectories
+ * that are found are queued, so that the directories are listed breadth-first rather than depth-first.
+ * <p/>
+ * A thread requests the next page of a directory while it visits the entries of the current page. A page that is
+ * still outstanding when the thread stops listing the directory early is discarded when it comes in, while the thread
+ * already closes the directory, so a thread can have two requests outstanding. The credits the walk takes are thus
+ * bounded by twice the number of threads, times the credits of a QUERY_DIRECTORY request.
+ */
+class TreeWalker {
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final DiskShare share;
+    private final TreeVisitor visitor;
+    private final ThreadPoolExecutor executor;
+    // The directories that are queued or being listed
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    TreeWalker(DiskShare share, TreeVisitor visitor, int parallelism) {
+        this.share = share;
+        this.visitor = visitor;
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Tree Walker " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    void walk(String path) {
+        try {
+            submit(path, true);
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SMBRuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * @param root whether the directory is the one the walk started from, which fails the walk if it cannot be listed
+     */
+    private void submit(final String path, final boolean root) {
+        pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (failure.get() == null) {
+                        list(path, root);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
+                }
+            }
+        });
+    }
+
+    private void list(String path, boolean root) {
+        Directory directory;
+        try {
+            directory = share.openDirectory(path, of(FILE_LIST_DIRECTORY, FILE_READ_ATTRIBUTES), null, ALL, FILE_OPEN, null);
+        } catch (SMBApiException e) {
+            failed(path, root, e);
+            return;
+        }
+        try {
+            // The entries are visited as each QUERY_DIRECTORY response comes in, while the next one is requested
+            Iterator<FileIdBothDirectoryInformation> entries = directory.iterator(FileIdBothDirectoryInformation.class, null, Integer.MAX_VALUE);
+            while (entries.hasNext()) {
+                FileIdBothDirectoryInformation information = entries.next();
+                if (failure.get() != null) {
+                    return;
+                }
+                String name = information.getFileName();
+                if (name.equals(".") || name.equals("..")) {
+                    continue;
+                }
+                String childPath = path.isEmpty() ? name : path + "\\" + name;
+                long attributes = information.getFileAttributes();
+                // A symbolic link or junction may point back up the tree, so it is not followed unless the visitor asks
+                boolean followed = !EnumWithValue.EnumUtils.isSet(attributes, FILE_ATTRIBUTE_REPARSE_POINT) || visitor.followReparsePoints();
+                if (EnumWithValue.EnumUtils.isSet(attributes, FILE_ATTRIBUTE_DIRECTORY) && followed) {
+                    if (visitor.preVisitDirectory(childPath, information)) {
+                        submit(childPath, false);
+                    }
+                } else {
+                    visitor.visitFile(childPath, information);
+                }
+            }
+        } catch (SMBApiException e) {
+            failed(path, root, e);
+        } finally {
+            directory.closeSilently();
+        }
+    }
+
+    private void failed(String path, boolean root, SMBApiException e) {
+        if (root) {
+            throw e;
+        }
+        visitor.visitDirectoryFailed(path, e);
+    }
+}
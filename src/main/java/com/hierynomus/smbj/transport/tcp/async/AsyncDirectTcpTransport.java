@@ -19,6 +19,7 @@ import com.hierynomus.protocol.Packet;
 import com.hierynomus.protocol.PacketData;
 import com.hierynomus.protocol.commons.buffer.Buffer;
 import com.hierynomus.protocol.commons.buffer.Buffer.BufferException;
+import com.hierynomus.protocol.commons.buffer.BufferPool;
 import com.hierynomus.protocol.transport.PacketHandlers;
 import com.hierynomus.protocol.transport.TransportException;
 import com.hierynomus.protocol.transport.TransportLayer;
@@ -32,6 +33,7 @@ import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -42,6 +44,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class AsyncDirectTcpTransport<D extends PacketData<?>, P extends Packet<?>> implements TransportLayer<P> {
     private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
     private static final int DIRECT_HEADER_SIZE = 4;
+    // Upper bound on the number of queued buffers that are coalesced into a single gathering write
+    private static final int MAX_GATHERED_BUFFERS = 64;
 
     private final PacketHandlers<D, P> handlers;
     private final AsynchronousSocketChannel socketChannel;
@@ -50,15 +54,23 @@ public class AsyncDirectTcpTransport<D extends PacketData<?>, P extends Packet<?
     private int soTimeout = 0;
 
     // AsynchronousSocketChannel doesn't support concurrent writes, so queue pending writes for later
-    private final Queue<ByteBuffer> writeQueue;
+    private final Queue<QueuedBuffer> writeQueue;
     private AtomicBoolean writingNow;
 
     public AsyncDirectTcpTransport(int soTimeout, PacketHandlers<D, P> handlers, AsynchronousChannelGroup group)
         throws IOException {
+        this(soTimeout, BufferPool.UNPOOLED, handlers, group);
+    }
+
+    /**
+     * @param bufferPool the pool the arrays that packets are received in are taken from
+     */
+    public AsyncDirectTcpTransport(int soTimeout, BufferPool bufferPool, PacketHandlers<D, P> handlers,
+                                   AsynchronousChannelGroup group) throws IOException {
         this.soTimeout = soTimeout;
         this.handlers = handlers;
         this.socketChannel = AsynchronousSocketChannel.open(group);
-        this.packetReader = new AsyncPacketReader<>(this.socketChannel, handlers.getPacketFactory(),
+        this.packetReader = new AsyncPacketReader<>(this.socketChannel, bufferPool, handlers.getPacketFactory(),
             handlers.getReceiver());
         this.writeQueue = new LinkedBlockingQueue<>();
         this.connected = new AtomicBoolean(false);
@@ -67,14 +79,16 @@ public class AsyncDirectTcpTransport<D extends PacketData<?>, P extends Packet<?
 
     @Override
     public void write(P packet) throws TransportException {
-        ByteBuffer bufferToSend = prepareBufferToSend(packet); // Serialize first, as it might throw
+        QueuedBuffer[] buffersToSend = prepareBuffersToSend(packet); // Serialize first, as it might throw
         System.out.println("tempGT2: Sending packet << " + packet + " >>");
-        writeOrEnqueue(bufferToSend);
+        writeOrEnqueue(buffersToSend);
     }
 
-    private void writeOrEnqueue(ByteBuffer buffer) {
+    private void writeOrEnqueue(QueuedBuffer[] buffers) {
         synchronized (this) {
-            writeQueue.add(buffer);
+            for (QueuedBuffer buffer : buffers) {
+                writeQueue.add(buffer);
+            }
             if (!writingNow.getAndSet(true)) {
                 startAsyncWrite();
             }
@@ -117,11 +131,12 @@ public class AsyncDirectTcpTransport<D extends PacketData<?>, P extends Packet<?
         if (!isConnected()) {
             throw new IllegalStateException("Transport is not connected");
         }
-        ByteBuffer toSend = writeQueue.peek();
-        socketChannel.write(toSend, soTimeout, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Object>() {
+        // Coalesce the queued buffers (e.g. the headers and payloads of multiple packets) into one gathering write.
+        ByteBuffer[] toSend = gatherQueuedBuffers();
+        socketChannel.write(toSend, 0, toSend.length, soTimeout, TimeUnit.MILLISECONDS, null, new CompletionHandler<Long, Object>() {
 
             @Override
-            public void completed(Integer result, Object attachment) {
+            public void completed(Long result, Object attachment) {
                 System.out.println("tempGT2: Written " + result + " bytes to async transport");
                 startNextWriteIfWaiting();
             }
@@ -141,12 +156,13 @@ public class AsyncDirectTcpTransport<D extends PacketData<?>, P extends Packet<?
 
             private void startNextWriteIfWaiting() {
                 synchronized (AsyncDirectTcpTransport.this) {
-                    ByteBuffer head = writeQueue.peek();
-                    if (head != null && head.hasRemaining()) {
+                    QueuedBuffer head = writeQueue.peek();
+                    while (head != null && !head.buffer.hasRemaining()) {
+                        writeQueue.remove().release();
+                        head = writeQueue.peek();
+                    }
+                    if (head != null) {
                         startAsyncWrite();
-                    } else if (head != null) {
-                        writeQueue.remove();
-                        startNextWriteIfWaiting();
                     } else {
                         writingNow.set(false);
                     }
@@ -155,20 +171,52 @@ public class AsyncDirectTcpTransport<D extends PacketData<?>, P extends Packet<?
         });
     }
 
-    private ByteBuffer prepareBufferToSend(P packet) {
+    private ByteBuffer[] gatherQueuedBuffers() {
+        int count = Math.min(writeQueue.size(), MAX_GATHERED_BUFFERS);
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        Iterator<QueuedBuffer> it = writeQueue.iterator();
+        for (int i = 0; i < count; i++) {
+            buffers[i] = it.next().buffer;
+        }
+        return buffers;
+    }
+
+    /**
+     * Serialize the packet and wrap it, without copying, together with the Direct TCP header.
+     */
+    private QueuedBuffer[] prepareBuffersToSend(P packet) {
         Buffer<?> packetData = handlers.getSerializer().write(packet);
         int dataSize = packetData.available();
-        ByteBuffer toSend = ByteBuffer.allocate(dataSize + DIRECT_HEADER_SIZE);
-        toSend.order(ByteOrder.BIG_ENDIAN);
-        toSend.putInt(packetData.available()); // also writes the initial 0 byte
-        toSend.put(packetData.array(), packetData.rpos(), packetData.available());
-        toSend.flip();
+        ByteBuffer header = ByteBuffer.allocate(DIRECT_HEADER_SIZE);
+        header.order(ByteOrder.BIG_ENDIAN);
+        header.putInt(dataSize); // also writes the initial 0 byte
+        header.flip();
+        ByteBuffer data = ByteBuffer.wrap(packetData.array(), packetData.rpos(), dataSize);
         try {
             packetData.skip(dataSize);
         } catch (BufferException e) {
             throw SMBRuntimeException.Wrapper.wrap(e); // should never happen
         }
-        return toSend;
+        return new QueuedBuffer[] { new QueuedBuffer(header, null), new QueuedBuffer(data, packetData) };
+    }
+
+    /**
+     * A buffer waiting to be written, with the packet buffer it wraps so that it can be released once written.
+     */
+    private static class QueuedBuffer {
+        private final ByteBuffer buffer;
+        private final Buffer<?> packetData;
+
+        private QueuedBuffer(ByteBuffer buffer, Buffer<?> packetData) {
+            this.buffer = buffer;
+            this.packetData = packetData;
+        }
+
+        private void release() {
+            if (packetData != null) {
+                packetData.release();
+            }
+        }
     }
 
 }
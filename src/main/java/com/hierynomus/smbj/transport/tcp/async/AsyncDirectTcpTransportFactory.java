@@ -34,7 +34,7 @@ public class AsyncDirectTcpTransportFactory<D extends PacketData<?>, P extends P
     @Override
     public TransportLayer<P> createTransportLayer(PacketHandlers<D, P> handlers, SmbConfig config) {
         try {
-            return new AsyncDirectTcpTransport<>(config.getSoTimeout(), handlers, group);
+            return new AsyncDirectTcpTransport<>(config.getSoTimeout(), config.getBufferPool(), handlers, group);
         } catch (IOException e) {
             throw new SMBRuntimeException(e);
         }
@@ -25,11 +25,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.hierynomus.protocol.PacketData;
 import com.hierynomus.protocol.commons.buffer.Buffer.BufferException;
+import com.hierynomus.protocol.commons.buffer.BufferPool;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.protocol.transport.PacketFactory;
 import com.hierynomus.protocol.transport.PacketReceiver;
 
 public class AsyncPacketReader<D extends PacketData<?>> {
     private final PacketFactory<D> packetFactory;
+    private final BufferPool bufferPool;
     private PacketReceiver<D> handler;
     private final AsynchronousSocketChannel channel;
     private String remoteHost;
@@ -39,7 +42,16 @@ public class AsyncPacketReader<D extends PacketData<?>> {
 
     public AsyncPacketReader(AsynchronousSocketChannel channel, PacketFactory<D> packetFactory,
                              PacketReceiver<D> handler) {
+        this(channel, BufferPool.UNPOOLED, packetFactory, handler);
+    }
+
+    /**
+     * @param bufferPool the pool the arrays that packets are received in are taken from
+     */
+    public AsyncPacketReader(AsynchronousSocketChannel channel, BufferPool bufferPool, PacketFactory<D> packetFactory,
+                             PacketReceiver<D> handler) {
         this.channel = channel;
+        this.bufferPool = bufferPool;
         this.packetFactory = packetFactory;
         this.handler = handler;
     }
@@ -47,7 +59,7 @@ public class AsyncPacketReader<D extends PacketData<?>> {
     public void start(String remoteHost, int soTimeout) {
         this.remoteHost = remoteHost;
         this.soTimeout = soTimeout;
-        initiateNextRead(new PacketBufferReader());
+        initiateNextRead(new PacketBufferReader(bufferPool));
     }
 
     public void stop() {
@@ -84,7 +96,7 @@ public class AsyncPacketReader<D extends PacketData<?>> {
                 }
 
                 private void processPackets(PacketBufferReader reader) {
-                    for (byte[] packetBytes = reader.readNext(); packetBytes != null; packetBytes = reader
+                    for (PooledArray packetBytes = reader.readNext(); packetBytes != null; packetBytes = reader
                         .readNext()) {
                         readAndHandlePacket(packetBytes);
                     }
@@ -99,7 +111,7 @@ public class AsyncPacketReader<D extends PacketData<?>> {
             });
     }
 
-    private void readAndHandlePacket(byte[] packetBytes) {
+    private void readAndHandlePacket(PooledArray packetBytes) {
         try {
             D packet = packetFactory.read(packetBytes);
             System.out.println("tempGT2: Received packet << " + packet + " >>");
@@ -16,6 +16,8 @@
 package com.hierynomus.smbj.transport.tcp.async;
 
 import com.hierynomus.protocol.Packet;
+import com.hierynomus.protocol.commons.buffer.BufferPool;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -26,29 +28,43 @@ public class PacketBufferReader {
     private static final int READ_BUFFER_CAPACITY = 9000; // Size of a Jumbo frame
 
     private final ByteBuffer readBuffer;
-    private byte[] currentPacketBytes;
+    private final BufferPool bufferPool;
+    private PooledArray currentPacket;
     private int currentPacketLength = NO_PACKET_LENGTH;
     private int currentPacketOffset = 0;
 
     public <P extends Packet<?>> PacketBufferReader() {
-        this.readBuffer = ByteBuffer.allocate(READ_BUFFER_CAPACITY);
+        this(BufferPool.UNPOOLED);
+    }
+
+    /**
+     * @param bufferPool the pool the arrays that packets are received in are taken from
+     */
+    public <P extends Packet<?>> PacketBufferReader(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        // A direct buffer lets the channel read straight into it, instead of through a temporary direct buffer.
+        this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_CAPACITY);
         this.readBuffer.order(ByteOrder.BIG_ENDIAN);
     }
 
 
-    public byte[] readNext() {
+    /**
+     * @return the next complete packet, or {@code null} if more data needs to be received first. The caller owns the
+     * reference to the returned array.
+     */
+    public PooledArray readNext() {
         readBuffer.flip(); // prepare to process received data
-        byte[] bytes = null;
+        PooledArray bytes = null;
         if (isAwaitingHeader() && isHeaderAvailable()) {
             currentPacketLength = readPacketHeader();
-            currentPacketBytes = new byte[currentPacketLength];
+            currentPacket = new PooledArray(bufferPool, currentPacketLength);
             bytes = readPacketBody();
         } else if (!isAwaitingHeader()) {
             bytes = readPacketBody();
         }
         readBuffer.compact(); // prepare to receive more data
         if (bytes != null) {
-            currentPacketBytes = null;
+            currentPacket = null;
             currentPacketOffset = 0;
             currentPacketLength = NO_PACKET_LENGTH;
         }
@@ -71,16 +87,16 @@ public class PacketBufferReader {
         return currentPacketLength == NO_PACKET_LENGTH;
     }
 
-    private byte[] readPacketBody() {
+    private PooledArray readPacketBody() {
         int length = currentPacketLength - currentPacketOffset;
         if (length > readBuffer.remaining()) {
             length = readBuffer.remaining();
         }
-        readBuffer.get(currentPacketBytes, currentPacketOffset, length);
+        readBuffer.get(currentPacket.array(), currentPacketOffset, length);
         currentPacketOffset += length;
 
         if (currentPacketOffset == currentPacketLength) {
-            return currentPacketBytes;
+            return currentPacket;
         }
         return null;
     }
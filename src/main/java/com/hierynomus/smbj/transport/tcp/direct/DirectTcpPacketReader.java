@@ -17,7 +17,8 @@ package com.hierynomus.smbj.transport.tcp.direct;
 
 import com.hierynomus.protocol.PacketData;
 import com.hierynomus.protocol.commons.buffer.Buffer;
-import com.hierynomus.protocol.commons.buffer.Endian;
+import com.hierynomus.protocol.commons.buffer.BufferPool;
+import com.hierynomus.protocol.commons.buffer.PooledArray;
 import com.hierynomus.protocol.transport.PacketFactory;
 import com.hierynomus.protocol.transport.PacketReceiver;
 import com.hierynomus.protocol.transport.TransportException;
@@ -30,15 +31,27 @@ import java.io.InputStream;
 public class DirectTcpPacketReader<D extends PacketData<?>> extends PacketReader<D> {
 
     private final PacketFactory<D> packetFactory;
+    private final BufferPool bufferPool;
+    private final byte[] tcpHeader = new byte[4];
 
     public DirectTcpPacketReader(String host, InputStream in, PacketFactory<D> packetFactory, PacketReceiver<D> handler) {
+        this(host, in, BufferPool.UNPOOLED, packetFactory, handler);
+    }
+
+    /**
+     * @param bufferPool the pool the arrays that packets are received in are taken from
+     */
+    public DirectTcpPacketReader(String host, InputStream in, BufferPool bufferPool, PacketFactory<D> packetFactory, PacketReceiver<D> handler) {
         super(host, in, handler);
         this.packetFactory = packetFactory;
+        this.bufferPool = bufferPool;
     }
 
     private D readPacket(int packetLength) throws IOException, Buffer.BufferException {
-        byte[] buf = new byte[packetLength];
-        readFully(buf);
+        // The packet is parsed in place, this array is the only copy of the received data. It goes back to the pool
+        // once the packet is handled, and the responses that still read it are released.
+        PooledArray buf = new PooledArray(bufferPool, packetLength);
+        readFully(buf.array(), packetLength);
         return packetFactory.read(buf);
     }
 
@@ -54,17 +67,14 @@ public class DirectTcpPacketReader<D extends PacketData<?>> extends PacketReader
         }
     }
 
-    private int readTcpHeader() throws IOException, Buffer.BufferException {
-        byte[] tcpHeader = new byte[4];
-        readFully(tcpHeader);
-        Buffer.PlainBuffer plainBuffer = new Buffer.PlainBuffer(tcpHeader, Endian.BE);
-        plainBuffer.readByte();
-        int packetLength = plainBuffer.readUInt24();
-        return packetLength;
+    private int readTcpHeader() throws IOException {
+        readFully(tcpHeader, tcpHeader.length);
+        // Direct TCP transport header: a zero byte followed by the 24-bit big-endian packet length.
+        return ((tcpHeader[1] & 0xFF) << 16) | ((tcpHeader[2] & 0xFF) << 8) | (tcpHeader[3] & 0xFF);
     }
 
-    private void readFully(byte[] buffer) throws IOException {
-        int toRead = buffer.length;
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int toRead = length;
         int offset = 0;
         while (toRead > 0) {
             int bytesRead = in.read(buffer, offset, toRead);
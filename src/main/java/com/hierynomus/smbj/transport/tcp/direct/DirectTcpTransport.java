@@ -18,6 +18,7 @@ package com.hierynomus.smbj.transport.tcp.direct;
 import com.hierynomus.protocol.Packet;
 import com.hierynomus.protocol.PacketData;
 import com.hierynomus.protocol.commons.buffer.Buffer;
+import com.hierynomus.protocol.commons.buffer.BufferPool;
 import com.hierynomus.protocol.commons.socket.ProxySocketFactory;
 import com.hierynomus.protocol.transport.PacketHandlers;
 import com.hierynomus.protocol.transport.TransportException;
@@ -43,6 +44,7 @@ public class DirectTcpTransport<D extends PacketData<?>, P extends Packet<?>> im
 
     private SocketFactory socketFactory = new ProxySocketFactory();
     private int soTimeout;
+    private final BufferPool bufferPool;
 
     private Socket socket;
     private BufferedOutputStream output;
@@ -51,31 +53,46 @@ public class DirectTcpTransport<D extends PacketData<?>, P extends Packet<?>> im
     private static final int INITIAL_BUFFER_SIZE = 9000;
 
     public DirectTcpTransport(SocketFactory socketFactory, int soTimeout, PacketHandlers<D, P> handlers) {
+        this(socketFactory, soTimeout, BufferPool.UNPOOLED, handlers);
+    }
+
+    /**
+     * @param bufferPool the pool the arrays that packets are received in are taken from
+     */
+    public DirectTcpTransport(SocketFactory socketFactory, int soTimeout, BufferPool bufferPool, PacketHandlers<D, P> handlers) {
         this.soTimeout = soTimeout;
         this.socketFactory = socketFactory;
+        this.bufferPool = bufferPool;
         this.handlers = handlers;
     }
 
     @Override
     public void write(P packet) throws TransportException {
-        System.out.println("tempGT2: Acquiring write lock to send packet << " + packet + " >>");
-        writeLock.lock();
+        if (!isConnected()) {
+            throw new TransportException(format("Cannot write %s as transport is disconnected", packet));
+        }
+        // Serialize (and thereby sign or encrypt) the packet before taking the lock, so that this happens in parallel
+        // for concurrent writers. Only the write to the socket itself needs to be serialized.
+        Buffer<?> packetData = handlers.getSerializer().write(packet);
         try {
-            if (!isConnected()) {
-                throw new TransportException(format("Cannot write %s as transport is disconnected", packet));
-            }
+            System.out.println("tempGT2: Acquiring write lock to send packet << " + packet + " >>");
+            writeLock.lock();
             try {
+                if (!isConnected()) {
+                    throw new TransportException(format("Cannot write %s as transport is disconnected", packet));
+                }
                 System.out.println("tempGT2: Writing packet " + packet);
-                Buffer<?> packetData = handlers.getSerializer().write(packet);
                 writeDirectTcpPacketHeader(packetData.available());
                 writePacketData(packetData);
                 output.flush();
                 System.out.println("tempGT2: Packet " + packet + " sent, lock released.");
             } catch (IOException ioe) {
                 throw new TransportException(ioe);
+            } finally {
+                writeLock.unlock();
             }
         } finally {
-            writeLock.unlock();
+            packetData.release();
         }
     }
 
@@ -89,7 +106,7 @@ public class DirectTcpTransport<D extends PacketData<?>, P extends Packet<?>> im
     private void initWithSocket(String remoteHostname) throws IOException {
         this.socket.setSoTimeout(soTimeout);
         this.output = new BufferedOutputStream(this.socket.getOutputStream(), INITIAL_BUFFER_SIZE);
-        packetReaderThread = new DirectTcpPacketReader<>(remoteHostname, socket.getInputStream(), handlers.getPacketFactory(), handlers.getReceiver());
+        packetReaderThread = new DirectTcpPacketReader<>(remoteHostname, socket.getInputStream(), bufferPool, handlers.getPacketFactory(), handlers.getReceiver());
         packetReaderThread.start();
     }
 
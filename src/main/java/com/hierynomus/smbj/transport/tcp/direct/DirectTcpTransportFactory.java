@@ -25,7 +25,7 @@ import com.hierynomus.smbj.transport.TransportLayerFactory;
 public class DirectTcpTransportFactory<D extends PacketData<?>, P extends Packet<?>> implements TransportLayerFactory<D, P> {
     @Override
     public TransportLayer<P> createTransportLayer(PacketHandlers<D, P> handlers, SmbConfig config) {
-        return new DirectTcpTransport<>(config.getSocketFactory(), config.getSoTimeout(), handlers);
+        return new DirectTcpTransport<>(config.getSocketFactory(), config.getSoTimeout(), config.getBufferPool(), handlers);
     }
 
 }
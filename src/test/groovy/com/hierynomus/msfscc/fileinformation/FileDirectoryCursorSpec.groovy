@@ -0,0 +1,113 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.msfscc.fileinformation
+
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.common.SMBRuntimeException
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.charset.StandardCharsets
+
+import static com.hierynomus.msfscc.FileAttributes.FILE_ATTRIBUTE_ARCHIVE
+import static com.hierynomus.msfscc.FileAttributes.FILE_ATTRIBUTE_DIRECTORY
+import static com.hierynomus.msfscc.FileAttributes.FILE_ATTRIBUTE_HIDDEN
+import static com.hierynomus.msfscc.FileAttributes.FILE_ATTRIBUTE_NORMAL
+
+class FileDirectoryCursorSpec extends Specification {
+  // The offset of FileNameLength in a FileIdBothDirectoryInformation entry
+  private static final int FILE_NAME_LENGTH_OFFSET = 60
+
+  def decoder = FileInformationFactory.getDecoder(FileIdBothDirectoryInformation.class)
+
+  def "should read the fields of each entry from the buffer"() {
+    given:
+    byte[] data = page([
+      [".", FILE_ATTRIBUTE_DIRECTORY.value, 0L, 132000000000000000L],
+      ["file.txt", FILE_ATTRIBUTE_NORMAL.value, 12345L, 132000000010000000L],
+      ["verborgen map", FILE_ATTRIBUTE_ARCHIVE.value | FILE_ATTRIBUTE_HIDDEN.value, 1L << 40, 132000000020000000L]
+    ])
+
+    when:
+    def cursor = FileInformationFactory.createFileInformationCursor(data, decoder)
+    def entries = []
+    while (cursor.next()) {
+      entries << [cursor.fileName.toString(), cursor.fileAttributes, cursor.endOfFile, cursor.lastWriteTime, cursor.read().fileName]
+    }
+
+    then:
+    entries == [
+      [".", FILE_ATTRIBUTE_DIRECTORY.value, 0L, 132000000000000000L, "."],
+      ["file.txt", FILE_ATTRIBUTE_NORMAL.value, 12345L, 132000000010000000L, "file.txt"],
+      ["verborgen map", FILE_ATTRIBUTE_ARCHIVE.value | FILE_ATTRIBUTE_HIDDEN.value, 1L << 40, 132000000020000000L, "verborgen map"]
+    ]
+    entries == FileInformationFactory.parseFileInformationList(data, decoder).collect {
+      [it.fileName, it.fileAttributes, it.endOfFile, it.lastWriteTime.windowsTimeStamp, it.fileName]
+    }
+    !cursor.next()
+  }
+
+  @Unroll
+  def "should fail on an entry of which the file name length #fileNameLength exceeds the buffer"() {
+    given:
+    byte[] data = page([["file.txt", FILE_ATTRIBUTE_NORMAL.value, 0L, 0L]])
+    ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).putInt(FILE_NAME_LENGTH_OFFSET, (int) fileNameLength)
+    def cursor = FileInformationFactory.createFileInformationCursor(data, decoder)
+
+    when:
+    cursor.next()
+
+    then:
+    thrown(SMBRuntimeException)
+
+    where:
+    // The largest length would overflow an int when it is added to the offset of the file name
+    fileNameLength << [18L, 0x7ffffff8L, 0xfffffffeL]
+  }
+
+  /**
+   * FileIdBothDirectoryInformation entries ([MS-FSCC] 2.4.17) of a name, attributes, end of file and last write time,
+   * each aligned on an 8-byte boundary.
+   */
+  private static byte[] page(List<List> entries) {
+    def buffer = new SMBBuffer()
+    entries.eachWithIndex { List entry, int i ->
+      byte[] name = (entry[0] as String).getBytes(StandardCharsets.UTF_16LE)
+      int length = 104 + name.length
+      int nextEntryOffset = i < entries.size() - 1 ? (length + 7) & ~7 : 0
+      buffer.putUInt32(nextEntryOffset) // NextEntryOffset (4 bytes)
+      buffer.putUInt32(0) // FileIndex (4 bytes)
+      buffer.putLong(0) // CreationTime (8 bytes)
+      buffer.putLong(0) // LastAccessTime (8 bytes)
+      buffer.putLong(entry[3] as long) // LastWriteTime (8 bytes)
+      buffer.putLong(0) // ChangeTime (8 bytes)
+      buffer.putLong(entry[2] as long) // EndOfFile (8 bytes)
+      buffer.putLong(0) // AllocationSize (8 bytes)
+      buffer.putUInt32(entry[1] as long) // FileAttributes (4 bytes)
+      buffer.putUInt32(name.length) // FileNameLength (4 bytes)
+      buffer.putUInt32(0) // EaSize (4 bytes)
+      buffer.putRawBytes(new byte[28]) // ShortNameLength (1 byte), Reserved1 (1 byte), ShortName (24 bytes), Reserved2 (2 bytes)
+      buffer.putRawBytes(new byte[8]) // FileId (8 bytes)
+      buffer.putRawBytes(name) // FileName (variable)
+      if (nextEntryOffset > 0) {
+        buffer.putRawBytes(new byte[nextEntryOffset - length])
+      }
+    }
+    buffer.compactData
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.mssmb2.messages
+
+import com.hierynomus.msdtyp.AccessMask
+import com.hierynomus.mssmb2.SMB2CreateDisposition
+import com.hierynomus.mssmb2.SMB2Dialect
+import com.hierynomus.mssmb2.SMB2LeaseState
+import com.hierynomus.mssmb2.SMB2ShareAccess
+import com.hierynomus.mssmb2.messages.submodule.SMB2Lease
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.common.SmbPath
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class SMB2CreateRequestSpec extends Specification {
+
+  @Unroll
+  def "should request a lease in an 8-byte aligned create context (#dialect, '#path')"() {
+    given:
+    def leaseKey = (1..16) as byte[]
+    def request = new SMB2CreateRequest(dialect, 1L, 1L, null, EnumSet.of(AccessMask.FILE_READ_DATA), null, SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null, new SmbPath("localhost", "share", path))
+    request.setLease(new SMB2Lease(leaseKey, EnumSet.of(SMB2LeaseState.SMB2_LEASE_READ_CACHING, SMB2LeaseState.SMB2_LEASE_HANDLE_CACHING), 0))
+    def buffer = new SMBBuffer()
+
+    when:
+    request.write(buffer)
+    def data = new SMBBuffer(buffer.getCompactData())
+    data.rpos(64 + 3)
+    def oplockLevel = data.readByte()
+    data.rpos(64 + 48)
+    def contextsOffset = data.readUInt32AsInt()
+    def contextsLength = data.readUInt32AsInt()
+    data.rpos(contextsOffset + 16)
+    def name = new String(data.readRawBytes(4), "US-ASCII")
+    data.rpos(contextsOffset + 24)
+    def key = data.readRawBytes(16)
+    def state = data.readUInt32()
+
+    then:
+    oplockLevel == (byte) 0xFF
+    contextsOffset % 8 == 0
+    contextsLength == 24 + leaseSize
+    contextsOffset + contextsLength == buffer.wpos()
+    name == "RqLs"
+    key == leaseKey
+    state == 0x3
+
+    where:
+    dialect              | path       | leaseSize
+    SMB2Dialect.SMB_2_1  | "file.txt" | 32
+    SMB2Dialect.SMB_2_1  | ""         | 32
+    SMB2Dialect.SMB_3_0  | "dir\\a"   | 52
+  }
+}
@@ -17,6 +17,7 @@ package com.hierynomus.mssmb2.messages
 
 import com.hierynomus.msdtyp.FileTime
 import com.hierynomus.mserref.NtStatus
+import com.hierynomus.mssmb2.SMB2LeaseState
 import com.hierynomus.mssmb2.SMB2MessageConverter
 import com.hierynomus.protocol.commons.ByteArrayUtils
 import com.hierynomus.smb.SMBBuffer
@@ -52,4 +53,38 @@ class SMB2CreateResponseSpec extends AbstractPacketReadSpec {
     resp instanceof SMB2CreateResponse
     resp.getHeader().getStatusCode() == NtStatus.STATUS_PENDING.getValue()
   }
+
+  def "should read the lease granted in the create contexts"() {
+    given:
+    String hexString1 = "fe534d4240000000000000000500010001000000000000000400000000000000000000000100000009000000004000000000000000000000000000000000000059000000010000006aa787efa59dd1016aa787efa59dd1016aa787efa59dd101954ff5efa59dd101000000000000000000000000000000001000000000000000030000001000000001000000100000000000000000000000"
+    def leaseKey = (1..16) as byte[]
+    def buffer = new SMBBuffer()
+    buffer.putRawBytes(ByteArrayUtils.parseHex(hexString1), 0, 144)
+    buffer.putUInt32(152) // CreateContextsOffset
+    buffer.putUInt32(76) // CreateContextsLength
+    buffer.putUInt32(0) // Next
+    buffer.putUInt16(16) // NameOffset
+    buffer.putUInt16(4) // NameLength
+    buffer.putReserved2()
+    buffer.putUInt16(24) // DataOffset
+    buffer.putUInt32(52) // DataLength
+    buffer.putRawBytes("RqLs".bytes)
+    buffer.putReserved4()
+    buffer.putRawBytes(leaseKey)
+    buffer.putUInt32(0x3) // LeaseState
+    buffer.putReserved(28) // LeaseFlags, LeaseDuration, ParentLeaseKey
+    buffer.putUInt16(5) // Epoch
+    buffer.putReserved2()
+    def bytes = buffer.getCompactData()
+    bytes[66] = (byte) 0xFF // OplockLevel - SMB2_OPLOCK_LEVEL_LEASE
+
+    when:
+    def resp = convert(bytes) as SMB2CreateResponse
+
+    then:
+    resp.lease.leaseKey == leaseKey
+    resp.lease.leaseState == EnumSet.of(SMB2LeaseState.SMB2_LEASE_READ_CACHING, SMB2LeaseState.SMB2_LEASE_HANDLE_CACHING)
+    resp.lease.epoch == 5
+    Arrays.equals(([0x03, 0x00, 0x00, 0x00, 0x10, 0x00, 0x00, 0x00] as byte[]), resp.fileId.persistentHandle)
+  }
 }
@@ -16,7 +16,10 @@
 package com.hierynomus.mssmb2.messages
 
 import com.hierynomus.mserref.NtStatus
+import com.hierynomus.mssmb2.SMB2PacketData
 import com.hierynomus.protocol.commons.ByteArrayUtils
+import com.hierynomus.protocol.commons.buffer.PooledArray
+import com.hierynomus.protocol.commons.buffer.SizeClassedBufferPool
 import com.hierynomus.smb.SMBBuffer
 import spock.lang.Specification
 
@@ -37,6 +40,65 @@ class SMB2ReadResponseSpec extends AbstractPacketReadSpec {
     }
   }
 
+  def "should expose read data without copying it out of the packet"() {
+    given:
+    String hexString1 = "fe534d4240000000000000000800010001000000000000004f0b0000000000000000000001000000610000000074000000000000000000000000000000000000110050000400000000000000000000000a0b0c0d"
+    byte[] bytes1 = ByteArrayUtils.parseHex(hexString1)
+
+    when:
+    def response = convert(bytes1) as SMB2ReadResponse
+    def target = new byte[6]
+    def read = response.readData(target, 1, 10)
+    def out = new ByteArrayOutputStream()
+    response.writeData(out)
+
+    then:
+    response.dataLength == 4
+    read == 4
+    target == [0, 0x0a, 0x0b, 0x0c, 0x0d, 0] as byte[]
+    out.toByteArray() == [0x0a, 0x0b, 0x0c, 0x0d] as byte[]
+    response.data == [0x0a, 0x0b, 0x0c, 0x0d] as byte[]
+    response.dataAsByteBuffer.remaining() == 4
+    response.dataAsByteBuffer.get() == 0x0a as byte
+  }
+
+  def "should keep the pooled array it was received in until the response is released"() {
+    given:
+    byte[] bytes = ByteArrayUtils.parseHex("fe534d4240000000000000000800010001000000000000004f0b0000000000000000000001000000610000000074000000000000000000000000000000000000110050000400000000000000000000000a0b0c0d")
+    def pool = new SizeClassedBufferPool(4096, 2, 1)
+    def received = new PooledArray(pool, bytes.length)
+    System.arraycopy(bytes, 0, received.array(), 0, bytes.length)
+
+    when:
+    def response = converter.readPacket(null, new SMB2PacketData(received)) as SMB2ReadResponse
+    received.release()
+
+    then:
+    response.dataAsByteBuffer.get() == 0x0a as byte
+    !pool.acquire(bytes.length).is(received.array())
+
+    when:
+    response.release()
+
+    then:
+    pool.acquire(bytes.length).is(received.array())
+  }
+
+  def "should return a copy of the data that was read"() {
+    given:
+    def response = new SMB2ReadResponse()
+    response.data = [0x0a, 0x0b, 0x0c, 0x0d] as byte[]
+    response.dataLength = 4
+
+    when:
+    def copy = response.getData()
+    copy[0] = 0x01 as byte
+
+    then:
+    !copy.is(response.getData())
+    response.getData() == [0x0a, 0x0b, 0x0c, 0x0d] as byte[]
+  }
+
   def "should parse read EOF"() {
     given:
     String hexString1 = "fe534d4240000000110000c0080001000100000000000000500b0000000000000000000001000000610000000074000000000000000000000000000000000000090000000000000099"
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.mssmb2.messages.submodule
+
+import com.hierynomus.protocol.commons.buffer.Endian
+import com.hierynomus.smb.SMBBuffer
+import spock.lang.Specification
+
+class SMB2NetworkInterfaceInfoSpec extends Specification {
+
+  def "should read the chain of network interfaces"() {
+    given:
+    def buffer = new SMBBuffer()
+    putInterface(buffer, 152, 3, 0x1, 25000000000L, 0x2, [10, 0, 0, 7] as byte[])
+    putInterface(buffer, 0, 4, 0x0, 1000000000L, 0x17, InetAddress.getByName("fe80::1").address)
+
+    when:
+    def interfaces = SMB2NetworkInterfaceInfo.readAll(new SMBBuffer(buffer.getCompactData()))
+
+    then:
+    interfaces.size() == 2
+    interfaces[0].ifIndex == 3
+    interfaces[0].capabilities == EnumSet.of(SMB2NetworkInterfaceInfo.Capability.RSS_CAPABLE)
+    interfaces[0].linkSpeed == 25000000000L
+    interfaces[0].address == InetAddress.getByName("10.0.0.7")
+    interfaces[1].ifIndex == 4
+    interfaces[1].capabilities.isEmpty()
+    interfaces[1].address == InetAddress.getByName("fe80::1")
+  }
+
+  private static void putInterface(SMBBuffer buffer, long next, long ifIndex, long capability, long linkSpeed, int family, byte[] address) {
+    buffer.putUInt32(next)
+    buffer.putUInt32(ifIndex)
+    buffer.putUInt32(capability)
+    buffer.putReserved4()
+    buffer.putLong(linkSpeed)
+    int start = buffer.wpos()
+    buffer.putUInt16(family)
+    buffer.putUInt16(445, Endian.BE)
+    if (family == 0x17) {
+      buffer.putUInt32(0)
+    }
+    buffer.putRawBytes(address)
+    buffer.putReserved(128 - (buffer.wpos() - start))
+  }
+}
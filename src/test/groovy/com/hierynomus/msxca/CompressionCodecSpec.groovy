@@ -0,0 +1,138 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.msxca
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.DataFormatException
+
+class CompressionCodecSpec extends Specification {
+
+  @Unroll
+  def "#codec.class.simpleName should decompress its compressed data of #data.length bytes"() {
+    given:
+    def compressed = new byte[data.length * 2 + 1024]
+    def decompressed = new byte[data.length]
+
+    when:
+    def length = codec.compress(data, 0, data.length, compressed, 0, compressed.length)
+    codec.decompress(compressed, 0, length, decompressed, 0, data.length)
+
+    then:
+    length >= 0
+    decompressed == data
+
+    where:
+    [codec, data] << [[new PlainLZ77(), new LZNT1(), new LZ77Huffman()], inputs()].combinations()
+  }
+
+  @Unroll
+  def "#codec.class.simpleName should shrink text"() {
+    given:
+    def data = text(100000)
+    def compressed = new byte[data.length]
+
+    expect:
+    codec.compress(data, 0, data.length, compressed, 0, compressed.length) < data.length / 4
+
+    where:
+    codec << [new PlainLZ77(), new LZNT1(), new LZ77Huffman()]
+  }
+
+  @Unroll
+  def "#codec.class.simpleName should report that random data does not fit in fewer bytes"() {
+    given:
+    def data = random(20000)
+    def compressed = new byte[data.length]
+
+    expect:
+    codec.compress(data, 0, data.length, compressed, 0, data.length - 1) == -1
+
+    where:
+    codec << [new PlainLZ77(), new LZNT1(), new LZ77Huffman()]
+  }
+
+  def "should decompress the plain LZ77 example of [MS-XCA]"() {
+    given:
+    byte[] compressed = [0xff, 0xff, 0xff, 0x1f, 0x61, 0x62, 0x63, 0x17, 0x00, 0x0f, 0xff, 0x26, 0x01] as byte[]
+    def expected = ("abc" * 100).bytes
+    def decompressed = new byte[expected.length]
+
+    when:
+    new PlainLZ77().decompress(compressed, 0, compressed.length, decompressed, 0, decompressed.length)
+
+    then:
+    decompressed == expected
+  }
+
+  def "should compress to the plain LZ77 example of [MS-XCA]"() {
+    given:
+    def data = ("abc" * 100).bytes
+    def compressed = new byte[64]
+
+    when:
+    def length = new PlainLZ77().compress(data, 0, data.length, compressed, 0, compressed.length)
+
+    then:
+    Arrays.copyOf(compressed, length) == [0xff, 0xff, 0xff, 0x1f, 0x61, 0x62, 0x63, 0x17, 0x00, 0x0f, 0xff, 0x26, 0x01] as byte[]
+  }
+
+  @Unroll
+  def "#codec.class.simpleName should fail on truncated input"() {
+    given:
+    def data = text(10000)
+    def compressed = new byte[data.length]
+    def length = codec.compress(data, 0, data.length, compressed, 0, compressed.length)
+
+    when:
+    codec.decompress(compressed, 0, length.intdiv(2), new byte[data.length], 0, data.length)
+
+    then:
+    thrown(DataFormatException)
+
+    where:
+    codec << [new PlainLZ77(), new LZNT1(), new LZ77Huffman()]
+  }
+
+  private static List inputs() {
+    [new byte[0], [42] as byte[], text(50000), random(10000), new byte[65536 * 2], mixed(200000)]
+  }
+
+  private static byte[] text(int length) {
+    def rng = new Random(42)
+    def sb = new StringBuilder()
+    while (sb.length() < length) {
+      sb.append("2016-05-0").append(rng.nextInt(10)).append(" INFO request ").append(rng.nextInt(1000)).append(" completed\n")
+    }
+    sb.substring(0, length).bytes
+  }
+
+  private static byte[] random(int length) {
+    def data = new byte[length]
+    new Random(42).nextBytes(data)
+    data
+  }
+
+  private static byte[] mixed(int length) {
+    def rng = new Random(42)
+    def data = new byte[length]
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (rng.nextInt(4) == 0 ? rng.nextInt(256) : i % 13)
+    }
+    data
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.protocol.commons.buffer
+
+import spock.lang.Specification
+
+class SizeClassedBufferPoolSpec extends Specification {
+
+  def "should hand out arrays rounded up to a power of two"() {
+    given:
+    def pool = new SizeClassedBufferPool()
+
+    expect:
+    pool.acquire(1000).length == 1024
+    pool.acquire(1024).length == 1024
+    pool.acquire(1025).length == 2048
+  }
+
+  def "should reuse released arrays of the same size class"() {
+    given:
+    def pool = new SizeClassedBufferPool(4096, 2, 1)
+    def array = pool.acquire(1000)
+
+    when:
+    pool.release(array)
+
+    then:
+    pool.acquire(600).is(array)
+    !pool.acquire(600).is(array)
+  }
+
+  def "should not retain arrays larger than the maximum pooled size"() {
+    given:
+    def pool = new SizeClassedBufferPool(4096, 2, 1)
+    def array = pool.acquire(8192)
+
+    when:
+    pool.release(array)
+
+    then:
+    !pool.acquire(8192).is(array)
+  }
+
+  def "should return the backing arrays to the pool when a buffer grows and is released"() {
+    given:
+    def pool = new SizeClassedBufferPool(4096, 2, 1)
+    def buffer = new Buffer.PlainBuffer(Buffer.DEFAULT_SIZE, Endian.LE, pool)
+    def initial = buffer.array()
+
+    when:
+    buffer.putRawBytes(new byte[300])
+    def grown = buffer.array()
+    buffer.release()
+
+    then:
+    initial.length == 256
+    grown.length == 512
+    buffer.available() == 0
+    pool.acquire(256).is(initial)
+    pool.acquire(512).is(grown)
+  }
+}
@@ -86,4 +86,20 @@ class SMBClientSpec extends Specification {
     con1 == con2
     con2.isConnected()
   }
+
+  def "should open multiple connections to the same host when configured"() {
+    given:
+    def pooledConfig = SmbConfig.builder().withTransportLayerFactory(new StubTransportLayerFactory(processor.&processPacket)).withConnectionsPerServer(2).build()
+    def client = new SMBClient(pooledConfig)
+    def con1 = client.connect("hostA")
+    def con2 = client.connect("hostA")
+
+    when:
+    def con3 = client.connect("hostA")
+
+    then:
+    con1 != con2
+    con3 == con1 || con3 == con2
+    [con1, con2].every { it.isConnected() }
+  }
 }
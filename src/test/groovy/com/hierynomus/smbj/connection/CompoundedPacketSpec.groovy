@@ -0,0 +1,116 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection
+
+import com.hierynomus.msdtyp.AccessMask
+import com.hierynomus.msfscc.FileInformationClass
+import com.hierynomus.mssmb2.*
+import com.hierynomus.mssmb2.messages.SMB2Close
+import com.hierynomus.mssmb2.messages.SMB2CreateRequest
+import com.hierynomus.mssmb2.messages.SMB2QueryInfoRequest
+import com.hierynomus.security.bc.BCSecurityProvider
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.common.SmbPath
+import spock.lang.Specification
+
+import javax.crypto.spec.SecretKeySpec
+import java.nio.ByteBuffer
+
+import static com.hierynomus.mssmb2.SMB2MessageFlag.SMB2_FLAGS_RELATED_OPERATIONS
+import static com.hierynomus.mssmb2.SMB2MessageFlag.SMB2_FLAGS_SIGNED
+
+class CompoundedPacketSpec extends Specification {
+  def signingKey = new SecretKeySpec([0x75, 0xc5, 0xcb, 0x91, 0x41, 0x9e, 0x3a, 0x45, 0xce, 0x9e, 0xf8, 0x69, 0xdf, 0xd3, 0xe2, 0xa8] as byte[], SMBSessionBuilder.HMAC_SHA256_ALGORITHM)
+
+  def "should chain related requests on 8-byte boundaries"() {
+    given:
+    def compound = new CompoundedPacket(true, createRequest("dir\\file.txt"), queryInfoRequest(), new SMB2Close(SMB2Dialect.SMB_2_1, 1L, 1L, new SMB2FileId()))
+    def buffer = new SMBBuffer()
+
+    when:
+    compound.write(buffer)
+    def packets = read(buffer.getCompactData())
+
+    then:
+    packets*.header*.message == [SMB2MessageCommandCode.SMB2_CREATE, SMB2MessageCommandCode.SMB2_QUERY_INFO, SMB2MessageCommandCode.SMB2_CLOSE]
+    packets*.header*.headerStartPosition.every { it % 8 == 0 }
+    packets[0].header.nextCommandOffset != 0
+    packets[1].header.nextCommandOffset != 0
+    packets[2].header.nextCommandOffset == 0
+    !packets[0].header.isFlagSet(SMB2_FLAGS_RELATED_OPERATIONS)
+    packets[1].header.isFlagSet(SMB2_FLAGS_RELATED_OPERATIONS)
+    packets[2].header.isFlagSet(SMB2_FLAGS_RELATED_OPERATIONS)
+  }
+
+  def "should sign each request in the chain separately"() {
+    given:
+    def signatory = new PacketSignatory(new BCSecurityProvider())
+    def compound = new CompoundedPacket(true, createRequest("file"), queryInfoRequest(), new SMB2Close(SMB2Dialect.SMB_2_1, 1L, 1L, new SMB2FileId()))
+    def buffer = new SMBBuffer()
+
+    when:
+    signatory.sign(compound, signingKey).write(buffer)
+    def packets = read(buffer.getCompactData())
+
+    then:
+    packets.size() == 3
+    packets.every { it.header.isFlagSet(SMB2_FLAGS_SIGNED) }
+    packets.every { signatory.verify(it, signingKey) }
+  }
+
+  def "should verify each message in the chain on its own slice of the received data"() {
+    given:
+    def signatory = new PacketSignatory(new BCSecurityProvider())
+    def compound = new CompoundedPacket(true, createRequest("file"), queryInfoRequest(), new SMB2Close(SMB2Dialect.SMB_2_1, 1L, 1L, new SMB2FileId()))
+    def buffer = new SMBBuffer()
+    signatory.sign(compound, signingKey).write(buffer)
+    def data = buffer.getCompactData()
+    def packets = read(data)
+
+    when:
+    def slices = packets.collect { ByteBuffer.wrap(data, it.header.headerStartPosition, it.header.messageEndPosition - it.header.headerStartPosition) }
+
+    then:
+    slices.every { signatory.verify(it, signingKey) }
+
+    when:
+    data[packets[1].header.headerStartPosition + 64] ^= 0x1
+
+    then:
+    signatory.verify(slices[0], signingKey)
+    !signatory.verify(slices[1], signingKey)
+    signatory.verify(slices[2], signingKey)
+  }
+
+  private static SMB2CreateRequest createRequest(String path) {
+    new SMB2CreateRequest(SMB2Dialect.SMB_2_1, 1L, 1L, null, EnumSet.of(AccessMask.FILE_READ_ATTRIBUTES), null, SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null, new SmbPath("localhost", "share", path))
+  }
+
+  private static SMB2QueryInfoRequest queryInfoRequest() {
+    new SMB2QueryInfoRequest(SMB2Dialect.SMB_2_1, 1L, 1L, new SMB2FileId(), SMB2QueryInfoRequest.SMB2QueryInfoType.SMB2_0_INFO_FILE, FileInformationClass.FileAllInformation, null, null, null)
+  }
+
+  private static List<SMB2PacketData> read(byte[] data) {
+    def packets = []
+    def packet = new SMB2PacketData(data)
+    while (packet != null) {
+      packets << packet
+      packet.dataBuffer.rpos(packet.header.messageEndPosition)
+      packet = packet.next()
+    }
+    packets
+  }
+}
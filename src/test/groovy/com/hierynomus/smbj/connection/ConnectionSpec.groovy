@@ -19,7 +19,11 @@ import com.hierynomus.msdtyp.FileTime
 import com.hierynomus.mserref.NtStatus
 import com.hierynomus.mssmb2.SMB2Dialect
 import com.hierynomus.mssmb2.SMBApiException
+import com.hierynomus.mssmb2.SMB2FileId
+import com.hierynomus.mssmb2.messages.SMB2NegotiateRequest
 import com.hierynomus.mssmb2.messages.SMB2NegotiateResponse
+import com.hierynomus.mssmb2.messages.SMB2ReadRequest
+import com.hierynomus.mssmb2.messages.SMB2ReadResponse
 import com.hierynomus.mssmb2.messages.SMB2TreeConnectRequest
 import com.hierynomus.mssmb2.SMB2GlobalCapability
 import com.hierynomus.mssmb2.messages.SMB2TreeConnectResponse
@@ -34,6 +38,11 @@ import com.hierynomus.smbj.event.SessionLoggedOff
 import net.engio.mbassy.listener.Handler
 import spock.lang.Specification
 
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
 class ConnectionSpec extends Specification {
 
   def bus = new SMBEventBus()
@@ -168,6 +177,69 @@ class ConnectionSpec extends Specification {
     conn.pathResolver instanceof DFSPathResolver
   }
 
+  def "should hand out unique and consecutive message ids to requests sent from concurrent threads"() {
+    given:
+    // The credits charged for each READ request, by its message id
+    def charges = new ConcurrentHashMap<Long, Integer>()
+    def responder = new BasicPacketProcessor({ req ->
+      req = req.packet
+      if (req instanceof SMB2NegotiateRequest) {
+        def resp = new SMB2NegotiateResponse()
+        resp.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        resp.dialect = SMB2Dialect.SMB_2_1
+        resp.capabilities = EnumSet.of(SMB2GlobalCapability.SMB2_GLOBAL_CAP_LARGE_MTU)
+        resp.maxReadSize = 1 << 20
+        resp.maxWriteSize = 1 << 20
+        resp.maxTransactSize = 1 << 20
+        resp.systemTime = FileTime.now()
+        return resp
+      }
+      if (req instanceof SMB2ReadRequest) {
+        charges[req.header.messageId] = req.creditsAssigned
+        def resp = new SMB2ReadResponse()
+        resp.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        return resp
+      }
+      null
+    })
+    // The responses arrive on another thread, while the requests are still being sent
+    def receiving = Executors.newSingleThreadExecutor()
+    config = SmbConfig.builder()
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket, receiving))
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .build()
+    def conn = new SMBClient(config, bus).connect("localhost")
+    def mismatches = new AtomicInteger()
+
+    when:
+    def senders = (0..<8).collect {
+      Thread.start {
+        (0..<50).each { int i ->
+          // Requests of one up to four credits
+          def read = new SMB2ReadRequest(SMB2Dialect.SMB_2_1, new SMB2FileId(new byte[8], new byte[8]), 1, 1, 0, 1 + (i % 4) * 65536)
+          def response = conn.send(read).get(10, TimeUnit.SECONDS)
+          if (response.header.messageId != read.header.messageId) {
+            mismatches.incrementAndGet()
+          }
+        }
+      }
+    }
+    senders*.join()
+    def ids = charges.collectMany { id, charge -> (id..<(id + charge)).toList() }
+
+    then:
+    charges.size() == 400
+    charges.values().any { it > 1 }
+    // The ranges of the multi-credit requests do not overlap, and no message id is skipped
+    ids.size() == ids.toSet().size()
+    ids.max() - ids.min() + 1 == ids.size()
+    mismatches.get() == 0
+
+    cleanup:
+    conn?.close()
+    receiving.shutdown()
+  }
+
   class EventPersister {
     def events = [] as List<SMBEvent>
 
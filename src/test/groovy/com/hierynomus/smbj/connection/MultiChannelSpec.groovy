@@ -0,0 +1,229 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection
+
+import com.hierynomus.msdtyp.FileTime
+import com.hierynomus.mserref.NtStatus
+import com.hierynomus.mssmb2.SMB2Dialect
+import com.hierynomus.mssmb2.SMB2GlobalCapability
+import com.hierynomus.mssmb2.SMB2MessageCommandCode
+import com.hierynomus.mssmb2.SMB2Packet
+import com.hierynomus.mssmb2.SMB2PacketData
+import com.hierynomus.mssmb2.SMB2ShareCapabilities
+import com.hierynomus.mssmb2.SMB2ShareFlags
+import com.hierynomus.mssmb2.messages.SMB2IoctlRequest
+import com.hierynomus.mssmb2.messages.SMB2IoctlResponse
+import com.hierynomus.mssmb2.messages.SMB2NegotiateRequest
+import com.hierynomus.mssmb2.messages.SMB2NegotiateResponse
+import com.hierynomus.mssmb2.messages.SMB2SessionSetup
+import com.hierynomus.mssmb2.messages.SMB2TreeConnectRequest
+import com.hierynomus.mssmb2.messages.SMB2TreeConnectResponse
+import com.hierynomus.mssmb2.messages.submodule.SMB2NetworkInterfaceInfo
+import com.hierynomus.protocol.commons.ByteArrayUtils
+import com.hierynomus.protocol.commons.Factory
+import com.hierynomus.protocol.commons.buffer.Endian
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.auth.AuthenticateResponse
+import com.hierynomus.smbj.auth.AuthenticationContext
+import com.hierynomus.smbj.auth.Authenticator
+import com.hierynomus.smbj.session.Session
+import spock.lang.Specification
+
+class MultiChannelSpec extends Specification {
+  private static final int AF_INET = 0x2
+  private static final int AF_INET6 = 0x17
+
+  private Connection connection
+  private List<SMB2Packet> sessionSetups = []
+  private int authentications
+
+  def cleanup() {
+    connection?.close()
+  }
+
+  def "should select the fastest interfaces first and prefer IPv4 over IPv6 at the same speed"() {
+    given:
+    def interfaces = interfaces(
+      [2, 1000000000L, "10.0.0.2"],
+      [3, 10000000000L, "fd00::3"],
+      [3, 10000000000L, "10.0.0.3"],
+      [4, 25000000000L, "10.0.0.4"])
+
+    expect:
+    Connection.selectChannelAddresses(interfaces, [] as Set, 3) == addresses("10.0.0.4", "10.0.0.3", "10.0.0.2")
+  }
+
+  def "should not select the interface of a connected address, nor link-local or loopback addresses"() {
+    given:
+    def interfaces = interfaces(
+      [1, 1000000000L, "10.0.0.1"],
+      [1, 1000000000L, "fd00::1"],
+      [2, 1000000000L, "fe80::2"],
+      [2, 1000000000L, "169.254.0.2"],
+      [3, 1000000000L, "127.0.0.1"],
+      [4, 1000000000L, "10.0.0.4"])
+
+    expect:
+    Connection.selectChannelAddresses(interfaces, addresses("10.0.0.1") as Set, 8) == addresses("10.0.0.4")
+  }
+
+  def "should select one address per interface and at most the given number of addresses"() {
+    given:
+    def interfaces = interfaces(
+      [2, 1000000000L, "10.0.0.2"],
+      [2, 1000000000L, "10.0.1.2"],
+      [3, 1000000000L, "10.0.0.3"],
+      [4, 1000000000L, "10.0.0.4"])
+
+    expect:
+    Connection.selectChannelAddresses(interfaces, [] as Set, maxChannels) == addresses(*selected)
+
+    where:
+    maxChannels | selected
+    0           | []
+    1           | ["10.0.0.2"]
+    3           | ["10.0.0.2", "10.0.0.3", "10.0.0.4"]
+  }
+
+  def "should bind the session to a channel with a signed SESSION_SETUP request"() {
+    when:
+    def session = authenticate()
+
+    then:
+    session.channels.size() == 1
+    sessionSetups.size() == 2
+    def request = sessionSetups[1]
+    request instanceof PacketSignatory.SignedPacketWrapper
+    request.packet.binding
+    request.header.sessionId == session.sessionId
+    // The binding request is signed with the signing key of the session, not of the channel
+    def buffer = new SMBBuffer()
+    request.write(buffer)
+    connection.signatory.verify(new SMB2PacketData(buffer.compactData), session.sessionContext.signingKey)
+    !connection.signatory.verify(new SMB2PacketData(buffer.compactData), session.channels[0].signingKey)
+  }
+
+  def "should sign the messages on a channel with the signing key of the channel"() {
+    when:
+    def session = authenticate()
+    def channel = session.channels[0]
+
+    then:
+    // Each authentication has a different session key, and thus a different signing key
+    channel.signingKey.encoded != session.sessionContext.signingKey.encoded
+    session.getSigningKey(channel.connection, SMB2MessageCommandCode.SMB2_READ, NtStatus.STATUS_SUCCESS.value, true).is(channel.signingKey)
+    session.getSigningKey(connection, SMB2MessageCommandCode.SMB2_READ, NtStatus.STATUS_SUCCESS.value, true).is(session.sessionContext.signingKey)
+    // A SESSION_SETUP request is always signed with the signing key of the session
+    session.getSigningKey(channel.connection, SMB2MessageCommandCode.SMB2_SESSION_SETUP, NtStatus.STATUS_SUCCESS.value, true).is(session.sessionContext.signingKey)
+  }
+
+  /**
+   * Authenticates over a connection to a server that supports multichannel, and has one other network interface.
+   */
+  private Session authenticate() {
+    def responder = new BasicPacketProcessor({ req ->
+      def packet = req.packet
+      if (packet instanceof SMB2NegotiateRequest) {
+        def response = new SMB2NegotiateResponse()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        response.dialect = SMB2Dialect.SMB_3_0
+        response.capabilities = EnumSet.of(SMB2GlobalCapability.SMB2_GLOBAL_CAP_MULTI_CHANNEL)
+        response.systemTime = FileTime.now()
+        response.serverGuid = UUID.fromString("00112233-4455-6677-8899-aabbccddeeff")
+        return response
+      }
+      if (packet instanceof SMB2SessionSetup) {
+        sessionSetups << req
+        return null
+      }
+      if (packet instanceof SMB2TreeConnectRequest) {
+        def response = new SMB2TreeConnectResponse()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        response.capabilities = EnumSet.noneOf(SMB2ShareCapabilities)
+        response.shareFlags = EnumSet.noneOf(SMB2ShareFlags)
+        response.shareType = 0x02 as byte
+        return response
+      }
+      if (packet instanceof SMB2IoctlRequest) {
+        def buffer = new SMBBuffer()
+        putInterface(buffer, 0, 2, 1000000000L, InetAddress.getByName("10.0.0.2"))
+        def response = new SMB2IoctlResponse()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        response.outputBuffer = buffer.compactData
+        return response
+      }
+      null
+    })
+    def config = SmbConfig.builder()
+      .withMaxChannels(2)
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket))
+      .withAuthenticators([getName: { "stub" }, create: { authenticator() }] as Factory.Named<Authenticator>)
+      .build()
+    connection = new SMBClient(config).connect("127.0.0.1")
+    connection.authenticate(new AuthenticationContext("username", "password".toCharArray(), "domain.com"))
+  }
+
+  /**
+   * Authenticates with a different session key every time.
+   */
+  private Authenticator authenticator() {
+    [
+      init        : { SmbConfig config -> },
+      supports    : { AuthenticationContext context -> true },
+      authenticate: { AuthenticationContext context, byte[] gssToken, ConnectionContext connectionContext ->
+        byte[] sessionKey = ByteArrayUtils.parseHex("09921d4431b171b977370bf8910900f9")
+        sessionKey[15] = (byte) ++authentications
+        def response = new AuthenticateResponse(new byte[0])
+        response.sessionKey = sessionKey
+        response
+      }
+    ] as Authenticator
+  }
+
+  private static List<SMB2NetworkInterfaceInfo> interfaces(List... entries) {
+    def buffer = new SMBBuffer()
+    entries.eachWithIndex { List entry, int i ->
+      putInterface(buffer, i < entries.length - 1 ? 152 : 0, entry[0] as long, entry[1] as long, InetAddress.getByName(entry[2] as String))
+    }
+    SMB2NetworkInterfaceInfo.readAll(new SMBBuffer(buffer.compactData))
+  }
+
+  private static List<InetAddress> addresses(String... addresses) {
+    addresses.collect { InetAddress.getByName(it) }
+  }
+
+  /**
+   * A NETWORK_INTERFACE_INFO entry ([MS-SMB2] 2.2.32.5) of 152 bytes.
+   */
+  private static void putInterface(SMBBuffer buffer, long next, long ifIndex, long linkSpeed, InetAddress address) {
+    buffer.putUInt32(next) // Next (4 bytes)
+    buffer.putUInt32(ifIndex) // IfIndex (4 bytes)
+    buffer.putUInt32(0) // Capability (4 bytes)
+    buffer.putReserved4() // Reserved (4 bytes)
+    buffer.putLong(linkSpeed) // LinkSpeed (8 bytes)
+    int start = buffer.wpos()
+    boolean ipv6 = address instanceof Inet6Address
+    buffer.putUInt16(ipv6 ? AF_INET6 : AF_INET) // Family (2 bytes)
+    buffer.putUInt16(445, Endian.BE) // Port (2 bytes)
+    if (ipv6) {
+      buffer.putUInt32(0) // FlowInfo (4 bytes)
+    }
+    buffer.putRawBytes(address.address) // IPv4Address (4 bytes) or IPv6Address (16 bytes)
+    buffer.putReserved(128 - (buffer.wpos() - start)) // SockAddr_Storage (128 bytes)
+  }
+}
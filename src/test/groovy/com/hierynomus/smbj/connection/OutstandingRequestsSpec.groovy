@@ -0,0 +1,96 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection
+
+import com.hierynomus.mssmb2.SMB2Dialect
+import com.hierynomus.mssmb2.messages.SMB2Echo
+import com.hierynomus.smbj.common.SMBRuntimeException
+import spock.lang.Specification
+
+class OutstandingRequestsSpec extends Specification {
+  def requests = new OutstandingRequests()
+
+  def "should find registered request by message id"() {
+    given:
+    def request = newRequest(42)
+
+    when:
+    requests.registerOutstanding(request)
+
+    then:
+    requests.isOutstanding(42)
+    requests.getRequestByMessageId(42).is(request)
+    !requests.isOutstanding(43)
+  }
+
+  def "should no longer be outstanding after the response was received"() {
+    given:
+    def request = newRequest(42)
+    requests.registerOutstanding(request)
+
+    when:
+    def r = requests.receivedResponseFor(42)
+
+    then:
+    r.is(request)
+    !requests.isOutstanding(42)
+  }
+
+  def "should keep track of requests whose message ids map to the same slot"() {
+    given:
+    def old = newRequest(1)
+    def recent = newRequest(1 + 8192)
+    requests.registerOutstanding(old)
+    requests.registerOutstanding(recent)
+
+    expect:
+    requests.getRequestByMessageId(1).is(old)
+    requests.getRequestByMessageId(1 + 8192).is(recent)
+    requests.receivedResponseFor(1 + 8192).is(recent)
+    requests.receivedResponseFor(1).is(old)
+    !requests.isOutstanding(1)
+    !requests.isOutstanding(1 + 8192)
+  }
+
+  def "should throw when receiving a response for an unknown request"() {
+    when:
+    requests.receivedResponseFor(42)
+
+    then:
+    thrown(SMBRuntimeException)
+  }
+
+  def "should deliver error to all outstanding requests"() {
+    given:
+    def first = newRequest(1)
+    def second = newRequest(1 + 8192)
+    requests.registerOutstanding(first)
+    requests.registerOutstanding(second)
+
+    when:
+    requests.handleError(new IOException("Connection reset"))
+
+    then:
+    first.promise.inError()
+    second.promise.inError()
+    !requests.isOutstanding(1)
+    !requests.isOutstanding(1 + 8192)
+  }
+
+  private static Request newRequest(long messageId) {
+    new Request(new SMB2Echo(SMB2Dialect.SMB_2_1), messageId)
+  }
+}
@@ -16,12 +16,18 @@
 package com.hierynomus.smbj.connection
 
 
+import com.hierynomus.mssmb2.SMB2Dialect
 import com.hierynomus.mssmb2.SMB2TransformHeader
+import com.hierynomus.mssmb2.SMB3EncryptedPacketData
 import com.hierynomus.mssmb2.SMB3EncryptionCipher
+import com.hierynomus.mssmb2.messages.SMB2Echo
 import com.hierynomus.security.bc.BCSecurityProvider
+import com.hierynomus.smb.SMBBuffer
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import javax.crypto.spec.SecretKeySpec
+
 class PacketEncryptorSpec extends Specification {
 
   def "should have correct Smb2TransformHeaderProtocolId"() {
@@ -78,4 +84,30 @@ class PacketEncryptorSpec extends Specification {
     SMB3EncryptionCipher.AES_128_CCM | 11
     SMB3EncryptionCipher.AES_128_GCM | 12
   }
+
+  @Unroll
+  def "should decrypt the packets it encrypted in place with #algorithm"() {
+    given:
+    PacketEncryptor pe = new PacketEncryptor(new BCSecurityProvider())
+    pe.cipher = algorithm
+    def key = new SecretKeySpec((1..16) as byte[], "AES")
+    def echo = new SMB2Echo(SMB2Dialect.SMB_3_0)
+    echo.header.sessionId = 1L
+    def plain = new SMBBuffer()
+    echo.write(plain)
+
+    when:
+    def decrypted = (1..3).collect {
+      def buffer = new SMBBuffer()
+      pe.encrypt(echo, key).write(buffer)
+      def result = pe.decrypt(new SMB3EncryptedPacketData(buffer.compactData), key)
+      Arrays.copyOfRange(result.array(), result.rpos(), result.wpos())
+    }
+
+    then:
+    decrypted.every { it == plain.compactData }
+
+    where:
+    algorithm << [SMB3EncryptionCipher.AES_128_CCM, SMB3EncryptionCipher.AES_128_GCM]
+  }
 }
@@ -16,12 +16,17 @@
 package com.hierynomus.smbj.connection
 
 import com.hierynomus.mssmb2.SMB2Dialect
+import com.hierynomus.mssmb2.SMB2FileId
 import com.hierynomus.mssmb2.SMB2MessageConverter
 import com.hierynomus.mssmb2.SMB2PacketData
+import com.hierynomus.mssmb2.messages.SMB2WriteRequest
 import com.hierynomus.protocol.commons.ByteArrayUtils
 import com.hierynomus.security.bc.BCSecurityProvider
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.io.ArrayByteChunkProvider
 import com.hierynomus.smbj.connection.PacketSignatory
 import spock.lang.Specification
+import spock.lang.Unroll
 
 import javax.crypto.SecretKey
 import javax.crypto.spec.SecretKeySpec
@@ -53,4 +58,67 @@ class PacketSignatorySpec extends Specification {
     verified
 
   }
+
+  def "should sign data that is written in place into the packet buffer"() {
+    given:
+    def data = new byte[1000]
+    new Random().nextBytes(data)
+    def request = new SMB2WriteRequest(SMB2Dialect.SMB_2_1, new SMB2FileId(), 1L, 1L, new ArrayByteChunkProvider(data, 0), 65536)
+    request.setCreditsAssigned(1)
+    def signatory = new PacketSignatory(new BCSecurityProvider())
+    def buffer = new SMBBuffer()
+
+    when:
+    signatory.sign(request, signingKey).write(buffer)
+
+    then:
+    signatory.verify(new SMB2PacketData(buffer.getCompactData()), signingKey)
+  }
+
+  def "should sign and verify with AES-GMAC"() {
+    given:
+    def gmacKey = new SecretKeySpec(signingKey.encoded, SMBSessionBuilder.AES_128_GMAC_ALGORITHM)
+    def request = new SMB2WriteRequest(SMB2Dialect.SMB_3_1_1, new SMB2FileId(), 1L, 1L, new ArrayByteChunkProvider(new byte[100], 0), 65536)
+    request.setCreditsAssigned(1)
+    def signatory = new PacketSignatory(new BCSecurityProvider())
+    def buffer = new SMBBuffer()
+
+    when:
+    signatory.sign(request, gmacKey).write(buffer)
+    def signed = buffer.getCompactData()
+    def tampered = signed.clone()
+    tampered[signed.length - 1] ^= 1
+
+    then:
+    signatory.verify(new SMB2PacketData(signed), gmacKey)
+    // An interim and a final response share the same nonce
+    signatory.verify(new SMB2PacketData(signed), gmacKey)
+    !signatory.verify(new SMB2PacketData(tampered), gmacKey)
+  }
+
+  /**
+   * The nonce is the MessageId (8 bytes), followed by a byte with the role (bit 0) and whether the message is an
+   * SMB2 CANCEL request (bit 1), padded with zeros to 12 bytes. The signatures are computed with the AES-GCM cipher of
+   * the JDK, over the 64 byte SMB2 header with an empty signature as the additional authenticated data.
+   */
+  @Unroll
+  def "should verify the AES-GMAC signature of a #message"() {
+    given:
+    def gmacKey = new SecretKeySpec(signingKey.encoded, SMBSessionBuilder.AES_128_GMAC_ALGORITHM)
+    def signatory = new PacketSignatory(new BCSecurityProvider())
+    def header = ByteArrayUtils.parseHex(String.format("fe534d424000010000000000%s0100%s000000000000000400000000000000fffe0000010000000d00000000100000", command, flags))
+    def signed = (header.toList() + ByteArrayUtils.parseHex(signature).toList()) as byte[]
+    def otherSignature = (header.toList() + ByteArrayUtils.parseHex(otherNonceSignature).toList()) as byte[]
+
+    expect:
+    signatory.verify(new SMB2PacketData(signed), gmacKey)
+    // The signature of a message that only differs in the nonce
+    !signatory.verify(new SMB2PacketData(otherSignature), gmacKey)
+
+    where:
+    message          | command | flags | signature                          | otherNonceSignature
+    "request"        | "0800"  | "08"  | "1a23549fc5fe53ed0ba41f1514e10a9c" | "e139bca7f82543a3fb9607fea4f653c5"
+    "response"       | "0800"  | "09"  | "e139bca7f82543a3fb9607fea4f653c5" | "1a23549fc5fe53ed0ba41f1514e10a9c"
+    "CANCEL request" | "0c00"  | "08"  | "4245914a7b1f56be8a55a37b180653bd" | "1a23549fc5fe53ed0ba41f1514e10a9c"
+  }
 }
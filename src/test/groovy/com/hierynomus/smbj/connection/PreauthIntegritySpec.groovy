@@ -0,0 +1,191 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection
+
+import com.hierynomus.mserref.NtStatus
+import com.hierynomus.mssmb2.SMB2Dialect
+import com.hierynomus.mssmb2.SMB2MessageCommandCode
+import com.hierynomus.mssmb2.SMB2Packet
+import com.hierynomus.mssmb2.SMB2PacketData
+import com.hierynomus.mssmb2.SMB2PacketHeader
+import com.hierynomus.mssmb2.SMB3HashAlgorithm
+import com.hierynomus.mssmb2.messages.negotiate.SMB2PreauthIntegrityCapabilities
+import com.hierynomus.protocol.commons.ByteArrayUtils
+import com.hierynomus.protocol.commons.buffer.BufferPool
+import com.hierynomus.protocol.commons.buffer.SizeClassedBufferPool
+import com.hierynomus.protocol.transport.PacketHandlers
+import com.hierynomus.protocol.transport.TransportException
+import com.hierynomus.protocol.transport.TransportLayer
+import com.hierynomus.security.bc.BCSecurityProvider
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.auth.AuthenticationContext
+import com.hierynomus.smbj.transport.TransportLayerFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.security.MessageDigest
+
+/**
+ * Negotiates SMB 3.1.1 and sets up a session over a transport that serializes the packets and releases their buffers,
+ * like the TCP transports do, so that the preauth integrity hash is computed over the bytes that were sent.
+ */
+class PreauthIntegritySpec extends Specification {
+
+  @Unroll
+  def "should hash the negotiate and session setup messages with #pool"() {
+    given:
+    def transport = new SerializingTransportLayerFactory()
+    def builder = SmbConfig.builder()
+      .withTransportLayerFactory(transport)
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .withSecurityProvider(new BCSecurityProvider())
+    if (pool != null) {
+      builder.withBufferPool(pool)
+    }
+    def client = new SMBClient(builder.build())
+
+    when:
+    def connection = client.connect("localhost")
+    def session = connection.authenticate(new AuthenticationContext("foo", "bar".toCharArray(), null))
+
+    then:
+    connection.negotiatedProtocol.dialect == SMB2Dialect.SMB_3_1_1
+    transport.messages.size() == 6
+    connection.connectionContext.preauthIntegrityHashValue == preauthHash(transport.messages.subList(0, 2))
+    session.sessionContext.preauthIntegrityHashValue == preauthHash(transport.messages.subList(0, 5))
+
+    cleanup:
+    client.close()
+
+    where:
+    pool << [null, new SizeClassedBufferPool(), BufferPool.UNPOOLED]
+  }
+
+  private static byte[] preauthHash(List<byte[]> messages) {
+    def digest = MessageDigest.getInstance("SHA-512")
+    byte[] hash = new byte[64]
+    for (byte[] message : messages) {
+      digest.update(hash)
+      digest.update(message)
+      hash = digest.digest()
+    }
+    return hash
+  }
+
+  private static class SerializingTransportLayerFactory implements TransportLayerFactory<SMB2PacketData, SMB2Packet> {
+    // The requests that were sent and the responses that were received, in order
+    List<byte[]> messages = []
+
+    @Override
+    TransportLayer<SMB2Packet> createTransportLayer(PacketHandlers<SMB2PacketData, SMB2Packet> handlers, SmbConfig config) {
+      return new TransportLayer<SMB2Packet>() {
+        private boolean connected
+
+        @Override
+        void write(SMB2Packet packet) throws TransportException {
+          def buffer = handlers.serializer.write(packet)
+          byte[] request = Arrays.copyOfRange(buffer.array(), buffer.rpos(), buffer.wpos())
+          buffer.release()
+          messages << request
+          byte[] response = respond(new SMB2PacketData(request).header)
+          messages << response
+          handlers.receiver.handle(handlers.packetFactory.read(response))
+        }
+
+        @Override
+        void connect(InetSocketAddress remoteAddress) throws IOException {
+          connected = true
+        }
+
+        @Override
+        void disconnect() throws IOException {
+          connected = false
+        }
+
+        @Override
+        boolean isConnected() {
+          return connected
+        }
+      }
+    }
+
+    byte[] respond(SMB2PacketHeader request) {
+      switch (request.message) {
+        case SMB2MessageCommandCode.SMB2_NEGOTIATE:
+          return negotiateResponse(request)
+        case SMB2MessageCommandCode.SMB2_SESSION_SETUP:
+          // The first SESSION_SETUP needs another round trip, so that the session is hashed on its own as well
+          def status = request.sessionId == 0 ? NtStatus.STATUS_MORE_PROCESSING_REQUIRED : NtStatus.STATUS_SUCCESS
+          return sessionSetupResponse(request, status)
+        case SMB2MessageCommandCode.SMB2_LOGOFF:
+          return header(request, NtStatus.STATUS_SUCCESS, request.sessionId)
+            .putUInt16(4) // StructureSize (2 bytes)
+            .putReserved2()
+            .getCompactData()
+      }
+      throw new TransportException("Unexpected request " + request)
+    }
+
+    private static byte[] negotiateResponse(SMB2PacketHeader request) {
+      def buffer = header(request, NtStatus.STATUS_SUCCESS, 0)
+      buffer.putUInt16(65) // StructureSize (2 bytes)
+      buffer.putUInt16(1) // SecurityMode (2 bytes), signing enabled
+      buffer.putUInt16((int) SMB2Dialect.SMB_3_1_1.value) // DialectRevision (2 bytes)
+      buffer.putUInt16(1) // NegotiateContextCount (2 bytes)
+      buffer.putRawBytes(ByteArrayUtils.parseHex("00112233445566778899aabbccddeeff")) // ServerGuid (16 bytes)
+      buffer.putUInt32(0) // Capabilities (4 bytes)
+      buffer.putUInt32(65536) // MaxTransactSize (4 bytes)
+      buffer.putUInt32(65536) // MaxReadSize (4 bytes)
+      buffer.putUInt32(65536) // MaxWriteSize (4 bytes)
+      buffer.putLong(0) // SystemTime (8 bytes)
+      buffer.putLong(0) // ServerStartTime (8 bytes)
+      buffer.putUInt16(128) // SecurityBufferOffset (2 bytes)
+      buffer.putUInt16(0) // SecurityBufferLength (2 bytes)
+      buffer.putUInt32(128) // NegotiateContextOffset (4 bytes)
+      new SMB2PreauthIntegrityCapabilities([SMB3HashAlgorithm.SHA_512], new byte[0]).write(buffer)
+      return buffer.getCompactData()
+    }
+
+    private static byte[] sessionSetupResponse(SMB2PacketHeader request, NtStatus status) {
+      def buffer = header(request, status, 1)
+      buffer.putUInt16(9) // StructureSize (2 bytes)
+      buffer.putUInt16(0) // SessionFlags (2 bytes)
+      buffer.putUInt16(72) // SecurityBufferOffset (2 bytes)
+      buffer.putUInt16(0) // SecurityBufferLength (2 bytes)
+      return buffer.getCompactData()
+    }
+
+    private static SMBBuffer header(SMB2PacketHeader request, NtStatus status, long sessionId) {
+      def buffer = new SMBBuffer()
+      buffer.putRawBytes(ByteArrayUtils.parseHex("fe534d42")) // ProtocolId (4 bytes)
+      buffer.putUInt16(64) // StructureSize (2 bytes)
+      buffer.putUInt16(0) // CreditCharge (2 bytes)
+      buffer.putUInt32(status.value) // Status (4 bytes)
+      buffer.putUInt16(request.message.value) // Command (2 bytes)
+      buffer.putUInt16(64) // CreditResponse (2 bytes)
+      buffer.putUInt32(1) // Flags (4 bytes), SMB2_FLAGS_SERVER_TO_REDIR
+      buffer.putUInt32(0) // NextCommand (4 bytes)
+      buffer.putLong(request.messageId) // MessageId (8 bytes)
+      buffer.putUInt32(0) // Reserved (4 bytes)
+      buffer.putUInt32(0) // TreeId (4 bytes)
+      buffer.putLong(sessionId) // SessionId (8 bytes)
+      buffer.putRawBytes(new byte[16]) // Signature (16 bytes)
+      return buffer
+    }
+  }
+}
@@ -18,6 +18,8 @@ package com.hierynomus.smbj.connection
 import com.hierynomus.smbj.common.SMBRuntimeException
 import spock.lang.Specification
 
+import java.util.concurrent.TimeUnit
+
 class SequenceWindowSpec extends Specification {
   SequenceWindow window
 
@@ -50,12 +52,13 @@ class SequenceWindowSpec extends Specification {
     ex.getMessage() == "Not enough credits (0 available) to hand out 1 sequence numbers"
   }
 
-  def "should return array of sequence numbers for multi-credit request"() {
+  def "should return the first of a range of sequence numbers for multi-credit request"() {
     given:
     window.creditsGranted(10)
 
     expect:
-    window.get(10) == [0, 1, 2, 3, 4, 5, 6, 7, 8, 9] as long[]
+    window.acquire(10) == 0
+    window.get() == 10
   }
 
   def "should throw exception when requesting more sequence numbers than credits available"() {
@@ -63,7 +66,7 @@ class SequenceWindowSpec extends Specification {
     window.creditsGranted(2)
 
     when:
-    window.get(4)
+    window.acquire(4)
 
     then:
     def ex = thrown(SMBRuntimeException)
@@ -88,4 +91,117 @@ class SequenceWindowSpec extends Specification {
     window.get() == 0
     window.get() == 1
   }
+
+  def "should hand out consecutive ranges without allocating them"() {
+    given:
+    window.creditsGranted(9)
+
+    expect:
+    window.acquire(4) == 0
+    window.acquire(3) == 4
+    window.available() == 3
+  }
+
+  def "should request credits to reach the credit target"() {
+    expect:
+    window.creditRequest(1) == 510
+    new SequenceWindow(8, 5, TimeUnit.SECONDS, CreditWaitPolicy.FIFO).creditRequest(16) == 16
+  }
+
+  def "should count starvation when no credits become available in time"() {
+    given:
+    window = new SequenceWindow(512, 10, TimeUnit.MILLISECONDS, CreditWaitPolicy.FIFO)
+    window.get()
+
+    when:
+    window.get()
+
+    then:
+    thrown(SMBRuntimeException)
+    window.statistics.waits == 1
+    window.statistics.starvationEvents == 1
+    window.statistics.creditsUsed == 1
+  }
+
+  def "should hand credits to waiting requests in order of arrival with FIFO policy"() {
+    given:
+    window = new SequenceWindow(512, 5, TimeUnit.SECONDS, CreditWaitPolicy.FIFO)
+    window.get()
+    def big = waitFor(4, 1)
+    def small = waitFor(1, 2)
+
+    when:
+    window.creditsGranted(1)
+    Thread.sleep(50)
+
+    then:
+    big.result == null
+    small.result == null
+
+    when:
+    window.creditsGranted(4)
+    big.thread.join()
+    small.thread.join()
+
+    then:
+    big.result == 1
+    small.result == 5
+  }
+
+  def "should hand credits to the smallest waiting request first with PRIORITY policy"() {
+    given:
+    window = new SequenceWindow(512, 5, TimeUnit.SECONDS, CreditWaitPolicy.PRIORITY)
+    window.get()
+    def big = waitFor(4, 1)
+    def small = waitFor(1, 2)
+
+    when:
+    window.creditsGranted(1)
+    small.thread.join()
+
+    then:
+    small.result == 1
+    big.result == null
+
+    when:
+    window.creditsGranted(4)
+    big.thread.join()
+
+    then:
+    big.result == 2
+    window.statistics.waits == 2
+  }
+
+  def "should hand out sequence numbers to waiting requests when crediting is disabled"() {
+    given:
+    window = new SequenceWindow(512, 5, TimeUnit.SECONDS, CreditWaitPolicy.FIFO)
+    window.get()
+    def big = waitFor(4, 1)
+    def small = waitFor(1, 2)
+
+    when:
+    window.disableCredits()
+    big.thread.join(1000)
+    small.thread.join(1000)
+
+    then:
+    !big.thread.alive
+    !small.thread.alive
+    big.result != null
+    small.result != null
+    window.statistics.waiting == 0
+    // Both got their range, in either order
+    window.get() == 6
+  }
+
+  private Map waitFor(int credits, int expectedWaiting) {
+    def waiter = [result: null]
+    waiter.thread = Thread.start {
+      waiter.result = window.acquire(credits)
+    }
+    while (window.statistics.waiting < expectedWaiting) {
+      Thread.sleep(5)
+    }
+    waiter
+  }
 }
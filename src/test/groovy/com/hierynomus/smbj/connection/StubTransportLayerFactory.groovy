@@ -28,39 +28,65 @@ import com.hierynomus.smb.SMBPacket
 import com.hierynomus.smbj.SmbConfig
 import com.hierynomus.smbj.transport.TransportLayerFactory
 
+import java.util.concurrent.Executor
+
 class StubTransportLayerFactory implements TransportLayerFactory<SMB2PacketData, SMB2Packet> {
   private Closure<SMB2Packet> processPacket
+  private Executor receiving
 
   StubTransportLayerFactory(Closure<SMB2Packet> processPacket) {
+    this(processPacket, { Runnable r -> r.run() } as Executor)
+  }
+
+  /**
+   * @param receiving hands each response to the connection, by default on the thread that wrote the request
+   */
+  StubTransportLayerFactory(Closure<SMB2Packet> processPacket, Executor receiving) {
     this.processPacket = processPacket
+    this.receiving = receiving
   }
 
   @Override
   TransportLayer<SMB2Packet> createTransportLayer(PacketHandlers<SMB2PacketData, SMB2Packet> handlers, SmbConfig config) {
-    return new StubTransportLayer(handlers.receiver, processPacket)
+    return new StubTransportLayer(handlers.receiver, processPacket, receiving)
   }
 
   private static class StubTransportLayer implements TransportLayer<SMB2Packet> {
     private boolean connected
     private PacketReceiver<SMB2PacketData> receiver
     private Closure<SMB2Packet> processPacket
+    private Executor receiving
 
-    StubTransportLayer(PacketReceiver<SMB2PacketData> receiver, Closure<SMB2Packet> processPacket) {
+    StubTransportLayer(PacketReceiver<SMB2PacketData> receiver, Closure<SMB2Packet> processPacket, Executor receiving) {
       this.receiver = receiver
       if (this.receiver instanceof Connection) {
         ((Connection) this.receiver).smb2Converter = new StubMessageConverter()
       }
       this.processPacket = processPacket
+      this.receiving = receiving
     }
 
+    // Like the TCP transports, a packet is written and answered as a whole, even when it is sent from several threads
     @Override
-    void write(SMB2Packet packet) throws TransportException {
+    synchronized void write(SMB2Packet packet) throws TransportException {
+      if (packet.packet instanceof CompoundedPacket) {
+        // Each request in the chain is answered separately
+        for (SMB2Packet compounded : ((CompoundedPacket) packet.packet).packets) {
+          respond(compounded)
+        }
+      } else {
+        respond(packet)
+      }
+    }
+
+    private void respond(SMB2Packet packet) throws TransportException {
       def response = processPacket.call(packet)
 
       if (response != null) {
         response.header.messageId = packet.header.messageId
         response.header.creditResponse = packet.header.creditRequest
-        receiver.handle(new StubPacketData(response))
+        def packetData = new StubPacketData(response)
+        receiving.execute({ receiver.handle(packetData) } as Runnable)
       } else {
         throw new TransportException("No response for " + packet)
       }
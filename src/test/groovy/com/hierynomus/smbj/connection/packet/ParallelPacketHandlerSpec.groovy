@@ -0,0 +1,88 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection.packet
+
+import com.hierynomus.mssmb2.SMB2Dialect
+import com.hierynomus.mssmb2.SMB2PacketData
+import com.hierynomus.mssmb2.messages.SMB2Echo
+import com.hierynomus.protocol.transport.PacketReceiver
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smb.SMBPacketData
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class ParallelPacketHandlerSpec extends Specification {
+
+  def "should hand on the packets in the order in which they were received"() {
+    given:
+    def received = Collections.synchronizedList([])
+    def latch = new CountDownLatch(200)
+    def parallel = new ParallelPacketHandler(4, Mock(PacketReceiver))
+    def collector = parallel.inOrder(handler { SMBPacketData<?> p ->
+      received << p.header.messageId
+      latch.countDown()
+    })
+    def random = new Random()
+    parallel.setNext(handler { SMBPacketData<?> p ->
+      Thread.sleep(random.nextInt(3))
+      collector.handle(p)
+    })
+
+    when:
+    (0L..<200L).each { parallel.handle(packet(it)) }
+    latch.await(10, TimeUnit.SECONDS)
+
+    then:
+    received == (0L..<200L).toList()
+
+    cleanup:
+    parallel.shutdown()
+  }
+
+  def "should report errors of the parallel handlers to the receiver"() {
+    given:
+    def errors = new CountDownLatch(1)
+    def receiver = Stub(PacketReceiver) {
+      handleError(_) >> { errors.countDown() }
+    }
+    def parallel = new ParallelPacketHandler(2, receiver)
+    parallel.inOrder(handler {})
+    parallel.setNext(handler { throw new IllegalStateException("decryption failed") })
+
+    when:
+    parallel.handle(packet(1L))
+
+    then:
+    errors.await(10, TimeUnit.SECONDS)
+
+    cleanup:
+    parallel.shutdown()
+  }
+
+  private IncomingPacketHandler handler(Closure c) {
+    [handle: c, setNext: { it }] as IncomingPacketHandler
+  }
+
+  private static SMBPacketData<?> packet(long messageId) {
+    def echo = new SMB2Echo(SMB2Dialect.SMB_2_1)
+    echo.header.messageId = messageId
+    def buffer = new SMBBuffer()
+    echo.write(buffer)
+    new SMB2PacketData(buffer.compactData)
+  }
+}
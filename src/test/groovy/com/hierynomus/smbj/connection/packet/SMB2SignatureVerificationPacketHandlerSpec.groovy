@@ -0,0 +1,88 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.connection.packet
+
+import com.hierynomus.mssmb2.DeadLetterPacketData
+import com.hierynomus.mssmb2.SMB2Dialect
+import com.hierynomus.mssmb2.SMB2PacketData
+import com.hierynomus.mssmb2.messages.SMB2Echo
+import com.hierynomus.security.bc.BCSecurityProvider
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smb.SMBPacketData
+import com.hierynomus.smbj.connection.Connection
+import com.hierynomus.smbj.connection.PacketSignatory
+import com.hierynomus.smbj.connection.SessionTable
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class SMB2SignatureVerificationPacketHandlerSpec extends Specification {
+  def received = []
+  def handler = new SMB2SignatureVerificationPacketHandler(Mock(Connection), new SessionTable(), new PacketSignatory(new BCSecurityProvider()))
+
+  def setup() {
+    handler.setNext([handle: { SMBPacketData<?> p -> received << p }, setNext: { it }] as IncomingPacketHandler)
+  }
+
+  def "should hand on a compounded response with valid NextCommand offsets"() {
+    given:
+    def packet = compounded(72)
+
+    when:
+    handler.handle(packet)
+
+    then:
+    received == [packet]
+  }
+
+  @Unroll
+  def "should discard a compounded response with NextCommand offset #nextCommand"() {
+    when:
+    handler.handle(compounded(nextCommand))
+
+    then:
+    received.size() == 1
+    received[0] instanceof DeadLetterPacketData
+
+    where:
+    nextCommand | _
+    -8          | _ // negative
+    8           | _ // smaller than a header
+    68          | _ // not 8-byte aligned
+    88          | _ // the next header does not fit in the received data
+    4096        | _ // beyond the received data
+  }
+
+  /**
+   * Two 72 byte ECHO messages, the first of which points to the second with the given NextCommand offset.
+   */
+  private static SMBPacketData<?> compounded(int nextCommand) {
+    def buffer = new SMBBuffer()
+    def first = new SMB2Echo(SMB2Dialect.SMB_2_1)
+    first.header.messageId = 1
+    first.write(buffer)
+    buffer.putRawBytes(new byte[72 - buffer.wpos()])
+    def second = new SMB2Echo(SMB2Dialect.SMB_2_1)
+    second.header.messageId = 2
+    second.write(buffer)
+    buffer.putRawBytes(new byte[144 - buffer.wpos()])
+    byte[] data = buffer.compactData
+    ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).putInt(20, nextCommand) // NextCommand of the first header
+    new SMB2PacketData(data)
+  }
+}
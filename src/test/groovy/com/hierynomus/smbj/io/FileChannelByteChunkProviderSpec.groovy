@@ -0,0 +1,96 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.io
+
+import com.hierynomus.smb.SMBBuffer
+import spock.lang.Specification
+
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+class FileChannelByteChunkProviderSpec extends Specification {
+
+  def "should write 1 chunk to outputStream"() {
+    given:
+    def file = getFileWithRandomData(ByteChunkProvider.CHUNK_SIZE)
+    def provider = new FileChannelByteChunkProvider(file.toPath())
+    def baos = new ByteArrayOutputStream()
+
+    when:
+    provider.writeChunk(baos)
+
+    then:
+    baos.toByteArray() == file.bytes
+    provider.offset == ByteChunkProvider.CHUNK_SIZE
+    !provider.isAvailable()
+
+    cleanup:
+    provider.close()
+    file.delete()
+  }
+
+  def "should write multiple chunks directly into buffer"() {
+    given:
+    def file = getFileWithRandomData(2 * ByteChunkProvider.CHUNK_SIZE + 10)
+    def provider = new FileChannelByteChunkProvider(file.toPath())
+    def buffer = new SMBBuffer()
+
+    when:
+    provider.writeChunks(buffer, 3)
+
+    then:
+    buffer.compactData == file.bytes
+    provider.lastWriteSize == 2 * ByteChunkProvider.CHUNK_SIZE + 10
+    !provider.isAvailable()
+
+    cleanup:
+    provider.close()
+    file.delete()
+  }
+
+  def "should start at provided offset without moving the channel position"() {
+    given:
+    def file = getFileWithRandomData(ByteChunkProvider.CHUNK_SIZE)
+    def channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)
+    def provider = new FileChannelByteChunkProvider(channel, 100)
+    def baos = new ByteArrayOutputStream()
+
+    when:
+    provider.writeChunk(baos)
+
+    then:
+    def tmpBytes = new byte[ByteChunkProvider.CHUNK_SIZE - 100]
+    System.arraycopy(file.bytes, 100, tmpBytes, 0, tmpBytes.length)
+    baos.toByteArray() == tmpBytes
+    provider.offset == ByteChunkProvider.CHUNK_SIZE
+    !provider.isAvailable()
+    channel.position() == 0
+
+    cleanup:
+    channel.close()
+    file.delete()
+  }
+
+  private def getFileWithRandomData(int size) {
+    def bytes = new byte[size]
+    new Random().nextBytes(bytes)
+    def file = File.createTempFile("foo", "txt")
+    file.withOutputStream {
+      it.write(bytes)
+    }
+    return file
+  }
+}
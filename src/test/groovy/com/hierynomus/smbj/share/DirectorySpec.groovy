@@ -0,0 +1,165 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share
+
+import com.hierynomus.msdtyp.AccessMask
+import com.hierynomus.mserref.NtStatus
+import com.hierynomus.msfscc.FileAttributes
+import com.hierynomus.msfscc.fileinformation.FileDirectoryCursor
+import com.hierynomus.msfscc.fileinformation.FileDirectoryInformation
+import com.hierynomus.mssmb2.SMB2CreateDisposition
+import com.hierynomus.mssmb2.SMB2FileId
+import com.hierynomus.mssmb2.SMB2Packet
+import com.hierynomus.mssmb2.messages.SMB2Close
+import com.hierynomus.mssmb2.messages.SMB2CreateRequest
+import com.hierynomus.mssmb2.messages.SMB2CreateResponse
+import com.hierynomus.mssmb2.messages.SMB2QueryDirectoryRequest
+import com.hierynomus.mssmb2.messages.SMB2QueryDirectoryResponse
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.auth.AuthenticationContext
+import com.hierynomus.smbj.connection.BasicPacketProcessor
+import com.hierynomus.smbj.connection.Connection
+import com.hierynomus.smbj.connection.StubAuthenticator
+import com.hierynomus.smbj.connection.StubTransportLayerFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.charset.StandardCharsets
+
+class DirectorySpec extends Specification {
+  private static final Closure<List<String>> ITERATOR = { Directory d ->
+    d.iterator(FileDirectoryInformation).toList()*.fileName
+  }
+  private static final Closure<List<String>> PREFETCHING_ITERATOR = { Directory d ->
+    d.iterator(FileDirectoryInformation, null, Integer.MAX_VALUE).toList()*.fileName
+  }
+  private static final Closure<List<String>> FILTERED_LIST = { Directory d ->
+    d.list(FileDirectoryInformation, null, { true } as FileDirectoryCursor.Filter)*.fileName
+  }
+
+  private Connection connection
+  // The names in each page the server returns, by the number of the QUERY_DIRECTORY request
+  private Closure<List<String>> pages
+  private int queries
+
+  def cleanup() {
+    connection.close()
+  }
+
+  @Unroll
+  def "should stop listing when the server repeats the last page with the #method"() {
+    given:
+    // Like the macOS SMB server, which does not always send STATUS_NO_MORE_FILES
+    pages = { int query -> ["a", "b"] }
+    def directory = openDirectory()
+
+    when:
+    def names = listing.call(directory)
+
+    then:
+    names == ["a", "b"]
+    queries == 2
+
+    where:
+    method                 | listing
+    "iterator"             | ITERATOR
+    "prefetching iterator" | PREFETCHING_ITERATOR
+    "filtered list"        | FILTERED_LIST
+  }
+
+  @Unroll
+  def "should not take a different page of the same length for a repeated page with the #method"() {
+    given:
+    pages = { int query -> query < 2 ? [["aa", "bb"][query]] : null }
+    def directory = openDirectory()
+
+    when:
+    def names = listing.call(directory)
+
+    then:
+    names == ["aa", "bb"]
+    queries == 3
+
+    where:
+    method                 | listing
+    "iterator"             | ITERATOR
+    "prefetching iterator" | PREFETCHING_ITERATOR
+    "filtered list"        | FILTERED_LIST
+  }
+
+  private Directory openDirectory() {
+    def responder = new BasicPacketProcessor({ req ->
+      req = req.packet
+      if (req instanceof SMB2CreateRequest) {
+        def response = new SMB2CreateResponse()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        response.fileAttributes = EnumSet.of(FileAttributes.FILE_ATTRIBUTE_DIRECTORY)
+        response.fileId = new SMB2FileId(new byte[8], new byte[8])
+        return response
+      }
+      if (req instanceof SMB2QueryDirectoryRequest) {
+        return queryDirectoryResponse(pages.call(queries++))
+      }
+      if (req instanceof SMB2Close) {
+        def response = new SMB2Close()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        return response
+      }
+      null
+    })
+    def config = SmbConfig.builder()
+      .withDfsEnabled(false)
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket))
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .build()
+    connection = new SMBClient(config).connect("127.0.0.1")
+    def session = connection.authenticate(new AuthenticationContext("username", "password".toCharArray(), "domain.com"))
+    def share = session.connectShare("share") as DiskShare
+    share.openDirectory("dir", EnumSet.of(AccessMask.FILE_LIST_DIRECTORY), null, null, SMB2CreateDisposition.FILE_OPEN, null)
+  }
+
+  /**
+   * A page of FileDirectoryInformation entries ([MS-FSCC] 2.4.10), each aligned on an 8-byte boundary, or
+   * STATUS_NO_MORE_FILES if there are no names.
+   */
+  private static SMB2Packet queryDirectoryResponse(List<String> names) {
+    def response = new SMB2QueryDirectoryResponse()
+    if (names == null) {
+      response.header.statusCode = NtStatus.STATUS_NO_MORE_FILES.value
+      return response
+    }
+    def buffer = new SMBBuffer()
+    for (int i = 0; i < names.size(); i++) {
+      byte[] name = names[i].getBytes(StandardCharsets.UTF_16LE)
+      int length = 64 + name.length
+      int nextEntryOffset = i < names.size() - 1 ? (length + 7) & ~7 : 0
+      buffer.putUInt32(nextEntryOffset) // NextEntryOffset (4 bytes)
+      buffer.putUInt32(0) // FileIndex (4 bytes)
+      buffer.putRawBytes(new byte[48]) // CreationTime, LastAccessTime, LastWriteTime, ChangeTime, EndOfFile, AllocationSize (8 bytes each)
+      buffer.putUInt32(FileAttributes.FILE_ATTRIBUTE_NORMAL.value) // FileAttributes (4 bytes)
+      buffer.putUInt32(name.length) // FileNameLength (4 bytes)
+      buffer.putRawBytes(name) // FileName (variable)
+      if (nextEntryOffset > 0) {
+        buffer.putRawBytes(new byte[nextEntryOffset - length])
+      }
+    }
+    response.outputBuffer = buffer.compactData
+    response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    response
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share
+
+import com.hierynomus.mserref.NtStatus
+import com.hierynomus.msfscc.FileAttributes
+import com.hierynomus.msfscc.fileinformation.FileStandardInformation
+import com.hierynomus.mssmb2.SMB2FileId
+import com.hierynomus.mssmb2.SMB2Packet
+import com.hierynomus.mssmb2.SMBApiException
+import com.hierynomus.mssmb2.messages.SMB2Close
+import com.hierynomus.mssmb2.messages.SMB2CreateRequest
+import com.hierynomus.mssmb2.messages.SMB2CreateResponse
+import com.hierynomus.mssmb2.messages.SMB2QueryInfoRequest
+import com.hierynomus.mssmb2.messages.SMB2QueryInfoResponse
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.auth.AuthenticationContext
+import com.hierynomus.smbj.connection.BasicPacketProcessor
+import com.hierynomus.smbj.connection.Connection
+import com.hierynomus.smbj.connection.StubAuthenticator
+import com.hierynomus.smbj.connection.StubTransportLayerFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+
+/**
+ * The responses are held back, and handed to the connection one at a time while the thread that queries the paths
+ * waits for one. Every request that is sent before that thread has to wait is thus outstanding.
+ */
+class FileInformationBatchSpec extends Specification {
+  private Connection connection
+  private Thread client
+  private BlockingQueue<Runnable> held = new LinkedBlockingQueue<>()
+  private volatile boolean receiving = true
+  private Thread receiver
+
+  // The size of each file on the share
+  private Map<String, Long> sizes = [:]
+  private String lastCreated
+  // The number of CREATE, QUERY_INFO and CLOSE chains that were outstanding at most
+  private int maxOutstanding
+
+  def setup() {
+    client = Thread.currentThread()
+    receiver = Thread.start {
+      while (receiving) {
+        def state = client.state
+        if ((state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING) && !held.isEmpty()) {
+          held.poll().run()
+        } else {
+          Thread.sleep(1)
+        }
+      }
+    }
+  }
+
+  def cleanup() {
+    connection.close()
+    receiving = false
+    receiver.join()
+  }
+
+  @Unroll
+  def "should keep at most #window queries outstanding"() {
+    given:
+    def paths = (1..10).collect { "file" + it }
+    paths.each { sizes[it] = 1L }
+    def share = connectShare()
+
+    when:
+    def batch = share.getFileInformation(paths, FileStandardInformation, window, false)
+
+    then:
+    batch.information.keySet() == paths as Set
+    maxOutstanding == outstanding
+
+    where:
+    window | outstanding
+    1      | 1
+    3      | 3
+    16     | 10
+  }
+
+  def "should return the information and the errors of the paths in the order of the paths"() {
+    given:
+    sizes = ["a": 1L, "b": 2L, "denied": 3L, "c": 4L]
+    def share = connectShare()
+
+    when:
+    def batch = share.getFileInformation(["a", "missing", "b", "denied", "c"], FileStandardInformation, 2, false)
+
+    then:
+    batch.information.collect { path, information -> [path, information.endOfFile] } == [["a", 1L], ["b", 2L], ["c", 4L]]
+    batch.errors.keySet() as List == ["missing", "denied"]
+    batch.errors["missing"].statusCode == NtStatus.STATUS_OBJECT_NAME_NOT_FOUND.value
+    batch.errors["denied"].statusCode == NtStatus.STATUS_ACCESS_DENIED.value
+    batch.get("b").endOfFile == 2L
+
+    when:
+    batch.get("missing")
+
+    then:
+    def e = thrown(SMBApiException)
+    e.is(batch.errors["missing"])
+  }
+
+  private DiskShare connectShare() {
+    def responder = new BasicPacketProcessor({ req ->
+      req = req.packet
+      if (req instanceof SMB2CreateRequest) {
+        lastCreated = req.path.path
+        // Each chain is answered with three responses, the responses of this chain are not held yet
+        maxOutstanding = Math.max(maxOutstanding, held.size().intdiv(3) + 1)
+        def response = new SMB2CreateResponse()
+        if (sizes.containsKey(lastCreated)) {
+          response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+          response.fileAttributes = EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL)
+          response.fileId = new SMB2FileId(new byte[8], new byte[8])
+        } else {
+          response.header.statusCode = NtStatus.STATUS_OBJECT_NAME_NOT_FOUND.value
+        }
+        return response
+      }
+      if (req instanceof SMB2QueryInfoRequest) {
+        return queryInfoResponse(lastCreated)
+      }
+      if (req instanceof SMB2Close) {
+        def response = new SMB2Close()
+        response.header.statusCode = (sizes.containsKey(lastCreated) ? NtStatus.STATUS_SUCCESS : NtStatus.STATUS_OBJECT_NAME_NOT_FOUND).value
+        return response
+      }
+      null
+    })
+    def config = SmbConfig.builder()
+      .withDfsEnabled(false)
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket, { Runnable r -> held.add(r) } as Executor))
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .build()
+    connection = new SMBClient(config).connect("127.0.0.1")
+    def session = connection.authenticate(new AuthenticationContext("username", "password".toCharArray(), "domain.com"))
+    session.connectShare("share") as DiskShare
+  }
+
+  /**
+   * FileStandardInformation ([MS-FSCC] 2.4.41) with the size of the file.
+   */
+  private SMB2Packet queryInfoResponse(String path) {
+    def response = new SMB2QueryInfoResponse()
+    if (!sizes.containsKey(path)) {
+      // The CREATE it is related to failed
+      response.header.statusCode = NtStatus.STATUS_OBJECT_NAME_NOT_FOUND.value
+    } else if (path == "denied") {
+      response.header.statusCode = NtStatus.STATUS_ACCESS_DENIED.value
+    } else {
+      def buffer = new SMBBuffer()
+      buffer.putLong(sizes[path]) // AllocationSize (8 bytes)
+      buffer.putLong(sizes[path]) // EndOfFile (8 bytes)
+      buffer.putUInt32(1) // NumberOfLinks (4 bytes)
+      buffer.putByte((byte) 0) // DeletePending (1 byte)
+      buffer.putByte((byte) 0) // Directory (1 byte)
+      buffer.putReserved2() // Reserved (2 bytes)
+      response.outputBuffer = buffer.compactData
+      response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    }
+    response
+  }
+}
@@ -210,6 +210,53 @@ class FileReadSpec extends Specification {
     out.toByteArray()[1..-1] == fileData[10001..-1]
   }
 
+  def "should read entire file contents to a stream with a pipelined read window"() {
+    given:
+    def config = SmbConfig.builder()
+      .withReadBufferSize(1024)
+      .withReadWindowSize(4)
+      .withDfsEnabled(false)
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket))
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .build()
+    def windowedConnection = new SMBClient(config).connect("127.0.0.1")
+    def session = windowedConnection.authenticate(new AuthenticationContext("username", "password".toCharArray(), "domain.com"))
+    def share = session.connectShare("share") as DiskShare
+    def windowedFile = share.openFile(
+      "file",
+      EnumSet.of(AccessMask.GENERIC_READ),
+      EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL),
+      SMB2ShareAccess.ALL,
+      SMB2CreateDisposition.FILE_OPEN,
+      EnumSet.noneOf(SMB2CreateOptions.class)
+    )
+
+    when:
+    def out = new DigestOutputStream(new ByteArrayOutputStream(), digest)
+    windowedFile.read(out)
+
+    then:
+    ByteArrayUtils.printHex(digest.digest()) == ByteArrayUtils.printHex(expectedDigest)
+
+    cleanup:
+    windowedConnection.close()
+  }
+
+  def "should download entire file contents to a local file"() {
+    given:
+    def localFile = java.nio.file.Files.createTempFile("download", "txt")
+
+    when:
+    def transferred = file.download(localFile)
+
+    then:
+    transferred == fileData.length
+    java.nio.file.Files.readAllBytes(localFile) == fileData
+
+    cleanup:
+    java.nio.file.Files.delete(localFile)
+  }
+
   byte[] randomData(int seed, int length) {
     Random rng = new Random(seed)
     byte[] data = new byte[length]
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share
+
+import com.hierynomus.msdtyp.AccessMask
+import com.hierynomus.mserref.NtStatus
+import com.hierynomus.msfscc.FileAttributes
+import com.hierynomus.mssmb2.*
+import com.hierynomus.mssmb2.messages.SMB2Close
+import com.hierynomus.mssmb2.messages.SMB2CreateRequest
+import com.hierynomus.mssmb2.messages.SMB2CreateResponse
+import com.hierynomus.mssmb2.messages.SMB2LockRequest
+import com.hierynomus.mssmb2.messages.SMB2LockResponse
+import com.hierynomus.mssmb2.messages.SMB2SetInfoRequest
+import com.hierynomus.mssmb2.messages.SMB2SetInfoResponse
+import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.auth.AuthenticationContext
+import com.hierynomus.smbj.connection.BasicPacketProcessor
+import com.hierynomus.smbj.connection.Connection
+import com.hierynomus.smbj.connection.StubAuthenticator
+import com.hierynomus.smbj.connection.StubTransportLayerFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.TimeUnit
+
+class HandleCacheSpec extends Specification {
+  private Connection connection
+  private int creates
+  // Expired handles are closed on the notification thread of the connection
+  private volatile int closes
+  private int locks
+  private int setInfos
+
+  def cleanup() {
+    connection.close()
+  }
+
+  def "should reuse the handle of a file that is opened again with the same access"() {
+    given:
+    def share = connectShare(SmbConfig.builder().withHandleCache(8, 10, TimeUnit.SECONDS))
+
+    when:
+    open(share, "file", AccessMask.GENERIC_READ).close()
+    open(share, "file", AccessMask.GENERIC_READ).close()
+
+    then:
+    creates == 1
+    closes == 0
+
+    when:
+    open(share, "file", AccessMask.GENERIC_WRITE).close()
+    open(share, "other", AccessMask.GENERIC_READ).close()
+
+    then:
+    creates == 3
+  }
+
+  def "should close the handle that is idle longest when the cache is full"() {
+    given:
+    def share = connectShare(SmbConfig.builder().withHandleCache(1, 10, TimeUnit.SECONDS))
+
+    when:
+    open(share, "file1", AccessMask.GENERIC_READ).close()
+    open(share, "file2", AccessMask.GENERIC_READ).close()
+    open(share, "file1", AccessMask.GENERIC_READ).close()
+
+    then:
+    creates == 3
+    closes == 1
+  }
+
+  def "should close handles right away if the handle cache is disabled"() {
+    given:
+    def share = connectShare(SmbConfig.builder())
+
+    when:
+    open(share, "file", AccessMask.GENERIC_READ).close()
+    open(share, "file", AccessMask.GENERIC_READ).close()
+
+    then:
+    creates == 2
+    closes == 2
+  }
+
+  @Unroll
+  def "should not keep a handle opened with #accessMask that is deleted on close"() {
+    given:
+    def share = connectShare(SmbConfig.builder().withHandleCache(8, 10, TimeUnit.SECONDS))
+
+    when:
+    def file = open(share, "file", accessMask)
+    file.deleteOnClose()
+    file.close()
+    open(share, "file", accessMask).close()
+
+    then:
+    setInfos == 1
+    creates == 2
+    closes == 2
+
+    where:
+    accessMask << [AccessMask.DELETE, AccessMask.GENERIC_ALL, AccessMask.MAXIMUM_ALLOWED]
+  }
+
+  @Unroll
+  def "should not keep a handle opened with #accessMask that is renamed"() {
+    given:
+    def share = connectShare(SmbConfig.builder().withHandleCache(8, 10, TimeUnit.SECONDS))
+
+    when:
+    def file = open(share, "file", accessMask)
+    file.rename("renamed")
+    file.close()
+    open(share, "file", accessMask).close()
+
+    then:
+    setInfos == 1
+    creates == 2
+    closes == 2
+
+    where:
+    accessMask << [AccessMask.DELETE, AccessMask.GENERIC_ALL, AccessMask.MAXIMUM_ALLOWED]
+  }
+
+  def "should close a handle on which locks were requested instead of keeping it"() {
+    given:
+    def share = connectShare(SmbConfig.builder().withHandleCache(8, 10, TimeUnit.SECONDS))
+
+    when:
+    def file = open(share, "file", AccessMask.GENERIC_READ)
+    file.requestLock().sharedLock(0, 10).send()
+    file.close()
+    open(share, "file", AccessMask.GENERIC_READ).close()
+
+    then:
+    locks == 1
+    creates == 2
+    closes == 1
+  }
+
+  def "should close an idle handle when it expires, without the cache being used again"() {
+    given:
+    def share = connectShare(SmbConfig.builder().withHandleCache(8, 100, TimeUnit.MILLISECONDS))
+
+    when:
+    open(share, "file", AccessMask.GENERIC_READ).close()
+
+    then:
+    closes == 0
+    new PollingConditions(timeout: 5).eventually {
+      assert closes == 1
+    }
+
+    when:
+    open(share, "file", AccessMask.GENERIC_READ).close()
+
+    then:
+    creates == 2
+  }
+
+  private DiskShare connectShare(SmbConfig.Builder builder) {
+    def responder = new BasicPacketProcessor({ req ->
+      req = req.packet
+      if (req instanceof SMB2CreateRequest) {
+        creates++
+        return createResponse()
+      }
+      if (req instanceof SMB2SetInfoRequest) {
+        setInfos++
+        def response = new SMB2SetInfoResponse()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        return response
+      }
+      if (req instanceof SMB2LockRequest) {
+        locks++
+        def response = new SMB2LockResponse()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        return response
+      }
+      if (req instanceof SMB2Close) {
+        closes++
+        def response = new SMB2Close()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        return response
+      }
+      null
+    })
+    def config = builder
+      .withDfsEnabled(false)
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket))
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .build()
+    connection = new SMBClient(config).connect("127.0.0.1")
+    def session = connection.authenticate(new AuthenticationContext("username", "password".toCharArray(), "domain.com"))
+    session.connectShare("share") as DiskShare
+  }
+
+  private static File open(DiskShare share, String path, AccessMask accessMask) {
+    share.openFile(path, EnumSet.of(accessMask), EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL,
+      SMB2CreateDisposition.FILE_OPEN, EnumSet.noneOf(SMB2CreateOptions.class))
+  }
+
+  private static SMB2Packet createResponse() {
+    def response = new SMB2CreateResponse()
+    response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    response.fileAttributes = EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL)
+    response.fileId = new SMB2FileId(new byte[0], new byte[0])
+    response
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share
+
+import com.hierynomus.msdtyp.AccessMask
+import com.hierynomus.msdtyp.FileTime
+import com.hierynomus.mserref.NtStatus
+import com.hierynomus.msfscc.FileAttributes
+import com.hierynomus.mssmb2.*
+import com.hierynomus.mssmb2.messages.*
+import com.hierynomus.mssmb2.messages.submodule.SMB2Lease
+import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.auth.AuthenticationContext
+import com.hierynomus.smbj.connection.BasicPacketProcessor
+import com.hierynomus.smbj.connection.Connection
+import com.hierynomus.smbj.connection.StubAuthenticator
+import com.hierynomus.smbj.connection.StubTransportLayerFactory
+import com.hierynomus.smbj.event.LeaseBreak
+import com.hierynomus.smbj.event.SMBEventBus
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static com.hierynomus.mssmb2.SMB2LeaseState.SMB2_LEASE_HANDLE_CACHING
+import static com.hierynomus.mssmb2.SMB2LeaseState.SMB2_LEASE_READ_CACHING
+
+class LeaseBreakSpec extends Specification {
+  private SMBEventBus bus = new SMBEventBus()
+  private Connection connection
+  private byte[] leaseKey
+  private CountDownLatch acks = new CountDownLatch(1)
+  private CountDownLatch closes = new CountDownLatch(1)
+
+  def cleanup() {
+    connection.close()
+  }
+
+  def "should acknowledge a lease break that arrives while no credits are available"() {
+    given:
+    def share = connectShare(SmbConfig.builder())
+    def file = open(share, "file")
+    def window = connection.sequenceWindow
+    window.acquire(window.available())
+
+    when:
+    // The notification is published on the thread that receives the packets, which grants the credits
+    def start = System.nanoTime()
+    bus.publish(new LeaseBreak(leaseKey, EnumSet.of(SMB2_LEASE_READ_CACHING), 2, true))
+
+    then:
+    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000
+    acks.count == 1
+
+    when:
+    window.creditsGranted(1)
+
+    then:
+    acks.await(5, TimeUnit.SECONDS)
+
+    cleanup:
+    file.close()
+  }
+
+  def "should close the idle handles and not acknowledge the break when handle caching is lost"() {
+    given:
+    def share = connectShare(SmbConfig.builder().withHandleCache(8, 10, TimeUnit.SECONDS))
+    open(share, "file").close()
+
+    when:
+    bus.publish(new LeaseBreak(leaseKey, EnumSet.of(SMB2_LEASE_READ_CACHING), 2, true))
+
+    then:
+    closes.await(5, TimeUnit.SECONDS)
+    !acks.await(200, TimeUnit.MILLISECONDS)
+  }
+
+  private DiskShare connectShare(SmbConfig.Builder builder) {
+    def responder = new BasicPacketProcessor({ req ->
+      req = req.packet
+      if (req instanceof SMB2NegotiateRequest) {
+        return negotiateResponse()
+      }
+      if (req instanceof SMB2CreateRequest) {
+        leaseKey = req.lease.leaseKey
+        return createResponse(req.lease)
+      }
+      if (req instanceof SMB2LeaseBreakAcknowledgment) {
+        acks.countDown()
+        def response = new SMB2LeaseBreakAcknowledgment()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        return response
+      }
+      if (req instanceof SMB2Close) {
+        closes.countDown()
+        def response = new SMB2Close()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        return response
+      }
+      null
+    })
+    def config = builder
+      .withLeasingEnabled(true)
+      .withCreditWaitTimeout(5, TimeUnit.SECONDS)
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket))
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .build()
+    connection = new SMBClient(config, bus).connect("127.0.0.1")
+    def session = connection.authenticate(new AuthenticationContext("username", "password".toCharArray(), "domain.com"))
+    session.connectShare("share") as DiskShare
+  }
+
+  private static File open(DiskShare share, String path) {
+    share.openFile(path, EnumSet.of(AccessMask.GENERIC_READ), EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL),
+      SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, EnumSet.noneOf(SMB2CreateOptions.class))
+  }
+
+  private static SMB2Packet negotiateResponse() {
+    def response = new SMB2NegotiateResponse()
+    response.header.message = SMB2MessageCommandCode.SMB2_NEGOTIATE
+    response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    response.dialect = SMB2Dialect.SMB_2_1
+    response.capabilities = EnumSet.of(SMB2GlobalCapability.SMB2_GLOBAL_CAP_LEASING)
+    response.systemTime = FileTime.now()
+    response.serverGuid = UUID.fromString("00112233-4455-6677-8899-aabbccddeeff")
+    response
+  }
+
+  private static SMB2Packet createResponse(SMB2Lease requested) {
+    def response = new SMB2CreateResponse()
+    response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    response.fileAttributes = EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL)
+    response.fileId = new SMB2FileId(new byte[0], new byte[0])
+    response.lease = new SMB2Lease(requested.leaseKey, EnumSet.of(SMB2_LEASE_READ_CACHING, SMB2_LEASE_HANDLE_CACHING), 1)
+    response
+  }
+}
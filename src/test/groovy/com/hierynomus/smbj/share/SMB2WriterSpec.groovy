@@ -0,0 +1,156 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share
+
+import com.hierynomus.msdtyp.AccessMask
+import com.hierynomus.mserref.NtStatus
+import com.hierynomus.msfscc.FileAttributes
+import com.hierynomus.mssmb2.SMB2CreateDisposition
+import com.hierynomus.mssmb2.SMB2CreateOptions
+import com.hierynomus.mssmb2.SMB2FileId
+import com.hierynomus.mssmb2.SMB2ShareAccess
+import com.hierynomus.mssmb2.SMBApiException
+import com.hierynomus.mssmb2.messages.SMB2CreateRequest
+import com.hierynomus.mssmb2.messages.SMB2CreateResponse
+import com.hierynomus.mssmb2.messages.SMB2WriteRequest
+import com.hierynomus.mssmb2.messages.SMB2WriteResponse
+import com.hierynomus.smbj.ProgressListener
+import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.auth.AuthenticationContext
+import com.hierynomus.smbj.common.SMBRuntimeException
+import com.hierynomus.smbj.connection.BasicPacketProcessor
+import com.hierynomus.smbj.connection.Connection
+import com.hierynomus.smbj.connection.StubAuthenticator
+import com.hierynomus.smbj.connection.StubTransportLayerFactory
+import com.hierynomus.smbj.io.ArrayByteChunkProvider
+import spock.lang.Specification
+
+/**
+ * Every WRITE request carries one chunk of 64KiB, the maximum write size of an SMB 2.1 server without multi-credit
+ * support.
+ */
+class SMB2WriterSpec extends Specification {
+  private static final int CHUNK = 64 * 1024
+  private static final int WINDOW = 4
+
+  private Connection connection
+  private ByteArrayOutputStream written = new ByteArrayOutputStream()
+  // The offset of each WRITE request, in the order they are sent
+  private List<Long> offsets = []
+  // The response to the WRITE request with the given index, by default all data is written
+  private Closure<SMB2WriteResponse> respond = { int index, SMB2WriteRequest req -> writeResponse(req.maxPayloadSize) }
+  private List<List<Long>> progress = []
+  private ProgressListener listener = { long numBytes, long totalBytes -> progress << [numBytes, totalBytes] } as ProgressListener
+
+  def cleanup() {
+    connection.close()
+  }
+
+  def "should write all chunks at consecutive offsets from the offset of the provider"() {
+    given:
+    def data = new byte[3 * CHUNK + 100]
+    new Random(42).nextBytes(data)
+    def file = openFile()
+
+    when:
+    def bytesWritten = file.write(new ArrayByteChunkProvider(data, 1000L), listener)
+
+    then:
+    bytesWritten == data.length
+    offsets == [1000L, 1000L + CHUNK, 1000L + 2 * CHUNK, 1000L + 3 * CHUNK]
+    written.toByteArray() == data
+    // The progress is reported in order, with the offset up to which the data is written
+    progress == [[CHUNK, 1000L + CHUNK], [CHUNK, 1000L + 2 * CHUNK], [CHUNK, 1000L + 3 * CHUNK], [100, 1000L + data.length]]
+  }
+
+  def "should stop writing and throw when the server writes less bytes than were sent"() {
+    given:
+    respond = { int index, SMB2WriteRequest req -> writeResponse(index == 2 ? req.maxPayloadSize - 1 : req.maxPayloadSize) }
+    def file = openFile()
+
+    when:
+    file.write(new ArrayByteChunkProvider(new byte[10 * CHUNK], 0L), listener)
+
+    then:
+    def e = thrown(SMBRuntimeException)
+    e.message.contains("server wrote less bytes (" + (CHUNK - 1) + ") than we sent (" + CHUNK + ")")
+    // No more than a window of requests is sent beyond the one that was written short
+    offsets == (0..<(2 + WINDOW)).collect { it * (long) CHUNK }
+    progress.size() == 2
+  }
+
+  def "should stop writing and throw the error of a request in the middle of the window"() {
+    given:
+    respond = { int index, SMB2WriteRequest req ->
+      if (index == 2) {
+        def response = new SMB2WriteResponse()
+        response.header.statusCode = NtStatus.STATUS_DISK_FULL.value
+        return response
+      }
+      writeResponse(req.maxPayloadSize)
+    }
+    def file = openFile()
+
+    when:
+    file.write(new ArrayByteChunkProvider(new byte[10 * CHUNK], 0L), listener)
+
+    then:
+    def e = thrown(SMBApiException)
+    e.status == NtStatus.STATUS_DISK_FULL
+    offsets == (0..<(2 + WINDOW)).collect { it * (long) CHUNK }
+    progress.size() == 2
+  }
+
+  private File openFile() {
+    def responder = new BasicPacketProcessor({ req ->
+      req = req.packet
+      if (req instanceof SMB2CreateRequest) {
+        def response = new SMB2CreateResponse()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        response.fileAttributes = EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL)
+        response.fileId = new SMB2FileId(new byte[8], new byte[8])
+        return response
+      }
+      if (req instanceof SMB2WriteRequest) {
+        int index = offsets.size()
+        offsets << req.byteProvider.offset
+        def response = respond.call(index, req)
+        // The data of the request is taken from the provider as it is sent
+        req.byteProvider.writeChunk(written)
+        return response
+      }
+      null
+    })
+    def config = SmbConfig.builder()
+      .withDfsEnabled(false)
+      .withWriteWindowSize(WINDOW)
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket))
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .build()
+    connection = new SMBClient(config).connect("127.0.0.1")
+    def session = connection.authenticate(new AuthenticationContext("username", "password".toCharArray(), "domain.com"))
+    def share = session.connectShare("share") as DiskShare
+    share.openFile("file", EnumSet.of(AccessMask.GENERIC_WRITE), null, SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN_IF, EnumSet.noneOf(SMB2CreateOptions))
+  }
+
+  private static SMB2WriteResponse writeResponse(int bytesWritten) {
+    def response = new SMB2WriteResponse()
+    response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    response.bytesWritten = bytesWritten
+    response
+  }
+}
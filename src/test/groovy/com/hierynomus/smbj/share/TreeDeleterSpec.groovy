@@ -0,0 +1,277 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share
+
+import com.hierynomus.mserref.NtStatus
+import com.hierynomus.msfscc.FileAttributes
+import com.hierynomus.mssmb2.*
+import com.hierynomus.mssmb2.messages.SMB2Close
+import com.hierynomus.mssmb2.messages.SMB2CreateRequest
+import com.hierynomus.mssmb2.messages.SMB2CreateResponse
+import com.hierynomus.mssmb2.messages.SMB2QueryDirectoryRequest
+import com.hierynomus.mssmb2.messages.SMB2QueryDirectoryResponse
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.auth.AuthenticationContext
+import com.hierynomus.smbj.connection.BasicPacketProcessor
+import com.hierynomus.smbj.connection.Connection
+import com.hierynomus.smbj.connection.StubAuthenticator
+import com.hierynomus.smbj.connection.StubTransportLayerFactory
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * Deletes trees from a share that is kept in memory. Every path is mapped to its type, the entries of a directory are
+ * the paths directly under it.
+ */
+class TreeDeleterSpec extends Specification {
+  private static final String FILE = "file"
+  private static final String DIRECTORY = "directory"
+  private static final String JUNCTION = "junction"
+
+  private Connection connection
+  private Map<String, String> tree = [:]
+  // The number of times a directory is listed before the entry is returned, to mimic a server that skips entries
+  private Map<String, Integer> skipped = [:]
+  // The status that is returned when the path is opened to delete it
+  private Map<String, NtStatus> failures = [:]
+  private List<String> deleted = []
+  private Map<String, Integer> listings = [:]
+  private Map<String, Handle> handles = [:]
+  // The handle of the last CREATE on each thread, which a related CLOSE refers to
+  private Map<Thread, Handle> lastCreated = [:]
+  private int fileIds
+
+  def cleanup() {
+    connection.close()
+  }
+
+  def "should delete a nested tree bottom-up"() {
+    given:
+    tree = [
+      "dir"                 : DIRECTORY,
+      "dir\\a"              : FILE,
+      "dir\\b"              : FILE,
+      "dir\\c"              : FILE,
+      "dir\\link"           : JUNCTION,
+      "dir\\sub"            : DIRECTORY,
+      "dir\\sub\\d"         : FILE,
+      "dir\\sub\\deeper"    : DIRECTORY,
+      "dir\\sub\\deeper\\e" : FILE,
+      "other"               : FILE
+    ]
+    def paths = tree.keySet().findAll { it.startsWith("dir") }
+    def share = connectShare()
+
+    when:
+    share.deleteTree("dir", 2, 2)
+
+    then:
+    tree.keySet() == ["other"] as Set
+    deleted as Set == paths
+    deleted.size() == paths.size()
+    deleted.indexOf("dir\\sub\\deeper\\e") < deleted.indexOf("dir\\sub\\deeper")
+    deleted.indexOf("dir\\sub\\deeper") < deleted.indexOf("dir\\sub")
+    deleted.indexOf("dir\\sub\\d") < deleted.indexOf("dir\\sub")
+    deleted.indexOf("dir\\sub") < deleted.indexOf("dir")
+    deleted.indexOf("dir\\link") < deleted.indexOf("dir")
+    // The junction is deleted itself, and not listed
+    listings == ["dir": 1, "dir\\sub": 1, "dir\\sub\\deeper": 1]
+  }
+
+  def "should list a directory again when it is not empty when it is removed"() {
+    given:
+    tree = ["dir": DIRECTORY, "dir\\a": FILE, "dir\\late": FILE]
+    skipped["dir\\late"] = 1
+    def share = connectShare()
+
+    when:
+    share.deleteTree("dir", 1, 1)
+
+    then:
+    tree.isEmpty()
+    listings["dir"] == 2
+    deleted == ["dir\\a", "dir\\late", "dir"]
+  }
+
+  def "should give up when a directory is still not empty after it is listed again"() {
+    given:
+    tree = ["dir": DIRECTORY, "dir\\hidden": FILE]
+    skipped["dir\\hidden"] = Integer.MAX_VALUE
+    def share = connectShare()
+
+    when:
+    share.deleteTree("dir", 1, 1)
+
+    then:
+    def e = thrown(SMBApiException)
+    e.statusCode == NtStatus.STATUS_DIRECTORY_NOT_EMPTY.value
+    listings["dir"] == 3
+    tree.keySet() == ["dir", "dir\\hidden"] as Set
+  }
+
+  def "should throw the error of a delete in a subdirectory and not remove its parents"() {
+    given:
+    tree = [
+      "dir"               : DIRECTORY,
+      "dir\\a"            : FILE,
+      "dir\\sub"          : DIRECTORY,
+      "dir\\sub\\b"       : FILE,
+      "dir\\sub\\locked"  : FILE
+    ]
+    failures["dir\\sub\\locked"] = NtStatus.STATUS_ACCESS_DENIED
+    def share = connectShare()
+
+    when:
+    share.deleteTree("dir", 2, 1)
+
+    then:
+    def e = thrown(SMBApiException)
+    e.statusCode == NtStatus.STATUS_ACCESS_DENIED.value
+    tree.keySet().containsAll(["dir", "dir\\sub", "dir\\sub\\locked"])
+    !deleted.contains("dir\\sub")
+    !deleted.contains("dir")
+  }
+
+  private DiskShare connectShare() {
+    def responder = new BasicPacketProcessor({ req ->
+      req = req.packet
+      synchronized (tree) {
+        if (req instanceof SMB2CreateRequest) {
+          return create(req)
+        }
+        if (req instanceof SMB2QueryDirectoryRequest) {
+          return queryDirectory(req)
+        }
+        if (req instanceof SMB2Close) {
+          return close(req)
+        }
+      }
+      null
+    })
+    def config = SmbConfig.builder()
+      .withDfsEnabled(false)
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket))
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .build()
+    connection = new SMBClient(config).connect("127.0.0.1")
+    def session = connection.authenticate(new AuthenticationContext("username", "password".toCharArray(), "domain.com"))
+    session.connectShare("share") as DiskShare
+  }
+
+  SMB2Packet create(SMB2CreateRequest req) {
+    String path = req.path.path
+    def response = new SMB2CreateResponse()
+    def handle = new Handle(path: path, deleteOnClose: req.createOptions.contains(SMB2CreateOptions.FILE_DELETE_ON_CLOSE))
+    lastCreated[Thread.currentThread()] = handle
+    if (!tree.containsKey(path)) {
+      response.header.statusCode = NtStatus.STATUS_OBJECT_NAME_NOT_FOUND.value
+    } else if (handle.deleteOnClose && failures.containsKey(path)) {
+      response.header.statusCode = failures[path].value
+    } else if (handle.deleteOnClose && tree[path] == DIRECTORY && tree.keySet().any { parent(it) == path }) {
+      response.header.statusCode = NtStatus.STATUS_DIRECTORY_NOT_EMPTY.value
+    } else {
+      byte[] persistent = new byte[8]
+      persistent[0] = (byte) ++fileIds
+      persistent[1] = (byte) (fileIds >> 8)
+      response.fileId = new SMB2FileId(persistent, new byte[8])
+      response.fileAttributes = EnumSet.of(tree[path] == FILE ? FileAttributes.FILE_ATTRIBUTE_NORMAL : FileAttributes.FILE_ATTRIBUTE_DIRECTORY)
+      response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+      handle.open = true
+      handles[response.fileId.toString()] = handle
+    }
+    response
+  }
+
+  SMB2Packet queryDirectory(SMB2QueryDirectoryRequest req) {
+    def handle = handles[req.fileId.toString()]
+    def response = new SMB2QueryDirectoryResponse()
+    if (handle.listed) {
+      response.header.statusCode = NtStatus.STATUS_NO_MORE_FILES.value
+      return response
+    }
+    handle.listed = true
+    int listing = listings.getOrDefault(handle.path, 0) + 1
+    listings[handle.path] = listing
+    def names = [".", ".."]
+    def types = [DIRECTORY, DIRECTORY]
+    tree.each { path, type ->
+      if (parent(path) == handle.path && listing > skipped.getOrDefault(path, 0)) {
+        names << path.substring(path.lastIndexOf('\\') + 1)
+        types << type
+      }
+    }
+    response.outputBuffer = page(names, types)
+    response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    response
+  }
+
+  SMB2Packet close(SMB2Close req) {
+    def handle = req.fileId.toString() == new SMB2FileId().toString() ? lastCreated[Thread.currentThread()] : handles.remove(req.fileId.toString())
+    def response = new SMB2Close()
+    if (!handle.open) {
+      // The CREATE of a related CLOSE failed, so does the CLOSE
+      response.header.statusCode = NtStatus.STATUS_FILE_CLOSED.value
+      return response
+    }
+    if (handle.deleteOnClose) {
+      tree.remove(handle.path)
+      deleted << handle.path
+    }
+    response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    response
+  }
+
+  /**
+   * FileDirectoryInformation entries ([MS-FSCC] 2.4.10), each aligned on an 8-byte boundary.
+   */
+  private static byte[] page(List<String> names, List<String> types) {
+    def buffer = new SMBBuffer()
+    for (int i = 0; i < names.size(); i++) {
+      byte[] name = names[i].getBytes(StandardCharsets.UTF_16LE)
+      int length = 64 + name.length
+      int nextEntryOffset = i < names.size() - 1 ? (length + 7) & ~7 : 0
+      long attributes = types[i] == FILE ? FileAttributes.FILE_ATTRIBUTE_NORMAL.value : FileAttributes.FILE_ATTRIBUTE_DIRECTORY.value
+      if (types[i] == JUNCTION) {
+        attributes |= FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT.value
+      }
+      buffer.putUInt32(nextEntryOffset) // NextEntryOffset (4 bytes)
+      buffer.putUInt32(0) // FileIndex (4 bytes)
+      buffer.putRawBytes(new byte[48]) // CreationTime, LastAccessTime, LastWriteTime, ChangeTime, EndOfFile, AllocationSize (8 bytes each)
+      buffer.putUInt32(attributes) // FileAttributes (4 bytes)
+      buffer.putUInt32(name.length) // FileNameLength (4 bytes)
+      buffer.putRawBytes(name) // FileName (variable)
+      if (nextEntryOffset > 0) {
+        buffer.putRawBytes(new byte[nextEntryOffset - length])
+      }
+    }
+    buffer.compactData
+  }
+
+  private static String parent(String path) {
+    int i = path.lastIndexOf('\\')
+    i < 0 ? "" : path.substring(0, i)
+  }
+
+  private static class Handle {
+    String path
+    boolean deleteOnClose
+    boolean open
+    boolean listed
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.share
+
+import com.hierynomus.mserref.NtStatus
+import com.hierynomus.msfscc.FileAttributes
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation
+import com.hierynomus.mssmb2.SMB2FileId
+import com.hierynomus.mssmb2.SMB2Packet
+import com.hierynomus.mssmb2.SMBApiException
+import com.hierynomus.mssmb2.messages.SMB2Close
+import com.hierynomus.mssmb2.messages.SMB2CreateRequest
+import com.hierynomus.mssmb2.messages.SMB2CreateResponse
+import com.hierynomus.mssmb2.messages.SMB2QueryDirectoryRequest
+import com.hierynomus.mssmb2.messages.SMB2QueryDirectoryResponse
+import com.hierynomus.smb.SMBBuffer
+import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.auth.AuthenticationContext
+import com.hierynomus.smbj.connection.BasicPacketProcessor
+import com.hierynomus.smbj.connection.Connection
+import com.hierynomus.smbj.connection.StubAuthenticator
+import com.hierynomus.smbj.connection.StubTransportLayerFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Walks trees on a share that is kept in memory. Every path is mapped to whether it is a directory, the entries of a
+ * directory are the paths directly under it.
+ */
+class TreeWalkerSpec extends Specification {
+  private Connection connection
+  private Map<String, Boolean> tree = [
+    "dir"                 : true,
+    "dir\\a"              : false,
+    "dir\\sub"            : true,
+    "dir\\sub\\b"         : false,
+    "dir\\sub\\deeper"    : true,
+    "dir\\sub\\deeper\\c" : false,
+    "dir\\pruned"         : true,
+    "dir\\pruned\\d"      : false
+  ]
+  // The directories that are symbolic links or junctions
+  private Set<String> reparsePoints = []
+  // The status that is returned when the path is opened
+  private Map<String, NtStatus> failures = [:]
+  // The directories that are listed, each of which is opened once
+  private Set<String> listed = ConcurrentHashMap.newKeySet()
+
+  private Set<String> directories = ConcurrentHashMap.newKeySet()
+  private Set<String> files = ConcurrentHashMap.newKeySet()
+  private Map<String, Long> failed = new ConcurrentHashMap<>()
+  private Closure onFile = { String path -> files << path }
+  private boolean followReparsePoints = false
+  private TreeVisitor visitor = [
+    preVisitDirectory   : { String path, FileIdBothDirectoryInformation information ->
+      directories << path
+      path != "dir\\pruned"
+    },
+    visitFile           : { String path, FileIdBothDirectoryInformation information -> onFile.call(path) },
+    visitDirectoryFailed: { String path, SMBApiException e -> failed[path] = e.statusCode },
+    followReparsePoints : { -> followReparsePoints }
+  ] as TreeVisitor
+
+  def cleanup() {
+    connection.close()
+  }
+
+  def "should visit the entries of the subdirectories that are not pruned"() {
+    given:
+    def share = connectShare()
+
+    when:
+    share.walk("dir", visitor, 2)
+
+    then:
+    directories == ["dir\\sub", "dir\\sub\\deeper", "dir\\pruned"] as Set
+    files == ["dir\\a", "dir\\sub\\b", "dir\\sub\\deeper\\c"] as Set
+    // The . and .. entries are neither visited nor listed
+    listed == ["dir", "dir\\sub", "dir\\sub\\deeper"] as Set
+    failed.isEmpty()
+  }
+
+  def "should report a subdirectory that cannot be opened and visit the rest of the tree"() {
+    given:
+    failures["dir\\sub"] = NtStatus.STATUS_ACCESS_DENIED
+    def share = connectShare()
+
+    when:
+    share.walk("dir", visitor, 2)
+
+    then:
+    failed == ["dir\\sub": NtStatus.STATUS_ACCESS_DENIED.value]
+    files == ["dir\\a"] as Set
+    listed == ["dir"] as Set
+  }
+
+  @Unroll
+  def "should #action a directory that is a reparse point if the visitor #opts"() {
+    given:
+    tree["dir\\link"] = true
+    tree["dir\\link\\e"] = false
+    reparsePoints << "dir\\link"
+    followReparsePoints = follow
+    def share = connectShare()
+
+    when:
+    share.walk("dir", visitor, 2)
+
+    then:
+    listed.contains("dir\\link") == follow
+    directories.contains("dir\\link") == follow
+    files.contains("dir\\link") == !follow
+    files.contains("dir\\link\\e") == follow
+
+    where:
+    action     | opts                   | follow
+    "not list" | "does not follow them" | false
+    "list"     | "follows them"         | true
+  }
+
+  def "should throw when the directory to walk cannot be opened"() {
+    given:
+    def share = connectShare()
+
+    when:
+    share.walk("missing", visitor, 2)
+
+    then:
+    def e = thrown(SMBApiException)
+    e.statusCode == NtStatus.STATUS_OBJECT_NAME_NOT_FOUND.value
+    failed.isEmpty()
+  }
+
+  def "should stop the walk and rethrow an exception of the visitor"() {
+    given:
+    def failure = new IllegalStateException("visitor failed")
+    onFile = { String path ->
+      if (path == "dir\\sub\\b") {
+        throw failure
+      }
+      files << path
+    }
+    def share = connectShare()
+
+    when:
+    share.walk("dir", visitor, 1)
+
+    then:
+    def e = thrown(IllegalStateException)
+    e.is(failure)
+    // The directory under the one that failed is not listed anymore
+    !listed.contains("dir\\sub\\deeper")
+  }
+
+  @Unroll
+  def "should stop its threads when the walk #outcome"() {
+    given:
+    if (fails) {
+      onFile = { String path -> throw new IllegalStateException("visitor failed") }
+    }
+    def share = connectShare()
+
+    when:
+    try {
+      share.walk("dir", visitor, 4)
+    } catch (IllegalStateException ignored) {
+    }
+
+    then:
+    new PollingConditions(timeout: 5).eventually {
+      assert Thread.allStackTraces.keySet().findAll { it.name.startsWith("Tree Walker") }.isEmpty()
+    }
+
+    where:
+    outcome     | fails
+    "completes" | false
+    "fails"     | true
+  }
+
+  private DiskShare connectShare() {
+    def responder = new BasicPacketProcessor({ req ->
+      req = req.packet
+      if (req instanceof SMB2CreateRequest) {
+        return create(req.path.path)
+      }
+      if (req instanceof SMB2QueryDirectoryRequest) {
+        return queryDirectory(new String(req.fileId.persistentHandle, StandardCharsets.UTF_8))
+      }
+      if (req instanceof SMB2Close) {
+        def response = new SMB2Close()
+        response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+        return response
+      }
+      null
+    })
+    def config = SmbConfig.builder()
+      .withDfsEnabled(false)
+      .withTransportLayerFactory(new StubTransportLayerFactory(responder.&processPacket))
+      .withAuthenticators(new StubAuthenticator.Factory())
+      .build()
+    connection = new SMBClient(config).connect("127.0.0.1")
+    def session = connection.authenticate(new AuthenticationContext("username", "password".toCharArray(), "domain.com"))
+    session.connectShare("share") as DiskShare
+  }
+
+  SMB2Packet create(String path) {
+    def response = new SMB2CreateResponse()
+    if (!tree.containsKey(path)) {
+      response.header.statusCode = NtStatus.STATUS_OBJECT_NAME_NOT_FOUND.value
+    } else if (failures.containsKey(path)) {
+      response.header.statusCode = failures[path].value
+    } else {
+      // The path is the FileId
+      response.fileId = new SMB2FileId(path.getBytes(StandardCharsets.UTF_8), new byte[0])
+      response.fileAttributes = EnumSet.of(tree[path] ? FileAttributes.FILE_ATTRIBUTE_DIRECTORY : FileAttributes.FILE_ATTRIBUTE_NORMAL)
+      response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    }
+    response
+  }
+
+  /**
+   * All entries of the directory in one page, after which STATUS_NO_MORE_FILES is returned.
+   */
+  SMB2Packet queryDirectory(String path) {
+    def response = new SMB2QueryDirectoryResponse()
+    if (!listed.add(path)) {
+      response.header.statusCode = NtStatus.STATUS_NO_MORE_FILES.value
+      return response
+    }
+    def directory = FileAttributes.FILE_ATTRIBUTE_DIRECTORY.value
+    def entries = [".": directory, "..": directory]
+    tree.each { child, isDirectory ->
+      if (child.startsWith(path + "\\") && child.indexOf('\\', path.length() + 1) < 0) {
+        def attributes = isDirectory ? directory : FileAttributes.FILE_ATTRIBUTE_NORMAL.value
+        if (reparsePoints.contains(child)) {
+          attributes |= FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT.value
+        }
+        entries[child.substring(path.length() + 1)] = attributes
+      }
+    }
+    response.outputBuffer = page(entries)
+    response.header.statusCode = NtStatus.STATUS_SUCCESS.value
+    response
+  }
+
+  /**
+   * FileIdBothDirectoryInformation entries ([MS-FSCC] 2.4.17), each aligned on an 8-byte boundary.
+   */
+  private static byte[] page(Map<String, Long> entries) {
+    def buffer = new SMBBuffer()
+    entries.eachWithIndex { String entry, long attributes, int i ->
+      byte[] name = entry.getBytes(StandardCharsets.UTF_16LE)
+      int length = 104 + name.length
+      int nextEntryOffset = i < entries.size() - 1 ? (length + 7) & ~7 : 0
+      buffer.putUInt32(nextEntryOffset) // NextEntryOffset (4 bytes)
+      buffer.putUInt32(0) // FileIndex (4 bytes)
+      buffer.putRawBytes(new byte[48]) // CreationTime, LastAccessTime, LastWriteTime, ChangeTime, EndOfFile, AllocationSize (8 bytes each)
+      buffer.putUInt32(attributes) // FileAttributes (4 bytes)
+      buffer.putUInt32(name.length) // FileNameLength (4 bytes)
+      buffer.putUInt32(0) // EaSize (4 bytes)
+      buffer.putRawBytes(new byte[28]) // ShortNameLength (1 byte), Reserved1 (1 byte), ShortName (24 bytes), Reserved2 (2 bytes)
+      buffer.putRawBytes(new byte[8]) // FileId (8 bytes)
+      buffer.putRawBytes(name) // FileName (variable)
+      if (nextEntryOffset > 0) {
+        buffer.putRawBytes(new byte[nextEntryOffset - length])
+      }
+    }
+    buffer.compactData
+  }
+}
@@ -15,13 +15,27 @@
  */
 package com.hierynomus.smbj.transport.tcp.async
 
+import com.hierynomus.mssmb2.SMB2Dialect
+import com.hierynomus.mssmb2.SMB2FileId
+import com.hierynomus.mssmb2.SMB2PacketHeader
+import com.hierynomus.mssmb2.messages.SMB2WriteRequest
+import com.hierynomus.protocol.transport.PacketFactory
+import com.hierynomus.protocol.transport.PacketHandlers
+import com.hierynomus.protocol.transport.PacketReceiver
 import com.hierynomus.smbj.SMBClient
 import com.hierynomus.smbj.SmbConfig
+import com.hierynomus.smbj.connection.SMBPacketSerializer
+import com.hierynomus.smbj.io.ArrayByteChunkProvider
 import com.hierynomus.smbj.server.StubSmbServer
 import spock.lang.Shared
 import spock.lang.Specification
 
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
 class AsyncDirectTcpTransportSpec extends Specification {
+  // The payload of a WRITE request follows the SMB2 header and the 48 bytes of its fixed part
+  private static final int DATA_OFFSET = SMB2PacketHeader.STRUCTURE_SIZE + 48
 
   @Shared
   def config = SmbConfig.builder().withTransportLayerFactory(new AsyncDirectTcpTransportFactory()).build()
@@ -50,4 +64,86 @@ class AsyncDirectTcpTransportSpec extends Specification {
     connection.isConnected()
     connection.close()
   }
+
+  def "should send the Direct TCP header and the packet as one frame"() {
+    given:
+    def serverSocket = new ServerSocket(0, 1, InetAddress.loopbackAddress)
+    def transport = connectTransport(serverSocket)
+    def socket = serverSocket.accept()
+    def expected = new SMBPacketSerializer().write(writeRequest(1)).compactData
+
+    when:
+    transport.write(writeRequest(1))
+    def frame = readFrame(new DataInputStream(socket.inputStream))
+
+    then:
+    frame == expected
+
+    cleanup:
+    transport.disconnect()
+    socket.close()
+    serverSocket.close()
+  }
+
+  def "should not interleave the frames of packets that are written concurrently"() {
+    given:
+    def serverSocket = new ServerSocket(0, 1, InetAddress.loopbackAddress)
+    def transport = connectTransport(serverSocket)
+    def socket = serverSocket.accept()
+
+    when:
+    def writers = (0..<4).collect { int thread ->
+      Thread.start {
+        (0..<8).each { transport.write(writeRequest(thread * 8 + it)) }
+      }
+    }
+    def input = new DataInputStream(socket.inputStream)
+    def frames = (0..<32).collect { readFrame(input) }
+    writers*.join()
+
+    then:
+    frames.collect { messageId(it) } as Set == (0L..<32L) as Set
+    frames.every { byte[] frame ->
+      long messageId = messageId(frame)
+      frame.length == DATA_OFFSET + 2 * 65536 &&
+        (DATA_OFFSET..<frame.length).every { frame[it] == (byte) messageId }
+    }
+
+    cleanup:
+    transport.disconnect()
+    socket.close()
+    serverSocket.close()
+  }
+
+  private AsyncDirectTcpTransport connectTransport(ServerSocket serverSocket) {
+    def handlers = new PacketHandlers(new SMBPacketSerializer(), Mock(PacketReceiver), Mock(PacketFactory))
+    def transport = new AsyncDirectTcpTransport(0, handlers, null)
+    transport.connect(new InetSocketAddress(InetAddress.loopbackAddress, serverSocket.localPort))
+    transport
+  }
+
+  /**
+   * A WRITE request of two credits, with a payload of which every byte is the (lowest byte of the) message id.
+   */
+  private static SMB2WriteRequest writeRequest(long messageId) {
+    byte[] data = new byte[2 * 65536]
+    Arrays.fill(data, (byte) messageId)
+    def request = new SMB2WriteRequest(SMB2Dialect.SMB_2_1, new SMB2FileId(new byte[8], new byte[8]), 1, 1, new ArrayByteChunkProvider(data, 0), data.length)
+    request.creditsAssigned = 2
+    request.header.messageId = messageId
+    request
+  }
+
+  /**
+   * Read the packet of a frame, after its 4 byte Direct TCP header with the length of the packet.
+   */
+  private static byte[] readFrame(DataInputStream input) {
+    byte[] frame = new byte[input.readInt()]
+    input.readFully(frame)
+    frame
+  }
+
+  private static long messageId(byte[] frame) {
+    ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN).getLong(24) // MessageId of the SMB2 header
+  }
 }
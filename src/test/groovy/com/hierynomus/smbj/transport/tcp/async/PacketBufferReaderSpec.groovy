@@ -0,0 +1,49 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.transport.tcp.async
+
+import com.hierynomus.protocol.commons.buffer.SizeClassedBufferPool
+import spock.lang.Specification
+
+class PacketBufferReaderSpec extends Specification {
+
+  def "should read packets that arrive in parts into arrays taken from the pool"() {
+    given:
+    def pool = new SizeClassedBufferPool(4096, 2, 1)
+    def reader = new PacketBufferReader(pool)
+
+    when:
+    reader.buffer.put([0, 0, 0, 3, 1, 2] as byte[])
+    def incomplete = reader.readNext()
+    reader.buffer.put([3, 0, 0, 0, 2, 4, 5] as byte[])
+    def first = reader.readNext()
+    def second = reader.readNext()
+
+    then:
+    incomplete == null
+    first.size() == 3
+    Arrays.copyOf(first.array(), 3) == [1, 2, 3] as byte[]
+    second.size() == 2
+    Arrays.copyOf(second.array(), 2) == [4, 5] as byte[]
+    reader.readNext() == null
+
+    when:
+    first.release()
+
+    then:
+    pool.acquire(3).is(first.array())
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C)2016 - SMBJ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hierynomus.smbj.transport.tcp.direct
+
+import com.hierynomus.mssmb2.SMB2Dialect
+import com.hierynomus.mssmb2.SMB2FileId
+import com.hierynomus.mssmb2.SMB2PacketHeader
+import com.hierynomus.mssmb2.messages.SMB2WriteRequest
+import com.hierynomus.protocol.transport.PacketFactory
+import com.hierynomus.protocol.transport.PacketHandlers
+import com.hierynomus.protocol.transport.PacketReceiver
+import com.hierynomus.smbj.connection.SMBPacketSerializer
+import com.hierynomus.smbj.io.ArrayByteChunkProvider
+import spock.lang.Specification
+
+import javax.net.SocketFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class DirectTcpTransportSpec extends Specification {
+  // The payload of a WRITE request follows the SMB2 header and the 48 bytes of its fixed part
+  private static final int DATA_OFFSET = SMB2PacketHeader.STRUCTURE_SIZE + 48
+
+  ServerSocket serverSocket
+  DirectTcpTransport transport
+  Socket socket
+
+  def setup() {
+    serverSocket = new ServerSocket(0, 1, InetAddress.loopbackAddress)
+    def handlers = new PacketHandlers(new SMBPacketSerializer(), Mock(PacketReceiver), Mock(PacketFactory))
+    transport = new DirectTcpTransport(SocketFactory.default, 0, handlers)
+    transport.connect(new InetSocketAddress(InetAddress.loopbackAddress, serverSocket.localPort))
+    socket = serverSocket.accept()
+  }
+
+  def cleanup() {
+    transport.disconnect()
+    socket.close()
+    serverSocket.close()
+  }
+
+  def "should not interleave the frames of packets that are written from concurrent threads"() {
+    when:
+    def writers = (0..<4).collect { int thread ->
+      Thread.start {
+        (0..<8).each { transport.write(writeRequest(thread * 8 + it)) }
+      }
+    }
+    def input = new DataInputStream(socket.inputStream)
+    def frames = (0..<32).collect { readFrame(input) }
+    writers*.join()
+
+    then:
+    frames.collect { messageId(it) } as Set == (0L..<32L) as Set
+    frames.every { byte[] frame ->
+      long messageId = messageId(frame)
+      frame.length == DATA_OFFSET + 2 * 65536 &&
+        (DATA_OFFSET..<frame.length).every { frame[it] == (byte) messageId }
+    }
+  }
+
+  /**
+   * A WRITE request of two credits, with a payload of which every byte is the (lowest byte of the) message id.
+   */
+  private static SMB2WriteRequest writeRequest(long messageId) {
+    byte[] data = new byte[2 * 65536]
+    Arrays.fill(data, (byte) messageId)
+    def request = new SMB2WriteRequest(SMB2Dialect.SMB_2_1, new SMB2FileId(new byte[8], new byte[8]), 1, 1, new ArrayByteChunkProvider(data, 0), data.length)
+    request.creditsAssigned = 2
+    request.header.messageId = messageId
+    request
+  }
+
+  /**
+   * Read the packet of a frame, after its 4 byte Direct TCP header with the length of the packet.
+   */
+  private static byte[] readFrame(DataInputStream input) {
+    byte[] frame = new byte[input.readInt()]
+    input.readFully(frame)
+    frame
+  }
+
+  private static long messageId(byte[] frame) {
+    ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN).getLong(24) // MessageId of the SMB2 header
+  }
+}